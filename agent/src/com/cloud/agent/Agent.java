@@ -23,6 +23,7 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.channels.ClosedChannelException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Timer;
@@ -46,14 +47,17 @@ import com.cloud.agent.api.CronCommand;
 import com.cloud.agent.api.MaintainAnswer;
 import com.cloud.agent.api.MaintainCommand;
 import com.cloud.agent.api.ModifySshKeysCommand;
+import com.cloud.agent.api.PingAnswer;
 import com.cloud.agent.api.PingCommand;
 import com.cloud.agent.api.ReadyCommand;
 import com.cloud.agent.api.ShutdownCommand;
 import com.cloud.agent.api.StartupAnswer;
 import com.cloud.agent.api.StartupCommand;
 import com.cloud.agent.transport.Request;
+import com.cloud.agent.transport.RequestCodec;
 import com.cloud.agent.transport.Response;
 import com.cloud.exception.AgentControlChannelException;
+import com.cloud.exception.UnsupportedVersionException;
 import com.cloud.resource.ServerResource;
 import com.cloud.utils.PropertiesUtil;
 import com.cloud.utils.backoff.BackoffAlgorithm;
@@ -114,6 +118,8 @@ public class Agent implements HandlerFactory, IAgentControl {
     long                        _sequence             = 0;
     long                        _lastPingResponseTime = 0;
     long                        _pingInterval         = 0;
+    // codec chosen by the management server for our requests, GZIP until the startup answer says otherwise
+    volatile RequestCodec       _codec                = Request.getDefaultCodec();
     AtomicInteger               _inProgress           = new AtomicInteger();
 
     StartupTask                 _startup              = null;
@@ -235,6 +241,7 @@ public class Agent implements HandlerFactory, IAgentControl {
             try {
                 if (_link != null) {
                     Request req = new Request((_id != null ? _id : -1), -1, cmd, false);
+                    req.setCodec(_codec);
                     _link.send(req.toBytes());
                 }
             } catch (final ClosedChannelException e) {
@@ -281,6 +288,26 @@ public class Agent implements HandlerFactory, IAgentControl {
         }
     }
 
+    /**
+     * Moves the ping task to the interval the management server asked for.
+     */
+    protected void reschedulePing(final long interval) {
+        synchronized (_watchList) {
+            for (Iterator<WatchTask> it = _watchList.iterator(); it.hasNext();) {
+                final WatchTask task = it.next();
+                if (task._request instanceof Response) {
+                    s_logger.info("Changing ping interval from " + _pingInterval + " to " + interval + " ms");
+                    task.cancel();
+                    it.remove();
+                    _pingInterval = interval;
+                    scheduleWatch(task._link, task._request, interval, interval);
+                    _ugentTaskPool.setKeepAliveTime(2 * interval, TimeUnit.MILLISECONDS);
+                    break;
+                }
+            }
+        }
+    }
+
     protected void cancelTasks() {
         synchronized (_watchList) {
             for (final WatchTask task : _watchList) {
@@ -341,6 +368,8 @@ public class Agent implements HandlerFactory, IAgentControl {
         startup.setGuid(getResourceGuid());
         startup.setResourceName(getResourceName());
         startup.setVersion(getVersion());
+        startup.setRequestCodecs(Request.getCodecIds());
+        startup.setBatchedPackets(true);
     }
 
     @Override
@@ -364,6 +393,7 @@ public class Agent implements HandlerFactory, IAgentControl {
 
         setLink(null);
         cancelTasks();
+        _codec = Request.getDefaultCodec();
 
         _resource.disconnected();
 
@@ -423,6 +453,12 @@ public class Agent implements HandlerFactory, IAgentControl {
 
         setId(startup.getHostId());
         _pingInterval = startup.getPingInterval() * 1000; // change to ms.
+        try {
+            _codec = Request.getCodec(startup.getRequestCodec());
+        } catch (UnsupportedVersionException e) {
+            s_logger.warn("Server chose a request codec we don't have, staying on " + _codec.getClass().getSimpleName(), e);
+        }
+        link.setBatching(startup.isBatchedPackets());
 
         setLastPingResponseTime();
         scheduleWatch(link, response, _pingInterval, _pingInterval);
@@ -555,6 +591,12 @@ public class Agent implements HandlerFactory, IAgentControl {
             }
         } else {
             setLastPingResponseTime();
+            if (answer instanceof PingAnswer) {
+                final long interval = ((PingAnswer) answer).getPingInterval() * 1000L;
+                if (interval > 0 && interval != _pingInterval) {
+                    reschedulePing(interval);
+                }
+            }
         }
     }
     
@@ -584,6 +626,7 @@ public class Agent implements HandlerFactory, IAgentControl {
             final PingCommand ping = _resource.getCurrentStatus(getId());
             final Request request = new Request(_id, -1, ping, false);
             request.setSequence(getNextSequence());
+            request.setCodec(_codec);
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Sending ping: " + request.toString());
             }
@@ -678,6 +721,7 @@ public class Agent implements HandlerFactory, IAgentControl {
 
     private void postRequest(Request request) throws AgentControlChannelException {
         if (_link != null) {
+            request.setCodec(_codec);
             try {
                 _link.send(request.toBytes());
             } catch (final ClosedChannelException e) {
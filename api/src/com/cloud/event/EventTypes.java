@@ -749,6 +749,17 @@ public class EventTypes {
         entityEventDetails.put(EVENT_DEDICATED_GUEST_VLAN_RANGE_RELEASE, GuestVlan.class.getName());
     }
 
+    /**
+     * @return the fully qualified name of the entity class the event is about, null if the event is not about an entity
+     */
+    public static String getEntityClassForEvent(String eventName) {
+        String entityClassName = entityEventDetails.get(eventName);
+        if (entityClassName == null || entityClassName.isEmpty()) {
+            return null;
+        }
+        return entityClassName;
+    }
+
     public static String getEntityForEvent (String eventName) {
         String entityClassName = entityEventDetails.get(eventName);
         if (entityClassName == null || entityClassName.isEmpty()) {
@@ -23,6 +23,7 @@ import org.apache.cloudstack.api.command.admin.cluster.DeleteClusterCmd;
 import org.apache.cloudstack.api.command.admin.host.AddHostCmd;
 import org.apache.cloudstack.api.command.admin.host.AddSecondaryStorageCmd;
 import org.apache.cloudstack.api.command.admin.host.CancelMaintenanceCmd;
+import org.apache.cloudstack.api.command.admin.host.ListHostRebalancePlanCmd;
 import org.apache.cloudstack.api.command.admin.host.PrepareForMaintenanceCmd;
 import org.apache.cloudstack.api.command.admin.host.ReconnectHostCmd;
 import org.apache.cloudstack.api.command.admin.host.UpdateHostCmd;
@@ -32,8 +33,10 @@ import com.cloud.exception.DiscoveryException;
 import com.cloud.exception.InvalidParameterValueException;
 import com.cloud.exception.ResourceInUseException;
 import com.cloud.host.Host;
+import com.cloud.host.HostRebalancePlan;
 import com.cloud.hypervisor.Hypervisor.HypervisorType;
 import com.cloud.org.Cluster;
+import com.cloud.utils.Pair;
 import com.cloud.utils.fsm.NoTransitionException;
 
 public interface ResourceService {
@@ -94,4 +97,13 @@ public interface ResourceService {
 
     boolean releaseHostReservation(Long hostId);
 
+    /**
+     * Dry run of the consistent hash agent rebalancing: lists the hosts whose
+     * cluster would move to another management server if the ring were
+     * applied now.
+     *
+     * @return the requested page of the plan and the number of hosts in the whole plan
+     */
+    Pair<List<? extends HostRebalancePlan>, Integer> listHostRebalancePlan(ListHostRebalancePlanCmd cmd);
+
 }
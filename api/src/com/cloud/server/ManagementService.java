@@ -33,6 +33,7 @@ import org.apache.cloudstack.api.command.admin.resource.ArchiveAlertsCmd;
 import org.apache.cloudstack.api.command.admin.resource.DeleteAlertsCmd;
 import org.apache.cloudstack.api.command.admin.resource.ListAlertsCmd;
 import org.apache.cloudstack.api.command.admin.resource.ListCapacityCmd;
+import org.apache.cloudstack.api.command.admin.resource.ListStatsHistoryCmd;
 import org.apache.cloudstack.api.command.admin.resource.UploadCustomCertificateCmd;
 import org.apache.cloudstack.api.command.admin.systemvm.*;
 import org.apache.cloudstack.api.command.admin.vlan.ListVlanIpRangesCmd;
@@ -207,6 +208,14 @@ public interface ManagementService {
      */
     List<? extends Capacity> listCapacities(ListCapacityCmd cmd);
 
+    /**
+     * list the statistics samples kept in memory for a host, virtual machine or storage pool
+     *
+     * @param cmd
+     * @return List of samples, oldest first
+     */
+    List<? extends StatsSample> listStatsHistory(ListStatsHistoryCmd cmd);
+
 
     /**
      * List system VMs by the given search criteria
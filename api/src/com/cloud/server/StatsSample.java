@@ -0,0 +1,55 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.Date;
+
+public interface StatsSample {
+    enum ResourceType {
+        Host, VirtualMachine, StoragePool
+    }
+
+    ResourceType getResourceType();
+
+    long getResourceId();
+
+    Date getTimestamp();
+
+    // the metrics below are null when they don't apply to the resource type
+
+    Double getCpuUtilization();
+
+    Double getMemoryUsed();
+
+    Double getMemoryFreeKBs();
+
+    Double getNetworkReadKBs();
+
+    Double getNetworkWriteKBs();
+
+    Double getDiskReadKBs();
+
+    Double getDiskWriteKBs();
+
+    Double getDiskReadIOs();
+
+    Double getDiskWriteIOs();
+
+    Double getStorageUsedBytes();
+
+    Double getStorageCapacityBytes();
+}
@@ -22,6 +22,7 @@ public abstract class BaseListCmd extends BaseCmd {
 
     private static Long MAX_PAGESIZE = null;
     public static Long PAGESIZE_UNLIMITED = -1L;
+    private static final String PAGE_TOKEN_PREFIX = "k";
 
     // ///////////////////////////////////////////////////
     // ///////// BaseList API parameters /////////////////
@@ -37,6 +38,11 @@ public abstract class BaseListCmd extends BaseCmd {
     @Parameter(name = ApiConstants.PAGE_SIZE, type = CommandType.INTEGER)
     private Integer pageSize;
 
+    @Parameter(name = ApiConstants.PAGE_TOKEN, type = CommandType.STRING, description = "the nextpagetoken returned with the previous page. "
+            + "Continues the listing right after that page instead of skipping the rows of the previous pages. "
+            + "Only supported by listVirtualMachines and listVolumes")
+    private String pageToken;
+
     // ///////////////////////////////////////////////////
     // ///////////////// Accessors ///////////////////////
     // ///////////////////////////////////////////////////
@@ -80,6 +86,48 @@ public abstract class BaseListCmd extends BaseCmd {
         return 0;
     }
 
+    public String getPageToken() {
+        if (pageToken != null && page != null) {
+            throw new InvalidParameterValueException("Can't specify both page and pagetoken parameters");
+        }
+        return pageToken;
+    }
+
+    /**
+     * @return the id of the last item of the previous page, as carried by
+     *         the page token; null if no page token was given.
+     */
+    public Long getPageTokenId() {
+        String token = getPageToken();
+        if (token == null) {
+            return null;
+        }
+        return decodePageToken(token);
+    }
+
+    /**
+     * @return whether the command continues a listing from a page token;
+     *         the others refuse the pagetoken parameter.
+     */
+    public boolean isPageTokenSupported() {
+        return false;
+    }
+
+    public static String encodePageToken(long lastId) {
+        return PAGE_TOKEN_PREFIX + Long.toString(lastId, Character.MAX_RADIX);
+    }
+
+    public static long decodePageToken(String token) {
+        if (token.startsWith(PAGE_TOKEN_PREFIX)) {
+            try {
+                return Long.parseLong(token.substring(PAGE_TOKEN_PREFIX.length()), Character.MAX_RADIX);
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+        }
+        throw new InvalidParameterValueException("Invalid page token " + token);
+    }
+
     public Long getPageSizeVal() {
         Long defaultPageSize = MAX_PAGESIZE;
         Integer pageSizeInt = getPageSize();
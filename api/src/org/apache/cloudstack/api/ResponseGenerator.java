@@ -91,6 +91,7 @@ import org.apache.cloudstack.api.response.SnapshotPolicyResponse;
 import org.apache.cloudstack.api.response.SnapshotResponse;
 import org.apache.cloudstack.api.response.SnapshotScheduleResponse;
 import org.apache.cloudstack.api.response.StaticRouteResponse;
+import org.apache.cloudstack.api.response.StatsSampleResponse;
 import org.apache.cloudstack.api.response.StorageNetworkIpRangeResponse;
 import org.apache.cloudstack.api.response.StoragePoolResponse;
 import org.apache.cloudstack.api.response.SystemVmInstanceResponse;
@@ -171,6 +172,7 @@ import com.cloud.projects.ProjectAccount;
 import com.cloud.projects.ProjectInvitation;
 import com.cloud.region.ha.GlobalLoadBalancerRule;
 import com.cloud.server.ResourceTag;
+import com.cloud.server.StatsSample;
 import com.cloud.storage.GuestOS;
 import com.cloud.storage.ImageStore;
 import com.cloud.storage.Snapshot;
@@ -209,6 +211,13 @@ public interface ResponseGenerator {
 
     SnapshotResponse createSnapshotResponse(Snapshot snapshot);
 
+    /**
+     * Loads what the responses of the given snapshots refer to in bulk, so
+     * that creating them one by one afterwards does not query the database
+     * for each snapshot.  Only has an effect while a list API is dispatched.
+     */
+    void prefetchSnapshotResponses(List<? extends Snapshot> snapshots);
+
     SnapshotPolicyResponse createSnapshotPolicyResponse(SnapshotPolicy policy);
 
     List<UserVmResponse> createUserVmResponse(String objectName, UserVm... userVms);
@@ -231,6 +240,8 @@ public interface ResponseGenerator {
 
     IPAddressResponse createIPAddressResponse(IpAddress ipAddress);
 
+    void prefetchIPAddressResponses(List<? extends IpAddress> ipAddresses);
+
     GuestVlanRangeResponse createDedicatedGuestVlanRangeResponse(GuestVlan result);
 
     GlobalLoadBalancerResponse createGlobalLoadBalancerResponse(GlobalLoadBalancerRule globalLoadBalancerRule);
@@ -262,6 +273,8 @@ public interface ResponseGenerator {
 
     FirewallRuleResponse createPortForwardingRuleResponse(PortForwardingRule fwRule);
 
+    void prefetchPortForwardingRuleResponses(List<? extends PortForwardingRule> fwRules);
+
     IpForwardingRuleResponse createIpForwardingRuleResponse(StaticNatRule fwRule);
 
     User findUserById(Long userId);
@@ -308,6 +321,8 @@ public interface ResponseGenerator {
 
     List<CapacityResponse> createCapacityResponse(List<? extends Capacity> result, DecimalFormat format);
 
+    List<StatsSampleResponse> createStatsSampleResponse(List<? extends StatsSample> samples);
+
     TemplatePermissionsResponse createTemplatePermissionsResponse(List<String> accountNames, Long id, boolean isAdmin);
 
     AsyncJobResponse queryJobResult(QueryAsyncJobResultCmd cmd);
@@ -316,6 +331,8 @@ public interface ResponseGenerator {
 
     NetworkResponse createNetworkResponse(Network network);
 
+    void prefetchNetworkResponses(List<? extends Network> networks);
+
     UserResponse createUserResponse(User user);
 
     //List<UserResponse> createUserResponse(UserAccountJoinVO... users);
@@ -335,6 +352,8 @@ public interface ResponseGenerator {
 
     FirewallResponse createFirewallResponse(FirewallRule fwRule);
 
+    void prefetchFirewallResponses(List<? extends FirewallRule> fwRules);
+
     HypervisorCapabilitiesResponse createHypervisorCapabilitiesResponse(HypervisorCapabilities hpvCapabilities);
 
     ProjectAccountResponse createProjectAccountResponse(ProjectAccount projectAccount);
@@ -0,0 +1,74 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.api.command.admin.host;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cloudstack.api.APICommand;
+import org.apache.cloudstack.api.BaseListCmd;
+import org.apache.cloudstack.api.response.HostRebalancePlanResponse;
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.log4j.Logger;
+
+import com.cloud.host.HostRebalancePlan;
+import com.cloud.org.Cluster;
+import com.cloud.utils.Pair;
+
+@APICommand(name = "listHostRebalancePlan", description = "Lists the hosts the consistent hash agent load balancer would move to another management server, without moving them.", responseObject = HostRebalancePlanResponse.class, since = "4.3.0")
+public class ListHostRebalancePlanCmd extends BaseListCmd {
+    public static final Logger s_logger = Logger.getLogger(ListHostRebalancePlanCmd.class.getName());
+
+    private static final String s_name = "listhostrebalanceplanresponse";
+
+    /////////////////////////////////////////////////////
+    /////////////// API Implementation///////////////////
+    /////////////////////////////////////////////////////
+
+    @Override
+    public String getCommandName() {
+        return s_name;
+    }
+
+    @Override
+    public void execute() {
+        Pair<List<? extends HostRebalancePlan>, Integer> plan = _resourceService.listHostRebalancePlan(this);
+        ListResponse<HostRebalancePlanResponse> response = new ListResponse<HostRebalancePlanResponse>();
+        List<HostRebalancePlanResponse> planResponses = new ArrayList<HostRebalancePlanResponse>();
+
+        for (HostRebalancePlan transfer : plan.first()) {
+            HostRebalancePlanResponse planResponse = new HostRebalancePlanResponse();
+            planResponse.setHostId(transfer.getHostUuid());
+            planResponse.setHostName(transfer.getHostName());
+            if (transfer.getClusterId() != null) {
+                Cluster cluster = _entityMgr.findById(Cluster.class, transfer.getClusterId());
+                if (cluster != null) {
+                    planResponse.setClusterId(cluster.getUuid());
+                }
+            }
+            planResponse.setCurrentManagementServerId(transfer.getCurrentOwner());
+            planResponse.setPlannedManagementServerId(transfer.getPlannedOwner());
+            planResponse.setCommandRate(transfer.getCommandRate());
+            planResponse.setObjectName("hostrebalanceplan");
+            planResponses.add(planResponse);
+        }
+
+        response.setResponses(planResponses, plan.second());
+        response.setResponseName(getCommandName());
+        setResponseObject(response);
+    }
+}
@@ -22,6 +22,7 @@ import java.util.List;
 import org.apache.cloudstack.api.APICommand;
 import org.apache.cloudstack.api.ApiConstants;
 import org.apache.cloudstack.api.BaseListCmd;
+import org.apache.cloudstack.api.CacheableResponse;
 import org.apache.cloudstack.api.Parameter;
 import org.apache.cloudstack.api.response.CapacityResponse;
 import org.apache.cloudstack.api.response.ClusterResponse;
@@ -31,9 +32,15 @@ import org.apache.cloudstack.api.response.ZoneResponse;
 import org.apache.log4j.Logger;
 
 import com.cloud.capacity.Capacity;
+import com.cloud.dc.DataCenter;
+import com.cloud.dc.Pod;
 import com.cloud.exception.InvalidParameterValueException;
+import com.cloud.host.Host;
+import com.cloud.storage.Volume;
+import com.cloud.vm.VirtualMachine;
 
 @APICommand(name = "listCapacity", description="Lists all the system wide capacities.", responseObject=CapacityResponse.class)
+@CacheableResponse(invalidatedBy = {DataCenter.class, Pod.class, Host.class, VirtualMachine.class, Volume.class})
 public class ListCapacityCmd extends BaseListCmd {
 
     public static final Logger s_logger = Logger.getLogger(ListCapacityCmd.class.getName());
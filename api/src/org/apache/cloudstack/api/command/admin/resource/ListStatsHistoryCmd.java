@@ -0,0 +1,146 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.api.command.admin.resource;
+
+import java.util.Date;
+import java.util.List;
+
+import org.apache.cloudstack.api.APICommand;
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.BaseListCmd;
+import org.apache.cloudstack.api.Parameter;
+import org.apache.cloudstack.api.response.HostResponse;
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.StatsSampleResponse;
+import org.apache.cloudstack.api.response.StoragePoolResponse;
+import org.apache.cloudstack.api.response.UserVmResponse;
+import org.apache.log4j.Logger;
+
+import com.cloud.exception.InvalidParameterValueException;
+import com.cloud.server.StatsSample;
+import com.cloud.server.StatsSample.ResourceType;
+
+@APICommand(name = "listStatsHistory", description="Lists the recent statistics samples kept in memory for a host, virtual machine or storage pool.",
+        responseObject=StatsSampleResponse.class, since="4.3.0")
+public class ListStatsHistoryCmd extends BaseListCmd {
+
+    public static final Logger s_logger = Logger.getLogger(ListStatsHistoryCmd.class.getName());
+
+    private static final String s_name = "liststatshistoryresponse";
+
+    /////////////////////////////////////////////////////
+    //////////////// API parameters /////////////////////
+    /////////////////////////////////////////////////////
+
+    @Parameter(name=ApiConstants.HOST_ID, type=CommandType.UUID, entityType = HostResponse.class,
+            description="lists statistics history of the host")
+    private Long hostId;
+
+    @Parameter(name=ApiConstants.VIRTUAL_MACHINE_ID, type=CommandType.UUID, entityType = UserVmResponse.class,
+            description="lists statistics history of the virtual machine")
+    private Long virtualMachineId;
+
+    @Parameter(name=ApiConstants.STORAGE_ID, type=CommandType.UUID, entityType = StoragePoolResponse.class,
+            description="lists statistics history of the primary storage pool")
+    private Long storageId;
+
+    @Parameter(name=ApiConstants.START_DATE, type=CommandType.DATE, description="only return samples taken on or after" +
+            " this date (use format \"yyyy-MM-dd\" or the new format \"yyyy-MM-ddThh:mm:ss\")")
+    private Date startDate;
+
+    @Parameter(name=ApiConstants.END_DATE, type=CommandType.DATE, description="only return samples taken on or before" +
+            " this date (use format \"yyyy-MM-dd\" or the new format \"yyyy-MM-ddThh:mm:ss\")")
+    private Date endDate;
+
+    @Parameter(name=ApiConstants.INTERVAL, type=CommandType.INTEGER, description="the sample resolution in minutes; values" +
+            " smaller than stats.history.coarse.interval return the raw samples, larger ones the averaged samples." +
+            " If omitted, the finest resolution that covers the requested range is used")
+    private Integer interval;
+
+    /////////////////////////////////////////////////////
+    /////////////////// Accessors ///////////////////////
+    /////////////////////////////////////////////////////
+
+    public Long getHostId() {
+        return hostId;
+    }
+
+    public Long getVirtualMachineId() {
+        return virtualMachineId;
+    }
+
+    public Long getStorageId() {
+        return storageId;
+    }
+
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    public Date getEndDate() {
+        return endDate;
+    }
+
+    public Integer getInterval() {
+        return interval;
+    }
+
+    public ResourceType getResourceType() {
+        int specified = (hostId != null ? 1 : 0) + (virtualMachineId != null ? 1 : 0) + (storageId != null ? 1 : 0);
+        if (specified != 1) {
+            throw new InvalidParameterValueException("Exactly one of the parameters " + ApiConstants.HOST_ID + ", " +
+                    ApiConstants.VIRTUAL_MACHINE_ID + " and " + ApiConstants.STORAGE_ID + " must be specified");
+        }
+        if (hostId != null) {
+            return ResourceType.Host;
+        } else if (virtualMachineId != null) {
+            return ResourceType.VirtualMachine;
+        }
+        return ResourceType.StoragePool;
+    }
+
+    public long getResourceId() {
+        switch (getResourceType()) {
+        case Host:
+            return hostId;
+        case VirtualMachine:
+            return virtualMachineId;
+        default:
+            return storageId;
+        }
+    }
+
+    /////////////////////////////////////////////////////
+    /////////////// API Implementation///////////////////
+    /////////////////////////////////////////////////////
+
+    @Override
+    public String getCommandName() {
+        return s_name;
+    }
+
+    @Override
+    public void execute(){
+        List<? extends StatsSample> result = _mgr.listStatsHistory(this);
+
+        ListResponse<StatsSampleResponse> response = new ListResponse<StatsSampleResponse>();
+        List<StatsSampleResponse> sampleResponses = _responseGenerator.createStatsSampleResponse(result);
+        response.setResponses(sampleResponses);
+        response.setResponseName(getCommandName());
+        this.setResponseObject(response);
+    }
+}
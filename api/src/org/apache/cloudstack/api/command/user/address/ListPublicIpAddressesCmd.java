@@ -148,6 +148,7 @@ public class ListPublicIpAddressesCmd extends BaseListTaggedResourcesCmd {
         Pair<List<? extends IpAddress>, Integer> result = _mgr.searchForIPAddresses(this);
         ListResponse<IPAddressResponse> response = new ListResponse<IPAddressResponse>();
         List<IPAddressResponse> ipAddrResponses = new ArrayList<IPAddressResponse>();
+        _responseGenerator.prefetchIPAddressResponses(result.first());
         for (IpAddress ipAddress : result.first()) {
             IPAddressResponse ipResponse = _responseGenerator.createIPAddressResponse(ipAddress);
             ipResponse.setObjectName("publicipaddress");
@@ -79,6 +79,7 @@ public class ListEgressFirewallRulesCmd extends ListFirewallRulesCmd {
         ListResponse<FirewallResponse> response = new ListResponse<FirewallResponse>();
         List<FirewallResponse> fwResponses = new ArrayList<FirewallResponse>();
         
+        _responseGenerator.prefetchFirewallResponses(result.first());
         for (FirewallRule fwRule : result.first()) {
             FirewallResponse ruleData = _responseGenerator.createFirewallResponse(fwRule);
             ruleData.setObjectName("firewallrule");
@@ -110,6 +110,7 @@ public class ListSnapshotsCmd extends BaseListTaggedResourcesCmd {
         Pair<List<? extends Snapshot>, Integer> result = _snapshotService.listSnapshots(this);
         ListResponse<SnapshotResponse> response = new ListResponse<SnapshotResponse>();
         List<SnapshotResponse> snapshotResponses = new ArrayList<SnapshotResponse>();
+        _responseGenerator.prefetchSnapshotResponses(result.first());
         for (Snapshot snapshot : result.first()) {
             SnapshotResponse snapshotResponse = _responseGenerator.createSnapshotResponse(snapshot);
             snapshotResponse.setObjectName("snapshot");
@@ -215,6 +215,11 @@ public class ListVMsCmd extends BaseListTaggedResourcesCmd {
         return ApiCommandJobType.VirtualMachine;
     }
 
+    @Override
+    public boolean isPageTokenSupported() {
+        return true;
+    }
+
     @Override
     public void execute(){
         ListResponse<UserVmResponse> response = _queryService.searchForUserVMs(this);
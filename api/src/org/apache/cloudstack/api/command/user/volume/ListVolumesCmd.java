@@ -116,6 +116,11 @@ public class ListVolumesCmd extends BaseListTaggedResourcesCmd {
         return ApiCommandJobType.Volume;
     }
 
+    @Override
+    public boolean isPageTokenSupported() {
+        return true;
+    }
+
     @Override
     public void execute(){
         ListResponse<VolumeResponse> response = _queryService.searchForVolumes(this);
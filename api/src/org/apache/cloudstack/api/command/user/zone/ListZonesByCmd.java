@@ -22,6 +22,7 @@ import java.util.List;
 import org.apache.cloudstack.api.APICommand;
 import org.apache.cloudstack.api.ApiConstants;
 import org.apache.cloudstack.api.BaseListCmd;
+import org.apache.cloudstack.api.CacheableResponse;
 import org.apache.cloudstack.api.Parameter;
 import org.apache.cloudstack.api.BaseCmd.CommandType;
 import org.apache.cloudstack.api.response.DomainResponse;
@@ -31,8 +32,10 @@ import org.apache.cloudstack.api.response.ZoneResponse;
 import org.apache.log4j.Logger;
 
 import com.cloud.dc.DataCenter;
+import com.cloud.domain.Domain;
 
 @APICommand(name = "listZones", description="Lists zones", responseObject=ZoneResponse.class)
+@CacheableResponse(invalidatedBy = {DataCenter.class, Domain.class})
 public class ListZonesByCmd extends BaseListCmd {
     public static final Logger s_logger = Logger.getLogger(ListZonesByCmd.class.getName());
 
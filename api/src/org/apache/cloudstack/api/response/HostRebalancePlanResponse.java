@@ -0,0 +1,73 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.api.response;
+
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.BaseResponse;
+
+import com.cloud.serializer.Param;
+import com.google.gson.annotations.SerializedName;
+
+public class HostRebalancePlanResponse extends BaseResponse {
+    @SerializedName(ApiConstants.HOST_ID)
+    @Param(description = "the ID of the host")
+    private String hostId;
+
+    @SerializedName(ApiConstants.HOST_NAME)
+    @Param(description = "the name of the host")
+    private String hostName;
+
+    @SerializedName(ApiConstants.CLUSTER_ID)
+    @Param(description = "the cluster ID of the host")
+    private String clusterId;
+
+    @SerializedName("currentmanagementserverid")
+    @Param(description = "the management server ID the host is connected to")
+    private Long currentManagementServerId;
+
+    @SerializedName("plannedmanagementserverid")
+    @Param(description = "the management server ID the host would be moved to")
+    private Long plannedManagementServerId;
+
+    @SerializedName("commandrate")
+    @Param(description = "the commands per second sent to the host")
+    private Float commandRate;
+
+    public void setHostId(String hostId) {
+        this.hostId = hostId;
+    }
+
+    public void setHostName(String hostName) {
+        this.hostName = hostName;
+    }
+
+    public void setClusterId(String clusterId) {
+        this.clusterId = clusterId;
+    }
+
+    public void setCurrentManagementServerId(Long currentManagementServerId) {
+        this.currentManagementServerId = currentManagementServerId;
+    }
+
+    public void setPlannedManagementServerId(Long plannedManagementServerId) {
+        this.plannedManagementServerId = plannedManagementServerId;
+    }
+
+    public void setCommandRate(Float commandRate) {
+        this.commandRate = commandRate;
+    }
+}
@@ -24,6 +24,7 @@ import org.apache.cloudstack.api.ResponseObject;
 public class ListResponse<T extends ResponseObject> extends BaseResponse {
     List<T> responses;
     private transient Integer count;
+    private transient String nextPageToken;
 
     public List<T> getResponses() {
         return responses;
@@ -39,6 +40,18 @@ public class ListResponse<T extends ResponseObject> extends BaseResponse {
     }
 
 
+    /**
+     * @return token to pass as pagetoken to get the next page; null if this
+     *         is the last page or the listing doesn't support keyset paging.
+     */
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    public void setNextPageToken(String nextPageToken) {
+        this.nextPageToken = nextPageToken;
+    }
+
     public Integer getCount() {
         if (count != null) {
             return count;
@@ -0,0 +1,125 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.api.response;
+
+import java.util.Date;
+
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.BaseResponse;
+
+import com.cloud.serializer.Param;
+import com.google.gson.annotations.SerializedName;
+
+public class StatsSampleResponse extends BaseResponse {
+    @SerializedName(ApiConstants.RESOURCE_TYPE) @Param(description="the type of the resource the sample is for")
+    private String resourceType;
+
+    @SerializedName(ApiConstants.RESOURCE_ID) @Param(description="the ID of the resource the sample is for")
+    private String resourceId;
+
+    @SerializedName("timestamp") @Param(description="the time the sample was taken, or the start of the interval it averages")
+    private Date timestamp;
+
+    @SerializedName("cpuutilization") @Param(description="the CPU utilization in percent")
+    private Double cpuUtilization;
+
+    @SerializedName("memoryused") @Param(description="the memory used by the host")
+    private Double memoryUsed;
+
+    @SerializedName("memoryfreekbs") @Param(description="the memory left on the host in KiB")
+    private Double memoryFreeKBs;
+
+    @SerializedName("networkkbsread") @Param(description="the network read in KiB")
+    private Double networkReadKBs;
+
+    @SerializedName("networkkbswrite") @Param(description="the network write in KiB")
+    private Double networkWriteKBs;
+
+    @SerializedName("diskkbsread") @Param(description="the disk read in KiB")
+    private Double diskReadKBs;
+
+    @SerializedName("diskkbswrite") @Param(description="the disk write in KiB")
+    private Double diskWriteKBs;
+
+    @SerializedName("diskioread") @Param(description="the read (io) of disk")
+    private Double diskReadIOs;
+
+    @SerializedName("diskiowrite") @Param(description="the write (io) of disk")
+    private Double diskWriteIOs;
+
+    @SerializedName("storageusedbytes") @Param(description="the bytes used on the storage pool")
+    private Double storageUsedBytes;
+
+    @SerializedName("storagecapacitybytes") @Param(description="the capacity of the storage pool in bytes")
+    private Double storageCapacityBytes;
+
+    public void setResourceType(String resourceType) {
+        this.resourceType = resourceType;
+    }
+
+    public void setResourceId(String resourceId) {
+        this.resourceId = resourceId;
+    }
+
+    public void setTimestamp(Date timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public void setCpuUtilization(Double cpuUtilization) {
+        this.cpuUtilization = cpuUtilization;
+    }
+
+    public void setMemoryUsed(Double memoryUsed) {
+        this.memoryUsed = memoryUsed;
+    }
+
+    public void setMemoryFreeKBs(Double memoryFreeKBs) {
+        this.memoryFreeKBs = memoryFreeKBs;
+    }
+
+    public void setNetworkReadKBs(Double networkReadKBs) {
+        this.networkReadKBs = networkReadKBs;
+    }
+
+    public void setNetworkWriteKBs(Double networkWriteKBs) {
+        this.networkWriteKBs = networkWriteKBs;
+    }
+
+    public void setDiskReadKBs(Double diskReadKBs) {
+        this.diskReadKBs = diskReadKBs;
+    }
+
+    public void setDiskWriteKBs(Double diskWriteKBs) {
+        this.diskWriteKBs = diskWriteKBs;
+    }
+
+    public void setDiskReadIOs(Double diskReadIOs) {
+        this.diskReadIOs = diskReadIOs;
+    }
+
+    public void setDiskWriteIOs(Double diskWriteIOs) {
+        this.diskWriteIOs = diskWriteIOs;
+    }
+
+    public void setStorageUsedBytes(Double storageUsedBytes) {
+        this.storageUsedBytes = storageUsedBytes;
+    }
+
+    public void setStorageCapacityBytes(Double storageCapacityBytes) {
+        this.storageCapacityBytes = storageCapacityBytes;
+    }
+}
@@ -18,6 +18,8 @@ package com.cloud.agent.api;
 
 public class PingAnswer extends Answer {
     private PingCommand _command = null;
+    // seconds, 0 when the agent should keep its ping interval
+    private int _pingInterval;
 
     protected PingAnswer() {
     }
@@ -27,7 +29,16 @@ public class PingAnswer extends Answer {
         _command = cmd;
     }
 
+    public PingAnswer(PingCommand cmd, int pingInterval) {
+        this(cmd);
+        _pingInterval = pingInterval;
+    }
+
     public PingCommand getCommand() {
         return _command;
     }
+
+    public int getPingInterval() {
+        return _pingInterval;
+    }
 }
@@ -21,11 +21,14 @@ public class SecurityGroupRuleAnswer extends Answer {
         NONE,
         UNKNOWN,
         PROGRAMMING_FAILED,
-        CANNOT_BRIDGE_FIREWALL
+        CANNOT_BRIDGE_FIREWALL,
+        RULESET_MISMATCH
     }
     Long logSequenceNumber = null;
     Long vmId = null;
     FailureReason reason = FailureReason.NONE;
+    // signature of the ruleset now programmed, only reported by agents that accept delta updates
+    String signature = null;
 
 
     protected SecurityGroupRuleAnswer() {
@@ -67,4 +70,12 @@ public class SecurityGroupRuleAnswer extends Answer {
         this.reason = reason;
     }
 
+    public String getSignature() {
+        return signature;
+    }
+
+    public void setSignature(String signature) {
+        this.signature = signature;
+    }
+
 }
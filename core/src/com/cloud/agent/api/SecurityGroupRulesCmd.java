@@ -18,7 +18,15 @@ package com.cloud.agent.api;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.zip.DeflaterOutputStream;
 
 import org.apache.commons.codec.binary.Base64;
@@ -82,6 +90,14 @@ public class SecurityGroupRulesCmd extends Command {
     IpPortAndProto [] ingressRuleSet;
     IpPortAndProto [] egressRuleSet;
     private List<String> secIps;
+    // set when the rule sets only carry the changes from the ruleset with this signature
+    String baseSignature;
+    @LogLevel(Log4jLevel.Trace)
+    IpPortAndProto [] revokedIngressRuleSet;
+    @LogLevel(Log4jLevel.Trace)
+    IpPortAndProto [] revokedEgressRuleSet;
+    // digest of the full rule sets a delta was computed from, see digestRules()
+    String rulesDigest;
 
     public SecurityGroupRulesCmd() {
         super();
@@ -150,6 +166,147 @@ public class SecurityGroupRulesCmd extends Command {
         return guestIp;
     }
 
+    public boolean isDelta() {
+        return baseSignature != null;
+    }
+
+    public String getBaseSignature() {
+        return baseSignature;
+    }
+
+    public IpPortAndProto[] getRevokedIngressRuleSet() {
+        return revokedIngressRuleSet;
+    }
+
+    public IpPortAndProto[] getRevokedEgressRuleSet() {
+        return revokedEgressRuleSet;
+    }
+
+    /**
+     * Turns the rule sets of this command into the cidrs added to and revoked from
+     * the given ruleset, which the agent last reported as programmed with baseSignature.
+     * The signature is left as the one of the full ruleset.
+     */
+    public void convertToDelta(String baseSignature, IpPortAndProto[] baseIngressRuleSet, IpPortAndProto[] baseEgressRuleSet) {
+        this.baseSignature = baseSignature;
+        rulesDigest = digestRules(ingressRuleSet, egressRuleSet);
+        revokedIngressRuleSet = subtract(baseIngressRuleSet, ingressRuleSet);
+        revokedEgressRuleSet = subtract(baseEgressRuleSet, egressRuleSet);
+        ingressRuleSet = subtract(ingressRuleSet, baseIngressRuleSet);
+        egressRuleSet = subtract(egressRuleSet, baseEgressRuleSet);
+    }
+
+    /**
+     * Applies a delta on top of the rule sets it was computed from, which turns
+     * this command back into a full ruleset update.
+     *
+     * @return false if the merged rule sets are not the ones the delta was
+     *         computed from, in which case they must not be programmed.
+     */
+    public boolean applyDelta(IpPortAndProto[] baseIngressRuleSet, IpPortAndProto[] baseEgressRuleSet) {
+        ingressRuleSet = merge(baseIngressRuleSet, ingressRuleSet, revokedIngressRuleSet);
+        egressRuleSet = merge(baseEgressRuleSet, egressRuleSet, revokedEgressRuleSet);
+        baseSignature = null;
+        revokedIngressRuleSet = null;
+        revokedEgressRuleSet = null;
+        String expected = rulesDigest;
+        rulesDigest = null;
+        return expected == null || expected.equals(digestRules(ingressRuleSet, egressRuleSet));
+    }
+
+    /**
+     * Digest of the rules that does not depend on the order of the rules or of
+     * their cidrs. The signature can't be used to check a merged ruleset, the
+     * management server computes it from its own view of the rules.
+     */
+    public static String digestRules(IpPortAndProto[] ingressRuleSet, IpPortAndProto[] egressRuleSet) {
+        StringBuilder digest = new StringBuilder();
+        for (IpPortAndProto[] ruleSet : new IpPortAndProto[][] {ingressRuleSet, egressRuleSet}) {
+            Map<String, Set<String>> sorted = new TreeMap<String, Set<String>>();
+            for (Map.Entry<String, Set<String>> entry : toCidrMap(ruleSet).entrySet()) {
+                sorted.put(entry.getKey(), new TreeSet<String>(entry.getValue()));
+            }
+            digest.append(sorted).append(';');
+        }
+        return DigestUtils.md5Hex(digest.toString());
+    }
+
+    private static String ruleKey(IpPortAndProto rule) {
+        return rule.getProto() + ":" + rule.getStartPort() + ":" + rule.getEndPort();
+    }
+
+    private static Map<String, Set<String>> toCidrMap(IpPortAndProto[] rules) {
+        Map<String, Set<String>> cidrMap = new LinkedHashMap<String, Set<String>>();
+        if (rules != null) {
+            for (IpPortAndProto rule : rules) {
+                Set<String> cidrs = cidrMap.get(ruleKey(rule));
+                if (cidrs == null) {
+                    cidrs = new LinkedHashSet<String>();
+                    cidrMap.put(ruleKey(rule), cidrs);
+                }
+                cidrs.addAll(Arrays.asList(rule.getAllowedCidrs()));
+            }
+        }
+        return cidrMap;
+    }
+
+    // the cidrs of rules that are not in others
+    private static IpPortAndProto[] subtract(IpPortAndProto[] rules, IpPortAndProto[] others) {
+        Map<String, Set<String>> otherCidrs = toCidrMap(others);
+        List<IpPortAndProto> result = new ArrayList<IpPortAndProto>();
+        if (rules != null) {
+            for (IpPortAndProto rule : rules) {
+                Set<String> existing = otherCidrs.get(ruleKey(rule));
+                List<String> cidrs = new ArrayList<String>();
+                for (String cidr : rule.getAllowedCidrs()) {
+                    if (existing == null || !existing.contains(cidr)) {
+                        cidrs.add(cidr);
+                    }
+                }
+                if (cidrs.size() > 0) {
+                    result.add(new IpPortAndProto(rule.getProto(), rule.getStartPort(), rule.getEndPort(), cidrs.toArray(new String[cidrs.size()])));
+                }
+            }
+        }
+        return result.toArray(new IpPortAndProto[result.size()]);
+    }
+
+    private static IpPortAndProto[] merge(IpPortAndProto[] base, IpPortAndProto[] added, IpPortAndProto[] revoked) {
+        Map<String, IpPortAndProto> rules = new LinkedHashMap<String, IpPortAndProto>();
+        for (IpPortAndProto[] ruleSet : new IpPortAndProto[][] {base, added}) {
+            if (ruleSet != null) {
+                for (IpPortAndProto rule : ruleSet) {
+                    rules.put(ruleKey(rule), rule);
+                }
+            }
+        }
+        Map<String, Set<String>> cidrMap = toCidrMap(base);
+        for (Map.Entry<String, Set<String>> entry : toCidrMap(added).entrySet()) {
+            Set<String> cidrs = cidrMap.get(entry.getKey());
+            if (cidrs == null) {
+                cidrMap.put(entry.getKey(), entry.getValue());
+            } else {
+                cidrs.addAll(entry.getValue());
+            }
+        }
+        for (Map.Entry<String, Set<String>> entry : toCidrMap(revoked).entrySet()) {
+            Set<String> cidrs = cidrMap.get(entry.getKey());
+            if (cidrs != null) {
+                cidrs.removeAll(entry.getValue());
+            }
+        }
+
+        List<IpPortAndProto> result = new ArrayList<IpPortAndProto>();
+        for (Map.Entry<String, Set<String>> entry : cidrMap.entrySet()) {
+            Set<String> cidrs = entry.getValue();
+            if (cidrs.size() > 0) {
+                IpPortAndProto rule = rules.get(entry.getKey());
+                result.add(new IpPortAndProto(rule.getProto(), rule.getStartPort(), rule.getEndPort(), cidrs.toArray(new String[cidrs.size()])));
+            }
+        }
+        return result.toArray(new IpPortAndProto[result.size()]);
+    }
+
     public List<String> getSecIps() {
         return secIps;
     }
@@ -290,6 +447,13 @@ public class SecurityGroupRulesCmd extends Command {
         for (IpPortAndProto i: egressRuleSet) {
             count += i.allowedCidrs.length;
         }
+        for (IpPortAndProto[] revoked : new IpPortAndProto[][] {revokedIngressRuleSet, revokedEgressRuleSet}) {
+            if (revoked != null) {
+                for (IpPortAndProto i: revoked) {
+                    count += i.allowedCidrs.length;
+                }
+            }
+        }
         return count;
     }
 
@@ -20,6 +20,8 @@ package com.cloud.agent.api;
 public class StartupAnswer extends Answer {
     long hostId;
     int pingInterval;
+    byte requestCodec;
+    boolean batchedPackets;
 
     protected StartupAnswer() {
     }
@@ -41,4 +43,28 @@ public class StartupAnswer extends Answer {
     public int getPingInterval() {
         return pingInterval;
     }
+
+    /**
+     * @return id of the codec the agent should encode its requests with; 0,
+     *         which is GZIP, when the management server did not choose one.
+     */
+    public byte getRequestCodec() {
+        return requestCodec;
+    }
+
+    public void setRequestCodec(byte requestCodec) {
+        this.requestCodec = requestCodec;
+    }
+
+    /**
+     * @return whether the management server reads batched packets, false
+     *         when it predates them.
+     */
+    public boolean isBatchedPackets() {
+        return batchedPackets;
+    }
+
+    public void setBatchedPackets(boolean batchedPackets) {
+        this.batchedPackets = batchedPackets;
+    }
 }
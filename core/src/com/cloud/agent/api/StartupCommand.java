@@ -43,6 +43,8 @@ public class StartupCommand extends Command {
     String agentTag;
     String resourceName;
     String gatewayIpAddress;
+    byte[] requestCodecs;
+    boolean batchedPackets;
 
     public StartupCommand(Host.Type type) {
         this.type = type;
@@ -278,6 +280,30 @@ public class StartupCommand extends Command {
         this.gatewayIpAddress = gatewayIpAddress;
     }
 
+    /**
+     * @return ids of the request codecs the agent can parse, null for agents
+     *         that only know GZIP.
+     */
+    public byte[] getRequestCodecs() {
+        return requestCodecs;
+    }
+
+    public void setRequestCodecs(byte[] requestCodecs) {
+        this.requestCodecs = requestCodecs;
+    }
+
+    /**
+     * @return whether the agent reads several messages packed into one
+     *         batched packet, false for agents that predate them.
+     */
+    public boolean isBatchedPackets() {
+        return batchedPackets;
+    }
+
+    public void setBatchedPackets(boolean batchedPackets) {
+        this.batchedPackets = batchedPackets;
+    }
+
 
     @Override
     public boolean executeInSequence() {
@@ -0,0 +1,139 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.transport;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Raw deflate codec using the fastest compression level. Unlike the GZIP
+ * codec it does not go through streams: the Deflater, Inflater and scratch
+ * buffer are kept per thread and reused, and the decoded content is built
+ * straight from the scratch buffer.
+ */
+public class DeflateRequestCodec implements RequestCodec {
+    public static final byte ID = 1;
+
+    private static final int MaxPooledBufferSize = 1024 * 1024;
+
+    private static final ThreadLocal<Deflater> s_deflater = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED, true);
+        }
+    };
+
+    private static final ThreadLocal<Inflater> s_inflater = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    private static final ThreadLocal<byte[]> s_scratch = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[8192];
+        }
+    };
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public ByteBuffer encode(byte[] content, boolean compress) {
+        if (!compress) {
+            return ByteBuffer.wrap(content);
+        }
+
+        Deflater deflater = s_deflater.get();
+        deflater.reset();
+        deflater.setInput(content);
+        deflater.finish();
+
+        // Deflate can expand incompressible data slightly, leave room for it.
+        byte[] out = new byte[content.length + (content.length >> 6) + 64];
+        int len = 0;
+        while (!deflater.finished()) {
+            if (len == out.length) {
+                byte[] bigger = new byte[out.length * 2];
+                System.arraycopy(out, 0, bigger, 0, len);
+                out = bigger;
+            }
+            len += deflater.deflate(out, len, out.length - len);
+        }
+        return ByteBuffer.wrap(out, 0, len);
+    }
+
+    @Override
+    public String decode(ByteBuffer buffer, int length, boolean compressed) {
+        if (!compressed) {
+            if (buffer.hasArray()) {
+                return new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            }
+            byte[] content = new byte[buffer.remaining()];
+            buffer.get(content);
+            return new String(content);
+        }
+
+        Inflater inflater = s_inflater.get();
+        inflater.reset();
+        if (buffer.hasArray()) {
+            inflater.setInput(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            byte[] input = new byte[buffer.remaining()];
+            buffer.get(input);
+            inflater.setInput(input);
+        }
+
+        byte[] out = scratch(length);
+        int len = 0;
+        try {
+            while (len < length && !inflater.finished()) {
+                int count = inflater.inflate(out, len, length - len);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                len += count;
+            }
+        } catch (DataFormatException e) {
+            throw new CloudRuntimeException("Unable to decompress the request", e);
+        }
+        if (len != length) {
+            throw new CloudRuntimeException("Decompressed " + len + " bytes but expected " + length);
+        }
+        return new String(out, 0, len);
+    }
+
+    private static byte[] scratch(int length) {
+        byte[] scratch = s_scratch.get();
+        if (scratch.length >= length) {
+            return scratch;
+        }
+        scratch = new byte[length];
+        if (length <= MaxPooledBufferSize) {
+            s_scratch.set(scratch);
+        }
+        return scratch;
+    }
+}
@@ -0,0 +1,61 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.transport;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The original wire format: Gson content, GZIP'ed above the compression
+ * threshold. Every peer understands it, so it remains the default.
+ */
+public class GzipRequestCodec implements RequestCodec {
+    public static final byte ID = 0;
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public ByteBuffer encode(byte[] content, boolean compress) {
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        if (compress) {
+            buffer = Request.doCompress(buffer, content.length);
+        }
+        return buffer;
+    }
+
+    @Override
+    public String decode(ByteBuffer buffer, int length, boolean compressed) {
+        if (compressed) {
+            buffer = Request.doDecompress(buffer, length);
+        }
+
+        byte[] content = null;
+        int offset = 0;
+        if (buffer.hasArray()) {
+            content = buffer.array();
+            offset = buffer.arrayOffset() + buffer.position();
+        } else {
+            content = new byte[buffer.remaining()];
+            buffer.get(content);
+            offset = 0;
+        }
+
+        return new String(content, offset, content.length - offset);
+    }
+}
@@ -60,12 +60,13 @@ import com.cloud.utils.exception.CloudRuntimeException;
  * 
  * A request looks as follows:
  * 1. Version - 1 byte;
- * 2. Flags - 3 bytes;
- * 3. Sequence - 8 bytes;
- * 4. Length - 4 bytes;
- * 5. ManagementServerId - 8 bytes;
- * 6. AgentId - 8 bytes;
- * 7. Data Package.
+ * 2. Codec - 1 byte, see RequestCodec;
+ * 3. Flags - 2 bytes;
+ * 4. Sequence - 8 bytes;
+ * 5. Length - 4 bytes;
+ * 6. ManagementServerId - 8 bytes;
+ * 7. AgentId - 8 bytes;
+ * 8. Data Package.
  * 
  */
 public class Request {
@@ -98,6 +99,16 @@ public class Request {
     protected static final short       FLAG_CONTROL         = 0x40;
     protected static final short       FLAG_COMPRESSED      = 0x80;
 
+    protected static final int         COMPRESSION_THRESHOLD = 8192;
+
+    private static final RequestCodec[] s_codecs = new RequestCodec[Byte.MAX_VALUE + 1];
+    private static volatile RequestCodec s_defaultCodec;
+
+    static {
+        registerCodec(new GzipRequestCodec());
+        registerCodec(new DeflateRequestCodec());
+        s_defaultCodec = s_codecs[GzipRequestCodec.ID];
+    }
 
     protected Version   _ver;
     protected long      _session;
@@ -108,6 +119,7 @@ public class Request {
     protected long      _agentId;
     protected Command[] _cmds;
     protected String    _content;
+    protected RequestCodec _codec;
 
     protected Request() {
     }
@@ -142,6 +154,91 @@ public class Request {
         setFromServer(fromServer);
     }
 
+    /**
+     * Registers a codec so requests encoded with it can be parsed.
+     */
+    public static synchronized void registerCodec(RequestCodec codec) {
+        byte id = codec.getId();
+        if (id < 0) {
+            throw new CloudRuntimeException("Invalid codec id " + id + " for " + codec.getClass().getName());
+        }
+        RequestCodec existing = s_codecs[id];
+        if (existing != null && existing.getClass() != codec.getClass()) {
+            throw new CloudRuntimeException("Codec id " + id + " is already taken by " + existing.getClass().getName());
+        }
+        s_codecs[id] = codec;
+    }
+
+    public static RequestCodec getCodec(byte id) throws UnsupportedVersionException {
+        RequestCodec codec = id >= 0 ? s_codecs[id] : null;
+        if (codec == null) {
+            throw new UnsupportedVersionException("Can't lookup codec: " + id, UnsupportedVersionException.IncompatibleVersion);
+        }
+        return codec;
+    }
+
+    /**
+     * Sets the codec used for requests created from now on. Only switch away
+     * from the GZIP codec once the peers are known to understand the new one;
+     * replies always use the codec of the request they answer. Agent links
+     * don't rely on this but set the codec from negotiateCodec() per request.
+     */
+    public static void setDefaultCodec(byte id) throws UnsupportedVersionException {
+        s_defaultCodec = getCodec(id);
+    }
+
+    /**
+     * @return ids of the codecs this side can parse, offered to the
+     *         management server in the StartupCommand.
+     */
+    public static synchronized byte[] getCodecIds() {
+        int count = 0;
+        for (RequestCodec codec : s_codecs) {
+            if (codec != null) {
+                count++;
+            }
+        }
+        byte[] ids = new byte[count];
+        int i = 0;
+        for (RequestCodec codec : s_codecs) {
+            if (codec != null) {
+                ids[i++] = codec.getId();
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Picks the codec to use on a link. The preferred codec is only used if
+     * the peer offered it, so agents that predate codec negotiation, and
+     * therefore offer nothing, stay on GZIP.
+     *
+     * @param offered codec ids the peer can parse, may be null.
+     * @param preferred id of the codec to use when the peer supports it.
+     */
+    public static RequestCodec negotiateCodec(byte[] offered, byte preferred) {
+        if (offered != null && preferred >= 0 && s_codecs[preferred] != null) {
+            for (byte id : offered) {
+                if (id == preferred) {
+                    return s_codecs[preferred];
+                }
+            }
+        }
+        return s_codecs[GzipRequestCodec.ID];
+    }
+
+    public static RequestCodec getDefaultCodec() {
+        return s_defaultCodec;
+    }
+
+    public RequestCodec getCodec() {
+        return _codec != null ? _codec : s_defaultCodec;
+    }
+
+    public void setCodec(RequestCodec codec) {
+        _codec = codec;
+    }
+
     public void setSequence(long seq) {
         _seq = seq;
     }
@@ -167,6 +264,7 @@ public class Request {
         _mgmtId = that._mgmtId;
         _via = that._via;
         _agentId = that._agentId;
+        _codec = that._codec;
         setFromServer(!that.isFromServer());
     }
 
@@ -249,7 +347,7 @@ public class Request {
     protected ByteBuffer serializeHeader(final int contentSize) {
         final ByteBuffer buffer = ByteBuffer.allocate(40);
         buffer.put(getVersionInByte());
-        buffer.put((byte) 0);
+        buffer.put(getCodec().getId());
         buffer.putShort(getFlags());
         buffer.putLong(_seq);
         // The size here is uncompressed size, if the data is compressed.
@@ -311,19 +409,18 @@ public class Request {
 
     public ByteBuffer[] toBytes() {
         final ByteBuffer[] buffers = new ByteBuffer[2];
-        ByteBuffer tmp;
 
         if (_content == null) {
             _content = s_gson.toJson(_cmds, _cmds.getClass());
         }
-        tmp = ByteBuffer.wrap(_content.getBytes());
-        int capacity = tmp.capacity();
+        final byte[] content = _content.getBytes();
+        final int capacity = content.length;
         /* Check if we need to compress the data */
-        if (capacity >= 8192) {
-            tmp = doCompress(tmp, capacity);
+        final boolean compress = capacity >= COMPRESSION_THRESHOLD;
+        buffers[1] = getCodec().encode(content, compress);
+        if (compress) {
             _flags |= FLAG_COMPRESSED;
         }
-        buffers[1] = tmp;
         buffers[0] = serializeHeader(capacity);
 
         return buffers;
@@ -424,6 +521,7 @@ public class Request {
         buf.append(" { ").append(getType());
         buf.append(", MgmtId: ").append(_mgmtId).append(", via: ").append(_via);
         buf.append(", Ver: ").append(_ver.toString());
+        buf.append(", Codec: ").append(getCodec().getId());
         buf.append(", Flags: ").append(Integer.toBinaryString(getFlags())).append(", ");
         buf.append(content);
         buf.append(" }");
@@ -448,7 +546,7 @@ public class Request {
         if (version.ordinal() != Version.v1.ordinal() && version.ordinal() != Version.v3.ordinal()) {
             throw new UnsupportedVersionException("This version is no longer supported: " + version.toString(), UnsupportedVersionException.IncompatibleVersion);
         }
-        buff.get();
+        final RequestCodec codec = getCodec(buff.get());
         final short flags = buff.getShort();
         final boolean isRequest = (flags & FLAG_REQUEST) > 0;
 
@@ -465,28 +563,16 @@ public class Request {
             via = agentId;
         }
 
-        if ((flags & FLAG_COMPRESSED) != 0) {
-            buff = doDecompress(buff, size);
-        }
-
-        byte[] command = null;
-        int offset = 0;
-        if (buff.hasArray()) {
-            command = buff.array();
-            offset = buff.arrayOffset() + buff.position();
-        } else {
-            command = new byte[buff.remaining()];
-            buff.get(command);
-            offset = 0;
-        }
-
-        final String content = new String(command, offset, command.length - offset);
+        final String content = codec.decode(buff, size, (flags & FLAG_COMPRESSED) != 0);
 
+        Request request;
         if (isRequest) {
-            return new Request(version, seq, agentId, mgmtId, via, flags, content);
+            request = new Request(version, seq, agentId, mgmtId, via, flags, content);
         } else {
-            return new Response(Version.get(ver), seq, agentId, mgmtId, via, flags, content);
+            request = new Response(Version.get(ver), seq, agentId, mgmtId, via, flags, content);
         }
+        request.setCodec(codec);
+        return request;
     }
 
     public long getAgentId() {
@@ -497,6 +583,10 @@ public class Request {
         return _via;
     }
 
+    public static byte getCodecId(final byte[] bytes) {
+        return bytes[1];
+    }
+
     public static boolean requiresSequentialExecution(final byte[] bytes) {
         return (bytes[3] & FLAG_IN_SEQUENCE) > 0;
     }
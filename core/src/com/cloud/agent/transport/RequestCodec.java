@@ -0,0 +1,50 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.transport;
+
+import java.nio.ByteBuffer;
+
+/**
+ * RequestCodec encodes the data package of a Request on the wire. The codec
+ * used to write a request is recorded in the second byte of the header, so a
+ * receiver can always decode what it gets regardless of its own default.
+ */
+public interface RequestCodec {
+    /**
+     * @return the id written into the request header. Must be unique.
+     */
+    byte getId();
+
+    /**
+     * Encodes the content of a request.
+     *
+     * @param content serialized commands or answers.
+     * @param compress true if the content is large enough to be worth compressing.
+     * @return buffer ready to be written.
+     */
+    ByteBuffer encode(byte[] content, boolean compress);
+
+    /**
+     * Decodes the content of a request.
+     *
+     * @param buffer buffer positioned at the start of the data package.
+     * @param length uncompressed length recorded in the header.
+     * @param compressed true if the compressed flag is set in the header.
+     * @return the serialized commands or answers.
+     */
+    String decode(ByteBuffer buffer, int length, boolean compressed);
+}
@@ -32,6 +32,9 @@ import com.cloud.agent.api.Answer;
 import com.cloud.agent.api.Command;
 import com.cloud.agent.api.GetHostStatsCommand;
 import com.cloud.agent.api.SecStorageFirewallCfgCommand;
+import com.cloud.agent.api.StartupAnswer;
+import com.cloud.agent.api.StartupCommand;
+import com.cloud.agent.api.StartupRoutingCommand;
 import com.cloud.agent.api.UpdateHostPasswordCommand;
 import com.cloud.agent.api.storage.DownloadAnswer;
 import com.cloud.agent.api.storage.ListTemplateCommand;
@@ -210,6 +213,88 @@ public class RequestTest extends TestCase {
         }
     }
 
+    public void testDeflateCodec() throws Exception {
+        s_logger.info("Testing requests encoded with the deflate codec");
+        SecStorageFirewallCfgCommand cmd = new SecStorageFirewallCfgCommand();
+        for (int i = 0; i < 500; i++) {
+            cmd.addPortConfig("10.1." + (i / 250) + "." + (i % 250), Integer.toString(i), true, "eth" + (i % 4));
+        }
+        Request sreq = new Request(2, 3, new Command[] { cmd }, true, true);
+        sreq.setSequence(892403719);
+        sreq.setCodec(Request.getCodec(DeflateRequestCodec.ID));
+
+        byte[] bytes = sreq.getBytes();
+        assertEquals(DeflateRequestCodec.ID, Request.getCodecId(bytes));
+        assert Request.getSequence(bytes) == 892403719;
+
+        Request creq = Request.parse(bytes);
+        assertEquals(DeflateRequestCodec.ID, creq.getCodec().getId());
+        compareRequest(creq, sreq);
+        assertEquals(500, ((SecStorageFirewallCfgCommand)creq.getCommand()).getPortConfigs().size());
+
+        Response sresp = new Response(creq, new Answer(cmd, true, "No Problem"));
+        Response cresp = Response.parse(sresp.getBytes());
+        assertEquals(DeflateRequestCodec.ID, cresp.getCodec().getId());
+        compareRequest(cresp, sresp);
+    }
+
+    public void testNegotiatedCodec() throws Exception {
+        s_logger.info("Testing the codec negotiated in the startup exchange");
+        assertEquals(GzipRequestCodec.ID, Request.negotiateCodec(null, DeflateRequestCodec.ID).getId());
+        assertEquals(GzipRequestCodec.ID, Request.negotiateCodec(new byte[] { GzipRequestCodec.ID }, DeflateRequestCodec.ID).getId());
+        assertEquals(GzipRequestCodec.ID, Request.negotiateCodec(Request.getCodecIds(), (byte)100).getId());
+
+        // the agent offers what it can parse, in a request still encoded with the default codec
+        StartupRoutingCommand startup = new StartupRoutingCommand();
+        startup.setRequestCodecs(Request.getCodecIds());
+        startup.setBatchedPackets(true);
+        Request sreq = new Request(-1, -1, new Command[] { startup }, false, false);
+        sreq.setSequence(1);
+        Request creq = Request.parse(sreq.getBytes());
+        assertEquals(GzipRequestCodec.ID, Request.getCodecId(sreq.getBytes()));
+
+        // the management server answers with its choice, again with the codec of the request
+        RequestCodec chosen = Request.negotiateCodec(((StartupCommand)creq.getCommand()).getRequestCodecs(), DeflateRequestCodec.ID);
+        assertEquals(DeflateRequestCodec.ID, chosen.getId());
+        StartupAnswer answer = new StartupAnswer((StartupCommand)creq.getCommand(), 5, 60);
+        answer.setRequestCodec(chosen.getId());
+        assertTrue(((StartupCommand)creq.getCommand()).isBatchedPackets());
+        answer.setBatchedPackets(true);
+        byte[] bytes = new Response(creq, answer, 3, -1).getBytes();
+        assertEquals(GzipRequestCodec.ID, Request.getCodecId(bytes));
+        Response cresp = Response.parse(bytes);
+
+        // from then on the agent encodes with the chosen codec
+        RequestCodec agentCodec = Request.getCodec(((StartupAnswer)cresp.getAnswers()[0]).getRequestCodec());
+        Request ping = new Request(5, -1, new GetHostStatsCommand("hostguid", "hostname", 5), false);
+        ping.setSequence(2);
+        ping.setCodec(agentCodec);
+        bytes = ping.getBytes();
+        assertEquals(DeflateRequestCodec.ID, Request.getCodecId(bytes));
+        compareRequest(Request.parse(bytes), ping);
+
+        // an answer from a management server that predates negotiation keeps the agent on GZIP
+        StartupAnswer oldAnswer = new StartupAnswer(startup, 5, 60);
+        assertEquals(GzipRequestCodec.ID, Request.getCodec(oldAnswer.getRequestCodec()).getId());
+        assertFalse(oldAnswer.isBatchedPackets());
+        assertTrue(((StartupAnswer)cresp.getAnswers()[0]).isBatchedPackets());
+    }
+
+    public void testUnknownCodec() {
+        Request sreq = new Request(2, 3, new GetHostStatsCommand("hostguid", "hostname", 101), true);
+        byte[] bytes = sreq.getBytes();
+        assertEquals(GzipRequestCodec.ID, Request.getCodecId(bytes));
+        bytes[1] = 100;
+        try {
+            Request.parse(bytes);
+            fail("Parsing a request with an unknown codec should fail");
+        } catch (UnsupportedVersionException e) {
+            // expected
+        } catch (ClassNotFoundException e) {
+            fail(e.getMessage());
+        }
+    }
+
     public void testLogging() {
         s_logger.info("Testing Logging");
         GetHostStatsCommand cmd3 = new GetHostStatsCommand("hostguid", "hostname", 101);
@@ -0,0 +1,157 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.api.agent.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.SecurityGroupRulesCmd;
+import com.cloud.agent.api.SecurityGroupRulesCmd.IpPortAndProto;
+import com.cloud.agent.transport.Request;
+
+public class SecurityGroupRulesCmdTest {
+    private static final IpPortAndProto[] BASE_INGRESS = new IpPortAndProto[] {
+        rule("tcp", 22, 22, "10.1.1.0/24", "10.1.2.0/24"),
+        rule("tcp", 80, 80, "0.0.0.0/0"),
+        rule("udp", 53, 53, "10.1.1.5/32")
+    };
+    private static final IpPortAndProto[] BASE_EGRESS = new IpPortAndProto[] {
+        rule("tcp", 1, 65535, "0.0.0.0/0")
+    };
+
+    // one cidr revoked from ssh, one added, udp gone, a new rule and egress unchanged
+    private static final IpPortAndProto[] FULL_INGRESS = new IpPortAndProto[] {
+        rule("tcp", 443, 443, "0.0.0.0/0"),
+        rule("tcp", 22, 22, "10.1.3.0/24", "10.1.1.0/24"),
+        rule("tcp", 80, 80, "0.0.0.0/0")
+    };
+
+    private static SecurityGroupRulesCmd fullCmd() {
+        return new SecurityGroupRulesCmd("10.1.1.10", "02:00:00:00:00:01", "i-2-10-VM", 10L, "full-signature", 7L, FULL_INGRESS, BASE_EGRESS);
+    }
+
+    @Test
+    public void testDeltaCarriesOnlyTheChanges() {
+        SecurityGroupRulesCmd cmd = fullCmd();
+        cmd.convertToDelta("base-signature", BASE_INGRESS, BASE_EGRESS);
+
+        assertTrue(cmd.isDelta());
+        assertEquals("base-signature", cmd.getBaseSignature());
+        assertEquals("full-signature", cmd.getSignature());
+        assertEquals(rules("tcp:443:443=[0.0.0.0/0]", "tcp:22:22=[10.1.3.0/24]"), toMap(cmd.getIngressRuleSet()));
+        assertEquals(rules("tcp:22:22=[10.1.2.0/24]", "udp:53:53=[10.1.1.5/32]"), toMap(cmd.getRevokedIngressRuleSet()));
+        assertEquals(0, cmd.getEgressRuleSet().length);
+        assertEquals(0, cmd.getRevokedEgressRuleSet().length);
+    }
+
+    @Test
+    public void testDeltaAppliedToItsBaseGivesTheFullRuleset() throws Exception {
+        SecurityGroupRulesCmd cmd = fullCmd();
+        cmd.convertToDelta("base-signature", BASE_INGRESS, BASE_EGRESS);
+
+        // the delta goes over the wire before the agent applies it
+        Request request = Request.parse(new Request(1, 2, new Command[] { cmd }, true, true).getBytes());
+        SecurityGroupRulesCmd received = (SecurityGroupRulesCmd)request.getCommand();
+        assertTrue(received.isDelta());
+
+        assertTrue(received.applyDelta(BASE_INGRESS, BASE_EGRESS));
+        assertFalse(received.isDelta());
+        assertNull(received.getRevokedIngressRuleSet());
+        assertEquals(toMap(FULL_INGRESS), toMap(received.getIngressRuleSet()));
+        assertEquals(toMap(BASE_EGRESS), toMap(received.getEgressRuleSet()));
+        assertEquals(SecurityGroupRulesCmd.digestRules(FULL_INGRESS, BASE_EGRESS),
+                SecurityGroupRulesCmd.digestRules(received.getIngressRuleSet(), received.getEgressRuleSet()));
+    }
+
+    @Test
+    public void testDeltaAgainstEmptyAndRevokedRulesets() {
+        SecurityGroupRulesCmd cmd = fullCmd();
+        cmd.convertToDelta("empty", new IpPortAndProto[0], new IpPortAndProto[0]);
+        assertEquals(0, cmd.getRevokedIngressRuleSet().length);
+        assertTrue(cmd.applyDelta(new IpPortAndProto[0], new IpPortAndProto[0]));
+        assertEquals(toMap(FULL_INGRESS), toMap(cmd.getIngressRuleSet()));
+
+        SecurityGroupRulesCmd empty = new SecurityGroupRulesCmd("10.1.1.10", "02:00:00:00:00:01", "i-2-10-VM", 10L, "empty", 8L, new IpPortAndProto[0], new IpPortAndProto[0]);
+        empty.convertToDelta("base-signature", BASE_INGRESS, BASE_EGRESS);
+        assertEquals(toMap(BASE_INGRESS), toMap(empty.getRevokedIngressRuleSet()));
+        assertTrue(empty.applyDelta(BASE_INGRESS, BASE_EGRESS));
+        assertEquals(0, empty.getIngressRuleSet().length);
+        assertEquals(0, empty.getEgressRuleSet().length);
+    }
+
+    @Test
+    public void testDeltaAppliedToAnotherBaseIsRejected() {
+        SecurityGroupRulesCmd cmd = fullCmd();
+        cmd.convertToDelta("base-signature", BASE_INGRESS, BASE_EGRESS);
+
+        // the host programmed something else than what the management server remembers
+        IpPortAndProto[] otherIngress = Arrays.copyOf(BASE_INGRESS, BASE_INGRESS.length + 1);
+        otherIngress[BASE_INGRESS.length] = rule("tcp", 8080, 8080, "0.0.0.0/0");
+        assertFalse(cmd.applyDelta(otherIngress, BASE_EGRESS));
+    }
+
+    @Test
+    public void testDigestIgnoresOrder() {
+        IpPortAndProto[] reordered = new IpPortAndProto[] {
+            rule("tcp", 80, 80, "0.0.0.0/0"),
+            rule("tcp", 22, 22, "10.1.1.0/24", "10.1.3.0/24"),
+            rule("tcp", 443, 443, "0.0.0.0/0")
+        };
+        assertEquals(SecurityGroupRulesCmd.digestRules(FULL_INGRESS, BASE_EGRESS), SecurityGroupRulesCmd.digestRules(reordered, BASE_EGRESS));
+        assertFalse(SecurityGroupRulesCmd.digestRules(FULL_INGRESS, BASE_EGRESS).equals(SecurityGroupRulesCmd.digestRules(BASE_EGRESS, FULL_INGRESS)));
+    }
+
+    private static IpPortAndProto rule(String proto, int startPort, int endPort, String... cidrs) {
+        return new IpPortAndProto(proto, startPort, endPort, cidrs);
+    }
+
+    private static Map<String, Set<String>> toMap(IpPortAndProto[] rules) {
+        Map<String, Set<String>> map = new TreeMap<String, Set<String>>();
+        for (IpPortAndProto rule : rules) {
+            String key = rule.getProto() + ":" + rule.getStartPort() + ":" + rule.getEndPort();
+            Set<String> cidrs = map.get(key);
+            if (cidrs == null) {
+                cidrs = new TreeSet<String>();
+                map.put(key, cidrs);
+            }
+            cidrs.addAll(Arrays.asList(rule.getAllowedCidrs()));
+        }
+        return map;
+    }
+
+    // "proto:start:end=[cidr, cidr]"
+    private static Map<String, Set<String>> rules(String... specs) {
+        Map<String, Set<String>> map = new TreeMap<String, Set<String>>();
+        for (String spec : specs) {
+            String[] parts = spec.split("=");
+            String cidrs = parts[1].substring(1, parts[1].length() - 1);
+            map.put(parts[0], new TreeSet<String>(Arrays.asList(cidrs.split(", "))));
+        }
+        return map;
+    }
+}
@@ -20,6 +20,7 @@ package com.cloud.event;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.annotation.PostConstruct;
@@ -103,6 +104,27 @@ public class UsageEventUtils {
         publishUsageEvent(usageType, accountId, zoneId, entityType, entityUUID);
     }
 
+    /**
+     * Saves the usage events with multi-row inserts and publishes each of
+     * them on the event bus.
+     * @param events events to save
+     * @param entityType type of the resources the events are about
+     * @param entityUUIDs uuid of the resource of each event, in the same order
+     */
+    public static void publishUsageEvents(List<UsageEventVO> events, String entityType, List<String> entityUUIDs) {
+        saveUsageEvents(events);
+        for (int i = 0; i < events.size(); i++) {
+            UsageEventVO event = events.get(i);
+            publishUsageEvent(event.getType(), event.getAccountId(), event.getZoneId(), entityType, entityUUIDs.get(i));
+        }
+    }
+
+    public static void saveUsageEvents(List<UsageEventVO> events) {
+        if (!events.isEmpty()) {
+            _usageEventDao.persistBatch(events);
+        }
+    }
+
     public static void saveUsageEvent(String usageType, long accountId, long zoneId, long resourceId, String resourceName, Long offeringId, Long templateId, Long size) {
         _usageEventDao.persist( new UsageEventVO(usageType, accountId, zoneId, resourceId, resourceName, offeringId, templateId, size));
     }
@@ -30,6 +30,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
@@ -106,6 +107,8 @@ public abstract class AgentAttache {
     protected Status _status = Status.Connecting;
     protected boolean _maintenance;
     protected long                                    _nextSequence;
+    // commands sent through this attache, sampled to weigh the host when balancing agents
+    protected final AtomicLong _commandsSent = new AtomicLong(0);
 
     protected AgentManagerImpl _agentMgr;
 
@@ -245,6 +248,10 @@ public abstract class AgentAttache {
         return _requests.size();
     }
 
+    public long getCommandsSent() {
+        return _commandsSent.get();
+    }
+
     public int getNonRecurringListenersSize() {
         List<Listener> nonRecurringListenersList = new ArrayList<Listener>();
         if (_waitForList.isEmpty()) {
@@ -338,6 +345,7 @@ public abstract class AgentAttache {
 
     public void send(Request req, final Listener listener) throws AgentUnavailableException {
         checkAvailability(req.getCommands());
+        _commandsSent.addAndGet(req.getCommands().length);
 
         long seq = req.getSequence();
         if (listener != null) {
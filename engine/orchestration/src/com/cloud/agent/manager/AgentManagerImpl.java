@@ -68,6 +68,7 @@ import com.cloud.agent.api.StartupSecondaryStorageCommand;
 import com.cloud.agent.api.StartupStorageCommand;
 import com.cloud.agent.api.UnsupportedAnswer;
 import com.cloud.agent.transport.Request;
+import com.cloud.agent.transport.RequestCodec;
 import com.cloud.agent.transport.Response;
 import com.cloud.alert.AlertManager;
 import com.cloud.dc.ClusterVO;
@@ -158,10 +159,11 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
     protected ExecutorService _executor;
     protected ThreadPoolExecutor _connectExecutor;
     protected ScheduledExecutorService _directAgentExecutor;
+    protected ScheduledExecutorService _directAgentPriorityExecutor;
     protected ScheduledExecutorService _monitorExecutor;
 
     protected StateMachine2<Status, Status.Event, Host> _statusStateMachine = Status.getStateMachine();
-    private final Map<Long, Long> _pingMap = new ConcurrentHashMap<Long, Long>(10007);
+    protected final AgentPingTable _pingTable = new AgentPingTable();
 
     @Inject ResourceManager _resourceMgr;
 
@@ -172,12 +174,30 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             "Interval to send application level pings to make sure the connection is still working", false);
     protected final ConfigKey<Float> PingTimeout = new ConfigKey<Float>(Float.class, "ping.timeout", "Advance", "2.5",
             "Multiplier to ping.interval before announcing an agent has timed out", true);
+    protected final ConfigKey<Boolean> PingAdaptive = new ConfigKey<Boolean>(Boolean.class, "ping.interval.adaptive", "Advance", "false",
+            "Lengthen the ping interval of agents that stay connected, up to ping.interval.max, and shorten it, down to ping.interval.min, for agents that reconnect", true);
+    protected final ConfigKey<Integer> PingIntervalMin = new ConfigKey<Integer>(Integer.class, "ping.interval.min", "Advance", "30",
+            "Shortest ping interval, in seconds, of agents that keep reconnecting when ping.interval.adaptive is set", true);
+    protected final ConfigKey<Integer> PingIntervalMax = new ConfigKey<Integer>(Integer.class, "ping.interval.max", "Advance", "300",
+            "Longest ping interval, in seconds, of agents that stay connected when ping.interval.adaptive is set", true);
     protected final ConfigKey<Integer> AlertWait = new ConfigKey<Integer>(Integer.class, "alert.wait", "Advance", "1800",
             "Seconds to wait before alerting on a disconnected agent", true);
     protected final ConfigKey<Integer> DirectAgentLoadSize = new ConfigKey<Integer>(Integer.class, "direct.agent.load.size", "Advance", "16",
             "The number of direct agents to load each time", false);
     protected final ConfigKey<Integer> DirectAgentPoolSize = new ConfigKey<Integer>(Integer.class, "direct.agent.pool.size", "Advance", "500",
             "Default size for DirectAgentPool", false);
+    protected final ConfigKey<Integer> DirectAgentPriorityPoolSize = new ConfigKey<Integer>(Integer.class, "direct.agent.priority.pool.size", "Advance", "50",
+            "Size of the pool that runs the pings and health checks of direct agents, apart from their other commands", false);
+    protected final ConfigKey<Integer> DirectAgentLaneWidth = new ConfigKey<Integer>(Integer.class, "direct.agent.lane.width", "Advance", "4",
+            "How many commands that need not run in sequence a direct agent executes at once", false);
+    protected final ConfigKey<Integer> DirectAgentLaneQueueSize = new ConfigKey<Integer>(Integer.class, "direct.agent.lane.queue.size", "Advance", "128",
+            "How many commands may wait in each lane of a direct agent before further ones are refused", false);
+    protected final ConfigKey<Integer> WriteCoalesceMaxBytes = new ConfigKey<Integer>(Integer.class, "agent.write.coalesce.max.bytes", "Advance", "0",
+            "Maximum size in bytes of a batch of commands packed into one write to an agent, 0 to disable batching. Only used for agents that announced support for batched packets at startup.", false);
+    protected final ConfigKey<Integer> WriteCoalesceMaxDelay = new ConfigKey<Integer>(Integer.class, "agent.write.coalesce.max.delay", "Advance", "0",
+            "Milliseconds a command to an agent may wait for others to join its batch", false);
+    protected final ConfigKey<Integer> AgentRequestCodec = new ConfigKey<Integer>(Integer.class, "agent.request.codec", "Advance", "0",
+            "Id of the codec requests to and from agents are encoded with, 0 for GZIP or 1 for Deflate. Agents that don't support the codec stay on GZIP.", true);
 
     @Override
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
@@ -202,10 +222,12 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
         _connection = new NioServer("AgentManager", Port.value(), Workers.value() + 10, this);
         s_logger.info("Listening on " + Port.value() + " with " + Workers.value() + " workers");
+        _connection.setWriteCoalescing(WriteCoalesceMaxBytes.value(), WriteCoalesceMaxDelay.value());
 
         
         _directAgentExecutor = new ScheduledThreadPoolExecutor(DirectAgentPoolSize.value(), new NamedThreadFactory("DirectAgent"));
         s_logger.debug("Created DirectAgentAttache pool with size: " + DirectAgentPoolSize.value());
+        _directAgentPriorityExecutor = new ScheduledThreadPoolExecutor(DirectAgentPriorityPoolSize.value(), new NamedThreadFactory("DirectAgentPriority"));
         
         _monitorExecutor = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("AgentMonitor"));
 
@@ -337,6 +359,13 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         return PingInterval.value();
     }
 
+    /**
+     * @return the interval, in seconds, the agent has been asked to ping at
+     */
+    public int getPingInterval(long hostId) {
+        return _pingTable.getInterval(hostId, getPingInterval());
+    }
+
     @Override
     public Answer send(Long hostId, Command cmd) throws AgentUnavailableException, OperationTimedoutException {
         Commands cmds = new Commands(Command.OnError.Stop);
@@ -993,6 +1022,9 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             if (host != null) {
                 ready = new ReadyCommand(host.getDataCenterId(), host.getId());
                 attache = createAttacheForConnect(host, link);
+                if (attache instanceof ConnectedAgentAttache) {
+                    ((ConnectedAgentAttache)attache).setCodec(negotiateCodec(startup[0]));
+                }
                 attache = notifyMonitorsOfConnection(attache, startup, false);
             }
         } catch (Exception e) {
@@ -1092,6 +1124,24 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         }
     }
 
+    /**
+     * Picks the codec used on the link of a connecting agent. The same choice
+     * is sent back in the StartupAnswer and set on the attache, so both ends
+     * encode with it from then on.
+     */
+    protected RequestCodec negotiateCodec(StartupCommand startup) {
+        return Request.negotiateCodec(startup.getRequestCodecs(), AgentRequestCodec.value().byteValue());
+    }
+
+    protected StartupAnswer createStartupAnswer(StartupCommand startup, AgentAttache attache) {
+        StartupAnswer answer = new StartupAnswer(startup, attache.getId(), getPingInterval());
+        if (attache instanceof ConnectedAgentAttache) {
+            answer.setRequestCodec(((ConnectedAgentAttache)attache).getCodec().getId());
+        }
+        answer.setBatchedPackets(true);
+        return answer;
+    }
+
     protected void connectAgent(Link link, final Command[] cmds, final Request request) {
         //send startupanswer to agent in the very beginning, so agent can move on without waiting for the answer for an undetermined time, if we put this logic into another thread pool.
         StartupAnswer[] answers = new StartupAnswer[cmds.length];
@@ -1100,6 +1150,8 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             cmd = cmds[i];
             if ((cmd instanceof StartupRoutingCommand) || (cmd instanceof StartupProxyCommand) || (cmd instanceof StartupSecondaryStorageCommand) || (cmd instanceof StartupStorageCommand)) {
                 answers[i] = new StartupAnswer((StartupCommand)cmds[i], 0, getPingInterval());
+                answers[i].setRequestCodec(negotiateCodec((StartupCommand)cmds[i]).getId());
+                answers[i].setBatchedPackets(true);
                 break;
             }
         }
@@ -1110,6 +1162,13 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         } catch (ClosedChannelException e) {
             s_logger.debug("Failed to send startupanswer: " + e.toString());
         }
+        // batch what follows only if the agent reads batched packets, agents that predate them don't say so
+        for (Command startup : cmds) {
+            if (startup instanceof StartupCommand && ((StartupCommand)startup).isBatchedPackets()) {
+                link.setBatching(true);
+                break;
+            }
+        }
         _connectExecutor.execute(new HandleAgentConnectTask(link, cmds, request));
     }
 
@@ -1163,16 +1222,16 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
                 try {
                     if (cmd instanceof StartupRoutingCommand) {
                         final StartupRoutingCommand startup = (StartupRoutingCommand) cmd;
-                        answer = new StartupAnswer(startup, attache.getId(), getPingInterval());
+                        answer = createStartupAnswer(startup, attache);
                     } else if (cmd instanceof StartupProxyCommand) {
                         final StartupProxyCommand startup = (StartupProxyCommand) cmd;
-                        answer = new StartupAnswer(startup, attache.getId(), getPingInterval());
+                        answer = createStartupAnswer(startup, attache);
                     } else if (cmd instanceof StartupSecondaryStorageCommand) {
                         final StartupSecondaryStorageCommand startup = (StartupSecondaryStorageCommand) cmd;
-                        answer = new StartupAnswer(startup, attache.getId(), getPingInterval());
+                        answer = createStartupAnswer(startup, attache);
                     } else if (cmd instanceof StartupStorageCommand) {
                         final StartupStorageCommand startup = (StartupStorageCommand) cmd;
-                        answer = new StartupAnswer(startup, attache.getId(), getPingInterval());
+                        answer = createStartupAnswer(startup, attache);
                     } else if (cmd instanceof ShutdownCommand) {
                         final ShutdownCommand shutdown = (ShutdownCommand) cmd;
                         final String reason = shutdown.getReason();
@@ -1215,7 +1274,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
                                             " for agent id=" + cmdHostId + "; can't find the host in the DB");
                                 }
                             }
-                            answer = new PingAnswer((PingCommand) cmd);
+                            answer = new PingAnswer((PingCommand) cmd, getPingInterval(hostId));
                         } else if (cmd instanceof ReadyAnswer) {
                             HostVO host = _hostDao.findById(attache.getId());
                             if (host == null) {
@@ -1400,9 +1459,10 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         AgentAttache attache;
 
         attache = createAttacheForDirectConnect(host, resource);
+        int pingInterval = connectedForPing(host.getId());
         StartupAnswer[] answers = new StartupAnswer[cmds.length];
         for (int i = 0; i < answers.length; i++) {
-            answers[i] = new StartupAnswer(cmds[i], attache.getId(), PingInterval.value());
+            answers[i] = new StartupAnswer(cmds[i], attache.getId(), pingInterval);
         }
         attache.process(answers);
         attache = notifyMonitorsOfConnection(attache, cmds, forRebalance);
@@ -1432,12 +1492,46 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         return _directAgentExecutor;
     }
 
+    public ScheduledExecutorService getDirectAgentPriorityPool() {
+        return _directAgentPriorityExecutor;
+    }
+
+    public int getDirectAgentLaneWidth() {
+        return DirectAgentLaneWidth.value();
+    }
+
+    public int getDirectAgentLaneQueueSize() {
+        return DirectAgentLaneQueueSize.value();
+    }
+
     public Long getAgentPingTime(long agentId) {
-        return _pingMap.get(agentId);
+        return _pingTable.getLastPinged(agentId);
     }
 
     public void pingBy(long agentId) {
-        _pingMap.put(agentId, InaccurateClock.getTimeInSeconds());
+        _pingTable.pinged(agentId, InaccurateClock.getTimeInSeconds(), getPingInterval(), PingIntervalMax.value(), PingAdaptive.value());
+    }
+
+    protected int connectedForPing(long agentId) {
+        return _pingTable.connected(agentId, InaccurateClock.getTimeInSeconds(), getPingInterval(), PingIntervalMin.value(), PingAdaptive.value());
+    }
+
+    /**
+     * Writes the pings received since the last flush to host.last_ping
+     */
+    protected void flushPings() {
+        Map<Long, Long> pings = _pingTable.getUnflushed();
+        if (pings.isEmpty()) {
+            return;
+        }
+
+        Map<Long, Long> lastPinged = new HashMap<Long, Long>(pings.size());
+        for (Map.Entry<Long, Long> entry : pings.entrySet()) {
+            // host.last_ping counts in units of 1024 ms
+            lastPinged.put(entry.getKey(), (entry.getValue() * 1000) >> 10);
+        }
+        _hostDao.updateLastPinged(lastPinged, _nodeId);
+        _pingTable.markFlushed(pings);
     }
 
     protected class MonitorTask implements Runnable {
@@ -1445,6 +1539,12 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         public void run() {
             s_logger.trace("Agent Monitor is started.");
 
+            try {
+                flushPings();
+            } catch (Throwable th) {
+                s_logger.warn("Unable to record the last ping time of agents: " + th.getMessage());
+            }
+
             try {
                 List<Long> behindAgents = findAgentsBehindOnPing();
                 for (Long agentId : behindAgents) {
@@ -1469,28 +1569,6 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
                         }
                     }
                 }
-
-                SearchCriteriaService<HostVO, HostVO> sc = SearchCriteria2.create(HostVO.class);
-                sc.addAnd(sc.getEntity().getResourceState(), Op.IN, ResourceState.PrepareForMaintenance, ResourceState.ErrorInMaintenance);
-                List<HostVO> hosts = sc.list();
-
-                for (HostVO host : hosts) {
-                    long hostId = host.getId();
-                    DataCenterVO dcVO = _dcDao.findById(host.getDataCenterId());
-                    HostPodVO podVO = _podDao.findById(host.getPodId());
-                    String hostDesc = "name: " + host.getName() + " (id:" + hostId + "), availability zone: " + dcVO.getName() + ", pod: " + podVO.getName();
-
-                    if (host.getType() != Host.Type.Storage) {
-//                        List<VMInstanceVO> vos = _vmDao.listByHostId(hostId);
-//                        List<VMInstanceVO> vosMigrating = _vmDao.listVmsMigratingFromHost(hostId);
-//                        if (vos.isEmpty() && vosMigrating.isEmpty()) {
-//                            _alertMgr.sendAlert(AlertManager.ALERT_TYPE_HOST, host.getDataCenterId(), host.getPodId(), "Migration Complete for host " + hostDesc, "Host ["
-//                                    + hostDesc
-//                                    + "] is ready for maintenance");
-//                            _resourceMgr.resourceStateTransitTo(host, ResourceState.Event.InternalEnterMaintenance, _msId);
-//                        }
-                    }
-                }
             } catch (Throwable th) {
                 s_logger.error("Caught the following exception: ", th);
             }
@@ -1499,13 +1577,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         }
 
         protected List<Long> findAgentsBehindOnPing() {
-            List<Long> agentsBehind = new ArrayList<Long>();
-            long cutoffTime = InaccurateClock.getTimeInSeconds() - getTimeout();
-            for (Map.Entry<Long, Long> entry : _pingMap.entrySet()) {
-                if (entry.getValue() < cutoffTime) {
-                    agentsBehind.add(entry.getKey());
-                }
-            }
+            List<Long> agentsBehind = _pingTable.findBehind(InaccurateClock.getTimeInSeconds(), PingTimeout.value());
 
             if (agentsBehind.size() > 0) {
                 s_logger.info("Found the following agents behind on ping: " + agentsBehind);
@@ -1550,12 +1622,12 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             }
 
             // NOTE: We don't use pingBy here because we're initiating.
-            _pingMap.put(host.getId(), InaccurateClock.getTimeInSeconds());
+            connectedForPing(host.getId());
         }
 
         @Override
         public boolean processDisconnect(long agentId, Status state) {
-            _pingMap.remove(agentId);
+            _pingTable.disconnected(agentId);
             return true;
         }
 
@@ -1578,7 +1650,9 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {Workers, Port, PingInterval, PingTimeout, Wait, AlertWait, DirectAgentLoadSize, DirectAgentPoolSize};
+        return new ConfigKey<?>[] {Workers, Port, PingInterval, PingTimeout, PingAdaptive, PingIntervalMin, PingIntervalMax, Wait, AlertWait, DirectAgentLoadSize, DirectAgentPoolSize,
+                DirectAgentPriorityPoolSize, DirectAgentLaneWidth, DirectAgentLaneQueueSize, WriteCoalesceMaxBytes,
+                WriteCoalesceMaxDelay, AgentRequestCodec};
     }
 
 }
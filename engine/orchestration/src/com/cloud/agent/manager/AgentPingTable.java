@@ -0,0 +1,183 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * When the agents connected to this management server last pinged, and the
+ * interval each one has been asked to ping at.  A ping only writes the entry
+ * of its own host, so recording it takes no lock and no database write; the
+ * monitor scans the table for agents that are behind and flushes the ping
+ * times to host.last_pinged in batches.
+ *
+ * With adaptive intervals an agent that stays connected has its interval
+ * doubled, up to the maximum, after every STABLE_PINGS pings that arrive on
+ * time.  Every reconnect halves it, down to the minimum, and has to be
+ * worked off by another STABLE_PINGS pings before the interval grows again.
+ */
+public class AgentPingTable {
+    protected static final int STABLE_PINGS = 10;
+    protected static final int MAX_FLAPS = 4;
+
+    private final ConcurrentHashMap<Long, PingEntry> _entries = new ConcurrentHashMap<Long, PingEntry>(10007);
+
+    /**
+     * Records that the agent has (re)connected.
+     * @return the interval, in seconds, the agent should ping at
+     */
+    public int connected(long hostId, long now, int baseInterval, int minInterval, boolean adaptive) {
+        PingEntry entry = getOrCreate(hostId, baseInterval);
+        entry._interval = adaptive ? Math.max(Math.min(minInterval, baseInterval), baseInterval >> entry._flaps) : baseInterval;
+        // agents that connect on their own start with the base interval and learn theirs from the first ping answer
+        entry._timeoutInterval = Math.max(baseInterval, entry._interval);
+        entry._onTimePings = 0;
+        entry._lastPinged = now;
+        entry._connected = true;
+        return entry._interval;
+    }
+
+    /**
+     * Records a ping from the agent.
+     * @return the interval, in seconds, the agent should ping at from now on
+     */
+    public int pinged(long hostId, long now, int baseInterval, int maxInterval, boolean adaptive) {
+        PingEntry entry = getOrCreate(hostId, baseInterval);
+        long last = entry._lastPinged;
+        int interval = entry._interval;
+        entry._lastPinged = now;
+        entry._connected = true;
+
+        if (!adaptive) {
+            entry._interval = baseInterval;
+            entry._timeoutInterval = baseInterval;
+            return baseInterval;
+        }
+
+        if (now - last > interval + interval / 2) {
+            entry._onTimePings = 0;
+        } else if (++entry._onTimePings >= STABLE_PINGS) {
+            entry._onTimePings = 0;
+            if (entry._flaps > 0) {
+                entry._flaps--;
+            } else if (interval < maxInterval) {
+                entry._interval = Math.min(maxInterval, interval * 2);
+            }
+        }
+        entry._timeoutInterval = entry._interval;
+        return entry._interval;
+    }
+
+    /**
+     * Records that the agent has disconnected; the entry is kept so that a
+     * reconnect counts against the agent's stability.
+     */
+    public void disconnected(long hostId) {
+        PingEntry entry = _entries.get(hostId);
+        if (entry != null && entry._connected) {
+            entry._connected = false;
+            entry._flaps = Math.min(MAX_FLAPS, entry._flaps + 1);
+        }
+    }
+
+    public void remove(long hostId) {
+        _entries.remove(hostId);
+    }
+
+    /**
+     * @return last ping time, in seconds, of a connected agent, null if it is not connected
+     */
+    public Long getLastPinged(long hostId) {
+        PingEntry entry = _entries.get(hostId);
+        return entry != null && entry._connected ? entry._lastPinged : null;
+    }
+
+    public int getInterval(long hostId, int baseInterval) {
+        PingEntry entry = _entries.get(hostId);
+        return entry != null ? entry._interval : baseInterval;
+    }
+
+    /**
+     * @return connected agents that have not pinged for timeoutMultiplier times their interval
+     */
+    public List<Long> findBehind(long now, float timeoutMultiplier) {
+        List<Long> behind = new ArrayList<Long>();
+        for (Map.Entry<Long, PingEntry> e : _entries.entrySet()) {
+            PingEntry entry = e.getValue();
+            if (entry._connected && entry._lastPinged < now - (long)(timeoutMultiplier * entry._timeoutInterval)) {
+                behind.add(e.getKey());
+            }
+        }
+        return behind;
+    }
+
+    /**
+     * @return ping times of the connected agents that pinged since their last flush
+     */
+    public Map<Long, Long> getUnflushed() {
+        Map<Long, Long> pings = new HashMap<Long, Long>();
+        for (Map.Entry<Long, PingEntry> e : _entries.entrySet()) {
+            PingEntry entry = e.getValue();
+            long lastPinged = entry._lastPinged;
+            if (entry._connected && lastPinged > entry._lastFlushed) {
+                pings.put(e.getKey(), lastPinged);
+            }
+        }
+        return pings;
+    }
+
+    public void markFlushed(Map<Long, Long> pings) {
+        for (Map.Entry<Long, Long> e : pings.entrySet()) {
+            PingEntry entry = _entries.get(e.getKey());
+            if (entry != null) {
+                entry._lastFlushed = e.getValue();
+            }
+        }
+    }
+
+    private PingEntry getOrCreate(long hostId, int baseInterval) {
+        PingEntry entry = _entries.get(hostId);
+        if (entry == null) {
+            entry = new PingEntry(baseInterval);
+            PingEntry existing = _entries.putIfAbsent(hostId, entry);
+            if (existing != null) {
+                entry = existing;
+            }
+        }
+        return entry;
+    }
+
+    private static class PingEntry {
+        volatile long _lastPinged;
+        volatile long _lastFlushed;
+        volatile int _interval;
+        volatile int _timeoutInterval;
+        volatile boolean _connected;
+        volatile int _flaps;
+        // only updated by the pings of the agent, which do not overlap
+        int _onTimePings;
+
+        PingEntry(int interval) {
+            _interval = interval;
+            _timeoutInterval = interval;
+        }
+    }
+}
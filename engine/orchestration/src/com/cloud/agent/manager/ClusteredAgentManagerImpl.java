@@ -24,6 +24,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -72,6 +73,9 @@ import com.cloud.cluster.ClusteredAgentRebalanceService;
 import com.cloud.cluster.ManagementServerHost;
 import com.cloud.cluster.ManagementServerHostVO;
 import com.cloud.cluster.agentlb.AgentLoadBalancerPlanner;
+import com.cloud.cluster.agentlb.ConsistentHashAgentLoadBalancerPlanner;
+import com.cloud.cluster.agentlb.ConsistentHashAgentLoadBalancerPlanner.PlannedTransfer;
+import com.cloud.cluster.agentlb.ConsistentHashRing;
 import com.cloud.cluster.agentlb.HostTransferMapVO;
 import com.cloud.cluster.agentlb.HostTransferMapVO.HostTransferState;
 import com.cloud.cluster.agentlb.dao.HostTransferMapDao;
@@ -122,6 +126,14 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
 
     // @com.cloud.utils.component.Inject(adapter = AgentLoadBalancerPlanner.class)
     @Inject protected List<AgentLoadBalancerPlanner> _lbPlanners;
+    @Inject protected ConsistentHashAgentLoadBalancerPlanner _ringPlanner;
+
+    // when this management server first left an unowned cluster to the one it hashes to
+    private final Map<Long, Long> _clusterDeferredSince = new HashMap<Long, Long>();
+    // command counts of the hosts loaded here at the last scan, and their smoothed and last reported rates
+    private final Map<Long, long[]> _commandSamples = new HashMap<Long, long[]>();
+    private final Map<Long, Float> _commandRates = new HashMap<Long, Float>();
+    private final Map<Long, Float> _reportedCommandRates = new HashMap<Long, Float>();
 
     @Inject ConfigurationDao _configDao;
     @Inject
@@ -139,6 +151,10 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
             "How many agents to connect to in each round", true);
     protected final ConfigKey<Integer> ScanInterval = new ConfigKey<Integer>(Integer.class, "direct.agent.scan.interval", "Advanced", "90",
         "Interval between scans to load agents", false, ConfigKey.Scope.Global, 1000);
+    protected final ConfigKey<Boolean> RingOwnership = new ConfigKey<Boolean>(Boolean.class, "agent.lb.consistent.hash", "Advanced", "false",
+            "Assign clusters to management servers with a consistent hash ring weighted by host command rates. Unowned clusters are left to the management server they hash to, and with agent.lb.enabled hosts are moved to the management server the ring assigns them to", true);
+    protected final ConfigKey<Integer> MaxTransfersPerRound = new ConfigKey<Integer>(Integer.class, "agent.lb.max.transfers", "Advanced", "10",
+            "How many hosts a management server asks its peers for in each round of consistent hash rebalancing", true);
     
 
     @Override
@@ -196,7 +212,8 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
 
         // for agents that are self-managed, threshold to be considered as disconnected after pingtimeout
         long cutSeconds = (System.currentTimeMillis() >> 10) - getTimeout();
-        List<HostVO> hosts = _hostDao.findAndUpdateDirectAgentToLoad(cutSeconds, LoadSize.value().longValue(), _nodeId);
+        Set<Long> clustersToSkip = RingOwnership.value() ? getClustersOwnedByPeers() : Collections.<Long>emptySet();
+        List<HostVO> hosts = _hostDao.findAndUpdateDirectAgentToLoad(cutSeconds, LoadSize.value().longValue(), _nodeId, clustersToSkip);
         List<HostVO> appliances = _hostDao.findAndUpdateApplianceToLoad(cutSeconds, _nodeId);
         hosts.addAll(appliances);
 
@@ -230,6 +247,110 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("End scanning directly connected hosts");
         }
+
+        if (RingOwnership.value()) {
+            updateCommandRates();
+            if (isAgentRebalanceEnabled()) {
+                rebalanceByRing();
+            }
+        }
+    }
+
+    /**
+     * @return unowned clusters that hash to another management server, unless
+     * that management server has left them unowned for two scan intervals
+     */
+    private Set<Long> getClustersOwnedByPeers() {
+        Set<Long> clusters = new HashSet<Long>();
+        List<Long> unowned = _hostDao.findClustersForHostsNotOwnedByAnyManagementServer();
+        _clusterDeferredSince.keySet().retainAll(unowned);
+        if (unowned.isEmpty()) {
+            return clusters;
+        }
+
+        ConsistentHashRing ring = _ringPlanner.getRing();
+        long now = System.currentTimeMillis();
+        for (Long clusterId : unowned) {
+            Long owner = ring.getOwner(clusterId);
+            if (owner == null || owner == _nodeId) {
+                continue;
+            }
+            Long since = _clusterDeferredSince.get(clusterId);
+            if (since == null) {
+                since = now;
+                _clusterDeferredSince.put(clusterId, since);
+            }
+            if (now - since < 2L * ScanInterval.value()) {
+                clusters.add(clusterId);
+            } else if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Management server " + owner + " has not loaded cluster " + clusterId + " that hashes to it, loading it here");
+            }
+        }
+        return clusters;
+    }
+
+    /**
+     * Samples the commands sent to the hosts loaded here and reports the rates
+     * that changed noticeably, for the ring to weigh clusters with
+     */
+    private void updateCommandRates() {
+        long now = System.currentTimeMillis();
+        List<AgentAttache> attaches;
+        synchronized (_agents) {
+            attaches = new ArrayList<AgentAttache>(_agents.values());
+        }
+
+        Set<Long> hostIds = new HashSet<Long>();
+        for (AgentAttache attache : attaches) {
+            if (attache.forForward()) {
+                continue;
+            }
+            long hostId = attache.getId();
+            hostIds.add(hostId);
+            long count = attache.getCommandsSent();
+            long[] last = _commandSamples.put(hostId, new long[] {count, now});
+            if (last == null || count < last[0] || now <= last[1]) {
+                continue;
+            }
+
+            float rate = (count - last[0]) * 1000f / (now - last[1]);
+            Float smoothed = _commandRates.get(hostId);
+            smoothed = smoothed == null ? rate : (smoothed + rate) / 2;
+            _commandRates.put(hostId, smoothed);
+
+            Float reported = _reportedCommandRates.get(hostId);
+            if (reported == null || Math.abs(smoothed - reported) > Math.max(1, reported * 0.2f)) {
+                try {
+                    _hostDao.updateCommandRate(hostId, smoothed);
+                    _reportedCommandRates.put(hostId, smoothed);
+                } catch (Exception e) {
+                    s_logger.warn("Unable to report the command rate of host " + hostId + ": " + e.getMessage());
+                }
+            }
+        }
+        _commandSamples.keySet().retainAll(hostIds);
+        _commandRates.keySet().retainAll(hostIds);
+        _reportedCommandRates.keySet().retainAll(hostIds);
+    }
+
+    /**
+     * Asks the peers for the hosts the ring assigns to this management server,
+     * at most agent.lb.max.transfers of them per round
+     */
+    protected void rebalanceByRing() {
+        int budget = MaxTransfersPerRound.value();
+        for (PlannedTransfer transfer : _ringPlanner.planTransfers()) {
+            if (budget <= 0) {
+                break;
+            }
+            if (transfer.getPlannedOwner() != _nodeId || _hostTransferDao.findById(transfer.getHostId()) != null) {
+                continue;
+            }
+            s_logger.debug("Asking management server " + transfer.getCurrentOwner() + " to give away host id=" + transfer.getHostId() + " as the consistent hash ring assigns it to " + _nodeId);
+            if (requestHostTransfer(transfer.getHostId(), transfer.getCurrentOwner())) {
+                budget--;
+            }
+        }
     }
 
     private class DirectAgentScanTimerTask extends TimerTask {
@@ -782,6 +903,11 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
 
     public void startRebalanceAgents() {
         s_logger.debug("Management server " + _nodeId + " is asking other peers to rebalance their agents");
+        if (RingOwnership.value()) {
+            rebalanceByRing();
+            return;
+        }
+
         List<ManagementServerHostVO> allMS = _mshostDao.listBy(ManagementServerHost.State.Up);
         SearchCriteriaService<HostVO, HostVO> sc = SearchCriteria2.create(HostVO.class);
         sc.addAnd(sc.getEntity().getManagementServerId(), Op.NNULL);
@@ -811,6 +937,10 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
 
                 List<HostVO> hostsToRebalance = new ArrayList<HostVO>();
                 for (AgentLoadBalancerPlanner lbPlanner : _lbPlanners) {
+                    if (lbPlanner == _ringPlanner) {
+                        // only used with agent.lb.consistent.hash
+                        continue;
+                    }
                     hostsToRebalance = lbPlanner.getHostsToRebalance(node.getMsid(), avLoad);
                     if (hostsToRebalance != null && !hostsToRebalance.isEmpty()) {
                         break;
@@ -825,36 +955,13 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
                     for (HostVO host : hostsToRebalance) {
                         long hostId = host.getId();
                         s_logger.debug("Asking management server " + node.getMsid() + " to give away host id=" + hostId);
-                        boolean result = true;
 
                         if (_hostTransferDao.findById(hostId) != null) {
                             s_logger.warn("Somebody else is already rebalancing host id: " + hostId);
                             continue;
                         }
 
-                        HostTransferMapVO transfer = null;
-                        try {
-                            transfer = _hostTransferDao.startAgentTransfering(hostId, node.getMsid(), _nodeId);
-                            Answer[] answer = sendRebalanceCommand(node.getMsid(), hostId, node.getMsid(), _nodeId, Event.RequestAgentRebalance);
-                            if (answer == null) {
-                                s_logger.warn("Failed to get host id=" + hostId + " from management server " + node.getMsid());
-                                result = false;
-                            }
-                        } catch (Exception ex) {
-                            s_logger.warn("Failed to get host id=" + hostId + " from management server " + node.getMsid(), ex);
-                            result = false;
-                        } finally {
-                            if (transfer != null) {
-                                HostTransferMapVO transferState = _hostTransferDao.findByIdAndFutureOwnerId(transfer.getId(), _nodeId);
-                                if (!result && transferState != null && transferState.getState() == HostTransferState.TransferRequested) {
-                                    if (s_logger.isDebugEnabled()) {
-                                        s_logger.debug("Removing mapping from op_host_transfer as it failed to be set to transfer mode");
-                                    }
-                                    //just remove the mapping (if exists) as nothing was done on the peer management server yet
-                                    _hostTransferDao.remove(transfer.getId());
-                                }
-                            }
-                        }
+                        requestHostTransfer(hostId, node.getMsid());
                     }
                 } else {
                     s_logger.debug("Found no hosts to rebalance from the management server " + node.getMsid());
@@ -863,6 +970,37 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
         }
     }
 
+    /**
+     * Asks the current owner of the host to hand it over to this management server
+     */
+    protected boolean requestHostTransfer(long hostId, long currentOwnerId) {
+        boolean result = true;
+        HostTransferMapVO transfer = null;
+        try {
+            transfer = _hostTransferDao.startAgentTransfering(hostId, currentOwnerId, _nodeId);
+            Answer[] answer = sendRebalanceCommand(currentOwnerId, hostId, currentOwnerId, _nodeId, Event.RequestAgentRebalance);
+            if (answer == null) {
+                s_logger.warn("Failed to get host id=" + hostId + " from management server " + currentOwnerId);
+                result = false;
+            }
+        } catch (Exception ex) {
+            s_logger.warn("Failed to get host id=" + hostId + " from management server " + currentOwnerId, ex);
+            result = false;
+        } finally {
+            if (transfer != null) {
+                HostTransferMapVO transferState = _hostTransferDao.findByIdAndFutureOwnerId(transfer.getId(), _nodeId);
+                if (!result && transferState != null && transferState.getState() == HostTransferState.TransferRequested) {
+                    if (s_logger.isDebugEnabled()) {
+                        s_logger.debug("Removing mapping from op_host_transfer as it failed to be set to transfer mode");
+                    }
+                    //just remove the mapping (if exists) as nothing was done on the peer management server yet
+                    _hostTransferDao.remove(transfer.getId());
+                }
+            }
+        }
+        return result;
+    }
+
     private Answer[] sendRebalanceCommand(long peer, long agentId, long currentOwnerId, long futureOwnerId, Event event) {
         TransferAgentCommand transfer = new TransferAgentCommand(agentId, currentOwnerId, futureOwnerId, event);
         Commands commands = new Commands(Command.OnError.Stop);
@@ -1416,6 +1554,10 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
         keysLst.add(ConnectedAgentThreshold);
         keysLst.add(LoadSize);
         keysLst.add(ScanInterval);
+        keysLst.add(RingOwnership);
+        keysLst.add(MaxTransfersPerRound);
+        keysLst.add(ConsistentHashAgentLoadBalancerPlanner.VirtualNodes);
+        keysLst.add(ConsistentHashAgentLoadBalancerPlanner.LoadFactor);
         return keysLst.toArray(new ConfigKey<?>[keysLst.size()]);
     }
 }
@@ -21,6 +21,7 @@ import java.nio.channels.ClosedChannelException;
 import org.apache.log4j.Logger;
 
 import com.cloud.agent.transport.Request;
+import com.cloud.agent.transport.RequestCodec;
 import com.cloud.exception.AgentUnavailableException;
 import com.cloud.host.Status;
 import com.cloud.utils.nio.Link;
@@ -32,14 +33,27 @@ public class ConnectedAgentAttache extends AgentAttache {
     private static final Logger s_logger = Logger.getLogger(ConnectedAgentAttache.class);
 
     protected Link _link;
+    protected volatile RequestCodec _codec = Request.getDefaultCodec();
 
     public ConnectedAgentAttache(AgentManagerImpl agentMgr, final long id, final Link link, boolean maintenance) {
         super(agentMgr, id, maintenance);
         _link = link;
     }
 
+    /**
+     * @return codec negotiated with the agent when it connected.
+     */
+    public RequestCodec getCodec() {
+        return _codec;
+    }
+
+    public void setCodec(RequestCodec codec) {
+        _codec = codec;
+    }
+
     @Override
     public synchronized void send(Request req) throws AgentUnavailableException {
+        req.setCodec(_codec);
         try {
             _link.send(req.toBytes());
         } catch (ClosedChannelException e) {
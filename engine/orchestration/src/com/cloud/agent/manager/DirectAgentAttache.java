@@ -20,13 +20,18 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.StandardMBean;
 
 import org.apache.log4j.Logger;
 
 import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.CheckHealthCommand;
 import com.cloud.agent.api.Command;
 import com.cloud.agent.api.CronCommand;
 import com.cloud.agent.api.PingCommand;
+import com.cloud.agent.api.PingTestCommand;
 import com.cloud.agent.api.StartupAnswer;
 import com.cloud.agent.transport.Request;
 import com.cloud.agent.transport.Response;
@@ -34,19 +39,73 @@ import com.cloud.exception.AgentUnavailableException;
 import com.cloud.host.Status;
 import com.cloud.host.Status.Event;
 import com.cloud.resource.ServerResource;
+import com.cloud.utils.mgmt.JmxUtil;
 
 public class DirectAgentAttache extends AgentAttache {
     private final static Logger s_logger = Logger.getLogger(DirectAgentAttache.class);
 
     ServerResource _resource;
     List<ScheduledFuture<?>> _futures = new ArrayList<ScheduledFuture<?>>();
+    ScheduledFuture<?> _pingFuture;
+    int _pingInterval;
+    final AtomicBoolean _pingPending = new AtomicBoolean(false);
     AgentManagerImpl _mgr;
     long _seq = 0;
 
+    // commands that must run in sequence, one at a time
+    protected final DirectAgentLane _sequenceLane;
+    // commands that need not run in sequence, up to direct.agent.lane.width at a time
+    protected final DirectAgentLane _concurrentLane;
+    // pings and health checks, on a pool of their own so that slow commands cannot hold them up
+    protected final DirectAgentLane _priorityLane;
+
     public DirectAgentAttache(AgentManagerImpl agentMgr, long id, ServerResource resource, boolean maintenance, AgentManagerImpl mgr) {
         super(agentMgr, id, maintenance);
         _resource = resource;
         _mgr = mgr;
+
+        int queueSize = agentMgr.getDirectAgentLaneQueueSize();
+        _sequenceLane = new DirectAgentLane(id + "-sequence", agentMgr.getDirectAgentPool(), 1, queueSize);
+        _concurrentLane = new DirectAgentLane(id + "-concurrent", agentMgr.getDirectAgentPool(), agentMgr.getDirectAgentLaneWidth(), queueSize);
+        _priorityLane = new DirectAgentLane(id + "-priority", agentMgr.getDirectAgentPriorityPool(), 1, queueSize);
+        registerLanes();
+    }
+
+    private DirectAgentLane[] getLanes() {
+        return new DirectAgentLane[] {_sequenceLane, _concurrentLane, _priorityLane};
+    }
+
+    private void registerLanes() {
+        for (DirectAgentLane lane : getLanes()) {
+            try {
+                JmxUtil.registerMBean("DirectAgentLane", lane.getName(), new StandardMBean(lane, DirectAgentLaneMBean.class));
+            } catch (Exception e) {
+                s_logger.debug("Unable to register the mbean of lane " + lane.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void unregisterLanes() {
+        for (DirectAgentLane lane : getLanes()) {
+            lane.close();
+            try {
+                JmxUtil.unregisterMBean("DirectAgentLane", lane.getName());
+            } catch (Exception e) {
+                s_logger.debug("Unable to unregister the mbean of lane " + lane.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    protected DirectAgentLane getLane(Request req) {
+        if (req.executeInSequence()) {
+            return _sequenceLane;
+        }
+        for (Command cmd : req.getCommands()) {
+            if (!(cmd instanceof CheckHealthCommand || cmd instanceof PingTestCommand || cmd instanceof PingCommand)) {
+                return _concurrentLane;
+            }
+        }
+        return _priorityLane;
     }
 
     @Override
@@ -60,11 +119,17 @@ public class DirectAgentAttache extends AgentAttache {
         }
 
         synchronized(this) {
+            if (_pingFuture != null) {
+                _pingFuture.cancel(false);
+                _pingFuture = null;
+            }
             if( _resource != null ) {
                 _resource.disconnected();
                 _resource = null;
             }
         }
+
+        unregisterLanes();
     }
 
     @Override
@@ -88,13 +153,15 @@ public class DirectAgentAttache extends AgentAttache {
             Answer[] answers = resp.getAnswers();
             if (answers != null && answers[0] instanceof StartupAnswer) {
                 StartupAnswer startup = (StartupAnswer)answers[0];
-                int interval = startup.getPingInterval();
-                _futures.add(_agentMgr.getDirectAgentPool().scheduleAtFixedRate(new PingTask(), interval, interval, TimeUnit.SECONDS));
+                schedulePing(startup.getPingInterval());
             }
         } else {
             Command[] cmds = req.getCommands();
             if (cmds.length > 0 && !(cmds[0] instanceof CronCommand)) {
-                _agentMgr.getDirectAgentPool().execute(new Task(req));
+                DirectAgentLane lane = getLane(req);
+                if (!lane.submit(new Task(req))) {
+                    throw new AgentUnavailableException("Unable to queue the request as lane " + lane.getName() + " is full", _id);
+                }
             } else {
                 CronCommand cmd = (CronCommand)cmds[0];
                 _futures.add(_agentMgr.getDirectAgentPool().scheduleAtFixedRate(new Task(req), cmd.getInterval(), cmd.getInterval(), TimeUnit.SECONDS));
@@ -108,10 +175,30 @@ public class DirectAgentAttache extends AgentAttache {
             StartupAnswer startup = (StartupAnswer)answers[0];
             int interval = startup.getPingInterval();
             s_logger.info("StartupAnswer received " + startup.getHostId() + " Interval = " + interval );
-            _futures.add(_agentMgr.getDirectAgentPool().scheduleAtFixedRate(new PingTask(), interval, interval, TimeUnit.SECONDS));
+            schedulePing(interval);
         }
     }
 
+    protected synchronized void schedulePing(int interval) {
+        if (_resource == null) {
+            return;
+        }
+        if (_pingFuture != null) {
+            _pingFuture.cancel(false);
+        }
+        _pingInterval = interval;
+        final PingTask task = new PingTask();
+        _pingFuture = _agentMgr.getDirectAgentPriorityPool().scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                // skip a round rather than queue pings behind one that is still running
+                if (_pingPending.compareAndSet(false, true) && !_priorityLane.submit(task)) {
+                    _pingPending.set(false);
+                }
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
     @Override
     protected void finalize() throws Throwable {
         try {
@@ -150,11 +237,19 @@ public class DirectAgentAttache extends AgentAttache {
                     }
 
                     _mgr.handleCommands(DirectAgentAttache.this, seq, new Command[]{cmd});
+
+                    int interval = _mgr.getPingInterval(_id);
+                    if (interval != _pingInterval) {
+                        s_logger.info("Changing ping interval of " + _id + " from " + _pingInterval + " to " + interval + " seconds");
+                        schedulePing(interval);
+                    }
                 } else {
                     s_logger.debug("Unable to send ping because agent is disconnected " + _id);
                 }
             } catch (Exception e) {
                 s_logger.warn("Unable to complete the ping task", e);
+            } finally {
+                _pingPending.set(false);
             }
         }
     }
@@ -0,0 +1,194 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A lane of tasks for one direct agent.  At most width tasks of the lane run
+ * on the shared executor at once; the rest wait in the lane, which holds up to
+ * capacity of them and refuses more, so that a host that is slow to answer
+ * does not take over the threads of the pool it shares with the other hosts.
+ */
+public class DirectAgentLane implements DirectAgentLaneMBean {
+    private static final Logger s_logger = Logger.getLogger(DirectAgentLane.class);
+
+    private final String _name;
+    private final Executor _executor;
+    private final int _width;
+    private final int _capacity;
+
+    private final LinkedList<LaneTask> _queue = new LinkedList<LaneTask>();
+    private int _running;
+    private boolean _closed;
+
+    private final AtomicLong _executed = new AtomicLong(0);
+    private final AtomicLong _rejected = new AtomicLong(0);
+    private final AtomicLong _totalWait = new AtomicLong(0);
+    private final AtomicLong _totalRun = new AtomicLong(0);
+    private volatile long _maxWait;
+    private volatile long _maxRun;
+
+    public DirectAgentLane(String name, Executor executor, int width, int capacity) {
+        _name = name;
+        _executor = executor;
+        _width = Math.max(1, width);
+        _capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * @return false if the lane is full or closed, or the executor refuses the
+     *         task, and the task was not taken
+     */
+    public boolean submit(Runnable task) {
+        LaneTask laneTask = new LaneTask(task);
+        synchronized (this) {
+            if (_closed) {
+                return false;
+            }
+            if (_running >= _width) {
+                if (_queue.size() >= _capacity) {
+                    _rejected.incrementAndGet();
+                    return false;
+                }
+                _queue.add(laneTask);
+                return true;
+            }
+            _running++;
+        }
+        return execute(laneTask);
+    }
+
+    /**
+     * Drops the waiting tasks and refuses new ones; running tasks complete.
+     */
+    public synchronized void close() {
+        _closed = true;
+        _queue.clear();
+    }
+
+    private boolean execute(LaneTask task) {
+        try {
+            _executor.execute(task);
+            return true;
+        } catch (RuntimeException e) {
+            s_logger.warn("Unable to execute a task of lane " + _name + ": " + e.getMessage());
+            _rejected.incrementAndGet();
+            done();
+            return false;
+        }
+    }
+
+    private void done() {
+        LaneTask next;
+        synchronized (this) {
+            next = _queue.poll();
+            if (next == null) {
+                _running--;
+                return;
+            }
+        }
+        execute(next);
+    }
+
+    @Override
+    public String getName() {
+        return _name;
+    }
+
+    @Override
+    public int getWidth() {
+        return _width;
+    }
+
+    @Override
+    public synchronized int getRunning() {
+        return _running;
+    }
+
+    @Override
+    public synchronized int getQueueSize() {
+        return _queue.size();
+    }
+
+    @Override
+    public long getExecuted() {
+        return _executed.get();
+    }
+
+    @Override
+    public long getRejected() {
+        return _rejected.get();
+    }
+
+    @Override
+    public double getAverageWait() {
+        long executed = _executed.get();
+        return executed == 0 ? 0 : (double)_totalWait.get() / executed;
+    }
+
+    @Override
+    public long getMaxWait() {
+        return _maxWait;
+    }
+
+    @Override
+    public double getAverageRun() {
+        long executed = _executed.get();
+        return executed == 0 ? 0 : (double)_totalRun.get() / executed;
+    }
+
+    @Override
+    public long getMaxRun() {
+        return _maxRun;
+    }
+
+    private class LaneTask implements Runnable {
+        private final Runnable _task;
+        private final long _submitted = System.currentTimeMillis();
+
+        LaneTask(Runnable task) {
+            _task = task;
+        }
+
+        @Override
+        public void run() {
+            long start = System.currentTimeMillis();
+            try {
+                _task.run();
+            } finally {
+                long end = System.currentTimeMillis();
+                long wait = start - _submitted;
+                long run = end - start;
+                _executed.incrementAndGet();
+                _totalWait.addAndGet(wait);
+                _totalRun.addAndGet(run);
+                if (wait > _maxWait) {
+                    _maxWait = wait;
+                }
+                if (run > _maxRun) {
+                    _maxRun = run;
+                }
+                done();
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster.agentlb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ejb.Local;
+import javax.inject.Inject;
+
+import org.apache.cloudstack.framework.config.ConfigKey;
+import org.apache.cloudstack.utils.identity.ManagementServerNode;
+import org.apache.log4j.Logger;
+import org.springframework.stereotype.Component;
+
+import com.cloud.cluster.ManagementServerHost;
+import com.cloud.cluster.ManagementServerHostVO;
+import com.cloud.cluster.dao.ManagementServerHostDao;
+import com.cloud.host.Host;
+import com.cloud.host.HostRebalancePlan;
+import com.cloud.host.HostVO;
+import com.cloud.host.dao.HostDao;
+import com.cloud.resource.HostRebalancePlanner;
+import com.cloud.utils.component.AdapterBase;
+import com.cloud.utils.db.SearchCriteria.Op;
+import com.cloud.utils.db.SearchCriteria2;
+import com.cloud.utils.db.SearchCriteriaService;
+
+/**
+ * Assigns clusters of hosts to management servers with a consistent hash ring,
+ * so a management server joining or leaving only moves its share of clusters.
+ * Clusters are weighted by the command rate of their hosts, rounded down to a
+ * power of two so that rates drifting a little don't move them, and the ring keeps
+ * any management server from getting more than agent.lb.load.factor times the
+ * average weight.  Clusters rather than hosts are hashed since the hosts of a
+ * cluster are loaded by one management server.
+ */
+@Component
+@Local(value={AgentLoadBalancerPlanner.class, HostRebalancePlanner.class})
+public class ConsistentHashAgentLoadBalancerPlanner extends AdapterBase implements AgentLoadBalancerPlanner, HostRebalancePlanner {
+    private static final Logger s_logger = Logger.getLogger(ConsistentHashAgentLoadBalancerPlanner.class);
+
+    public static final ConfigKey<Integer> VirtualNodes = new ConfigKey<Integer>(Integer.class, "agent.lb.virtual.nodes", "Advanced", "128",
+            "Number of points each management server gets on the consistent hash ring that assigns clusters to management servers", true);
+    public static final ConfigKey<Double> LoadFactor = new ConfigKey<Double>(Double.class, "agent.lb.load.factor", "Advanced", "1.25",
+            "How far above the average command rate a management server can be loaded before clusters hashed to it go to the next management server on the ring", true);
+
+    @Inject HostDao _hostDao;
+    @Inject ManagementServerHostDao _mshostDao;
+
+    public static class PlannedTransfer implements HostRebalancePlan {
+        private final HostVO _host;
+        private final long _plannedOwner;
+        private final float _commandRate;
+
+        public PlannedTransfer(HostVO host, long plannedOwner, float commandRate) {
+            _host = host;
+            _plannedOwner = plannedOwner;
+            _commandRate = commandRate;
+        }
+
+        public HostVO getHost() {
+            return _host;
+        }
+
+        @Override
+        public long getHostId() {
+            return _host.getId();
+        }
+
+        @Override
+        public String getHostUuid() {
+            return _host.getUuid();
+        }
+
+        @Override
+        public String getHostName() {
+            return _host.getName();
+        }
+
+        @Override
+        public Long getClusterId() {
+            return _host.getClusterId();
+        }
+
+        @Override
+        public long getCurrentOwner() {
+            return _host.getManagementServerId();
+        }
+
+        @Override
+        public long getPlannedOwner() {
+            return _plannedOwner;
+        }
+
+        @Override
+        public float getCommandRate() {
+            return _commandRate;
+        }
+    }
+
+    /**
+     * @return unweighted ring of the management servers that are up
+     */
+    public ConsistentHashRing getRing() {
+        List<Long> msIds = new ArrayList<Long>();
+        for (ManagementServerHostVO ms : _mshostDao.listBy(ManagementServerHost.State.Up)) {
+            msIds.add(ms.getMsid());
+        }
+        return new ConsistentHashRing(msIds, VirtualNodes.value());
+    }
+
+    /**
+     * @return every managed host whose cluster is assigned to another management server, grouped by cluster
+     */
+    @Override
+    public List<PlannedTransfer> planTransfers() {
+        ConsistentHashRing ring = getRing();
+        if (ring.isEmpty()) {
+            return new ArrayList<PlannedTransfer>();
+        }
+        return planTransfers(ring, listManagedHosts(), _hostDao.getCommandRates());
+    }
+
+    /**
+     * @return the routing hosts loaded by a management server
+     */
+    protected List<HostVO> listManagedHosts() {
+        SearchCriteriaService<HostVO, HostVO> sc = SearchCriteria2.create(HostVO.class);
+        sc.addAnd(sc.getEntity().getManagementServerId(), Op.NNULL);
+        sc.addAnd(sc.getEntity().getType(), Op.EQ, Host.Type.Routing);
+        return sc.list();
+    }
+
+    protected List<PlannedTransfer> planTransfers(ConsistentHashRing ring, List<HostVO> managedHosts, Map<Long, Float> rates) {
+        List<PlannedTransfer> transfers = new ArrayList<PlannedTransfer>();
+        Map<Long, List<HostVO>> hostsByCluster = new HashMap<Long, List<HostVO>>();
+        Map<Long, Double> weights = new HashMap<Long, Double>();
+        for (HostVO host : managedHosts) {
+            if (host.getClusterId() == null) {
+                continue;
+            }
+            List<HostVO> hosts = hostsByCluster.get(host.getClusterId());
+            if (hosts == null) {
+                hosts = new ArrayList<HostVO>();
+                hostsByCluster.put(host.getClusterId(), hosts);
+                weights.put(host.getClusterId(), 0.0);
+            }
+            hosts.add(host);
+            // every host counts for one, so idle hosts are spread as well
+            weights.put(host.getClusterId(), weights.get(host.getClusterId()) + 1 + bucket(getRate(rates, host.getId())));
+        }
+
+        Map<Long, Long> assignment = ring.assign(weights, LoadFactor.value());
+        for (Map.Entry<Long, Long> entry : assignment.entrySet()) {
+            for (HostVO host : hostsByCluster.get(entry.getKey())) {
+                if (host.getManagementServerId().longValue() != entry.getValue().longValue()) {
+                    transfers.add(new PlannedTransfer(host, entry.getValue(), getRate(rates, host.getId())));
+                }
+            }
+        }
+
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Planned " + transfers.size() + " host transfers for " + managedHosts.size() + " managed hosts in " + hostsByCluster.size() + " clusters");
+        }
+        return transfers;
+    }
+
+    /**
+     * Rounds a command rate down to a power of two, so that a cluster is only
+     * moved when the rate of its hosts changes by about a factor of two and
+     * not back and forth as the rate drifts from one sample to the next.
+     */
+    static double bucket(float rate) {
+        if (rate < 1) {
+            return 0;
+        }
+        return Math.pow(2, Math.floor(Math.log(rate) / Math.log(2)));
+    }
+
+    private static float getRate(Map<Long, Float> rates, long hostId) {
+        Float rate = rates.get(hostId);
+        return rate == null ? 0 : rate;
+    }
+
+    @Override
+    public List<HostVO> getHostsToRebalance(long msId, int avLoad) {
+        long selfId = ManagementServerNode.getManagementServerId();
+        List<HostVO> hosts = new ArrayList<HostVO>();
+        for (PlannedTransfer transfer : planTransfers()) {
+            if (transfer.getCurrentOwner() == msId && transfer.getPlannedOwner() == selfId) {
+                hosts.add(transfer.getHost());
+            }
+        }
+        return hosts;
+    }
+}
@@ -0,0 +1,157 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster.agentlb;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Consistent hash ring of management servers.  Every management server gets a
+ * number of virtual nodes on the ring and a key belongs to the first virtual
+ * node at or after its hash, so a management server joining or leaving only
+ * moves the keys of the ring segments it gains or gives up.
+ */
+public class ConsistentHashRing {
+    private final TreeMap<Long, Long> _ring = new TreeMap<Long, Long>();
+    private final int _nodeCount;
+
+    public ConsistentHashRing(Collection<Long> msIds, int virtualNodes) {
+        for (Long msId : msIds) {
+            for (int i = 0; i < virtualNodes; i++) {
+                _ring.put(hash(msId + "-" + i), msId);
+            }
+        }
+        _nodeCount = new HashSet<Long>(msIds).size();
+    }
+
+    public boolean isEmpty() {
+        return _ring.isEmpty();
+    }
+
+    /**
+     * @return the management server the key hashes to, null if the ring is empty
+     */
+    public Long getOwner(long key) {
+        if (_ring.isEmpty()) {
+            return null;
+        }
+        SortedMap<Long, Long> tail = _ring.tailMap(hash(Long.toString(key)));
+        return tail.isEmpty() ? _ring.firstEntry().getValue() : tail.get(tail.firstKey());
+    }
+
+    /**
+     * Assigns weighted keys with bounded loads: a key goes to the management
+     * server it hashes to, unless that would take the server above loadFactor
+     * times the average load, in which case it goes to the next server on the
+     * ring with room for it.  Heavier keys are placed first, so the result only
+     * depends on the keys, their weights and the management servers.
+     */
+    public Map<Long, Long> assign(final Map<Long, Double> weights, double loadFactor) {
+        Map<Long, Long> assignment = new LinkedHashMap<Long, Long>();
+        if (_ring.isEmpty()) {
+            return assignment;
+        }
+
+        double total = 0;
+        for (Double weight : weights.values()) {
+            total += weight;
+        }
+        double capacity = loadFactor * total / _nodeCount;
+
+        List<Long> keys = new ArrayList<Long>(weights.keySet());
+        Collections.sort(keys, new Comparator<Long>() {
+            @Override
+            public int compare(Long k1, Long k2) {
+                int result = Double.compare(weights.get(k2), weights.get(k1));
+                return result != 0 ? result : k1.compareTo(k2);
+            }
+        });
+
+        Map<Long, Double> loads = new HashMap<Long, Double>();
+        for (Long key : keys) {
+            double weight = weights.get(key);
+            Long owner = null;
+            Long first = null;
+            // walk the ring at most once; a key heavier than the capacity stays where it hashes
+            for (Long msId : walk(hash(Long.toString(key)))) {
+                if (first == null) {
+                    first = msId;
+                }
+                Double load = loads.get(msId);
+                if (load == null || load + weight <= capacity) {
+                    owner = msId;
+                    break;
+                }
+            }
+            if (owner == null) {
+                owner = first;
+            }
+            Double load = loads.get(owner);
+            loads.put(owner, (load == null ? 0 : load) + weight);
+            assignment.put(key, owner);
+        }
+        return assignment;
+    }
+
+    // distinct management servers in ring order starting at the point
+    private List<Long> walk(long point) {
+        List<Long> msIds = new ArrayList<Long>(_nodeCount);
+        addDistinct(_ring.tailMap(point).values(), msIds);
+        addDistinct(_ring.headMap(point).values(), msIds);
+        return msIds;
+    }
+
+    private void addDistinct(Collection<Long> segment, List<Long> msIds) {
+        for (Long msId : segment) {
+            if (msIds.size() == _nodeCount) {
+                return;
+            }
+            if (!msIds.contains(msId)) {
+                msIds.add(msId);
+            }
+        }
+    }
+
+    static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new CloudRuntimeException("MD5 is not available", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new CloudRuntimeException("UTF-8 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class AgentPingTableTest {
+    private static final int BASE = 60;
+    private static final int MIN = 15;
+    private static final int MAX = 480;
+
+    private final AgentPingTable _table = new AgentPingTable();
+
+    @Test
+    public void testIntervalDoublesAfterStablePings() {
+        long now = 1000;
+        assertEquals(BASE, _table.connected(1, now, BASE, MIN, true));
+
+        now = pingOnTime(1, now, AgentPingTable.STABLE_PINGS - 1);
+        assertEquals(BASE, _table.getInterval(1, BASE));
+        now += BASE;
+        assertEquals(BASE * 2, _table.pinged(1, now, BASE, MAX, true));
+
+        now = pingOnTime(1, now, AgentPingTable.STABLE_PINGS * 3);
+        assertEquals(MAX, _table.getInterval(1, BASE));
+        pingOnTime(1, now, AgentPingTable.STABLE_PINGS);
+        assertEquals("interval is capped at the maximum", MAX, _table.getInterval(1, BASE));
+    }
+
+    @Test
+    public void testLatePingRestartsStableCount() {
+        long now = 1000;
+        _table.connected(1, now, BASE, MIN, true);
+
+        now = pingOnTime(1, now, AgentPingTable.STABLE_PINGS - 1);
+        now += BASE * 2;
+        assertEquals(BASE, _table.pinged(1, now, BASE, MAX, true));
+        now = pingOnTime(1, now, AgentPingTable.STABLE_PINGS - 1);
+        assertEquals(BASE, _table.getInterval(1, BASE));
+        now += BASE;
+        assertEquals(BASE * 2, _table.pinged(1, now, BASE, MAX, true));
+    }
+
+    @Test
+    public void testReconnectHalvesInterval() {
+        long now = 1000;
+        _table.connected(1, now, BASE, MIN, true);
+
+        _table.disconnected(1);
+        assertNull(_table.getLastPinged(1));
+        assertEquals(BASE / 2, _table.connected(1, now, BASE, MIN, true));
+        _table.disconnected(1);
+        assertEquals(BASE / 4, _table.connected(1, now, BASE, MIN, true));
+        _table.disconnected(1);
+        assertEquals("interval does not drop below the minimum", MIN, _table.connected(1, now, BASE, MIN, true));
+
+        // a disconnect that is not preceded by a connect does not count as another flap
+        _table.disconnected(1);
+        _table.disconnected(1);
+        assertEquals(MIN, _table.connected(1, now, BASE, MIN, true));
+    }
+
+    @Test
+    public void testFlapIsWorkedOffBeforeIntervalGrows() {
+        long now = 1000;
+        _table.connected(1, now, BASE, MIN, true);
+        _table.disconnected(1);
+        assertEquals(BASE / 2, _table.connected(1, now, BASE, MIN, true));
+
+        now = pingOnTime(1, now, AgentPingTable.STABLE_PINGS);
+        assertEquals(BASE / 2, _table.getInterval(1, BASE));
+        now = pingOnTime(1, now, AgentPingTable.STABLE_PINGS);
+        assertEquals(BASE, _table.getInterval(1, BASE));
+
+        // with the flap worked off a reconnect starts from the base interval again
+        _table.disconnected(1);
+        _table.disconnected(1);
+        assertEquals(BASE / 2, _table.connected(1, now, BASE, MIN, true));
+    }
+
+    @Test
+    public void testNonAdaptiveKeepsBaseInterval() {
+        long now = 1000;
+        _table.connected(1, now, BASE, MIN, false);
+        _table.disconnected(1);
+        assertEquals(BASE, _table.connected(1, now, BASE, MIN, false));
+        for (int i = 0; i < AgentPingTable.STABLE_PINGS * 2; i++) {
+            now += BASE;
+            assertEquals(BASE, _table.pinged(1, now, BASE, MAX, false));
+        }
+    }
+
+    @Test
+    public void testFindBehind() {
+        long now = 1000;
+        _table.connected(1, now, BASE, MIN, true);
+        _table.connected(2, now, BASE, MIN, true);
+        _table.connected(3, now, BASE, MIN, true);
+        _table.disconnected(3);
+        // host 4 has flapped and pings at a shorter interval
+        _table.connected(4, now, BASE, MIN, true);
+        _table.disconnected(4);
+        _table.connected(4, now, BASE, MIN, true);
+        _table.pinged(4, now, BASE, MAX, true);
+
+        now += BASE;
+        _table.pinged(2, now, BASE, MAX, true);
+        _table.pinged(4, now, BASE, MAX, true);
+
+        now += BASE;
+        assertTrue(_table.findBehind(now, 2.5f).isEmpty());
+        // host 4 is judged by its own interval, host 3 is not connected
+        assertEquals(Arrays.asList(1L, 4L), sorted(_table.findBehind(now, 1.5f)));
+
+        _table.remove(1);
+        assertEquals(Arrays.asList(4L), _table.findBehind(now, 1.5f));
+    }
+
+    @Test
+    public void testUnflushedPings() {
+        long now = 1000;
+        _table.connected(1, now, BASE, MIN, true);
+        _table.connected(2, now, BASE, MIN, true);
+
+        Map<Long, Long> pings = _table.getUnflushed();
+        assertEquals(2, pings.size());
+        assertEquals(Long.valueOf(now), pings.get(1L));
+        _table.markFlushed(pings);
+        assertTrue(_table.getUnflushed().isEmpty());
+
+        now += BASE;
+        _table.pinged(2, now, BASE, MAX, true);
+        pings = _table.getUnflushed();
+        assertEquals(1, pings.size());
+        assertEquals(Long.valueOf(now), pings.get(2L));
+
+        // a ping that arrives while the batch is written is picked up by the next flush
+        _table.pinged(2, now + 1, BASE, MAX, true);
+        _table.markFlushed(pings);
+        pings = _table.getUnflushed();
+        assertEquals(Long.valueOf(now + 1), pings.get(2L));
+        _table.markFlushed(pings);
+
+        // disconnected agents are not flushed, and flushing a removed one is ignored
+        _table.pinged(1, now + 2, BASE, MAX, true);
+        pings = _table.getUnflushed();
+        _table.disconnected(1);
+        assertTrue(_table.getUnflushed().isEmpty());
+        _table.remove(1);
+        _table.markFlushed(pings);
+        assertTrue(_table.getUnflushed().isEmpty());
+    }
+
+    private long pingOnTime(long hostId, long now, int count) {
+        for (int i = 0; i < count; i++) {
+            now += _table.getInterval(hostId, BASE);
+            _table.pinged(hostId, now, BASE, MAX, true);
+        }
+        return now;
+    }
+
+    private static List<Long> sorted(List<Long> ids) {
+        Collections.sort(ids);
+        return ids;
+    }
+}
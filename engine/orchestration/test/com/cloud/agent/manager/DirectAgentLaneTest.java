@@ -0,0 +1,186 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+public class DirectAgentLaneTest {
+
+    /**
+     * Holds on to the tasks it is given until the test runs them.
+     */
+    private static class ManualExecutor implements Executor {
+        final LinkedList<Runnable> _tasks = new LinkedList<Runnable>();
+        boolean _reject;
+
+        @Override
+        public void execute(Runnable task) {
+            if (_reject) {
+                throw new RejectedExecutionException("rejected");
+            }
+            _tasks.add(task);
+        }
+
+        void runNext() {
+            _tasks.poll().run();
+        }
+    }
+
+    private static class RecordingTask implements Runnable {
+        final List<String> _ran;
+        final String _name;
+
+        RecordingTask(List<String> ran, String name) {
+            _ran = ran;
+            _name = name;
+        }
+
+        @Override
+        public void run() {
+            _ran.add(_name);
+        }
+    }
+
+    private final ManualExecutor _executor = new ManualExecutor();
+    private final List<String> _ran = new ArrayList<String>();
+
+    @Test
+    public void testWidthAndCapacity() {
+        DirectAgentLane lane = new DirectAgentLane("test", _executor, 2, 2);
+
+        assertTrue(lane.submit(task("a")));
+        assertTrue(lane.submit(task("b")));
+        assertEquals(2, _executor._tasks.size());
+        assertEquals(2, lane.getRunning());
+
+        assertTrue(lane.submit(task("c")));
+        assertTrue(lane.submit(task("d")));
+        assertEquals("tasks beyond the width wait in the lane", 2, _executor._tasks.size());
+        assertEquals(2, lane.getQueueSize());
+
+        assertFalse(lane.submit(task("e")));
+        assertEquals(1, lane.getRejected());
+        assertEquals(2, lane.getQueueSize());
+    }
+
+    @Test
+    public void testDoneHandsOffToNextTask() {
+        DirectAgentLane lane = new DirectAgentLane("test", _executor, 1, 10);
+        lane.submit(task("a"));
+        lane.submit(task("b"));
+        lane.submit(task("c"));
+        assertEquals(1, _executor._tasks.size());
+
+        _executor.runNext();
+        assertEquals("the finished task hands its slot to the next one", 1, _executor._tasks.size());
+        assertEquals(1, lane.getRunning());
+        assertEquals(1, lane.getQueueSize());
+
+        _executor.runNext();
+        _executor.runNext();
+        assertTrue(_executor._tasks.isEmpty());
+        assertEquals(0, lane.getRunning());
+        assertEquals(0, lane.getQueueSize());
+        assertEquals(3, lane.getExecuted());
+        assertEquals("tasks of the lane run in order", "[a, b, c]", _ran.toString());
+
+        assertTrue(lane.submit(task("d")));
+        assertEquals(1, _executor._tasks.size());
+        assertEquals(1, lane.getRunning());
+    }
+
+    @Test
+    public void testFailingTaskHandsOff() {
+        DirectAgentLane lane = new DirectAgentLane("test", _executor, 1, 10);
+        lane.submit(new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("failed");
+            }
+        });
+        lane.submit(task("b"));
+
+        try {
+            _executor.runNext();
+        } catch (RuntimeException e) {
+            // the executor would log it and carry on
+        }
+        assertEquals(1, _executor._tasks.size());
+        _executor.runNext();
+        assertEquals("[b]", _ran.toString());
+        assertEquals(0, lane.getRunning());
+        assertEquals(2, lane.getExecuted());
+    }
+
+    @Test
+    public void testExecutorRejection() {
+        DirectAgentLane lane = new DirectAgentLane("test", _executor, 1, 10);
+
+        _executor._reject = true;
+        assertFalse("a task the executor refuses is not taken", lane.submit(task("a")));
+        assertEquals(0, lane.getRunning());
+        assertEquals(1, lane.getRejected());
+
+        _executor._reject = false;
+        assertTrue(lane.submit(task("b")));
+        lane.submit(task("c"));
+        lane.submit(task("d"));
+
+        // the waiting tasks are dropped when the executor refuses them, and the slot is given back
+        _executor._reject = true;
+        _executor.runNext();
+        assertEquals(0, lane.getRunning());
+        assertEquals(0, lane.getQueueSize());
+        assertEquals(3, lane.getRejected());
+
+        _executor._reject = false;
+        assertTrue(lane.submit(task("e")));
+        _executor.runNext();
+        assertEquals("[b, e]", _ran.toString());
+        assertEquals(0, lane.getRunning());
+    }
+
+    @Test
+    public void testClose() {
+        DirectAgentLane lane = new DirectAgentLane("test", _executor, 1, 10);
+        lane.submit(task("a"));
+        lane.submit(task("b"));
+
+        lane.close();
+        assertEquals(0, lane.getQueueSize());
+        assertFalse(lane.submit(task("c")));
+
+        _executor.runNext();
+        assertEquals("[a]", _ran.toString());
+        assertEquals(0, lane.getRunning());
+        assertTrue(_executor._tasks.isEmpty());
+    }
+
+    private Runnable task(String name) {
+        return new RecordingTask(_ran, name);
+    }
+}
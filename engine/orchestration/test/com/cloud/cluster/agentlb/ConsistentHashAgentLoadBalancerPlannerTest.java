@@ -0,0 +1,141 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster.agentlb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.cloud.cluster.agentlb.ConsistentHashAgentLoadBalancerPlanner.PlannedTransfer;
+import com.cloud.host.HostVO;
+
+public class ConsistentHashAgentLoadBalancerPlannerTest {
+    private final ConsistentHashAgentLoadBalancerPlanner _planner = new ConsistentHashAgentLoadBalancerPlanner();
+    private final ConsistentHashRing _ring = new ConsistentHashRing(Arrays.asList(1L, 2L, 3L), 128);
+    private final Map<Long, Float> _rates = new HashMap<Long, Float>();
+
+    @Test
+    public void testHostsOnTheirPlannedOwnerAreSkipped() {
+        // every host starts on a management server that is not on the ring
+        List<HostVO> hosts = new ArrayList<HostVO>();
+        for (long id = 1; id <= 60; id++) {
+            hosts.add(host(id, id % 12, 9));
+        }
+        Map<Long, Long> planned = new HashMap<Long, Long>();
+        for (PlannedTransfer transfer : _planner.planTransfers(_ring, hosts, _rates)) {
+            assertEquals(9, transfer.getCurrentOwner());
+            planned.put(transfer.getHostId(), transfer.getPlannedOwner());
+        }
+        assertEquals(hosts.size(), planned.size());
+
+        // move the even hosts where they belong, only the odd ones are left to transfer
+        for (HostVO host : hosts) {
+            if (host.getId() % 2 == 0) {
+                host.setManagementServerId(planned.get(host.getId()));
+            }
+        }
+        Set<Long> transferred = new HashSet<Long>();
+        for (PlannedTransfer transfer : _planner.planTransfers(_ring, hosts, _rates)) {
+            assertTrue(transfer.getHostId() % 2 == 1);
+            assertEquals(planned.get(transfer.getHostId()).longValue(), transfer.getPlannedOwner());
+            transferred.add(transfer.getHostId());
+        }
+        assertEquals(hosts.size() / 2, transferred.size());
+
+        for (HostVO host : hosts) {
+            host.setManagementServerId(planned.get(host.getId()));
+        }
+        assertTrue(_planner.planTransfers(_ring, hosts, _rates).isEmpty());
+    }
+
+    @Test
+    public void testHostsOfAClusterStayTogether() {
+        List<HostVO> hosts = new ArrayList<HostVO>();
+        for (long id = 1; id <= 40; id++) {
+            hosts.add(host(id, id % 5, 9));
+        }
+        Map<Long, Long> ownerByCluster = new HashMap<Long, Long>();
+        for (PlannedTransfer transfer : _planner.planTransfers(_ring, hosts, _rates)) {
+            Long owner = ownerByCluster.get(transfer.getClusterId());
+            if (owner == null) {
+                ownerByCluster.put(transfer.getClusterId(), transfer.getPlannedOwner());
+            } else {
+                assertEquals(owner.longValue(), transfer.getPlannedOwner());
+            }
+        }
+        assertEquals(5, ownerByCluster.size());
+    }
+
+    @Test
+    public void testHostsWithoutClusterAreLeftAlone() {
+        HostVO host = host(1, 0, 9);
+        host.setClusterId(null);
+        _rates.put(1L, 50f);
+        assertFalse(_planner.planTransfers(_ring, Arrays.asList(host, host(2, 1, 9)), _rates).isEmpty());
+        for (PlannedTransfer transfer : _planner.planTransfers(_ring, Arrays.asList(host, host(2, 1, 9)), _rates)) {
+            assertEquals(2, transfer.getHostId());
+        }
+    }
+
+    @Test
+    public void testSmallRateChangesDontMoveHosts() {
+        List<HostVO> hosts = new ArrayList<HostVO>();
+        for (long id = 1; id <= 60; id++) {
+            hosts.add(host(id, id % 12, 9));
+            // a few busy clusters, so that the load factor comes into play
+            _rates.put(id, id % 12 < 3 ? 200f + id : 17f + id % 7);
+        }
+        for (PlannedTransfer transfer : _planner.planTransfers(_ring, hosts, _rates)) {
+            transfer.getHost().setManagementServerId(transfer.getPlannedOwner());
+        }
+        assertTrue(_planner.planTransfers(_ring, hosts, _rates).isEmpty());
+
+        // the rates drift, but stay within their power of two
+        for (long id = 1; id <= 60; id++) {
+            _rates.put(id, id % 12 < 3 ? 255f - id : 31f - id % 7);
+        }
+        assertTrue(_planner.planTransfers(_ring, hosts, _rates).isEmpty());
+    }
+
+    @Test
+    public void testBucket() {
+        assertEquals(0, ConsistentHashAgentLoadBalancerPlanner.bucket(0.5f), 0);
+        assertEquals(1, ConsistentHashAgentLoadBalancerPlanner.bucket(1.9f), 0);
+        assertEquals(16, ConsistentHashAgentLoadBalancerPlanner.bucket(16f), 0);
+        assertEquals(16, ConsistentHashAgentLoadBalancerPlanner.bucket(31.9f), 0);
+        assertEquals(32, ConsistentHashAgentLoadBalancerPlanner.bucket(32f), 0);
+    }
+
+    private static HostVO host(long id, long clusterId, long msId) {
+        HostVO host = new HostVO("host-" + id);
+        ReflectionTestUtils.setField(host, "id", id);
+        host.setClusterId(clusterId);
+        host.setManagementServerId(msId);
+        return host;
+    }
+}
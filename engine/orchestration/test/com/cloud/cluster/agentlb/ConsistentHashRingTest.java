@@ -0,0 +1,126 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster.agentlb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ConsistentHashRingTest {
+    private static final int VIRTUAL_NODES = 128;
+    private static final int KEYS = 2000;
+
+    @Test
+    public void testJoiningNodeOnlyTakesItsShare() {
+        ConsistentHashRing before = new ConsistentHashRing(Arrays.asList(1L, 2L, 3L), VIRTUAL_NODES);
+        ConsistentHashRing after = new ConsistentHashRing(Arrays.asList(1L, 2L, 3L, 4L), VIRTUAL_NODES);
+
+        int moved = 0;
+        for (long key = 0; key < KEYS; key++) {
+            Long owner = after.getOwner(key);
+            if (!owner.equals(before.getOwner(key))) {
+                // keys only move to the new node, never between the old ones
+                assertEquals(Long.valueOf(4), owner);
+                moved++;
+            }
+        }
+        assertShare(moved, 4);
+    }
+
+    @Test
+    public void testLeavingNodeOnlyGivesUpItsShare() {
+        ConsistentHashRing before = new ConsistentHashRing(Arrays.asList(1L, 2L, 3L, 4L), VIRTUAL_NODES);
+        ConsistentHashRing after = new ConsistentHashRing(Arrays.asList(1L, 2L, 4L), VIRTUAL_NODES);
+
+        int moved = 0;
+        for (long key = 0; key < KEYS; key++) {
+            Long owner = before.getOwner(key);
+            if (owner.equals(3L)) {
+                moved++;
+            } else {
+                assertEquals(owner, after.getOwner(key));
+            }
+        }
+        assertShare(moved, 4);
+    }
+
+    @Test
+    public void testAssignRespectsTheLoadFactor() {
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList(1L, 2L, 3L, 4L), VIRTUAL_NODES);
+        Map<Long, Double> weights = new HashMap<Long, Double>();
+        double total = 0;
+        for (long key = 0; key < 400; key++) {
+            double weight = 1 + key % 5;
+            weights.put(key, weight);
+            total += weight;
+        }
+
+        double loadFactor = 1.1;
+        Map<Long, Long> assignment = ring.assign(weights, loadFactor);
+        assertEquals(weights.size(), assignment.size());
+
+        Map<Long, Double> loads = new HashMap<Long, Double>();
+        int displaced = 0;
+        for (Map.Entry<Long, Long> entry : assignment.entrySet()) {
+            Double load = loads.get(entry.getValue());
+            loads.put(entry.getValue(), (load == null ? 0 : load) + weights.get(entry.getKey()));
+            if (!entry.getValue().equals(ring.getOwner(entry.getKey()))) {
+                displaced++;
+            }
+        }
+        for (Double load : loads.values()) {
+            assertTrue("load " + load + " is above the bound", load <= loadFactor * total / 4);
+        }
+        // most keys still go where they hash
+        assertTrue(displaced < assignment.size() / 2);
+
+        // the same input gives the same assignment
+        assertEquals(assignment, ring.assign(new HashMap<Long, Double>(weights), loadFactor));
+    }
+
+    @Test
+    public void testUnboundedAssignFollowsTheHash() {
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList(1L, 2L, 3L), VIRTUAL_NODES);
+        Map<Long, Double> weights = new HashMap<Long, Double>();
+        for (long key = 0; key < 100; key++) {
+            weights.put(key, 1.0);
+        }
+        for (Map.Entry<Long, Long> entry : ring.assign(weights, 100).entrySet()) {
+            assertEquals(ring.getOwner(entry.getKey()), entry.getValue());
+        }
+    }
+
+    @Test
+    public void testEmptyRing() {
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.<Long>asList(), VIRTUAL_NODES);
+        assertTrue(ring.isEmpty());
+        assertNull(ring.getOwner(1));
+        assertTrue(ring.assign(new HashMap<Long, Double>(), 1.25).isEmpty());
+    }
+
+    // a node's share of the keys, with room for the spread of the virtual nodes
+    private static void assertShare(int moved, int nodes) {
+        double share = (double)moved / KEYS;
+        assertTrue("moved " + share + " of the keys", share > 0.5 / nodes && share < 1.5 / nodes);
+    }
+}
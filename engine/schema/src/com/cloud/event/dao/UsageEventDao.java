@@ -32,4 +32,9 @@ public interface UsageEventDao extends GenericDao<UsageEventVO, Long> {
 
     List<UsageEventVO> listDirectIpEvents(Date startDate, Date endDate, long zoneId);
 
+    /**
+     * @return id of the most recent event of the usage db processed before the given id, 0 if there is none
+     */
+    long getLastProcessedEventId(long beforeId);
+
 }
\ No newline at end of file
@@ -51,6 +51,7 @@ public class UsageEventDaoImpl extends GenericDaoBase<UsageEventVO, Long> implem
     private static final String COPY_ALL_EVENTS = "INSERT INTO cloud_usage.usage_event (id, type, account_id, created, zone_id, resource_id, resource_name, offering_id, template_id, size, resource_type, virtual_size) " +
             "SELECT id, type, account_id, created, zone_id, resource_id, resource_name, offering_id, template_id, size, resource_type, virtual_size FROM cloud.usage_event vmevt WHERE vmevt.id <= ?";
     private static final String MAX_EVENT = "select max(id) from cloud.usage_event where created <= ?";
+    private static final String LAST_PROCESSED_EVENT = "SELECT max(id) FROM cloud_usage.usage_event WHERE processed = 1 AND id < ?";
 
 
     public UsageEventDaoImpl () {
@@ -171,6 +172,26 @@ public class UsageEventDaoImpl extends GenericDaoBase<UsageEventVO, Long> implem
         }
     }
 
+    @Override
+    public long getLastProcessedEventId(long beforeId) {
+        Transaction txn = Transaction.open(Transaction.USAGE_DB);
+        PreparedStatement pstmt = null;
+        try {
+            pstmt = txn.prepareAutoCloseStatement(LAST_PROCESSED_EVENT);
+            pstmt.setLong(1, beforeId);
+            ResultSet rs = pstmt.executeQuery();
+            if (rs.next()) {
+                return rs.getLong(1);
+            }
+            return 0;
+        } catch (Exception ex) {
+            s_logger.error("error getting last processed event id", ex);
+            throw new CloudRuntimeException(ex.getMessage());
+        } finally {
+            txn.close();
+        }
+    }
+
     @Override
     public List<UsageEventVO> listDirectIpEvents(Date startDate, Date endDate, long zoneId) {
         Filter filter = new Filter(UsageEventVO.class, "createDate", Boolean.TRUE, null, null);
@@ -16,8 +16,10 @@
 // under the License.
 package com.cloud.host.dao;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import com.cloud.host.Host;
 import com.cloud.host.Host.Type;
@@ -47,6 +49,28 @@ public interface HostDao extends GenericDao<HostVO, Long>, StateDao<Status, Stat
 
     List<HostVO> findAndUpdateDirectAgentToLoad(long lastPingSecondsAfter, Long limit, long managementServerId);
 
+    /**
+     * Same as above, except that clusters in clustersToSkip are not taken if no
+     * management server owns them yet
+     */
+    List<HostVO> findAndUpdateDirectAgentToLoad(long lastPingSecondsAfter, Long limit, long managementServerId, Collection<Long> clustersToSkip);
+
+    List<Long> findClustersForHostsNotOwnedByAnyManagementServer();
+
+    void updateCommandRate(long hostId, float commandRate);
+
+    /**
+     * @return commands per second sent to each host, as last reported by its owner
+     */
+    Map<Long, Float> getCommandRates();
+
+    /**
+     * Records the last ping times of the hosts that are Up and managed by the
+     * given management server, in one batch.
+     * @param lastPinged last ping time, in the units of host.last_ping, by host id
+     */
+    void updateLastPinged(Map<Long, Long> lastPinged, long msId);
+
     List<RunningHostCountInfo> getRunningHostCounts(Date cutTime);
 
     long getNextSequence(long hostId);
@@ -20,6 +20,8 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -447,7 +449,8 @@ public class HostDaoImpl extends GenericDaoBase<HostVO, Long> implements HostDao
     /*
      * Returns clusters based on the list of hosts not owned by any MS
      */
-    private List<Long> findClustersForHostsNotOwnedByAnyManagementServer() {
+    @Override
+    public List<Long> findClustersForHostsNotOwnedByAnyManagementServer() {
         SearchCriteria<Long> sc = ClustersForHostsNotOwnedByAnyMSSearch.create();
 
         List<Long> clusters = customSearch(sc, null);
@@ -484,6 +487,11 @@ public class HostDaoImpl extends GenericDaoBase<HostVO, Long> implements HostDao
 
     @Override @DB
     public List<HostVO> findAndUpdateDirectAgentToLoad(long lastPingSecondsAfter, Long limit, long managementServerId) {
+        return findAndUpdateDirectAgentToLoad(lastPingSecondsAfter, limit, managementServerId, Collections.<Long>emptyList());
+    }
+
+    @Override @DB
+    public List<HostVO> findAndUpdateDirectAgentToLoad(long lastPingSecondsAfter, Long limit, long managementServerId, Collection<Long> clustersToSkip) {
         Transaction txn = Transaction.currentTxn();
 
         txn.start();
@@ -531,6 +539,10 @@ public class HostDaoImpl extends GenericDaoBase<HostVO, Long> implements HostDao
             }
             // for remaining hosts not owned by any MS check if they can be owned (by owning full cluster)
             clusters = findClustersForHostsNotOwnedByAnyManagementServer();
+            if (!clustersToSkip.isEmpty()) {
+                clusters = new ArrayList<Long>(clusters);
+                clusters.removeAll(clustersToSkip);
+            }
             List<Long> updatedClusters = clusters;
             if (clusters.size() > limit) {
                 updatedClusters = clusters.subList(0, limit.intValue());
@@ -580,6 +592,57 @@ public class HostDaoImpl extends GenericDaoBase<HostVO, Long> implements HostDao
         return assignedHosts;
     }
 
+    @Override
+    public void updateCommandRate(long hostId, float commandRate) {
+        Transaction txn = Transaction.currentTxn();
+        try {
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement("UPDATE op_host SET command_rate=? WHERE id=?");
+            pstmt.setFloat(1, commandRate);
+            pstmt.setLong(2, hostId);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("Unable to update the command rate of host " + hostId, e);
+        }
+    }
+
+    @Override
+    public Map<Long, Float> getCommandRates() {
+        Map<Long, Float> rates = new HashMap<Long, Float>();
+        Transaction txn = Transaction.currentTxn();
+        try {
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement("SELECT id, command_rate FROM op_host");
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                rates.put(rs.getLong(1), rs.getFloat(2));
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("Unable to get the command rates of hosts", e);
+        }
+        return rates;
+    }
+
+    @Override
+    public void updateLastPinged(Map<Long, Long> lastPinged, long msId) {
+        Transaction txn = Transaction.currentTxn();
+        try {
+            txn.start();
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement("UPDATE host SET last_ping=? WHERE id=? AND mgmt_server_id=? AND status=? AND last_ping<?");
+            for (Map.Entry<Long, Long> entry : lastPinged.entrySet()) {
+                pstmt.setLong(1, entry.getValue());
+                pstmt.setLong(2, entry.getKey());
+                pstmt.setLong(3, msId);
+                pstmt.setString(4, Status.Up.toString());
+                pstmt.setLong(5, entry.getValue());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            txn.commit();
+        } catch (SQLException e) {
+            txn.rollback();
+            throw new CloudRuntimeException("Unable to update the last ping time of " + lastPinged.size() + " hosts", e);
+        }
+    }
+
     @Override @DB
     public List<HostVO> findAndUpdateApplianceToLoad(long lastPingSecondsAfter, long managementServerId) {
     	Transaction txn = Transaction.currentTxn();
@@ -884,13 +947,19 @@ public class HostDaoImpl extends GenericDaoBase<HostVO, Long> implements HostDao
             return false;
 		}
 		long oldPingTime = host.getLastPinged();
+		// updateLastPinged() flushes the pings of the owner's agents without bumping the update count,
+		// so last_ping is only compared when the host changes hands; the update count covers the rest
+		boolean sameOwner = host.getManagementServerId() != null && host.getManagementServerId().equals(vo.getManagementServerId());
+		boolean checkPing = newStatus.checkManagementServer() && !sameOwner;
 
 		SearchBuilder<HostVO> sb = createSearchBuilder();
 		sb.and("status", sb.entity().getStatus(), SearchCriteria.Op.EQ);
 		sb.and("id", sb.entity().getId(), SearchCriteria.Op.EQ);
 		sb.and("update", sb.entity().getUpdated(), SearchCriteria.Op.EQ);
 		if (newStatus.checkManagementServer()) {
-			sb.and("ping", sb.entity().getLastPinged(), SearchCriteria.Op.EQ);
+			if (checkPing) {
+				sb.and("ping", sb.entity().getLastPinged(), SearchCriteria.Op.EQ);
+			}
 			sb.and().op("nullmsid", sb.entity().getManagementServerId(), SearchCriteria.Op.NULL);
 			sb.or("msid", sb.entity().getManagementServerId(), SearchCriteria.Op.EQ);
 			sb.closeParen();
@@ -904,7 +973,9 @@ public class HostDaoImpl extends GenericDaoBase<HostVO, Long> implements HostDao
 		sc.setParameters("update", host.getUpdated());
 		long oldUpdateCount = host.getUpdated();
 		if (newStatus.checkManagementServer()) {
-			sc.setParameters("ping", oldPingTime);
+			if (checkPing) {
+				sc.setParameters("ping", oldPingTime);
+			}
 			sc.setParameters("msid", host.getManagementServerId());
 		}
 
@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.tags.dao;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.cloud.server.ResourceTag;
@@ -34,4 +35,9 @@ public interface ResourceTagDao extends GenericDao<ResourceTagVO, Long>{
     
     List<? extends ResourceTag> listBy(long resourceId, TaggedResourceType resourceType);
 
+    /**
+     * @return the tags of all the resources of the type, in one query
+     */
+    List<ResourceTagVO> listByResourceIds(Collection<Long> resourceIds, TaggedResourceType resourceType);
+
 }
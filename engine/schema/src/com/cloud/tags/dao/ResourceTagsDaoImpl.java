@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.tags.dao;
 
+import java.util.Collection;
 import java.util.List;
 
 import javax.ejb.Local;
@@ -34,6 +35,7 @@ import com.cloud.utils.db.SearchCriteria.Op;
 @Local(value = { ResourceTagDao.class })
 public class ResourceTagsDaoImpl extends GenericDaoBase<ResourceTagVO, Long> implements ResourceTagDao{
     final SearchBuilder<ResourceTagVO> AllFieldsSearch;
+    final SearchBuilder<ResourceTagVO> ResourceIdsSearch;
     
     public ResourceTagsDaoImpl() {
         AllFieldsSearch = createSearchBuilder();
@@ -41,6 +43,11 @@ public class ResourceTagsDaoImpl extends GenericDaoBase<ResourceTagVO, Long> imp
         AllFieldsSearch.and("uuid", AllFieldsSearch.entity().getResourceUuid(), Op.EQ);
         AllFieldsSearch.and("resourceType", AllFieldsSearch.entity().getResourceType(), Op.EQ);
         AllFieldsSearch.done();
+
+        ResourceIdsSearch = createSearchBuilder();
+        ResourceIdsSearch.and("resourceIds", ResourceIdsSearch.entity().getResourceId(), Op.IN);
+        ResourceIdsSearch.and("resourceType", ResourceIdsSearch.entity().getResourceType(), Op.EQ);
+        ResourceIdsSearch.done();
     }
     
     @Override
@@ -59,4 +66,12 @@ public class ResourceTagsDaoImpl extends GenericDaoBase<ResourceTagVO, Long> imp
         sc.setParameters("resourceType", resourceType);
         return listBy(sc);
     }
+
+    @Override
+    public List<ResourceTagVO> listByResourceIds(Collection<Long> resourceIds, TaggedResourceType resourceType) {
+        SearchCriteria<ResourceTagVO> sc = ResourceIdsSearch.create();
+        sc.setParameters("resourceIds", resourceIds.toArray());
+        sc.setParameters("resourceType", resourceType);
+        return listBy(sc);
+    }
 }
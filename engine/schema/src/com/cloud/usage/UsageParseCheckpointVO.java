@@ -0,0 +1,109 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.apache.cloudstack.api.InternalIdentity;
+
+/**
+ * Records a partition of accounts whose usage records have been committed
+ * for an aggregation range, so that a usage job that failed half way does
+ * not parse those accounts again for the same range.
+ */
+@Entity
+@Table(name="usage_parse_checkpoint")
+public class UsageParseCheckpointVO implements InternalIdentity {
+
+    @Id
+    @GeneratedValue(strategy=GenerationType.IDENTITY)
+    @Column(name="id")
+    private Long id;
+
+    @Column(name="job_id")
+    private long jobId;
+
+    @Column(name="start_millis")
+    private long startMillis;
+
+    @Column(name="end_millis")
+    private long endMillis;
+
+    @Column(name="first_account_id")
+    private long firstAccountId;
+
+    @Column(name="last_account_id")
+    private long lastAccountId;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name="created")
+    private Date created;
+
+    public UsageParseCheckpointVO() {
+    }
+
+    public UsageParseCheckpointVO(long jobId, long startMillis, long endMillis, long firstAccountId, long lastAccountId) {
+        this.jobId = jobId;
+        this.startMillis = startMillis;
+        this.endMillis = endMillis;
+        this.firstAccountId = firstAccountId;
+        this.lastAccountId = lastAccountId;
+        this.created = new Date();
+    }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    public long getJobId() {
+        return jobId;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public long getEndMillis() {
+        return endMillis;
+    }
+
+    public long getFirstAccountId() {
+        return firstAccountId;
+    }
+
+    public long getLastAccountId() {
+        return lastAccountId;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public boolean covers(long accountId) {
+        return accountId >= firstAccountId && accountId <= lastAccountId;
+    }
+}
@@ -0,0 +1,35 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage.dao;
+
+import java.util.List;
+
+import com.cloud.usage.UsageParseCheckpointVO;
+import com.cloud.utils.db.GenericDao;
+
+public interface UsageParseCheckpointDao extends GenericDao<UsageParseCheckpointVO, Long> {
+    /**
+     * @return the partitions already committed for the aggregation range
+     */
+    List<UsageParseCheckpointVO> listCommitted(long startMillis, long endMillis);
+
+    /**
+     * Drops the checkpoints of the aggregation ranges ending on or before
+     * endMillis, once a usage job covering them has succeeded.
+     */
+    int removeUpTo(long endMillis);
+}
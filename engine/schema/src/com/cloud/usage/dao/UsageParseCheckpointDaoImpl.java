@@ -0,0 +1,62 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage.dao;
+
+import java.util.List;
+
+import javax.ejb.Local;
+
+import org.springframework.stereotype.Component;
+
+import com.cloud.usage.UsageParseCheckpointVO;
+import com.cloud.utils.db.GenericDaoBase;
+import com.cloud.utils.db.SearchBuilder;
+import com.cloud.utils.db.SearchCriteria;
+
+@Component
+@Local(value={UsageParseCheckpointDao.class})
+public class UsageParseCheckpointDaoImpl extends GenericDaoBase<UsageParseCheckpointVO, Long> implements UsageParseCheckpointDao {
+
+    private final SearchBuilder<UsageParseCheckpointVO> RangeSearch;
+    private final SearchBuilder<UsageParseCheckpointVO> EndedSearch;
+
+    public UsageParseCheckpointDaoImpl() {
+        RangeSearch = createSearchBuilder();
+        RangeSearch.and("startMillis", RangeSearch.entity().getStartMillis(), SearchCriteria.Op.EQ);
+        RangeSearch.and("endMillis", RangeSearch.entity().getEndMillis(), SearchCriteria.Op.EQ);
+        RangeSearch.done();
+
+        EndedSearch = createSearchBuilder();
+        EndedSearch.and("endMillis", EndedSearch.entity().getEndMillis(), SearchCriteria.Op.LTEQ);
+        EndedSearch.done();
+    }
+
+    @Override
+    public List<UsageParseCheckpointVO> listCommitted(long startMillis, long endMillis) {
+        SearchCriteria<UsageParseCheckpointVO> sc = RangeSearch.create();
+        sc.setParameters("startMillis", startMillis);
+        sc.setParameters("endMillis", endMillis);
+        return listBy(sc);
+    }
+
+    @Override
+    public int removeUpTo(long endMillis) {
+        SearchCriteria<UsageParseCheckpointVO> sc = EndedSearch.create();
+        sc.setParameters("endMillis", endMillis);
+        return remove(sc);
+    }
+}
@@ -26,4 +26,10 @@ public interface UsageVMInstanceDao extends GenericDao<UsageVMInstanceVO, Long>
     public void update(UsageVMInstanceVO instance);
     public void delete(UsageVMInstanceVO instance);
     public List<UsageVMInstanceVO> getUsageRecords(long userId, Date startDate, Date endDate);
+
+    /**
+     * Lists the entries still open or ended on or after the given date, of all
+     * vms or of a single one when vmId is not null.
+     */
+    public List<UsageVMInstanceVO> listOpenOrEndedAfter(Long vmId, Date date);
 }
@@ -18,6 +18,7 @@ package com.cloud.usage.dao;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -47,6 +48,9 @@ public class UsageVMInstanceDaoImpl extends GenericDaoBase<UsageVMInstanceVO, Lo
                                                                   "FROM usage_vm_instance " +
                                                                   "WHERE account_id = ? AND ((end_date IS NULL) OR (start_date BETWEEN ? AND ?) OR " +
                                                                   "      (end_date BETWEEN ? AND ?) OR ((start_date <= ?) AND (end_date >= ?)))";
+    protected static final String LIST_OPEN_OR_ENDED_AFTER = "SELECT usage_type, zone_id, account_id, vm_instance_id, vm_name, service_offering_id, template_id, hypervisor_type, start_date, end_date " +
+                                                              "FROM usage_vm_instance " +
+                                                              "WHERE ((end_date IS NULL) OR (end_date >= ?))";
 
 	public UsageVMInstanceDaoImpl() {}
 
@@ -106,26 +110,7 @@ public class UsageVMInstanceDaoImpl extends GenericDaoBase<UsageVMInstanceVO, Lo
             pstmt.setString(7, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), endDate));
             ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
-                int r_usageType = rs.getInt(1);
-                long r_zoneId = rs.getLong(2);
-                long r_accountId = rs.getLong(3);
-                long r_vmId = rs.getLong(4);
-                String r_vmName = rs.getString(5);
-                long r_soId = rs.getLong(6);
-                long r_tId = rs.getLong(7);
-                String hypervisorType = rs.getString(8);
-                String r_startDate = rs.getString(9);
-                String r_endDate = rs.getString(10);
-                Date instanceStartDate = null;
-                Date instanceEndDate = null;
-                if (r_startDate != null) {
-                    instanceStartDate = DateUtil.parseDateString(s_gmtTimeZone, r_startDate);
-                }
-                if (r_endDate != null) {
-                    instanceEndDate = DateUtil.parseDateString(s_gmtTimeZone, r_endDate);
-                }
-                UsageVMInstanceVO usageInstance = new UsageVMInstanceVO(r_usageType, r_zoneId, r_accountId, r_vmId, r_vmName, r_soId, r_tId, hypervisorType, instanceStartDate, instanceEndDate);
-                usageInstances.add(usageInstance);
+                usageInstances.add(toUsageInstance(rs));
             }
         } catch (Exception ex) {
             s_logger.error("error retrieving usage vm instances for account id: " + accountId, ex);
@@ -134,4 +119,53 @@ public class UsageVMInstanceDaoImpl extends GenericDaoBase<UsageVMInstanceVO, Lo
         }
         return usageInstances;
     }
+
+    @Override
+    public List<UsageVMInstanceVO> listOpenOrEndedAfter(Long vmId, Date date) {
+        Transaction txn = Transaction.open(Transaction.USAGE_DB);
+        PreparedStatement pstmt = null;
+        List<UsageVMInstanceVO> usageInstances = new ArrayList<UsageVMInstanceVO>();
+        try {
+            String sql = LIST_OPEN_OR_ENDED_AFTER;
+            if (vmId != null) {
+                sql += " AND vm_instance_id = ?";
+            }
+            pstmt = txn.prepareAutoCloseStatement(sql);
+            pstmt.setString(1, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), date));
+            if (vmId != null) {
+                pstmt.setLong(2, vmId);
+            }
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                usageInstances.add(toUsageInstance(rs));
+            }
+        } catch (Exception ex) {
+            s_logger.error("error retrieving open usage vm instances" + (vmId != null ? " for vm id: " + vmId : ""), ex);
+        } finally {
+            txn.close();
+        }
+        return usageInstances;
+    }
+
+    private UsageVMInstanceVO toUsageInstance(ResultSet rs) throws SQLException {
+        int r_usageType = rs.getInt(1);
+        long r_zoneId = rs.getLong(2);
+        long r_accountId = rs.getLong(3);
+        long r_vmId = rs.getLong(4);
+        String r_vmName = rs.getString(5);
+        long r_soId = rs.getLong(6);
+        long r_tId = rs.getLong(7);
+        String hypervisorType = rs.getString(8);
+        String r_startDate = rs.getString(9);
+        String r_endDate = rs.getString(10);
+        Date instanceStartDate = null;
+        Date instanceEndDate = null;
+        if (r_startDate != null) {
+            instanceStartDate = DateUtil.parseDateString(s_gmtTimeZone, r_startDate);
+        }
+        if (r_endDate != null) {
+            instanceEndDate = DateUtil.parseDateString(s_gmtTimeZone, r_endDate);
+        }
+        return new UsageVMInstanceVO(r_usageType, r_zoneId, r_accountId, r_vmId, r_vmName, r_soId, r_tId, hypervisorType, instanceStartDate, instanceEndDate);
+    }
 }
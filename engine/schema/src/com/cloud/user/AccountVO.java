@@ -78,6 +78,20 @@ public class AccountVO implements Account {
     	this.uuid = UUID.randomUUID().toString();
     }
 
+    public AccountVO(AccountVO account) {
+        this.id = account.id;
+        this.accountName = account.accountName;
+        this.type = account.type;
+        this.domainId = account.domainId;
+        this.state = account.state;
+        this.removed = account.removed;
+        this.needsCleanup = account.needsCleanup;
+        this.networkDomain = account.networkDomain;
+        this.uuid = account.uuid;
+        this.defaultZoneId = account.defaultZoneId;
+        this.isDefault = account.isDefault;
+    }
+
     public AccountVO(String accountName, long domainId, String networkDomain, short type, String uuid) {
         this.accountName = accountName;
         this.domainId = domainId;
@@ -105,6 +105,26 @@ public class UserVO implements User, Identity, InternalIdentity {
         this.id = id;
         this.uuid = UUID.randomUUID().toString();
     }
+
+    public UserVO(UserVO user) {
+        this.id = user.id;
+        this.username = user.username;
+        this.password = user.password;
+        this.firstname = user.firstname;
+        this.lastname = user.lastname;
+        this.accountId = user.accountId;
+        this.email = user.email;
+        this.state = user.state;
+        this.apiKey = user.apiKey;
+        this.secretKey = user.secretKey;
+        this.created = user.created;
+        this.removed = user.removed;
+        this.timezone = user.timezone;
+        this.registrationToken = user.registrationToken;
+        this.registered = user.registered;
+        this.uuid = user.uuid;
+        this.isDefault = user.isDefault;
+    }
     
     public UserVO(long accountId, String username, String password, String firstName, String lastName, String email, String timezone, String uuid) {
         this.accountId = accountId;
@@ -0,0 +1,72 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.io.Serializable;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.db.EntityCacheInvalidator;
+import com.cloud.utils.db.GenericDaoBase;
+
+/**
+ * Propagates DAO entity cache evictions to the other management servers
+ * so that their caches don't keep serving rows changed on this one.
+ */
+public class ClusterEntityCacheInvalidator implements EntityCacheInvalidator, ClusterManager.Dispatcher {
+    private static final Logger s_logger = Logger.getLogger(ClusterEntityCacheInvalidator.class);
+
+    public static final String NAME = "EntityCache";
+    private static final char SEPARATOR = '|';
+
+    private final ClusterManager _clusterMgr;
+
+    public ClusterEntityCacheInvalidator(ClusterManager clusterMgr) {
+        _clusterMgr = clusterMgr;
+    }
+
+    @Override
+    public void invalidated(String daoName, Serializable id) {
+        StringBuilder message = new StringBuilder(daoName);
+        if (id != null) {
+            message.append(SEPARATOR).append(id.toString());
+        }
+        _clusterMgr.broadcastNotification(NAME, message.toString());
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String dispatch(ClusterServicePdu pdu) {
+        String message = pdu.getJsonPackage();
+        if (message == null || message.isEmpty()) {
+            return null;
+        }
+
+        int index = message.indexOf(SEPARATOR);
+        String daoName = index < 0 ? message : message.substring(0, index);
+        String id = index < 0 ? null : message.substring(index + 1);
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Evicting " + daoName + " id " + id + " on request from " + pdu.getSourcePeer());
+        }
+        GenericDaoBase.invalidateCache(daoName, id);
+        return null;
+    }
+}
@@ -0,0 +1,84 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.db.LockWaiterNotifier;
+import com.cloud.utils.db.Merovingian2;
+
+/**
+ * Carries GlobalLock wait and release notifications between management
+ * servers, so that a thread waiting for a lock held on another server is
+ * woken up as soon as it is released instead of polling op_lock.
+ */
+public class ClusterLockNotifier implements LockWaiterNotifier, ClusterManager.Dispatcher {
+    private static final Logger s_logger = Logger.getLogger(ClusterLockNotifier.class);
+
+    public static final String NAME = "Locks";
+    private static final char SEPARATOR = '|';
+    private static final String WAIT = "wait";
+    private static final String RELEASED = "released";
+
+    private final ClusterManager _clusterMgr;
+    private final Merovingian2 _lockMaster;
+
+    public ClusterLockNotifier(ClusterManager clusterMgr, Merovingian2 lockMaster) {
+        _clusterMgr = clusterMgr;
+        _lockMaster = lockMaster;
+    }
+
+    @Override
+    public void waitFor(long ownerMsId, String key) {
+        _clusterMgr.sendNotification(Long.toString(ownerMsId), NAME, WAIT + SEPARATOR + _clusterMgr.getManagementNodeId() + SEPARATOR + key);
+    }
+
+    @Override
+    public void released(long waiterMsId, String key) {
+        _clusterMgr.sendNotification(Long.toString(waiterMsId), NAME, RELEASED + SEPARATOR + key);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String dispatch(ClusterServicePdu pdu) {
+        String message = pdu.getJsonPackage();
+        int index = message == null ? -1 : message.indexOf(SEPARATOR);
+        if (index < 0) {
+            s_logger.warn("Invalid lock notification from " + pdu.getSourcePeer() + ": " + message);
+            return null;
+        }
+
+        String type = message.substring(0, index);
+        if (WAIT.equals(type)) {
+            int keyIndex = message.indexOf(SEPARATOR, index + 1);
+            if (keyIndex < 0) {
+                s_logger.warn("Invalid lock notification from " + pdu.getSourcePeer() + ": " + message);
+                return null;
+            }
+            _lockMaster.onRemoteWaiter(Long.parseLong(message.substring(index + 1, keyIndex)), message.substring(keyIndex + 1));
+        } else if (RELEASED.equals(type)) {
+            _lockMaster.onRemoteRelease(message.substring(index + 1));
+        } else {
+            s_logger.warn("Unknown lock notification " + type + " from " + pdu.getSourcePeer());
+        }
+        return null;
+    }
+}
@@ -52,6 +52,27 @@ public interface ClusterManager extends Manager {
 
     void registerDispatcher(Dispatcher dispatcher);
 
+    /**
+     * Registers a dispatcher for notifications sent through broadcastNotification().
+     * Notifications are routed by the dispatcher's name.
+     */
+    void registerNotificationDispatcher(Dispatcher dispatcher);
+
+    /**
+     * Sends a one way notification to all of the other management server nodes.
+     * @param dispatcherName name of the dispatcher handling it on the peers
+     * @param message notification content
+     */
+    void broadcastNotification(String dispatcherName, String message);
+
+    /**
+     * Sends a one way notification to a single management server node.
+     * @param strPeer peer to notify
+     * @param dispatcherName name of the dispatcher handling it on the peer
+     * @param message notification content
+     */
+    void sendNotification(String strPeer, String dispatcherName, String message);
+
     ManagementServerHost getPeer(String peerName);
     
     String getSelfPeerName();
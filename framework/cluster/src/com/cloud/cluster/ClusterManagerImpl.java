@@ -34,13 +34,16 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import javax.ejb.Local;
 import javax.inject.Inject;
+import javax.management.StandardMBean;
 import javax.naming.ConfigurationException;
 
 import org.apache.log4j.Logger;
@@ -60,6 +63,7 @@ import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.ConnectionConcierge;
 import com.cloud.utils.db.DB;
+import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.events.SubscriptionMgr;
 import com.cloud.utils.exception.CloudRuntimeException;
@@ -75,7 +79,8 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     private static final int DEFAULT_OUTGOING_WORKERS = 5;
 
     private final List<ClusterManagerListener> _listeners = new ArrayList<ClusterManagerListener>();
-    private final Map<Long, ManagementServerHostVO> _activePeers = new HashMap<Long, ManagementServerHostVO>();
+    // maintained by the heartbeat, read by broadcastNotification() from any thread
+    private final Map<Long, ManagementServerHostVO> _activePeers = new ConcurrentHashMap<Long, ManagementServerHostVO>();
 
     private final Map<String, ClusterService> _clusterPeers;
 
@@ -98,6 +103,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     @Inject private ManagementServerHostPeerDao _mshostPeerDao;
 
     protected Dispatcher _dispatcher;
+    private final Map<String, Dispatcher> _notificationDispatchers = new ConcurrentHashMap<String, Dispatcher>();
 
     //
     // pay attention to _mshostId and _msid
@@ -112,9 +118,9 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
 
     private String _clusterNodeIP = "127.0.0.1";
     
-    private final List<ClusterServicePdu> _clusterPduOutgoingQueue = new ArrayList<ClusterServicePdu>();
-    private final List<ClusterServicePdu> _clusterPduIncomingQueue = new ArrayList<ClusterServicePdu>();
-    private final Map<Long, ClusterServiceRequestPdu> _outgoingPdusWaitingForAck = new HashMap<Long, ClusterServiceRequestPdu>();
+    private final ConcurrentHashMap<String, ClusterPeerQueue> _peerQueues = new ConcurrentHashMap<String, ClusterPeerQueue>();
+    private final ConcurrentHashMap<Long, ClusterServiceRequestPdu> _outgoingPdusWaitingForAck = new ConcurrentHashMap<Long, ClusterServiceRequestPdu>();
+    private final ExecutorService _senderExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("Cluster-Sender"));
     
     public ClusterManagerImpl() {
         _clusterPeers = new HashMap<String, ClusterService>();
@@ -127,9 +133,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     }
     
     private void registerRequestPdu(ClusterServiceRequestPdu pdu) {
-        synchronized(_outgoingPdusWaitingForAck) {
-            _outgoingPdusWaitingForAck.put(pdu.getSequenceId(), pdu);
-        }
+        _outgoingPdusWaitingForAck.put(pdu.getSequenceId(), pdu);
     }
     
     @Override
@@ -137,200 +141,200 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         _dispatcher = dispatcher;
     }
 
+    @Override
+    public void registerNotificationDispatcher(Dispatcher dispatcher) {
+        _notificationDispatchers.put(dispatcher.getName(), dispatcher);
+    }
+
     private ClusterServiceRequestPdu popRequestPdu(long ackSequenceId) {
-        synchronized(_outgoingPdusWaitingForAck) {
-            if(_outgoingPdusWaitingForAck.get(ackSequenceId) != null) {
-                ClusterServiceRequestPdu pdu = _outgoingPdusWaitingForAck.get(ackSequenceId);
-                _outgoingPdusWaitingForAck.remove(ackSequenceId);
-                return pdu;
-            }
-        }
-        
-        return null;
+        return _outgoingPdusWaitingForAck.remove(ackSequenceId);
     }
     
     private void cancelClusterRequestToPeer(String strPeer) {
         List<ClusterServiceRequestPdu> candidates = new ArrayList<ClusterServiceRequestPdu>();
-        synchronized(_outgoingPdusWaitingForAck) {
-            for(Map.Entry<Long, ClusterServiceRequestPdu> entry : _outgoingPdusWaitingForAck.entrySet()) {
-                if(entry.getValue().getDestPeer().equalsIgnoreCase(strPeer))
-                    candidates.add(entry.getValue());
-            }
-
-            for(ClusterServiceRequestPdu pdu : candidates) {
-                _outgoingPdusWaitingForAck.remove(pdu.getSequenceId());
-            }
+        for(ClusterServiceRequestPdu pdu : _outgoingPdusWaitingForAck.values()) {
+            if(pdu.getDestPeer().equalsIgnoreCase(strPeer) && _outgoingPdusWaitingForAck.remove(pdu.getSequenceId(), pdu))
+                candidates.add(pdu);
         }
         
+        ClusterPeerQueue queue = _peerQueues.get(strPeer);
         for(ClusterServiceRequestPdu pdu : candidates) {
             s_logger.warn("Cancel cluster request PDU to peer: " + strPeer + ", pdu: " + pdu.getJsonPackage());
-            synchronized(pdu) {
-                pdu.notifyAll();
-            }
+            if(queue != null)
+                queue.recordRequestCancelled();
+            completeRequestPdu(pdu);
         }
     }
-    
-    private void addOutgoingClusterPdu(ClusterServicePdu pdu) {
-    	synchronized(_clusterPduOutgoingQueue) {
-    		_clusterPduOutgoingQueue.add(pdu);
-    		_clusterPduOutgoingQueue.notifyAll();
-    	}
-    }
-    
-    private ClusterServicePdu popOutgoingClusterPdu(long timeoutMs) {
-    	synchronized(_clusterPduOutgoingQueue) {
-    		try {
-				_clusterPduOutgoingQueue.wait(timeoutMs);
-			} catch (InterruptedException e) {
-			}
-			
-			if(_clusterPduOutgoingQueue.size() > 0) {
-				ClusterServicePdu pdu = _clusterPduOutgoingQueue.get(0);
-				_clusterPduOutgoingQueue.remove(0);
-				return pdu;
-			}
-    	}
-    	return null;
-    }
 
-    private void addIncomingClusterPdu(ClusterServicePdu pdu) {
-    	synchronized(_clusterPduIncomingQueue) {
-    		_clusterPduIncomingQueue.add(pdu);
-    		_clusterPduIncomingQueue.notifyAll();
-    	}
-    }
-    
-    private ClusterServicePdu popIncomingClusterPdu(long timeoutMs) {
-    	synchronized(_clusterPduIncomingQueue) {
-    		try {
-    			_clusterPduIncomingQueue.wait(timeoutMs);
-			} catch (InterruptedException e) {
-			}
-			
-			if(_clusterPduIncomingQueue.size() > 0) {
-				ClusterServicePdu pdu = _clusterPduIncomingQueue.get(0);
-				_clusterPduIncomingQueue.remove(0);
-				return pdu;
-			}
-    	}
-    	return null;
+    private void completeRequestPdu(ClusterServiceRequestPdu pdu) {
+        synchronized(pdu) {
+            pdu.setCompleted(true);
+            pdu.notifyAll();
+        }
     }
-    
-    private Runnable getClusterPduSendingTask() {
-        return new Runnable() {
+
+    private ClusterPeerQueue getPeerQueue(String strPeer) {
+        ClusterPeerQueue queue = _peerQueues.get(strPeer);
+        if(queue != null)
+            return queue;
+
+        queue = new ClusterPeerQueue(strPeer, DEFAULT_OUTGOING_WORKERS, _senderExecutor, new ClusterPeerQueue.PduSender() {
             @Override
-            public void run() {
-                onSendingClusterPdu();
+            public void send(ClusterPeerQueue peerQueue, ClusterServicePdu pdu) {
+                sendClusterPdu(peerQueue, pdu);
             }
-        };
-    }
-    
-    private Runnable getClusterPduNotificationTask() {
-        return new Runnable() {
+
             @Override
-            public void run() {
-                onNotifyingClusterPdu();
+            public void drop(ClusterPeerQueue peerQueue, ClusterServicePdu pdu) {
+                dropClusterPdu(peerQueue, pdu);
             }
-        };
+        });
+
+        ClusterPeerQueue existing = _peerQueues.putIfAbsent(strPeer, queue);
+        if(existing != null)
+            return existing;
+
+        try {
+            JmxUtil.registerMBean("ClusterPeer", strPeer, new StandardMBean(queue, ClusterPeerQueueMBean.class));
+        } catch (Exception e) {
+            s_logger.warn("Unable to register cluster peer mbean for " + strPeer, e);
+        }
+        return queue;
+    }
+
+    private void removePeerQueue(String strPeer) {
+        // senders still draining the queue drop what is left in it, a later PDU creates a new queue
+        ClusterPeerQueue queue = _peerQueues.remove(strPeer);
+        if(queue != null) {
+            queue.close();
+            try {
+                JmxUtil.unregisterMBean("ClusterPeer", strPeer);
+            } catch (Exception e) {
+                s_logger.warn("Unable to deregister cluster peer mbean for " + strPeer, e);
+            }
+        }
+    }
+    
+    private void addOutgoingClusterPdu(ClusterServicePdu pdu) {
+        getPeerQueue(pdu.getDestPeer()).addOutgoing(pdu);
     }
     
-    private void onSendingClusterPdu() {
-        while(true) {
+    private void sendClusterPdu(ClusterPeerQueue queue, ClusterServicePdu pdu) {
+        ClusterService peerService =  null;
+        for(int i = 0; i < 2; i++) {
             try {
-                ClusterServicePdu pdu = popOutgoingClusterPdu(1000);
-                if(pdu == null)
-                	continue;
-                	
-                ClusterService peerService =  null;
-                for(int i = 0; i < 2; i++) {
-                    try {
-                        peerService = getPeerService(pdu.getDestPeer());
-                    } catch (RemoteException e) {
-                        s_logger.error("Unable to get cluster service on peer : " + pdu.getDestPeer());
-                    }
+                peerService = getPeerService(pdu.getDestPeer());
+            } catch (RemoteException e) {
+                s_logger.error("Unable to get cluster service on peer : " + pdu.getDestPeer());
+            }
 
-                    if(peerService != null) {
-                        try {
-                            if(s_logger.isDebugEnabled()) {
-                                s_logger.debug("Cluster PDU " + getSelfPeerName() + " -> " + pdu.getDestPeer() + ". agent: " + pdu.getAgentId()
-                                    + ", pdu seq: " + pdu.getSequenceId() + ", pdu ack seq: " + pdu.getAckSequenceId() + ", json: " + pdu.getJsonPackage());
-                            }
+            if(peerService != null) {
+                try {
+                    if(s_logger.isDebugEnabled()) {
+                        s_logger.debug("Cluster PDU " + getSelfPeerName() + " -> " + pdu.getDestPeer() + ". agent: " + pdu.getAgentId()
+                            + ", pdu seq: " + pdu.getSequenceId() + ", pdu ack seq: " + pdu.getAckSequenceId() + ", json: " + pdu.getJsonPackage());
+                    }
 
-                            long startTick = System.currentTimeMillis();
-                            String strResult = peerService.execute(pdu);
-                            if(s_logger.isDebugEnabled()) {
-                                s_logger.debug("Cluster PDU " + getSelfPeerName() + " -> " + pdu.getDestPeer() + " completed. time: " +
-                                    (System.currentTimeMillis() - startTick) + "ms. agent: " + pdu.getAgentId()
-                                     + ", pdu seq: " + pdu.getSequenceId() + ", pdu ack seq: " + pdu.getAckSequenceId() + ", json: " + pdu.getJsonPackage());
-                            }
-                            
-                            if("true".equals(strResult))
-                                break;
-                            
-                        } catch (RemoteException e) {
-                            invalidatePeerService(pdu.getDestPeer());
-                            if(s_logger.isInfoEnabled()) {
-                                s_logger.info("Exception on remote execution, peer: " + pdu.getDestPeer() + ", iteration: "
-                                        + i + ", exception message :" + e.getMessage());
-                            }
-                        }
+                    long startTick = System.currentTimeMillis();
+                    String strResult = peerService.execute(pdu);
+                    if(s_logger.isDebugEnabled()) {
+                        s_logger.debug("Cluster PDU " + getSelfPeerName() + " -> " + pdu.getDestPeer() + " completed. time: " +
+                            (System.currentTimeMillis() - startTick) + "ms. agent: " + pdu.getAgentId()
+                             + ", pdu seq: " + pdu.getSequenceId() + ", pdu ack seq: " + pdu.getAckSequenceId() + ", json: " + pdu.getJsonPackage());
+                    }
+                    
+                    if("true".equals(strResult)) {
+                        queue.recordAck(System.currentTimeMillis() - startTick);
+                        return;
+                    }
+                    queue.recordAckTimeout();
+                    
+                } catch (RemoteException e) {
+                    queue.recordAckTimeout();
+                    invalidatePeerService(pdu.getDestPeer());
+                    if(s_logger.isInfoEnabled()) {
+                        s_logger.info("Exception on remote execution, peer: " + pdu.getDestPeer() + ", iteration: "
+                                + i + ", exception message :" + e.getMessage());
                     }
                 }
-            } catch(Throwable e) {
-                s_logger.error("Unexcpeted exception: ", e);
             }
         }
+        dropClusterPdu(queue, pdu);
+    }
+
+    private void dropClusterPdu(ClusterPeerQueue queue, ClusterServicePdu pdu) {
+        queue.recordDropped();
+
+        // nobody is going to answer a request that never got there
+        if(pdu instanceof ClusterServiceRequestPdu && popRequestPdu(pdu.getSequenceId()) != null) {
+            completeRequestPdu((ClusterServiceRequestPdu)pdu);
+        }
     }
     
-    private void onNotifyingClusterPdu() {
-        while(true) {
-            try {
-                final ClusterServicePdu pdu = popIncomingClusterPdu(1000);
-                if(pdu == null)
-                	continue;
-
-                _executor.execute(new Runnable() {
-                    @Override
-                	public void run() {
-		                if(pdu.getPduType() == ClusterServicePdu.PDU_TYPE_RESPONSE) {
-		                    ClusterServiceRequestPdu requestPdu = popRequestPdu(pdu.getAckSequenceId());
-		                    if(requestPdu != null) {
-		                        requestPdu.setResponseResult(pdu.getJsonPackage());
-		                        synchronized(requestPdu) {
-		                            requestPdu.notifyAll();
-		                        }
-		                    } else {
-                                s_logger.warn("Original request has already been cancelled. pdu: " + pdu.getJsonPackage());
-		                    }
-		                } else {
-                            String result = _dispatcher.dispatch(pdu);
-		                    if(result == null)
-		                        result = "";
-		                    
-		                    if(pdu.getPduType() == ClusterServicePdu.PDU_TYPE_REQUEST) {
-			                    ClusterServicePdu responsePdu = new ClusterServicePdu();
-			                    responsePdu.setPduType(ClusterServicePdu.PDU_TYPE_RESPONSE);
-			                    responsePdu.setSourcePeer(pdu.getDestPeer());
-			                    responsePdu.setDestPeer(pdu.getSourcePeer());
-			                    responsePdu.setAckSequenceId(pdu.getSequenceId());
-			                    responsePdu.setJsonPackage(result);
-			                    
-			                    addOutgoingClusterPdu(responsePdu);
-		                    }
-		                }
-                	}
-                });
-            } catch(Throwable e) {
-                s_logger.error("Unexcpeted exception: ", e);
+    private void dispatchClusterPdu(ClusterServicePdu pdu) {
+        if(pdu.getPduType() == ClusterServicePdu.PDU_TYPE_NOTIFICATION) {
+            Dispatcher dispatcher = pdu.getDispatcherName() != null ? _notificationDispatchers.get(pdu.getDispatcherName()) : null;
+            if(dispatcher != null) {
+                dispatcher.dispatch(pdu);
+            } else {
+                s_logger.warn("No dispatcher registered for notification " + pdu.getDispatcherName() + " from " + pdu.getSourcePeer());
+            }
+        } else {
+            String result = _dispatcher.dispatch(pdu);
+            if(result == null)
+                result = "";
+            
+            if(pdu.getPduType() == ClusterServicePdu.PDU_TYPE_REQUEST) {
+                ClusterServicePdu responsePdu = new ClusterServicePdu();
+                responsePdu.setPduType(ClusterServicePdu.PDU_TYPE_RESPONSE);
+                responsePdu.setSourcePeer(pdu.getDestPeer());
+                responsePdu.setDestPeer(pdu.getSourcePeer());
+                responsePdu.setAckSequenceId(pdu.getSequenceId());
+                responsePdu.setJsonPackage(result);
+                
+                addOutgoingClusterPdu(responsePdu);
             }
         }
     }
 
+    @Override
+    public void OnReceiveClusterServicePdu(final ClusterServicePdu pdu) {
+        final ClusterPeerQueue queue = getPeerQueue(pdu.getSourcePeer());
+        queue.incomingReceived();
 
+        // a response only wakes up the waiting request, it never has to wait behind other PDUs
+        if(pdu.getPduType() == ClusterServicePdu.PDU_TYPE_RESPONSE) {
+            try {
+                ClusterServiceRequestPdu requestPdu = popRequestPdu(pdu.getAckSequenceId());
+                if(requestPdu != null) {
+                    requestPdu.setResponseResult(pdu.getJsonPackage());
+                    completeRequestPdu(requestPdu);
+                } else {
+                    s_logger.warn("Original request has already been cancelled. pdu: " + pdu.getJsonPackage());
+                }
+            } finally {
+                queue.incomingDone();
+            }
+            return;
+        }
 
-    @Override
-    public void OnReceiveClusterServicePdu(ClusterServicePdu pdu) {
-    	addIncomingClusterPdu(pdu);
+        try {
+            _executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        dispatchClusterPdu(pdu);
+                    } catch(Throwable e) {
+                        s_logger.error("Unexcpeted exception: ", e);
+                    } finally {
+                        queue.incomingDone();
+                    }
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            queue.incomingDone();
+            s_logger.warn("Cluster manager is stopping, dropping PDU from " + pdu.getSourcePeer() + ", pdu seq: " + pdu.getSequenceId());
+        }
     }
     
 
@@ -368,6 +372,35 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         }
     }
 
+    /**
+     * Notifies the peers the heartbeat last saw alive. This is called while
+     * transactions are being closed, e.g. to evict caches, so it must not
+     * touch the database; the PDUs are only queued to the per peer senders.
+     */
+    @Override
+    public void broadcastNotification(String dispatcherName, String message) {
+        for (ManagementServerHostVO peer : _activePeers.values()) {
+            String peerName = Long.toString(peer.getMsid());
+            if (getSelfPeerName().equals(peerName)) {
+                continue;
+            }
+
+            sendNotification(peerName, dispatcherName, message);
+        }
+    }
+
+    @Override
+    public void sendNotification(String strPeer, String dispatcherName, String message) {
+        ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setPduType(ClusterServicePdu.PDU_TYPE_NOTIFICATION);
+        pdu.setDispatcherName(dispatcherName);
+        pdu.setSourcePeer(getSelfPeerName());
+        pdu.setDestPeer(strPeer);
+        pdu.setJsonPackage(message);
+        pdu.setStopOnError(false);
+        addOutgoingClusterPdu(pdu);
+    }
+
     public void executeAsync(String strPeer, long agentId, String cmds, boolean stopOnError) {
         ClusterServicePdu pdu = new ClusterServicePdu();
         pdu.setSourcePeer(getSelfPeerName());
@@ -394,9 +427,13 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         addOutgoingClusterPdu(pdu);
         
         synchronized(pdu) {
-            try {
-                pdu.wait();
-            } catch (InterruptedException e) {
+            // the response may come in before we get here, so wait only if it hasn't
+            while(!pdu.isCompleted()) {
+                try {
+                    pdu.wait();
+                } catch (InterruptedException e) {
+                    break;
+                }
             }
         }
 
@@ -474,6 +511,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
             if(s_logger.isDebugEnabled())
                 s_logger.debug("Leaving node, IP: " + mshost.getServiceIP() + ", msid: " + mshost.getMsid());
             cancelClusterRequestToPeer(String.valueOf(mshost.getMsid()));
+            removePeerQueue(String.valueOf(mshost.getMsid()));
         }
 
         synchronized(_listeners) {
@@ -507,23 +545,38 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         ClusterService service = _currentServiceAdapter.getPeerService(strPeer);
 
         if(service != null) {
+            ClusterService existing;
             synchronized(_clusterPeers) {
                 // re-check the peer map again to deal with the
                 // race conditions
-                if(!_clusterPeers.containsKey(strPeer)) {
+                existing = _clusterPeers.get(strPeer);
+                if(existing == null) {
                     _clusterPeers.put(strPeer, service);
                 }
             }
+
+            if(existing != null) {
+                // another thread got there first, use its service so there is
+                // only one connection per peer
+                closePeerService(service);
+                return existing;
+            }
         }
 
         return service;
     }
 
     public void invalidatePeerService(String strPeer) {
+        ClusterService service;
         synchronized(_clusterPeers) {
-            if(_clusterPeers.containsKey(strPeer)) {
-                _clusterPeers.remove(strPeer);
-            }
+            service = _clusterPeers.remove(strPeer);
+        }
+        closePeerService(service);
+    }
+
+    private static void closePeerService(ClusterService service) {
+        if(service != null) {
+            service.close();
         }
     }
 
@@ -1010,6 +1063,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         }
 
         _heartbeatScheduler.shutdownNow();
+        _senderExecutor.shutdownNow();
         _executor.shutdownNow();
 
         try {
@@ -1054,16 +1108,29 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
             throw new ConfigurationException("cluster node IP should be valid local address where the server is running, please check your configuration");
         }
 
-        for(int i = 0; i < DEFAULT_OUTGOING_WORKERS; i++)
-        	_executor.execute(getClusterPduSendingTask());
-        
-        // notification task itself in turn works as a task dispatcher
-        _executor.execute(getClusterPduNotificationTask());
+        ClusterEntityCacheInvalidator invalidator = new ClusterEntityCacheInvalidator(this);
+        registerNotificationDispatcher(invalidator);
+        GenericDaoBase.setCacheInvalidator(invalidator);
 
-        if (_serviceAdapters == null) {
+        if (_serviceAdapters == null || _serviceAdapters.isEmpty()) {
             throw new ConfigurationException("Unable to get cluster service adapters");
         }
-        _currentServiceAdapter = _serviceAdapters.get(0);
+
+        // every peer of the cluster has to talk through the same adapter, the servlet one unless told otherwise
+        String adapterName = dbProps.getProperty("cluster.service.adapter", ClusterServiceServletAdapter.class.getSimpleName()).trim();
+        for (ClusterServiceAdapter adapter : _serviceAdapters) {
+            if (adapter.getName().equalsIgnoreCase(adapterName)) {
+                _currentServiceAdapter = adapter;
+                break;
+            }
+        }
+        if (_currentServiceAdapter == null) {
+            s_logger.warn("Cluster service adapter " + adapterName + " is not available, using " + _serviceAdapters.get(0).getName());
+            _currentServiceAdapter = _serviceAdapters.get(0);
+        }
+        if(s_logger.isInfoEnabled()) {
+            s_logger.info("Cluster service adapter : " + _currentServiceAdapter.getName());
+        }
 
         if(_currentServiceAdapter == null) {
             throw new ConfigurationException("Unable to set current cluster service adapter");
@@ -0,0 +1,231 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * PDU traffic with one peer.  Outgoing PDUs go into a lock-free queue that
+ * at most maxSenders workers drain, so a slow peer ties up its own senders
+ * only and never the traffic to the other peers.  With a single sender the
+ * PDUs reach the peer in the order they were added.
+ */
+public class ClusterPeerQueue implements ClusterPeerQueueMBean {
+    private static final Logger s_logger = Logger.getLogger(ClusterPeerQueue.class);
+
+    public interface PduSender {
+        /**
+         * Delivers the PDU to the peer, reporting the outcome through
+         * recordAck(), recordAckTimeout() and recordDropped().
+         */
+        void send(ClusterPeerQueue queue, ClusterServicePdu pdu);
+
+        /**
+         * Gives up on a PDU left in the queue of a peer that has left the
+         * cluster, without trying to reach the peer.
+         */
+        void drop(ClusterPeerQueue queue, ClusterServicePdu pdu);
+    }
+
+    private final String _peer;
+    private final int _maxSenders;
+    private final ExecutorService _executor;
+    private final PduSender _sender;
+
+    private final ConcurrentLinkedQueue<ClusterServicePdu> _outgoing = new ConcurrentLinkedQueue<ClusterServicePdu>();
+    private final AtomicInteger _outgoingDepth = new AtomicInteger(0);
+    private final AtomicInteger _incomingDepth = new AtomicInteger(0);
+    private final AtomicInteger _activeSenders = new AtomicInteger(0);
+    private volatile boolean _closed;
+
+    private final AtomicLong _pdusSent = new AtomicLong(0);
+    private final AtomicLong _pdusReceived = new AtomicLong(0);
+    private final AtomicLong _pdusDropped = new AtomicLong(0);
+    private final AtomicLong _ackTimeouts = new AtomicLong(0);
+    private final AtomicLong _totalAckLatency = new AtomicLong(0);
+    private volatile long _maxAckLatency;
+    private final AtomicLong _requestsCancelled = new AtomicLong(0);
+
+    private final Runnable _drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    public ClusterPeerQueue(String peer, int maxSenders, ExecutorService executor, PduSender sender) {
+        _peer = peer;
+        _maxSenders = maxSenders;
+        _executor = executor;
+        _sender = sender;
+    }
+
+    public void addOutgoing(ClusterServicePdu pdu) {
+        _outgoing.add(pdu);
+        _outgoingDepth.incrementAndGet();
+        scheduleDrain();
+    }
+
+    /**
+     * Called once the peer has left the cluster: the PDUs still queued, and
+     * any added later on, are dropped rather than sent.
+     */
+    public void close() {
+        _closed = true;
+        if (!_outgoing.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    public boolean isClosed() {
+        return _closed;
+    }
+
+    private void scheduleDrain() {
+        if (acquireSender()) {
+            try {
+                _executor.execute(_drainTask);
+            } catch (RejectedExecutionException e) {
+                _activeSenders.decrementAndGet();
+                s_logger.warn("Unable to schedule sending of cluster PDUs to peer " + _peer + ", the executor is shut down");
+            }
+        }
+    }
+
+    private boolean acquireSender() {
+        while (true) {
+            int active = _activeSenders.get();
+            if (active >= _maxSenders) {
+                return false;
+            }
+            if (_activeSenders.compareAndSet(active, active + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void drain() {
+        do {
+            ClusterServicePdu pdu;
+            while ((pdu = _outgoing.poll()) != null) {
+                _outgoingDepth.decrementAndGet();
+                try {
+                    if (_closed) {
+                        _sender.drop(this, pdu);
+                    } else {
+                        _sender.send(this, pdu);
+                    }
+                } catch (Throwable e) {
+                    s_logger.error("Unexpected exception sending cluster PDU to peer " + _peer, e);
+                }
+            }
+            _activeSenders.decrementAndGet();
+            // a PDU added after the last poll but before the decrement may have found no free sender
+        } while (!_outgoing.isEmpty() && acquireSender());
+    }
+
+    public void incomingReceived() {
+        _pdusReceived.incrementAndGet();
+        _incomingDepth.incrementAndGet();
+    }
+
+    public void incomingDone() {
+        _incomingDepth.decrementAndGet();
+    }
+
+    public void recordAck(long latency) {
+        _pdusSent.incrementAndGet();
+        _totalAckLatency.addAndGet(latency);
+        if (latency > _maxAckLatency) {
+            _maxAckLatency = latency;
+        }
+    }
+
+    public void recordAckTimeout() {
+        _ackTimeouts.incrementAndGet();
+    }
+
+    public void recordDropped() {
+        _pdusDropped.incrementAndGet();
+    }
+
+    public void recordRequestCancelled() {
+        _requestsCancelled.incrementAndGet();
+    }
+
+    @Override
+    public String getPeer() {
+        return _peer;
+    }
+
+    @Override
+    public int getOutgoingQueueDepth() {
+        return _outgoingDepth.get();
+    }
+
+    @Override
+    public int getIncomingQueueDepth() {
+        return _incomingDepth.get();
+    }
+
+    @Override
+    public int getActiveSenders() {
+        return _activeSenders.get();
+    }
+
+    @Override
+    public long getPdusSent() {
+        return _pdusSent.get();
+    }
+
+    @Override
+    public long getPdusReceived() {
+        return _pdusReceived.get();
+    }
+
+    @Override
+    public long getPdusDropped() {
+        return _pdusDropped.get();
+    }
+
+    @Override
+    public long getAckTimeouts() {
+        return _ackTimeouts.get();
+    }
+
+    @Override
+    public double getAverageAckLatency() {
+        long sent = _pdusSent.get();
+        return sent == 0 ? 0 : (double)_totalAckLatency.get() / sent;
+    }
+
+    @Override
+    public long getMaxAckLatency() {
+        return _maxAckLatency;
+    }
+
+    @Override
+    public long getRequestsCancelled() {
+        return _requestsCancelled.get();
+    }
+}
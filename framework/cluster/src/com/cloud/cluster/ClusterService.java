@@ -22,4 +22,10 @@ import java.rmi.RemoteException;
 public interface ClusterService extends Remote {
     String execute(ClusterServicePdu pdu) throws RemoteException;
     boolean ping(String callingPeer) throws RemoteException;
+
+    /**
+     * Releases the connection to the peer once the service is no longer used
+     * to reach it.
+     */
+    void close();
 }
@@ -0,0 +1,210 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.inject.Inject;
+import javax.naming.ConfigurationException;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.cluster.dao.ManagementServerHostDao;
+import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.PropertiesUtil;
+import com.cloud.utils.component.AdapterBase;
+import com.cloud.utils.nio.HandlerFactory;
+import com.cloud.utils.nio.Link;
+import com.cloud.utils.nio.NioServer;
+import com.cloud.utils.nio.Task;
+
+/**
+ * Cluster service over long-lived NIO connections instead of one HTTP POST
+ * per PDU.  A PDU is acknowledged as soon as the receiving peer has queued
+ * it, so senders can pipeline PDUs over a single connection per peer.
+ *
+ * Every management server of a cluster must use the same adapter, it is
+ * selected with cluster.service.adapter in db.properties.
+ */
+public class ClusterServiceNioAdapter extends AdapterBase implements ClusterServiceAdapter, HandlerFactory {
+
+    private static final Logger s_logger = Logger.getLogger(ClusterServiceNioAdapter.class);
+    private static final int DEFAULT_SERVICE_PORT = 9091;
+    private static final int DEFAULT_WORKERS = 5;
+    private static final int DEFAULT_MAX_INFLIGHT = 64;
+    private static final int DEFAULT_COALESCE_MAX_BYTES = 64 * 1024;
+
+    @Inject
+    private ClusterManager _manager;
+
+    @Inject
+    private ManagementServerHostDao _mshostDao;
+
+    private NioServer _server;
+
+    private boolean _initialized = false;
+    private boolean _enabled = false;
+    private int _clusterServicePort = DEFAULT_SERVICE_PORT;
+    private int _workers = DEFAULT_WORKERS;
+    private int _maxInFlight = DEFAULT_MAX_INFLIGHT;
+    private int _coalesceMaxBytes = DEFAULT_COALESCE_MAX_BYTES;
+
+    @Override
+    public ClusterService getPeerService(String strPeer) throws RemoteException {
+        try {
+            init();
+        } catch (ConfigurationException e) {
+            s_logger.error("Unable to init ClusterServiceNioAdapter");
+            throw new RemoteException("Unable to init ClusterServiceNioAdapter");
+        }
+
+        ManagementServerHostVO mshost = _mshostDao.findByMsid(Long.parseLong(strPeer));
+        if (mshost == null)
+            return null;
+
+        return new ClusterServiceNioImpl(strPeer, mshost.getServiceIP(), mshost.getServicePort(), _maxInFlight, _coalesceMaxBytes);
+    }
+
+    @Override
+    public String getServiceEndpointName(String strPeer) {
+        try {
+            init();
+        } catch (ConfigurationException e) {
+            s_logger.error("Unable to init ClusterServiceNioAdapter");
+            return null;
+        }
+
+        ManagementServerHostVO mshost = _mshostDao.findByMsid(Long.parseLong(strPeer));
+        if (mshost == null)
+            return null;
+
+        return mshost.getServiceIP() + ":" + mshost.getServicePort();
+    }
+
+    @Override
+    public int getServicePort() {
+        return _clusterServicePort;
+    }
+
+    @Override
+    public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
+        init();
+        return true;
+    }
+
+    @Override
+    public boolean start() {
+        if (!_enabled) {
+            return true;
+        }
+
+        _server = new NioServer("ClusterService", _clusterServicePort, _workers, this);
+        _server.setWriteCoalescing(_coalesceMaxBytes, 0);
+        _server.start();
+        if (!_server.isStartup()) {
+            s_logger.error("Unable to start the cluster service NIO server on port " + _clusterServicePort);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (_server != null) {
+            _server.stop();
+        }
+        return true;
+    }
+
+    @Override
+    public Task create(Task.Type type, Link link, byte[] data) {
+        return new ServiceTask(type, link, data);
+    }
+
+    private void init() throws ConfigurationException {
+        if (_initialized)
+            return;
+
+        File dbPropsFile = PropertiesUtil.findConfigFile("db.properties");
+        Properties dbProps = new Properties();
+        try {
+            dbProps.load(new FileInputStream(dbPropsFile));
+        } catch (FileNotFoundException e) {
+            throw new ConfigurationException("Unable to find db.properties");
+        } catch (IOException e) {
+            throw new ConfigurationException("Unable to load db.properties content");
+        }
+
+        _enabled = getName().equalsIgnoreCase(dbProps.getProperty("cluster.service.adapter"));
+        _clusterServicePort = NumbersUtil.parseInt(dbProps.getProperty("cluster.nio.port"), DEFAULT_SERVICE_PORT);
+        _workers = NumbersUtil.parseInt(dbProps.getProperty("cluster.nio.workers"), DEFAULT_WORKERS);
+        _maxInFlight = NumbersUtil.parseInt(dbProps.getProperty("cluster.nio.max.inflight"), DEFAULT_MAX_INFLIGHT);
+        _coalesceMaxBytes = NumbersUtil.parseInt(dbProps.getProperty("cluster.nio.coalesce.max.bytes"), DEFAULT_COALESCE_MAX_BYTES);
+        _initialized = true;
+        if (s_logger.isInfoEnabled())
+            s_logger.info("Cluster NIO port : " + _clusterServicePort + ", workers : " + _workers + ", max PDUs in flight per peer : " + _maxInFlight +
+                (_enabled ? "" : " (not the selected cluster service adapter)"));
+    }
+
+    private class ServiceTask extends Task {
+        public ServiceTask(Task.Type type, Link link, byte[] data) {
+            super(type, link, data);
+        }
+
+        @Override
+        protected void doTask(Task task) throws Exception {
+            if (task.getType() != Task.Type.DATA) {
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("Cluster NIO connection from " + task.getLink().getSocketAddress() + ": " + task.getType());
+                }
+                return;
+            }
+
+            Link link = task.getLink();
+            byte[] frame = task.getData();
+            try {
+                long frameId = ClusterServiceNioProtocol.getFrameId(frame);
+                switch (ClusterServiceNioProtocol.getType(frame)) {
+                case ClusterServiceNioProtocol.FRAME_PDU:
+                    _manager.OnReceiveClusterServicePdu(ClusterServiceNioProtocol.decodePdu(frame));
+                    link.send(ClusterServiceNioProtocol.encodeControl(ClusterServiceNioProtocol.FRAME_ACK, frameId, true));
+                    break;
+
+                case ClusterServiceNioProtocol.FRAME_PING:
+                    link.send(ClusterServiceNioProtocol.encodeControl(ClusterServiceNioProtocol.FRAME_PONG, frameId, true));
+                    break;
+
+                default:
+                    s_logger.warn("Unexpected cluster frame type " + ClusterServiceNioProtocol.getType(frame) + " from " + link.getSocketAddress());
+                    break;
+                }
+            } catch (ClosedChannelException e) {
+                s_logger.debug("Cluster NIO connection from " + link.getSocketAddress() + " closed before the ack was sent");
+            } catch (IOException e) {
+                s_logger.warn("Invalid cluster frame from " + link.getSocketAddress() + ", closing the connection: " + e.getMessage());
+                link.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,368 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.mgmt.JmxUtil;
+import com.cloud.utils.nio.HandlerFactory;
+import com.cloud.utils.nio.Link;
+import com.cloud.utils.nio.NioClient;
+import com.cloud.utils.nio.Task;
+
+/**
+ * Client side of the NIO cluster transport.  All PDUs to a peer share one
+ * long-lived connection: callers write their PDU and wait for the ack that
+ * carries the same frame id, so any number of PDUs can be on the wire at
+ * once, up to the in-flight limit that keeps a slow peer from piling up
+ * unacknowledged PDUs.
+ *
+ * Any failure closes the connection and surfaces as a RemoteException, on
+ * which ClusterManagerImpl drops the service and asks for a new one.
+ */
+public class ClusterServiceNioImpl implements ClusterService, HandlerFactory, ClusterServiceNioPeerMBean {
+    private static final Logger s_logger = Logger.getLogger(ClusterServiceNioImpl.class);
+
+    private static final int CONNECT_TIMEOUT = 30000;      // 30 seconds
+
+    private final String _peer;
+    private final String _host;
+    private final int _port;
+    private final int _maxInFlight;
+    private final int _coalesceMaxBytes;
+
+    private final Object _connectLock = new Object();
+    private NioClient _client;
+    private volatile Link _link;
+    private volatile boolean _closed;
+    private final CountDownLatch _connected = new CountDownLatch(1);
+
+    private final AtomicLong _nextFrameId = new AtomicLong(1);
+    private final Map<Long, PendingAck> _pendingAcks = new ConcurrentHashMap<Long, PendingAck>();
+    private final Semaphore _inFlight;
+
+    private final AtomicLong _pdusSent = new AtomicLong(0);
+    private final AtomicLong _bytesSent = new AtomicLong(0);
+    private final AtomicLong _bytesReceived = new AtomicLong(0);
+    private final AtomicLong _ackTimeouts = new AtomicLong(0);
+    private final AtomicLong _acksReceived = new AtomicLong(0);
+    private final AtomicLong _totalAckLatency = new AtomicLong(0);
+    private volatile long _maxAckLatency;
+
+    public ClusterServiceNioImpl(String peer, String host, int port, int maxInFlight, int coalesceMaxBytes) {
+        s_logger.info("Setup cluster service NIO connection. peer: " + peer + ", address: " + host + ":" + port + ", max PDUs in flight: " + maxInFlight);
+
+        _peer = peer;
+        _host = host;
+        _port = port;
+        _maxInFlight = maxInFlight;
+        _coalesceMaxBytes = coalesceMaxBytes;
+        _inFlight = new Semaphore(maxInFlight);
+    }
+
+    @Override
+    public String execute(ClusterServicePdu pdu) throws RemoteException {
+        long frameId = _nextFrameId.getAndIncrement();
+        return send(frameId, ClusterServiceNioProtocol.encodePdu(frameId, pdu)) ? "true" : "false";
+    }
+
+    @Override
+    public boolean ping(String callingPeer) throws RemoteException {
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Ping at " + _host + ":" + _port);
+        }
+
+        long frameId = _nextFrameId.getAndIncrement();
+        return send(frameId, ClusterServiceNioProtocol.encodeControl(ClusterServiceNioProtocol.FRAME_PING, frameId, true));
+    }
+
+    private boolean send(long frameId, byte[] frame) throws RemoteException {
+        long timeout = ClusterServiceAdapter.ClusterMessageTimeOut.value() * 1000L;
+        Link link = getLink();
+
+        try {
+            if (!_inFlight.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                _ackTimeouts.incrementAndGet();
+                close();
+                throw new RemoteException("Timed out waiting for PDUs in flight to peer " + _peer + " to be acknowledged");
+            }
+        } catch (InterruptedException e) {
+            throw new RemoteException("Interrupted while waiting to send to peer " + _peer);
+        }
+
+        PendingAck ack = new PendingAck();
+        _pendingAcks.put(frameId, ack);
+        try {
+            long startTick = System.currentTimeMillis();
+            link.send(frame);
+            _pdusSent.incrementAndGet();
+            _bytesSent.addAndGet(frame.length);
+
+            if (!ack.await(timeout) && !_closed) {
+                _ackTimeouts.incrementAndGet();
+                close();
+                throw new RemoteException("Timed out waiting for ack of frame " + frameId + " from peer " + _peer);
+            }
+            if (!ack.isAcked()) {
+                throw new RemoteException("Connection to peer " + _peer + " was closed before frame " + frameId + " was acknowledged");
+            }
+
+            long latency = System.currentTimeMillis() - startTick;
+            _acksReceived.incrementAndGet();
+            _totalAckLatency.addAndGet(latency);
+            if (latency > _maxAckLatency) {
+                _maxAckLatency = latency;
+            }
+            return ack.getResult();
+        } catch (ClosedChannelException e) {
+            close();
+            throw new RemoteException("Connection to peer " + _peer + " is closed");
+        } catch (InterruptedException e) {
+            throw new RemoteException("Interrupted while waiting for ack from peer " + _peer);
+        } finally {
+            _pendingAcks.remove(frameId);
+            _inFlight.release();
+        }
+    }
+
+    private Link getLink() throws RemoteException {
+        Link link = _link;
+        if (link != null) {
+            return link;
+        }
+
+        synchronized (_connectLock) {
+            if (_closed) {
+                throw new RemoteException("Connection to peer " + _peer + " is closed");
+            }
+
+            if (_client == null) {
+                _client = new NioClient("ClusterPeer-" + _peer, _host, _port, 1, this);
+                _client.setWriteCoalescing(_coalesceMaxBytes, 0);
+                _client.start();
+                if (!_client.isStartup()) {
+                    close();
+                    throw new RemoteException("Unable to connect to peer " + _peer + " at " + _host + ":" + _port);
+                }
+
+                try {
+                    JmxUtil.registerMBean("ClusterServiceNio", _peer, new StandardMBean(this, ClusterServiceNioPeerMBean.class));
+                } catch (Exception e) {
+                    s_logger.warn("Unable to register the mbean for peer " + _peer, e);
+                }
+            }
+        }
+
+        try {
+            if (!_connected.await(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                close();
+                throw new RemoteException("Timed out connecting to peer " + _peer + " at " + _host + ":" + _port);
+            }
+        } catch (InterruptedException e) {
+            throw new RemoteException("Interrupted while connecting to peer " + _peer);
+        }
+
+        link = _link;
+        if (link == null) {
+            throw new RemoteException("Connection to peer " + _peer + " is closed");
+        }
+        return link;
+    }
+
+    @Override
+    public void close() {
+        NioClient client;
+        Link link;
+        synchronized (_connectLock) {
+            if (_closed) {
+                return;
+            }
+            _closed = true;
+            client = _client;
+            link = _link;
+            _link = null;
+        }
+
+        s_logger.info("Closing cluster service NIO connection to peer " + _peer);
+        _connected.countDown();
+        for (PendingAck ack : _pendingAcks.values()) {
+            ack.close();
+        }
+
+        if (link != null) {
+            link.close();
+        }
+        if (client != null) {
+            client.stop();
+            try {
+                JmxUtil.unregisterMBean("ClusterServiceNio", _peer);
+            } catch (Exception e) {
+                s_logger.debug("Unable to unregister the mbean for peer " + _peer + ": " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public Task create(Task.Type type, Link link, byte[] data) {
+        return new PeerTask(type, link, data);
+    }
+
+    @Override
+    public String getPeer() {
+        return _peer;
+    }
+
+    @Override
+    public String getAddress() {
+        return _host + ":" + _port;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return _link != null;
+    }
+
+    @Override
+    public long getPdusSent() {
+        return _pdusSent.get();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return _bytesSent.get();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return _bytesReceived.get();
+    }
+
+    @Override
+    public int getPdusInFlight() {
+        return _maxInFlight - _inFlight.availablePermits();
+    }
+
+    @Override
+    public int getMaxPdusInFlight() {
+        return _maxInFlight;
+    }
+
+    @Override
+    public long getAckTimeouts() {
+        return _ackTimeouts.get();
+    }
+
+    @Override
+    public double getAverageAckLatency() {
+        long acks = _acksReceived.get();
+        return acks == 0 ? 0 : (double)_totalAckLatency.get() / acks;
+    }
+
+    @Override
+    public long getMaxAckLatency() {
+        return _maxAckLatency;
+    }
+
+    private class PeerTask extends Task {
+        public PeerTask(Task.Type type, Link link, byte[] data) {
+            super(type, link, data);
+        }
+
+        @Override
+        protected void doTask(Task task) throws Exception {
+            switch (task.getType()) {
+            case CONNECT:
+                synchronized (_connectLock) {
+                    if (_closed) {
+                        task.getLink().close();
+                        return;
+                    }
+                    _link = task.getLink();
+                }
+                _connected.countDown();
+                break;
+
+            case DATA:
+                byte[] frame = task.getData();
+                _bytesReceived.addAndGet(frame.length);
+                try {
+                    byte type = ClusterServiceNioProtocol.getType(frame);
+                    if (type != ClusterServiceNioProtocol.FRAME_ACK && type != ClusterServiceNioProtocol.FRAME_PONG) {
+                        s_logger.warn("Unexpected frame type " + type + " from peer " + _peer);
+                        return;
+                    }
+                    PendingAck ack = _pendingAcks.get(ClusterServiceNioProtocol.getFrameId(frame));
+                    if (ack != null) {
+                        ack.complete(ClusterServiceNioProtocol.getResult(frame));
+                    }
+                } catch (IOException e) {
+                    s_logger.warn("Invalid frame from peer " + _peer + ", closing the connection: " + e.getMessage());
+                    close();
+                }
+                break;
+
+            case DISCONNECT:
+            case CONNECT_FAILED:
+                close();
+                break;
+
+            default:
+                break;
+            }
+        }
+    }
+
+    private static class PendingAck {
+        private final CountDownLatch _done = new CountDownLatch(1);
+        private volatile boolean _result;
+        private volatile boolean _acked;
+
+        void complete(boolean result) {
+            _result = result;
+            _acked = true;
+            _done.countDown();
+        }
+
+        void close() {
+            _done.countDown();
+        }
+
+        boolean await(long timeout) throws InterruptedException {
+            return _done.await(timeout, TimeUnit.MILLISECONDS);
+        }
+
+        boolean isAcked() {
+            return _acked;
+        }
+
+        boolean getResult() {
+            return _result;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Wire format of the NIO cluster transport.  The Link layer already frames
+ * every message with its length, so a message is just a type byte, the id
+ * the sender correlates the acknowledgement with, and the body of that type.
+ */
+class ClusterServiceNioProtocol {
+    static final byte FRAME_PDU = 1;
+    static final byte FRAME_ACK = 2;
+    static final byte FRAME_PING = 3;
+    static final byte FRAME_PONG = 4;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private ClusterServiceNioProtocol() {
+    }
+
+    static byte[] encodePdu(long frameId, ClusterServicePdu pdu) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + (pdu.getJsonPackage() != null ? pdu.getJsonPackage().length() : 0));
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(FRAME_PDU);
+            out.writeLong(frameId);
+            out.writeLong(pdu.getSequenceId());
+            out.writeLong(pdu.getAckSequenceId());
+            out.writeLong(pdu.getAgentId());
+            out.writeBoolean(pdu.isStopOnError());
+            out.writeInt(pdu.getPduType());
+            writeString(out, pdu.getSourcePeer());
+            writeString(out, pdu.getDestPeer());
+            writeString(out, pdu.getDispatcherName());
+            writeString(out, pdu.getJsonPackage());
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // writing to memory doesn't fail
+            throw new IllegalStateException("Unable to encode cluster PDU", e);
+        }
+    }
+
+    /**
+     * @param type FRAME_ACK, FRAME_PING or FRAME_PONG
+     */
+    static byte[] encodeControl(byte type, long frameId, boolean result) {
+        byte[] frame = new byte[10];
+        frame[0] = type;
+        for (int i = 0; i < 8; i++) {
+            frame[1 + i] = (byte)(frameId >>> (56 - 8 * i));
+        }
+        frame[9] = (byte)(result ? 1 : 0);
+        return frame;
+    }
+
+    static byte getType(byte[] frame) throws IOException {
+        if (frame.length < 9) {
+            throw new IOException("Truncated cluster frame of " + frame.length + " bytes");
+        }
+        return frame[0];
+    }
+
+    static long getFrameId(byte[] frame) throws IOException {
+        getType(frame);
+        long frameId = 0;
+        for (int i = 0; i < 8; i++) {
+            frameId = (frameId << 8) | (frame[1 + i] & 0xff);
+        }
+        return frameId;
+    }
+
+    static boolean getResult(byte[] frame) {
+        return frame.length > 9 && frame[9] != 0;
+    }
+
+    static ClusterServicePdu decodePdu(byte[] frame) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame, 9, frame.length - 9));
+        ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setSequenceId(in.readLong());
+        pdu.setAckSequenceId(in.readLong());
+        pdu.setAgentId(in.readLong());
+        pdu.setStopOnError(in.readBoolean());
+        pdu.setPduType(in.readInt());
+        pdu.setSourcePeer(readString(in));
+        pdu.setDestPeer(readString(in));
+        pdu.setDispatcherName(readString(in));
+        pdu.setJsonPackage(readString(in));
+        return pdu;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+}
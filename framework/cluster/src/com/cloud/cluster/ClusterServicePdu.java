@@ -16,10 +16,13 @@
 // under the License.
 package com.cloud.cluster;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class ClusterServicePdu {
 	public final static int PDU_TYPE_MESSAGE = 0;
 	public final static int PDU_TYPE_REQUEST = 1;
 	public final static int PDU_TYPE_RESPONSE = 2;
+	public final static int PDU_TYPE_NOTIFICATION = 3;
 	
     private long sequenceId;
     private long ackSequenceId;
@@ -32,8 +35,9 @@ public class ClusterServicePdu {
     private String jsonPackage;
     
     private int pduType = PDU_TYPE_MESSAGE;
+    private String dispatcherName;
     
-    private static long s_nextPduSequenceId = 1;
+    private static final AtomicLong s_nextPduSequenceId = new AtomicLong(1);
     
     public ClusterServicePdu() {
         sequenceId = getNextPduSequenceId();
@@ -42,8 +46,9 @@ public class ClusterServicePdu {
         stopOnError = false;
     }
     
-    public synchronized long getNextPduSequenceId() {
-        return s_nextPduSequenceId++;
+    public long getNextPduSequenceId() {
+        // responses are matched to requests by sequence id, so it has to be unique across threads
+        return s_nextPduSequenceId.getAndIncrement();
     }
 
     public long getSequenceId() {
@@ -109,4 +114,12 @@ public class ClusterServicePdu {
     public void setPduType(int pduType) {
     	this.pduType = pduType;
     }
+
+    public String getDispatcherName() {
+        return dispatcherName;
+    }
+
+    public void setDispatcherName(String dispatcherName) {
+        this.dispatcherName = dispatcherName;
+    }
 }
@@ -21,6 +21,7 @@ public class ClusterServiceRequestPdu extends ClusterServicePdu {
     private String responseResult;
     private long startTick;
     private long timeout;
+    private boolean completed;
     
     public ClusterServiceRequestPdu() {
         startTick = System.currentTimeMillis();
@@ -51,4 +52,12 @@ public class ClusterServiceRequestPdu extends ClusterServicePdu {
     public void setTimeout(long timeout) {
         this.timeout = timeout;
     }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public void setCompleted(boolean completed) {
+        this.completed = completed;
+    }
 }
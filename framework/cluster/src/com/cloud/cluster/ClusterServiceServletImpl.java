@@ -59,6 +59,9 @@ public class ClusterServiceServletImpl implements ClusterService {
         method.addParameter("gsonPackage", pdu.getJsonPackage());
         method.addParameter("stopOnError", pdu.isStopOnError() ? "1" : "0");
         method.addParameter("pduType", Integer.toString(pdu.getPduType()));
+        if (pdu.getDispatcherName() != null) {
+            method.addParameter("dispatcher", pdu.getDispatcherName());
+        }
 
         return executePostMethod(client, method);
     }
@@ -82,6 +85,11 @@ public class ClusterServiceServletImpl implements ClusterService {
         return false;
     }
 
+    @Override
+    public void close() {
+        // requests go through the shared connection pool of s_client, there is nothing to release per peer
+    }
+
     private String executePostMethod(HttpClient client, PostMethod method) {
         int response = 0;
         String result = null;
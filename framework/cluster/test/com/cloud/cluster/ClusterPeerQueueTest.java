@@ -0,0 +1,193 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class ClusterPeerQueueTest extends TestCase {
+    private ExecutorService _executor;
+
+    @Override
+    protected void setUp() {
+        _executor = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    protected void tearDown() {
+        _executor.shutdownNow();
+    }
+
+    public void testPdusToAPeerAreSentInOrder() throws Exception {
+        RecordingSender sender = new RecordingSender(100);
+        ClusterPeerQueue queue = new ClusterPeerQueue("2", 1, _executor, sender);
+        for (int i = 0; i < 100; i++) {
+            queue.addOutgoing(pdu("2", i));
+        }
+
+        assertTrue(sender._done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, sender.sent().get(i).getSequenceId());
+        }
+        waitForIdle(queue);
+        assertEquals(0, queue.getOutgoingQueueDepth());
+        assertEquals(100, queue.getPdusSent());
+    }
+
+    public void testFullQueueHoldsUpItsOwnPeerOnly() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        RecordingSender slow = new RecordingSender(10, 2) {
+            @Override
+            public void send(ClusterPeerQueue queue, ClusterServicePdu pdu) {
+                _sending.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.send(queue, pdu);
+            }
+        };
+        RecordingSender fast = new RecordingSender(10);
+        ClusterPeerQueue slowQueue = new ClusterPeerQueue("2", 2, _executor, slow);
+        ClusterPeerQueue fastQueue = new ClusterPeerQueue("3", 2, _executor, fast);
+
+        for (int i = 0; i < 10; i++) {
+            slowQueue.addOutgoing(pdu("2", i));
+            fastQueue.addOutgoing(pdu("3", i));
+        }
+
+        // both senders of the slow peer are stuck, the rest of its PDUs wait in the queue
+        assertTrue(fast._done.await(10, TimeUnit.SECONDS));
+        assertTrue(slow._sending.await(10, TimeUnit.SECONDS));
+        assertEquals(2, slowQueue.getActiveSenders());
+        assertEquals(8, slowQueue.getOutgoingQueueDepth());
+        assertTrue(slow.sent().isEmpty());
+
+        release.countDown();
+        assertTrue(slow._done.await(10, TimeUnit.SECONDS));
+        waitForIdle(slowQueue);
+        assertEquals(0, slowQueue.getOutgoingQueueDepth());
+        assertEquals(10, slowQueue.getPdusSent());
+    }
+
+    public void testQueueIsDrainedWhenThePeerIsRemoved() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        RecordingSender sender = new RecordingSender(5) {
+            @Override
+            public void send(ClusterPeerQueue queue, ClusterServicePdu pdu) {
+                _sending.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.send(queue, pdu);
+            }
+        };
+        ClusterPeerQueue queue = new ClusterPeerQueue("2", 1, _executor, sender);
+        for (int i = 0; i < 5; i++) {
+            queue.addOutgoing(pdu("2", i));
+        }
+
+        assertTrue(sender._sending.await(10, TimeUnit.SECONDS));
+        queue.close();
+        assertTrue(queue.isClosed());
+        release.countDown();
+
+        // the PDU being sent goes out, the ones left behind are dropped without being sent
+        assertTrue(sender._done.await(10, TimeUnit.SECONDS));
+        waitForIdle(queue);
+        assertEquals(1, sender.sent().size());
+        assertEquals(4, sender.dropped().size());
+        assertEquals(0, queue.getOutgoingQueueDepth());
+        assertEquals(4, queue.getPdusDropped());
+
+        // later PDUs to the peer are dropped as well
+        queue.addOutgoing(pdu("2", 5));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (sender.dropped().size() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(5, sender.dropped().size());
+        assertEquals(1, sender.sent().size());
+    }
+
+    private static void waitForIdle(ClusterPeerQueue queue) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (queue.getActiveSenders() != 0) {
+            assertTrue("senders of peer " + queue.getPeer() + " still active", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static ClusterServicePdu pdu(String destPeer, long sequenceId) {
+        ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setSourcePeer("1");
+        pdu.setDestPeer(destPeer);
+        pdu.setSequenceId(sequenceId);
+        return pdu;
+    }
+
+    private static class RecordingSender implements ClusterPeerQueue.PduSender {
+        private final List<ClusterServicePdu> _sent = new ArrayList<ClusterServicePdu>();
+        private final List<ClusterServicePdu> _dropped = new ArrayList<ClusterServicePdu>();
+        final CountDownLatch _done;
+        final CountDownLatch _sending;
+
+        RecordingSender(int expected) {
+            this(expected, 1);
+        }
+
+        RecordingSender(int expected, int senders) {
+            _done = new CountDownLatch(expected);
+            _sending = new CountDownLatch(senders);
+        }
+
+        @Override
+        public void send(ClusterPeerQueue queue, ClusterServicePdu pdu) {
+            synchronized (this) {
+                _sent.add(pdu);
+            }
+            queue.recordAck(1);
+            _done.countDown();
+        }
+
+        @Override
+        public void drop(ClusterPeerQueue queue, ClusterServicePdu pdu) {
+            synchronized (this) {
+                _dropped.add(pdu);
+            }
+            queue.recordDropped();
+            _done.countDown();
+        }
+
+        synchronized List<ClusterServicePdu> sent() {
+            return new ArrayList<ClusterServicePdu>(_sent);
+        }
+
+        synchronized List<ClusterServicePdu> dropped() {
+            return new ArrayList<ClusterServicePdu>(_dropped);
+        }
+    }
+}
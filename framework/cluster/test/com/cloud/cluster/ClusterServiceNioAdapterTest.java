@@ -0,0 +1,110 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.ServerSocket;
+import java.rmi.RemoteException;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.cloud.cluster.dao.ManagementServerHostDao;
+import com.cloud.utils.nio.NioServer;
+
+public class ClusterServiceNioAdapterTest extends TestCase {
+    static {
+        // the handshake of Link predates TLS 1.3, whose post-handshake messages newer JDKs would negotiate
+        System.setProperty("jdk.tls.client.protocols", "TLSv1.2");
+    }
+
+    private ClusterServiceNioAdapter _adapter;
+    private ClusterManager _manager;
+    private ManagementServerHostDao _mshostDao;
+    private NioServer _server;
+    private int _port;
+
+    @Override
+    protected void setUp() throws Exception {
+        _manager = mock(ClusterManager.class);
+        _mshostDao = mock(ManagementServerHostDao.class);
+        _adapter = new ClusterServiceNioAdapter();
+        ReflectionTestUtils.setField(_adapter, "_manager", _manager);
+        ReflectionTestUtils.setField(_adapter, "_mshostDao", _mshostDao);
+        // skip reading db.properties
+        ReflectionTestUtils.setField(_adapter, "_initialized", true);
+
+        ServerSocket socket = new ServerSocket(0);
+        _port = socket.getLocalPort();
+        socket.close();
+        _server = new NioServer("ClusterServiceTest", _port, 1, _adapter);
+        _server.start();
+        assertTrue(_server.isStartup());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        _server.stop();
+    }
+
+    public void testPduIsDeliveredAndAcked() throws Exception {
+        when(_mshostDao.findByMsid(2)).thenReturn(new ManagementServerHostVO(2, 1, "127.0.0.1", _port, new Date()));
+        ClusterServiceNioImpl service = (ClusterServiceNioImpl)_adapter.getPeerService("2");
+        try {
+            ClusterServicePdu pdu = new ClusterServicePdu();
+            pdu.setSourcePeer("1");
+            pdu.setDestPeer("2");
+            pdu.setAgentId(7);
+            pdu.setJsonPackage("[]");
+            assertEquals("true", service.execute(pdu));
+            assertTrue(service.ping("1"));
+
+            ArgumentCaptor<ClusterServicePdu> received = ArgumentCaptor.forClass(ClusterServicePdu.class);
+            verify(_manager, timeout(5000)).OnReceiveClusterServicePdu(received.capture());
+            assertEquals(7, received.getValue().getAgentId());
+            assertEquals("[]", received.getValue().getJsonPackage());
+            assertEquals(2, service.getPdusSent());
+            assertEquals(0, service.getPdusInFlight());
+            assertTrue(service.isConnected());
+        } finally {
+            service.close();
+        }
+        assertFalse(service.isConnected());
+    }
+
+    public void testClosedServiceRefusesToSend() throws Exception {
+        ClusterServiceNioImpl service = new ClusterServiceNioImpl("2", "127.0.0.1", _port, 4, 0);
+        service.close();
+        try {
+            service.ping("1");
+            fail("A closed service should not reconnect");
+        } catch (RemoteException e) {
+            // expected
+        }
+    }
+
+    public void testUnknownPeer() throws Exception {
+        assertNull(_adapter.getPeerService("3"));
+    }
+}
@@ -0,0 +1,87 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class ClusterServiceNioProtocolTest extends TestCase {
+
+    public void testPduRoundTrip() throws Exception {
+        ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setSequenceId(17);
+        pdu.setAckSequenceId(16);
+        pdu.setAgentId(42);
+        pdu.setStopOnError(true);
+        pdu.setPduType(ClusterServicePdu.PDU_TYPE_NOTIFICATION);
+        pdu.setSourcePeer("1");
+        pdu.setDestPeer("2");
+        pdu.setDispatcherName("CacheEviction");
+        pdu.setJsonPackage("{\"name\":\"réseau\"}");
+
+        byte[] frame = ClusterServiceNioProtocol.encodePdu(Long.MAX_VALUE - 1, pdu);
+        assertEquals(ClusterServiceNioProtocol.FRAME_PDU, ClusterServiceNioProtocol.getType(frame));
+        assertEquals(Long.MAX_VALUE - 1, ClusterServiceNioProtocol.getFrameId(frame));
+
+        ClusterServicePdu decoded = ClusterServiceNioProtocol.decodePdu(frame);
+        assertEquals(17, decoded.getSequenceId());
+        assertEquals(16, decoded.getAckSequenceId());
+        assertEquals(42, decoded.getAgentId());
+        assertTrue(decoded.isStopOnError());
+        assertEquals(ClusterServicePdu.PDU_TYPE_NOTIFICATION, decoded.getPduType());
+        assertEquals("1", decoded.getSourcePeer());
+        assertEquals("2", decoded.getDestPeer());
+        assertEquals("CacheEviction", decoded.getDispatcherName());
+        assertEquals("{\"name\":\"réseau\"}", decoded.getJsonPackage());
+    }
+
+    public void testNullStrings() throws Exception {
+        ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setSourcePeer("1");
+
+        ClusterServicePdu decoded = ClusterServiceNioProtocol.decodePdu(ClusterServiceNioProtocol.encodePdu(1, pdu));
+        assertEquals("1", decoded.getSourcePeer());
+        assertNull(decoded.getDestPeer());
+        assertNull(decoded.getDispatcherName());
+        assertNull(decoded.getJsonPackage());
+    }
+
+    public void testControlFrames() throws Exception {
+        byte[] ack = ClusterServiceNioProtocol.encodeControl(ClusterServiceNioProtocol.FRAME_ACK, 0x0102030405060708L, true);
+        assertEquals(ClusterServiceNioProtocol.FRAME_ACK, ClusterServiceNioProtocol.getType(ack));
+        assertEquals(0x0102030405060708L, ClusterServiceNioProtocol.getFrameId(ack));
+        assertTrue(ClusterServiceNioProtocol.getResult(ack));
+
+        byte[] nack = ClusterServiceNioProtocol.encodeControl(ClusterServiceNioProtocol.FRAME_ACK, -1, false);
+        assertEquals(-1, ClusterServiceNioProtocol.getFrameId(nack));
+        assertFalse(ClusterServiceNioProtocol.getResult(nack));
+
+        byte[] pong = ClusterServiceNioProtocol.encodeControl(ClusterServiceNioProtocol.FRAME_PONG, 5, true);
+        assertEquals(ClusterServiceNioProtocol.FRAME_PONG, ClusterServiceNioProtocol.getType(pong));
+    }
+
+    public void testTruncatedFrame() {
+        try {
+            ClusterServiceNioProtocol.getFrameId(new byte[] { ClusterServiceNioProtocol.FRAME_ACK, 0, 0 });
+            fail("A frame shorter than its header should be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse(ClusterServiceNioProtocol.getResult(new byte[9]));
+    }
+}
@@ -0,0 +1,83 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+public class EntityCacheStats extends StandardMBean implements EntityCacheStatsMBean {
+    private final GenericDaoBase<?, ?> _dao;
+
+    final AtomicLong _hits = new AtomicLong();
+    final AtomicLong _misses = new AtomicLong();
+    final AtomicLong _evictions = new AtomicLong();
+    final AtomicLong _remoteEvictions = new AtomicLong();
+    final AtomicLong _stalePuts = new AtomicLong();
+
+    public EntityCacheStats(GenericDaoBase<?, ?> dao) {
+        super(EntityCacheStatsMBean.class, false);
+        _dao = dao;
+    }
+
+    @Override
+    public String getDaoName() {
+        return _dao.getName();
+    }
+
+    @Override
+    public long getSize() {
+        return _dao._cache != null ? _dao._cache.getSize() : 0;
+    }
+
+    @Override
+    public long getHitCount() {
+        return _hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return _misses.get();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return _evictions.get();
+    }
+
+    @Override
+    public long getRemoteEvictionCount() {
+        return _remoteEvictions.get();
+    }
+
+    @Override
+    public long getStalePutCount() {
+        return _stalePuts.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hits = _hits.get();
+        long total = hits + _misses.get();
+        return total == 0 ? 0 : (double)hits / total;
+    }
+
+    @Override
+    public void clear() {
+        _dao.evictFromCache(null, true);
+    }
+}
@@ -32,11 +32,19 @@ import com.cloud.utils.ReflectUtil;
  * 
  *  Filter nameFilter = new Filter(s_nameFilter);
  *
+ *  For keyset pagination, order by a unique column and call seekAfter()
+ *  with the value of that column in the last row of the previous page.
+ *  The search then starts right after that row instead of reading and
+ *  discarding offset rows.
+ *
  */
 public class Filter {
     Long _offset;
     Long _limit;
     String _orderBy;
+    String _seekColumn;
+    boolean _seekAscending;
+    Object _seekValue;
     
     /**
      * @param clazz the VO object type
@@ -61,6 +69,8 @@ public class Filter {
      */
     public Filter(Filter that) {
         this._orderBy = that._orderBy;
+        this._seekColumn = that._seekColumn;
+        this._seekAscending = that._seekAscending;
         this._limit = null;
         that._limit = null;
     }
@@ -84,12 +94,17 @@ public class Filter {
         } else {
             order.append(column.table());
         }
-        order.append(".").append(name).append(ascending ? " ASC " : " DESC ");
+        order.append(".").append(name);
+        if (_orderBy == null) {
+            _seekColumn = order.toString();
+            _seekAscending = ascending;
+        }
+        order.append(ascending ? " ASC " : " DESC ");
         
         if (_orderBy == null) {
             _orderBy = order.insert(0, " ORDER BY ").toString();
         } else {
-            _orderBy = order.insert(0, _orderBy).toString();
+            _orderBy = order.insert(0, ",").insert(0, _orderBy).toString();
         }
     }
     
@@ -112,4 +127,34 @@ public class Filter {
     public void setLimit(Long limit) {
         _limit = limit;
     }
+
+    /**
+     * Switches the filter to keyset pagination.  Only rows that come after
+     * value in the order of the first order by column are returned, so that
+     * column must be unique.  The offset is dropped once a value is given.
+     * @param value value of the first order by column in the last row seen;
+     *        null to start from the beginning.
+     */
+    public void seekAfter(Object value) {
+        assert (_seekColumn != null) : "Keyset pagination needs an order by column";
+        _seekValue = value;
+        if (value != null) {
+            _offset = null;
+        }
+    }
+
+    /**
+     * @return the condition selecting the rows after the seek value, or
+     *         null if the filter is not seeking.
+     */
+    public String getSeekClause() {
+        if (_seekValue == null || _seekColumn == null) {
+            return null;
+        }
+        return _seekColumn + (_seekAscending ? " > ?" : " < ?");
+    }
+
+    public Object getSeekValue() {
+        return _seekValue;
+    }
 }
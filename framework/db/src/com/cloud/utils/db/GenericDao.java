@@ -202,6 +202,22 @@ public interface GenericDao<T, ID extends Serializable> {
      * there's no primary key specified in the VO object.
      **/
     T persist(T entity);
+
+    /**
+     * Persist the entity beans using multi-row inserts.  The id field of
+     * each entity is updated with the new id.
+     * @param entities the beans to persist.
+     * @return The persisted versions of the objects in the same order.
+     **/
+    List<T> persistBatch(List<T> entities);
+
+    /**
+     * Writes the changes made to each entity bean.  Beans that change the
+     * same set of columns are sent to the database as one JDBC batch.
+     * @param entities beans returned by createForUpdate(id) or a find.
+     * @return number of rows updated.
+     */
+    int updateBatch(List<T> entities);
     
     /**
      * remove the entity bean.  This will call delete automatically if
@@ -39,11 +39,13 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.naming.ConfigurationException;
 import javax.persistence.AttributeOverride;
@@ -76,6 +78,7 @@ import com.cloud.utils.component.ComponentMethodInterceptable;
 import com.cloud.utils.crypt.DBEncryptionUtil;
 import com.cloud.utils.db.SearchCriteria.SelectType;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.net.Ip;
 import com.cloud.utils.net.NetUtils;
 
@@ -119,6 +122,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     protected final static TimeZone s_gmtTimeZone = TimeZone.getTimeZone("GMT");
 
     protected final static Map<Class<?>, GenericDao<?, ? extends Serializable>> s_daoMaps = new ConcurrentHashMap<Class<?>, GenericDao<?, ? extends Serializable>>(71);
+    protected final static Map<String, GenericDaoBase<?, ? extends Serializable>> s_cachedDaos = new ConcurrentHashMap<String, GenericDaoBase<?, ? extends Serializable>>();
+    private static volatile EntityCacheInvalidator s_cacheInvalidator;
 
     protected Class<T> _entityBeanType;
     protected String _table;
@@ -159,6 +164,11 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     protected static final SequenceFetcher s_seqFetcher = SequenceFetcher.getInstance();
 
+    // Keeps multi-row statements well under max_allowed_packet and the
+    // 65535 placeholder limit of server side prepared statements.
+    protected static final int MAX_ROWS_PER_INSERT = 500;
+    protected static final int MAX_PARAMS_PER_STATEMENT = 32000;
+
     public static <J> GenericDao<? extends J, ? extends Serializable> getDao(Class<J> entityType) {
         @SuppressWarnings("unchecked")
         GenericDao<? extends J, ? extends Serializable> dao = (GenericDao<? extends J, ? extends Serializable>)s_daoMaps.get(entityType);
@@ -371,6 +381,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
         }
 
+        final boolean seek = addSeek(str, filter);
         List<Object> groupByValues = addGroupBy(str, sc);
         addFilter(str, filter);
 
@@ -397,18 +408,30 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 i = addJoinAttributes(i, pstmt, joins);
             }
 
+            if (seek) {
+                pstmt.setObject(++i, filter.getSeekValue());
+            }
+
             if (groupByValues != null) {
                 for (Object value : groupByValues) {
-                    pstmt.setObject(i++, value);
+                    pstmt.setObject(++i, value);
                 }
             }
 
-            if (s_logger.isDebugEnabled() && lock != null) {
-                txn.registerLock(pstmt.toString());
+            if (lock != null) {
+                txn.registerRowLock();
+                if (s_logger.isDebugEnabled()) {
+                    txn.registerLock(pstmt.toString());
+                }
             }
+            final long cacheVersion = _cacheVersion.get();
             final ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
-                result.add(toEntityBean(rs, cache));
+                T entity = toEntityBean(rs, false);
+                if (cache) {
+                    putInCache(entity, cacheVersion);
+                }
+                result.add(entity);
             }
             return result;
         } catch (final SQLException e) {
@@ -441,6 +464,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
         }
 
+        final boolean seek = addSeek(str, filter);
         List<Object> groupByValues = addGroupBy(str, sc);
         addFilter(str, filter);
 
@@ -461,9 +485,13 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 i = addJoinAttributes(i, pstmt, joins);
             }
 
+            if (seek) {
+                pstmt.setObject(++i, filter.getSeekValue());
+            }
+
             if (groupByValues != null) {
                 for (Object value : groupByValues) {
-                    pstmt.setObject(i++, value);
+                    pstmt.setObject(++i, value);
                 }
             }
 
@@ -759,9 +787,6 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     }
 
     protected int update(ID id, UpdateBuilder ub, T entity) {
-        if (_cache != null) {
-            _cache.remove(id);
-        }
         SearchCriteria<T> sc = createSearchCriteria();
         sc.addAnd(_idAttributes.get(_table)[0], SearchCriteria.Op.EQ, id);
         Transaction txn = Transaction.currentTxn();
@@ -815,6 +840,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
 
             int result = pstmt.executeUpdate();
+            if (result > 0 && _cache != null) {
+                invalidateCache((Serializable)sc.getAndedEqualityValue(_idAttributes.get(_table)[0]));
+            }
             txn.commit();
             ub.clear();
             return result;
@@ -913,12 +941,15 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     @Override @DB(txn=false)
     @SuppressWarnings("unchecked")
     public T findById(final ID id) {
-        if (_cache != null) {
+        if (_cache != null && !Transaction.currentTxn().hasRowLocks()) {
             final Element element = _cache.get(id);
-            return element == null ? lockRow(id, null) : (T)element.getObjectValue();
-        } else {
-            return lockRow(id, null);
+            if (element != null) {
+                _cacheStats._hits.incrementAndGet();
+                return (T)element.getObjectValue();
+            }
+            _cacheStats._misses.incrementAndGet();
         }
+        return lockRow(id, null);
     }
 
     @Override @DB(txn=false)
@@ -948,9 +979,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             return findById(id);
         }
 
-        if (_cache != null) {
-            _cache.remove(id);
-        }
+        evictFromCache(id, false);
         return lockRow(id, null);
     }
 
@@ -968,6 +997,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             sql.append(lock ? FOR_UPDATE_CLAUSE : SHARE_MODE_CLAUSE);
         }
         Transaction txn = Transaction.currentTxn();
+        if (lock != null) {
+            txn.registerRowLock();
+        }
         PreparedStatement pstmt = null;
         try {
             pstmt = txn.prepareAutoCloseStatement(sql.toString());
@@ -976,8 +1008,16 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 prepareAttribute(1, pstmt, _idAttributes.get(_table)[0], id);
             }
 
+            final long cacheVersion = _cacheVersion.get();
             ResultSet rs = pstmt.executeQuery();
-            return rs.next() ? toEntityBean(rs, true) : null;
+            if (!rs.next()) {
+                return null;
+            }
+            T entity = toEntityBean(rs, false);
+            if (lock == null) {
+                putInCache(entity, cacheVersion);
+            }
+            return entity;
         } catch (SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
         }
@@ -1047,6 +1087,22 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         }
     }
 
+    /**
+     * Appends the keyset pagination condition of the filter, if any, to the
+     * where clause.  It has to go after the joins and before the group by.
+     * @return true if a parameter for it has to be bound.
+     */
+    @DB(txn=false)
+    protected boolean addSeek(final StringBuilder sql, final Filter filter) {
+        final String seek = filter != null ? filter.getSeekClause() : null;
+        if (seek == null) {
+            return false;
+        }
+
+        sql.append(sql.lastIndexOf("WHERE") == -1 ? " WHERE " : " AND ").append(seek);
+        return true;
+    }
+
     @DB(txn=false)
     protected void addFilter(final StringBuilder sql, final Filter filter) {
         if (filter != null) {
@@ -1059,6 +1115,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 if (filter.getLimit() != null) {
                     sql.append(", ").append(filter.getLimit());
                 }
+            } else if (filter.getSeekClause() != null && filter.getLimit() != null) {
+                sql.append(" LIMIT ").append(filter.getLimit());
             }
         }
     }
@@ -1082,9 +1140,12 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 pstmt.setObject(++i, param);
             }
 
+            final long cacheVersion = _cacheVersion.get();
             final ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
-                result.add(toEntityBean(rs, true));
+                T entity = toEntityBean(rs, false);
+                putInCache(entity, cacheVersion);
+                result.add(entity);
             }
             return result;
         } catch (final SQLException e) {
@@ -1132,9 +1193,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
 
             txn.commit();
-            if (_cache != null) {
-                _cache.remove(id);
-            }
+            invalidateCache(id);
             return true;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -1162,7 +1221,11 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             for (final Pair<Attribute, Object> value : sc.getValues()) {
                 prepareAttribute(++i, pstmt, value.first(), value.second());
             }
-            return pstmt.executeUpdate();
+            final int result = pstmt.executeUpdate();
+            if (result > 0 && _cache != null) {
+                invalidateCache((Serializable)sc.getAndedEqualityValue(_idAttributes.get(_table)[0]));
+            }
+            return result;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
         } catch (final Throwable e) {
@@ -1354,6 +1417,204 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return _idField != null ? findByIdIncludingRemoved(id) : null;
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<T> persistBatch(final List<T> entities) {
+        if (entities.isEmpty()) {
+            return new ArrayList<T>();
+        }
+
+        // Multi-table entities, element collections and updates through
+        // persist() need the per-entity path.
+        boolean batchable = _insertSqls.size() == 1 && _idField != null && (_ecAttributes == null || _ecAttributes.isEmpty());
+        for (int i = 0; batchable && i < entities.size(); i++) {
+            batchable = !Enhancer.isEnhanced(entities.get(i).getClass());
+        }
+        if (!batchable) {
+            final List<T> persisted = new ArrayList<T>(entities.size());
+            final Transaction txn = Transaction.currentTxn();
+            txn.start();
+            for (final T entity : entities) {
+                persisted.add(persist(entity));
+            }
+            txn.commit();
+            return persisted;
+        }
+
+        final String sql = _insertSqls.get(0).first();
+        final Attribute[] attrs = _insertSqls.get(0).second();
+        final String values = sql.substring(sql.lastIndexOf(" VALUES ") + " VALUES ".length());
+        final int rowsPerInsert = Math.max(1, Math.min(MAX_ROWS_PER_INSERT, MAX_PARAMS_PER_STATEMENT / Math.max(1, attrs.length)));
+        final boolean generatedId = !_idAttributes.get(_table)[0].isInsertable();
+
+        final List<ID> ids = new ArrayList<ID>(entities.size());
+        final Transaction txn = Transaction.currentTxn();
+        PreparedStatement pstmt = null;
+        try {
+            txn.start();
+            for (int start = 0; start < entities.size(); start += rowsPerInsert) {
+                final List<T> chunk = entities.subList(start, Math.min(entities.size(), start + rowsPerInsert));
+                final StringBuilder insert = new StringBuilder(sql.length() + (values.length() + 2) * chunk.size());
+                insert.append(sql);
+                for (int i = 1; i < chunk.size(); i++) {
+                    insert.append(", ").append(values);
+                }
+
+                pstmt = txn.prepareAutoCloseStatement(insert.toString(), Statement.RETURN_GENERATED_KEYS);
+                int index = 1;
+                for (final T entity : chunk) {
+                    index = prepareAttributes(pstmt, entity, attrs, index) + 1;
+                }
+                pstmt.executeUpdate();
+
+                // Generated keys come back in the order the rows were listed.
+                final ResultSet rs = generatedId ? pstmt.getGeneratedKeys() : null;
+                for (final T entity : chunk) {
+                    ID id = null;
+                    if (rs != null && rs.next()) {
+                        id = (ID)rs.getObject(1);
+                        _idField.set(entity, id);
+                    } else {
+                        id = (ID)_idField.get(entity);
+                    }
+                    ids.add(id);
+                }
+            }
+            txn.commit();
+        } catch (final SQLException e) {
+            if (e.getSQLState().equals("23000") && e.getErrorCode() == 1062) {
+                throw new EntityExistsException("Entity already exists: ", e);
+            } else {
+                throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+            }
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Yikes! ", e);
+        }
+
+        return findByIdsIncludingRemoved(ids);
+    }
+
+    /**
+     * Loads the entities in a few IN queries and returns them in the order
+     * of the ids passed in.  Missing rows are returned as null.
+     */
+    @DB(txn=false)
+    protected List<T> findByIdsIncludingRemoved(final List<ID> ids) {
+        final Map<Object, T> found = new HashMap<Object, T>(ids.size() * 2);
+        final Attribute idAttr = _idAttributes.get(_table)[0];
+        for (int start = 0; start < ids.size(); start += MAX_ROWS_PER_INSERT) {
+            final List<ID> chunk = ids.subList(start, Math.min(ids.size(), start + MAX_ROWS_PER_INSERT));
+            final SearchCriteria<T> sc = createSearchCriteria();
+            sc.addAnd(idAttr, SearchCriteria.Op.IN, chunk.toArray());
+            for (final T entity : searchIncludingRemoved(sc, null, null, false)) {
+                try {
+                    found.put(_idField.get(entity), entity);
+                } catch (final IllegalAccessException e) {
+                    throw new CloudRuntimeException("Yikes! ", e);
+                }
+            }
+        }
+
+        final List<T> result = new ArrayList<T>(ids.size());
+        for (final ID id : ids) {
+            result.add(found.get(id));
+        }
+        return result;
+    }
+
+    @Override
+    public int updateBatch(final List<T> entities) {
+        if (entities.isEmpty()) {
+            return 0;
+        }
+
+        final Transaction txn = Transaction.currentTxn();
+        if (_insertSqls.size() != 1 || _idField == null || _idField.getAnnotation(EmbeddedId.class) != null) {
+            int rows = 0;
+            txn.start();
+            for (final T entity : entities) {
+                rows += updateEntity(entity);
+            }
+            txn.commit();
+            return rows;
+        }
+
+        // Group the rows by the statement they need.  The SQL text fixes both
+        // the columns and the order they are bound in.
+        final Map<String, List<T>> groups = new LinkedHashMap<String, List<T>>();
+        final List<T> collectionChanges = new ArrayList<T>();
+        for (final T entity : entities) {
+            assert Enhancer.isEnhanced(entity.getClass()) : "Entity is not generated by this dao";
+            final UpdateBuilder ub = getUpdateBuilder(entity);
+            if (ub.getCollectionChanges() != null) {
+                collectionChanges.add(entity);
+                continue;
+            }
+            final StringBuilder sql = ub.toSql(_tables);
+            if (sql == null) {
+                continue;
+            }
+            sql.append(_table).append(".").append(DbUtil.getColumnName(_idField, null)).append(" = ?");
+            final String key = sql.toString();
+            List<T> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<T>();
+                groups.put(key, group);
+            }
+            group.add(entity);
+        }
+
+        final Attribute idAttr = _idAttributes.get(_table)[0];
+        int rows = 0;
+        PreparedStatement pstmt = null;
+        try {
+            txn.start();
+            for (final T entity : collectionChanges) {
+                rows += updateEntity(entity);
+            }
+
+            for (final Map.Entry<String, List<T>> group : groups.entrySet()) {
+                pstmt = txn.prepareAutoCloseStatement(group.getKey());
+                for (final T entity : group.getValue()) {
+                    final UpdateBuilder ub = getUpdateBuilder(entity);
+                    int i = 1;
+                    for (final Ternary<Attribute, Boolean, Object> value : ub.getChanges()) {
+                        prepareAttribute(i++, pstmt, value.first(), value.third());
+                    }
+                    prepareAttribute(i, pstmt, idAttr, _idField.get(entity));
+                    pstmt.addBatch();
+                }
+
+                for (final int count : pstmt.executeBatch()) {
+                    // The driver may report SUCCESS_NO_INFO for rewritten batches.
+                    rows += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+                }
+                for (final T entity : group.getValue()) {
+                    invalidateCache((Serializable)_idField.get(entity));
+                    getUpdateBuilder(entity).clear();
+                }
+            }
+            txn.commit();
+        } catch (final SQLException e) {
+            if (e.getSQLState() != null && e.getSQLState().equals("23000") && e.getErrorCode() == 1062) {
+                throw new EntityExistsException("Entity already exists ", e);
+            }
+            throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Yikes! ", e);
+        }
+        return rows;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int updateEntity(final T entity) {
+        try {
+            return update((ID)_idField.get(entity), entity) ? 1 : 0;
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Yikes! ", e);
+        }
+    }
+
     protected void insertElementCollection(T entity, Attribute idAttribute, ID id, Map<Attribute, Object> ecAttributes) throws SQLException {
         Transaction txn = Transaction.currentTxn();
         txn.start();
@@ -1538,12 +1799,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
         toEntityBean(result, entity);
 
-        if (cache && _cache != null) {
-            try {
-                _cache.put(new Element(_idField.get(entity), entity));
-            } catch (final Exception e) {
-                s_logger.debug("Can't put it in the cache", e);
-            }
+        if (cache) {
+            putInCache(entity, _cacheVersion.get());
         }
 
         return entity;
@@ -1560,12 +1817,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             throw new CloudRuntimeException("Illegal Access", e1);
         }
         toEntityBean(result, entity);
-        if (cache && _cache != null) {
-            try {
-                _cache.put(new Element(_idField.get(entity), entity));
-            } catch (final Exception e) {
-                s_logger.debug("Can't put it in the cache", e);
-            }
+        if (cache) {
+            putInCache(entity, _cacheVersion.get());
         }
 
         return entity;
@@ -1718,9 +1971,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
             final int result = pstmt.executeUpdate();
             txn.commit();
-            if (_cache != null) {
-                _cache.remove(id);
-            }
+            invalidateCache(id);
             return result > 0;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -1741,6 +1992,13 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     }
 
     protected Cache _cache;
+
+    // Bumped on every eviction.  Readers sample it before running their query
+    // and only populate the cache if it hasn't moved, so a row read before a
+    // concurrent update can't be put back after the update evicted it.
+    protected final AtomicLong _cacheVersion = new AtomicLong();
+    protected EntityCacheStats _cacheStats;
+
     @DB(txn=false)
     protected void createCache(final Map<String, ? extends Object> params) {
         final String value = (String)params.get("cache.size");
@@ -1753,11 +2011,125 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             _cache = new Cache(getName(), maxElements, false, live == -1, live == -1 ? Integer.MAX_VALUE : live, idle);
             cm.addCache(_cache);
             s_logger.info("Cache created: " + _cache.toString());
+
+            _cacheStats = new EntityCacheStats(this);
+            s_cachedDaos.put(getName(), this);
+            try {
+                JmxUtil.registerMBean("DaoCache", getName(), _cacheStats);
+            } catch (Exception e) {
+                s_logger.warn("Unable to register cache statistics for " + getName(), e);
+            }
         } else {
             _cache = null;
         }
     }
 
+    /**
+     * Puts an entity loaded outside of a transaction into the cache, unless
+     * an eviction happened since the caller sampled cacheVersion.  Rows read
+     * inside a transaction may be uncommitted and are never cached.
+     */
+    @DB(txn=false)
+    protected void putInCache(final T entity, final long cacheVersion) {
+        if (_cache == null || Transaction.currentTxn().dbTxnStarted()) {
+            return;
+        }
+
+        if (_cacheVersion.get() != cacheVersion) {
+            _cacheStats._stalePuts.incrementAndGet();
+            return;
+        }
+
+        try {
+            _cache.put(new Element(_idField.get(entity), entity));
+        } catch (final Exception e) {
+            s_logger.debug("Can't put it in the cache", e);
+        }
+    }
+
+    /**
+     * Evicts the entity now and, if a transaction is open, again when it
+     * ends.  Peer management servers are told once the change is final.
+     * @param id id of the changed entity, or null if unknown.
+     */
+    @DB(txn=false)
+    protected void invalidateCache(final Serializable id) {
+        if (_cache == null) {
+            return;
+        }
+
+        final boolean deferred = Transaction.currentTxn().registerCacheEviction(this, id);
+        evictFromCache(id, !deferred);
+    }
+
+    /**
+     * @param id id of the entity to evict, or null to clear the whole cache.
+     * @param broadcast whether peer management servers should be notified.
+     */
+    @DB(txn=false)
+    public void evictFromCache(final Serializable id, final boolean broadcast) {
+        if (_cache == null) {
+            return;
+        }
+
+        _cacheVersion.incrementAndGet();
+        if (id == null) {
+            _cache.removeAll();
+        } else {
+            _cache.remove(id);
+        }
+        _cacheStats._evictions.incrementAndGet();
+
+        final EntityCacheInvalidator invalidator = s_cacheInvalidator;
+        if (broadcast && invalidator != null) {
+            try {
+                invalidator.invalidated(getName(), id);
+            } catch (final Exception e) {
+                s_logger.warn("Unable to propagate cache eviction of " + getName() + " id " + id, e);
+            }
+        }
+    }
+
+    public static void setCacheInvalidator(final EntityCacheInvalidator invalidator) {
+        s_cacheInvalidator = invalidator;
+    }
+
+    /**
+     * Applies an eviction received from another management server.
+     * @param daoName name of the DAO whose cache to evict from
+     * @param id string form of the entity id, or null to clear the cache
+     */
+    public static void invalidateCache(final String daoName, final String id) {
+        final GenericDaoBase<?, ? extends Serializable> dao = s_cachedDaos.get(daoName);
+        if (dao == null) {
+            return;
+        }
+
+        dao._cacheStats._remoteEvictions.incrementAndGet();
+        dao.evictFromCache(dao.toCacheKey(id), false);
+    }
+
+    protected Serializable toCacheKey(final String id) {
+        if (id == null || _idField == null) {
+            return null;
+        }
+
+        final Class<?> type = _idField.getType();
+        try {
+            if (type == Long.class || type == long.class) {
+                return Long.valueOf(id);
+            } else if (type == Integer.class || type == int.class) {
+                return Integer.valueOf(id);
+            } else if (type == String.class) {
+                return id;
+            }
+        } catch (final NumberFormatException e) {
+            s_logger.warn("Unexpected id " + id + " for " + getName());
+        }
+        // Unknown id type; clearing everything is always safe.
+        return null;
+    }
+
     @Override @DB(txn=false)
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
         _name = name;
@@ -0,0 +1,36 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+/**
+ * Carries lock hand-off messages between management servers, so that a
+ * thread waiting for a lock held by another server is woken up when it is
+ * released instead of polling op_lock.
+ */
+public interface LockWaiterNotifier {
+    /**
+     * Asks the management server holding the lock to report back when it
+     * releases it.
+     */
+    void waitFor(long ownerMsId, String key);
+
+    /**
+     * Tells a management server that asked through waitFor() that the lock
+     * has been released.
+     */
+    void released(long waiterMsId, String key);
+}
@@ -20,12 +20,21 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import javax.management.StandardMBean;
 
@@ -41,12 +50,11 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     private static final Logger s_logger = Logger.getLogger(Merovingian2.class);
 
     private static final String ACQUIRE_SQL = "INSERT INTO op_lock (op_lock.key, op_lock.mac, op_lock.ip, op_lock.thread, op_lock.acquired_on, waiters) VALUES (?, ?, ?, ?, ?, 1)";
-    private static final String INCREMENT_SQL = "UPDATE op_lock SET waiters=waiters+1 where op_lock.key=? AND op_lock.mac=? AND op_lock.ip=? AND op_lock.thread=?";
+    private static final String HANDOVER_SQL = "UPDATE op_lock SET op_lock.ip=?, op_lock.thread=?, op_lock.acquired_on=? where op_lock.key=? AND op_lock.mac=? AND op_lock.ip=? AND op_lock.thread=?";
     private static final String SELECT_SQL = "SELECT op_lock.key, mac, ip, thread, acquired_on, waiters FROM op_lock";
     private static final String INQUIRE_SQL = SELECT_SQL + " WHERE op_lock.key=?";
-    private static final String DECREMENT_SQL = "UPDATE op_lock SET waiters=waiters-1 where op_lock.key=? AND op_lock.mac=? AND op_lock.ip=? AND op_lock.thread=?";
     private static final String RELEASE_LOCK_SQL = "DELETE FROM op_lock WHERE op_lock.key = ?";
-    private static final String RELEASE_SQL = RELEASE_LOCK_SQL + " AND op_lock.mac=? AND waiters=0";
+    private static final String RELEASE_SQL = RELEASE_LOCK_SQL + " AND op_lock.mac=? AND op_lock.ip=? AND op_lock.thread=?";
     private static final String CLEANUP_MGMT_LOCKS_SQL = "DELETE FROM op_lock WHERE op_lock.mac = ?";
     private static final String SELECT_MGMT_LOCKS_SQL = SELECT_SQL + " WHERE mac=?";
     private static final String SELECT_THREAD_LOCKS_SQL = SELECT_SQL + " WHERE mac=? AND ip=?";
@@ -60,15 +68,42 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     private ConnectionConcierge _concierge = null;
     private static ThreadLocal<Count> s_tls = new ThreadLocal<Count>();
 
+    // how long a waiter sleeps before checking op_lock again in case no release notification reaches it
+    private static final long POLL_INTERVAL = 5000;
+    // how many times in a row a lock is handed over to a waiter here while waiters on other servers are passed over
+    private static final int MAX_LOCAL_HANDOFFS = 8;
+    // how long the waiters here hold back after such a lock is released, so that the other servers get their turn
+    private static final long YIELD_INTERVAL = 1000;
+
+    // in-JVM state of the locks this server holds or waits for; op_lock remains the record across servers
+    private final ConcurrentHashMap<String, LockState> _locks = new ConcurrentHashMap<String, LockState>();
+    private volatile LockWaiterNotifier _notifier;
+
+    private final Histogram _waitHistogram = new Histogram();
+    private final Histogram _holdHistogram = new Histogram();
+    private final AtomicLong _waitTimeouts = new AtomicLong(0);
+    private final AtomicLong _handoffs = new AtomicLong(0);
+
     private Merovingian2(long msId) {
+        this(msId, createConcierge());
+    }
+
+    /**
+     * For subclasses that keep op_lock somewhere else, such as the tests.
+     */
+    protected Merovingian2(long msId, ConnectionConcierge concierge) {
         super(MerovingianMBean.class, false);
         _msId = msId;
+        _concierge = concierge;
+    }
+
+    private static ConnectionConcierge createConcierge() {
         Connection conn = null;
         try {
             conn = Transaction.getStandaloneConnectionWithException();
             conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
             conn.setAutoCommit(true);
-            _concierge = new ConnectionConcierge("LockMaster", conn, true);
+            return new ConnectionConcierge("LockMaster", conn, true);
         } catch (SQLException e) {
             s_logger.error("Unable to get a new db connection", e);
             throw new CloudRuntimeException("Unable to initialize a connection to the database for locking purposes: ", e);
@@ -91,6 +126,10 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         return s_instance;
     }
 
+    public void setLockWaiterNotifier(LockWaiterNotifier notifier) {
+        _notifier = notifier;
+    }
+
 
     protected void incrCount() {
         Count count = s_tls.get();
@@ -120,58 +159,225 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("Acquiring lck-" + key + " with wait time of " + timeInSeconds);
         }
-        long startTime = InaccurateClock.getTime();
+        long startTime = System.currentTimeMillis();
+        long deadline = startTime + timeInSeconds * 1000L;
+
+        LockState state;
+        while (true) {
+            state = getLockState(key);
+            synchronized (state) {
+                if (state.removed) {
+                    continue;
+                }
+
+                if (state.owner == th) {
+                    // reentrant acquisitions are only counted in memory, op_lock keeps one row per owner
+                    state.count++;
+                    incrCount();
+                    return true;
+                }
+
+                // waiters take their turn in order, only the first one competes for op_lock
+                state.waiters.add(th);
+                break;
+            }
+        }
+
+        boolean waiting = true;
+        boolean backOff = false;
+        long releasesSeen = 0;
+        try {
+            while (true) {
+                synchronized (state) {
+                    if (state.owner == th) {
+                        // handed over by the previous owner on release
+                        state.waiters.remove(th);
+                        waiting = false;
+                        incrCount();
+                        _waitHistogram.record(System.currentTimeMillis() - startTime);
+                        return true;
+                    }
+
+                    long now = System.currentTimeMillis();
+                    boolean myTurn = state.owner == null && !state.acquiring && state.waiters.getFirst() == th && now >= state.yieldUntil;
+                    if (myTurn && backOff && state.releases == releasesSeen) {
+                        // op_lock is held by another server, wait for it to be released
+                        myTurn = false;
+                    }
+                    backOff = false;
+
+                    if (!myTurn) {
+                        long remaining = deadline - now;
+                        if (remaining <= 0) {
+                            if (s_logger.isTraceEnabled()) {
+                                s_logger.trace("Timed out on acquiring lock " + key + ".  Waited for " + (now - startTime));
+                            }
+                            // leave in the same step, so that the lock can't be handed over to us anymore
+                            state.waiters.remove(th);
+                            waiting = false;
+                            _waitTimeouts.incrementAndGet();
+                            return false;
+                        }
+
+                        long wait = Math.min(remaining, POLL_INTERVAL);
+                        if (state.owner == null && now < state.yieldUntil) {
+                            wait = Math.min(wait, state.yieldUntil - now);
+                        }
+                        if (s_logger.isTraceEnabled()) {
+                            s_logger.trace("Waiting for lck-" + key);
+                        }
+                        try {
+                            state.wait(wait);
+                        } catch (InterruptedException e) {
+                        }
+                        continue;
+                    }
 
-        while ((InaccurateClock.getTime() - startTime) < (timeInSeconds * 1000)) {
-            int count = owns(key);
+                    // op_lock is updated outside of the monitor, the other waiters here wait for the outcome
+                    state.acquiring = true;
+                    releasesSeen = state.releases;
+                }
+
+                boolean acquired = false;
+                boolean held = true;
+                try {
+                    acquired = doAcquire(key, threadName, threadId);
+                    if (!acquired) {
+                        held = watchRemoteOwner(key);
+                    }
+                } finally {
+                    synchronized (state) {
+                        state.acquiring = false;
+                        if (acquired) {
+                            state.owner = th;
+                            state.count = 1;
+                            state.acquiredOn = System.currentTimeMillis();
+                            state.waiters.remove(th);
+                            waiting = false;
+                        }
+                    }
+                }
 
-            if (count >= 1) {
-                return increment(key, threadName, threadId);
-            } else if (count == 0) {
-                if (doAcquire(key, threadName, threadId)) {
+                if (acquired) {
+                    incrCount();
+                    _waitHistogram.record(System.currentTimeMillis() - startTime);
                     return true;
                 }
+                // try again right away if it was released in the meantime
+                backOff = held;
             }
-            try {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Sleeping more time while waiting for lck-" + key);
+        } finally {
+            synchronized (state) {
+                if (waiting) {
+                    state.waiters.remove(th);
                 }
-                Thread.sleep(5000);
-            } catch (InterruptedException e) {
+                if (state.owner == null) {
+                    // let the next waiter have its turn
+                    state.notifyAll();
+                }
+                removeIfIdle(key, state);
             }
         }
-        if (s_logger.isTraceEnabled()) {
-            s_logger.trace("Timed out on acquiring lock " + key + ".  Waited for " + (InaccurateClock.getTime() - startTime));
-        }
-        return false;
     }
 
-    protected boolean increment(String key, String threadName, int threadId) {
-        PreparedStatement pstmt = null;
-        try {
-            pstmt = _concierge.conn().prepareStatement(INCREMENT_SQL);
-            pstmt.setString(1, key);
-            pstmt.setLong(2, _msId);
-            pstmt.setString(3, threadName);
-            pstmt.setInt(4, threadId);
-            int rows = pstmt.executeUpdate();
-            assert (rows <= 1) : "hmm...non unique key? " + pstmt;
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("lck-" + key + (rows == 1 ? " acquired again" : " failed to acquire again"));
-            }
-            if (rows == 1) {
-                incrCount();
-                return true;
+    private LockState getLockState(String key) {
+        LockState state = _locks.get(key);
+        if (state == null) {
+            state = new LockState();
+            LockState existing = _locks.putIfAbsent(key, state);
+            if (existing != null) {
+                state = existing;
             }
+        }
+        return state;
+    }
+
+    /**
+     * Must be called holding the monitor of state.
+     */
+    private void removeIfIdle(String key, LockState state) {
+        if (state.owner == null && state.waiters.isEmpty() && state.remoteWaiters.isEmpty()) {
+            state.removed = true;
+            _locks.remove(key, state);
+        }
+    }
+
+    /**
+     * Asks the management server holding the lock to tell us when it
+     * releases it.
+     *
+     * @return false if the lock is not held anymore.
+     */
+    private boolean watchRemoteOwner(String key) {
+        LockWaiterNotifier notifier = _notifier;
+        if (notifier == null) {
+            return true;
+        }
+
+        Map<String, String> owner = isLocked(key);
+        if (owner == null) {
             return false;
-        } catch (SQLException e) {
-            throw new CloudRuntimeException("Unable to increment " + key, e);
-        } finally {
+        }
+        long ownerMsId = Long.parseLong(owner.get("mgmt"));
+        if (ownerMsId != _msId) {
             try {
-                if (pstmt != null) {
-                    pstmt.close();
+                notifier.waitFor(ownerMsId, key);
+            } catch (Exception e) {
+                s_logger.debug("Unable to ask " + ownerMsId + " to notify the release of lck-" + key + ": " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Called when another management server wants to know when this one
+     * releases the lock.
+     */
+    public void onRemoteWaiter(long msId, String key) {
+        while (true) {
+            LockState state = getLockState(key);
+            synchronized (state) {
+                if (state.removed) {
+                    continue;
                 }
-            } catch (SQLException e) {
+                if (state.owner != null) {
+                    state.remoteWaiters.add(msId);
+                    return;
+                }
+                removeIfIdle(key, state);
+            }
+            break;
+        }
+
+        // not held here (anymore), let the waiter try right away
+        notifyRemoteWaiters(key, Collections.singletonList(msId));
+    }
+
+    /**
+     * Called when another management server has released a lock that
+     * threads here wait for.
+     */
+    public void onRemoteRelease(String key) {
+        LockState state = _locks.get(key);
+        if (state != null) {
+            synchronized (state) {
+                state.releases++;
+                state.yieldUntil = 0;
+                state.notifyAll();
+            }
+        }
+    }
+
+    private void notifyRemoteWaiters(String key, Collection<Long> msIds) {
+        LockWaiterNotifier notifier = _notifier;
+        if (notifier == null) {
+            return;
+        }
+        for (Long msId : msIds) {
+            try {
+                notifier.released(msId, key);
+            } catch (Exception e) {
+                s_logger.debug("Unable to notify " + msId + " of the release of lck-" + key + ": " + e.getMessage());
             }
         }
     }
@@ -193,7 +399,6 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
                     if (s_logger.isTraceEnabled()) {
                         s_logger.trace("Acquired for lck-" + key);
                     }
-                    incrCount();
                     return true;
                 }
             } catch(SQLException e) {
@@ -251,14 +456,170 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     @Override
     public void cleanupForServer(long msId) {
         s_logger.info("Cleaning up locks for " + msId);
-        PreparedStatement pstmt = null;
+        int rows;
         try {
-            pstmt = _concierge.conn().prepareStatement(CLEANUP_MGMT_LOCKS_SQL);
-            pstmt.setLong(1, msId);
-            int rows = pstmt.executeUpdate();
-            s_logger.info("Released " + rows + " locks for " + msId);
+            rows = deleteLocks(msId);
         } catch (SQLException e) {
             throw new CloudRuntimeException("Unable to clear the locks", e);
+        }
+        s_logger.info("Released " + rows + " locks for " + msId);
+
+        // whatever we were waiting for on that server may be free now
+        for (Map.Entry<String, LockState> entry : _locks.entrySet()) {
+            LockState state = entry.getValue();
+            List<Long> remoteWaiters = null;
+            synchronized (state) {
+                state.remoteWaiters.remove(msId);
+                if (msId == _msId && state.owner != null) {
+                    // the rows of the owners here are gone and so is their hold of the lock, their
+                    // releases are refused from now on
+                    state.owner = null;
+                    state.count = 0;
+                    state.localHandoffs = 0;
+                    if (!state.remoteWaiters.isEmpty()) {
+                        remoteWaiters = new ArrayList<Long>(state.remoteWaiters);
+                        state.remoteWaiters.clear();
+                    }
+                }
+                state.releases++;
+                state.notifyAll();
+                removeIfIdle(entry.getKey(), state);
+            }
+            if (remoteWaiters != null) {
+                notifyRemoteWaiters(entry.getKey(), remoteWaiters);
+            }
+        }
+    }
+
+    public boolean release(String key) {
+        Thread th = Thread.currentThread();
+        int threadId = System.identityHashCode(th);
+
+        LockState state = _locks.get(key);
+        if (state == null) {
+            s_logger.warn("Was unable to find lock for the key " + key + " and thread id " + threadId);
+            return false;
+        }
+
+        synchronized (state) {
+            if (state.owner != th) {
+                s_logger.warn("Was unable to find lock for the key " + key + " and thread id " + threadId);
+                return false;
+            }
+
+            decrCount();
+            if (--state.count > 0) {
+                return true;
+            }
+            _holdHistogram.record(System.currentTimeMillis() - state.acquiredOn);
+        }
+
+        relinquish(key, state, th, true);
+        return true;
+    }
+
+    /**
+     * Ends the hold of owner on the lock.  The lock is handed over to the
+     * next waiter here, unless waiters on other servers have been passed over
+     * MAX_LOCAL_HANDOFFS times in a row; otherwise it is released and the
+     * waiters here and on the other servers are woken up.  op_lock is updated
+     * outside of the monitor of state, owner holds the lock until it is done.
+     *
+     * @param inOpLock whether the row of owner is still in op_lock.
+     */
+    private void relinquish(String key, LockState state, Thread owner, boolean inOpLock) {
+        String ownerName = owner.getName();
+        int ownerId = System.identityHashCode(owner);
+
+        Thread next = null;
+        boolean yield = false;
+        synchronized (state) {
+            if (state.owner != owner) {
+                // taken away by a cleanup, which has woken up the waiters already
+                return;
+            }
+            if (inOpLock && !state.waiters.isEmpty()) {
+                if (state.remoteWaiters.isEmpty() || state.localHandoffs < MAX_LOCAL_HANDOFFS) {
+                    next = state.waiters.getFirst();
+                } else {
+                    yield = true;
+                }
+            }
+        }
+
+        if (next != null && handOver(key, ownerName, ownerId, next)) {
+            boolean taken;
+            synchronized (state) {
+                if (state.owner != owner) {
+                    return;
+                }
+                state.owner = next;
+                state.count = 1;
+                state.acquiredOn = System.currentTimeMillis();
+                if (!state.remoteWaiters.isEmpty()) {
+                    state.localHandoffs++;
+                }
+                taken = state.waiters.contains(next);
+                state.notifyAll();
+            }
+
+            if (!taken) {
+                // the waiter gave up in the meantime, pass the lock on in its name
+                relinquish(key, state, next, true);
+                return;
+            }
+            _handoffs.incrementAndGet();
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("lck-" + key + " handed over to " + next.getName());
+            }
+            return;
+        }
+
+        List<Long> remoteWaiters = null;
+        try {
+            if (inOpLock) {
+                doRelease(key, ownerName, ownerId);
+            }
+        } finally {
+            synchronized (state) {
+                if (state.owner == owner) {
+                    state.owner = null;
+                    state.count = 0;
+                    state.localHandoffs = 0;
+                    if (yield) {
+                        state.yieldUntil = System.currentTimeMillis() + YIELD_INTERVAL;
+                    }
+                    if (!state.remoteWaiters.isEmpty()) {
+                        remoteWaiters = new ArrayList<Long>(state.remoteWaiters);
+                        state.remoteWaiters.clear();
+                    }
+                    state.releases++;
+                    state.notifyAll();
+                    removeIfIdle(key, state);
+                }
+            }
+        }
+
+        if (remoteWaiters != null) {
+            notifyRemoteWaiters(key, remoteWaiters);
+        }
+    }
+
+    protected boolean handOver(String key, String threadName, int threadId, Thread next) {
+        PreparedStatement pstmt = null;
+        try {
+            pstmt = _concierge.conn().prepareStatement(HANDOVER_SQL);
+            pstmt.setString(1, next.getName());
+            pstmt.setInt(2, System.identityHashCode(next));
+            pstmt.setString(3, DateUtil.getDateDisplayString(s_gmtTimeZone, new Date()));
+            pstmt.setString(4, key);
+            pstmt.setLong(5, _msId);
+            pstmt.setString(6, threadName);
+            pstmt.setInt(7, threadId);
+            return pstmt.executeUpdate() == 1;
+        } catch (SQLException e) {
+            s_logger.warn("Unable to hand lck-" + key + " over to " + next.getName() + ", releasing it instead", e);
+            return false;
         } finally {
             try {
                 if (pstmt != null) {
@@ -269,39 +630,21 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         }
     }
 
-    public boolean release(String key) {
+    protected void doRelease(String key, String threadName, int threadId) {
         PreparedStatement pstmt = null;
-        Thread th = Thread.currentThread();
-        String threadName = th.getName();
-        int threadId = System.identityHashCode(th);
         try {
-            pstmt = _concierge.conn().prepareStatement(DECREMENT_SQL);
+            pstmt = _concierge.conn().prepareStatement(RELEASE_SQL);
             pstmt.setString(1, key);
             pstmt.setLong(2, _msId);
             pstmt.setString(3, threadName);
-            pstmt.setLong(4, threadId);
+            pstmt.setInt(4, threadId);
             int rows = pstmt.executeUpdate();
             assert (rows <= 1) : "hmmm....keys not unique? " + pstmt;
-           
-            
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("lck-" + key + " released");
-            }
-            if (rows == 1) {
-                pstmt.close();
-                pstmt = _concierge.conn().prepareStatement(RELEASE_SQL);
-                pstmt.setString(1, key);
-                pstmt.setLong(2, _msId);
-                int result = pstmt.executeUpdate();
-                if (result == 1 && s_logger.isTraceEnabled()) {
-                    s_logger.trace("lck-" + key + " removed");
-                }
-                decrCount();
-            } else  if (rows < 1) {
-                s_logger.warn("Was unable to find lock for the key " + key + " and thread id " + threadId);
+            if (rows == 1 && s_logger.isTraceEnabled()) {
+                s_logger.trace("lck-" + key + " removed");
+            } else if (rows < 1) {
+                s_logger.warn("Lock for the key " + key + " and thread id " + threadId + " was already gone from op_lock");
             }
-            
-            return rows == 1;
         } catch (SQLException e) {
             throw new CloudRuntimeException("Unable to release " + key, e);
         } finally {
@@ -314,6 +657,56 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         }
     }
 
+    protected int deleteLocks(long msId) throws SQLException {
+        PreparedStatement pstmt = null;
+        try {
+            pstmt = _concierge.conn().prepareStatement(CLEANUP_MGMT_LOCKS_SQL);
+            pstmt.setLong(1, msId);
+            return pstmt.executeUpdate();
+        } finally {
+            try {
+                if (pstmt != null) {
+                    pstmt.close();
+                }
+            } catch (SQLException e) {
+            }
+        }
+    }
+
+    protected int deleteThreadLocks(String threadName, int threadId) throws SQLException {
+        PreparedStatement pstmt = null;
+        try {
+            pstmt = _concierge.conn().prepareStatement(CLEANUP_THREAD_LOCKS_SQL);
+            pstmt.setLong(1, _msId);
+            pstmt.setString(2, threadName);
+            pstmt.setInt(3, threadId);
+            return pstmt.executeUpdate();
+        } finally {
+            try {
+                if (pstmt != null) {
+                    pstmt.close();
+                }
+            } catch (SQLException e) {
+            }
+        }
+    }
+
+    protected int deleteLock(String key) throws SQLException {
+        PreparedStatement pstmt = null;
+        try {
+            pstmt = _concierge.conn().prepareStatement(RELEASE_LOCK_SQL);
+            pstmt.setString(1, key);
+            return pstmt.executeUpdate();
+        } finally {
+            try {
+                if (pstmt != null) {
+                    pstmt.close();
+                }
+            } catch (SQLException e) {
+            }
+        }
+    }
+
     protected Map<String, String> toLock(ResultSet rs) throws SQLException {
         Map<String, String> map = new HashMap<String, String>();
         map.put("key", rs.getString(1));
@@ -370,16 +763,17 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     }
 
     public int owns(String key) {
-        Thread th = Thread.currentThread();
-        int threadId = System.identityHashCode(th);
-        Map<String, String> owner = isLocked(key);
-        if (owner == null) {
-            return 0;
-        }
-        if (owner.get("mgmt").equals(Long.toString(_msId)) && owner.get("tid").equals(Integer.toString(threadId))) {
-            return Integer.parseInt(owner.get("count"));
+        LockState state = _locks.get(key);
+        if (state != null) {
+            synchronized (state) {
+                if (state.owner == Thread.currentThread()) {
+                    return state.count;
+                } else if (state.owner != null) {
+                    return -1;
+                }
+            }
         }
-        return -1;
+        return isLocked(key) == null ? 0 : -1;
     }
 
     public List<Map<String, String>> getLocksAcquiredBy(long msId, String threadName) {
@@ -421,41 +815,128 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         String threadName = th.getName();
         int threadId = System.identityHashCode(th);
 
-        PreparedStatement pstmt = null;
+        for (Map.Entry<String, LockState> entry : _locks.entrySet()) {
+            LockState state = entry.getValue();
+            boolean owned;
+            synchronized (state) {
+                owned = state.owner == th;
+            }
+            if (owned) {
+                relinquish(entry.getKey(), state, th, true);
+            }
+        }
+
         try {
-            pstmt = _concierge.conn().prepareStatement(CLEANUP_THREAD_LOCKS_SQL);
-            pstmt.setLong(1, _msId);
-            pstmt.setString(2, threadName);
-            pstmt.setInt(3, threadId);
-            int rows = pstmt.executeUpdate();
+            int rows = deleteThreadLocks(threadName, threadId);
             assert (false) : "Abandon hope, all ye who enter here....There were still " + rows + ":" + c + " locks not released when the transaction ended, check for lock not released or @DB is not added to the code that using the locks!";
         } catch (SQLException e) {
-            throw new CloudRuntimeException("Can't clear locks " + pstmt, e);
-        } finally {
-            try {
-                if (pstmt != null) {
-                    pstmt.close();
-                }
-            } catch (SQLException e) {
-            }
+            throw new CloudRuntimeException("Can't clear locks for " + threadName, e);
         }
     }
 
     @Override
     public boolean releaseLockAsLastResortAndIReallyKnowWhatIAmDoing(String key) {
         s_logger.info("Releasing a lock from JMX lck-" + key);
-        PreparedStatement pstmt = null;
+        int rows;
         try {
-            pstmt = _concierge.conn().prepareStatement(RELEASE_LOCK_SQL);
-            pstmt.setString(1, key);
-            int rows = pstmt.executeUpdate();
-            return rows > 0;
+            rows = deleteLock(key);
         } catch (SQLException e) {
             s_logger.error("Unable to release lock " + key, e);
             return false;
         }
+
+        LockState state = _locks.get(key);
+        if (state != null) {
+            Thread owner;
+            synchronized (state) {
+                owner = state.owner;
+                if (owner == null) {
+                    // held by another server, the waiters here can try again
+                    state.releases++;
+                    state.notifyAll();
+                }
+            }
+            if (owner != null) {
+                relinquish(key, state, owner, false);
+            }
+        }
+        return rows > 0;
+    }
+
+    @Override
+    public Map<String, Long> getLockWaitHistogram() {
+        return _waitHistogram.toMap();
+    }
+
+    @Override
+    public Map<String, Long> getLockHoldHistogram() {
+        return _holdHistogram.toMap();
+    }
+
+    @Override
+    public long getLockWaitTimeouts() {
+        return _waitTimeouts.get();
+    }
+
+    @Override
+    public long getLockHandoffs() {
+        return _handoffs.get();
+    }
+
+    @Override
+    public int getLocalWaiters() {
+        int waiters = 0;
+        for (LockState state : _locks.values()) {
+            synchronized (state) {
+                waiters += state.waiters.size();
+            }
+        }
+        return waiters;
     }
     protected static class Count {
         public int count = 0;
     }
+
+    /**
+     * Guarded by its own monitor, which waiters also wait on.
+     */
+    protected static class LockState {
+        Thread owner;
+        int count;
+        long acquiredOn;
+        final LinkedList<Thread> waiters = new LinkedList<Thread>();
+        final Set<Long> remoteWaiters = new HashSet<Long>();
+        boolean removed;
+        // the first waiter is trying to insert into op_lock
+        boolean acquiring;
+        // bumped whenever the lock may have become free
+        long releases;
+        // handoffs in a row while other servers wait
+        int localHandoffs;
+        // the waiters here don't compete for op_lock before then
+        long yieldUntil;
+    }
+
+    protected static class Histogram {
+        private static final long[] BOUNDS = {10, 100, 1000, 5000, 30000, 300000};
+        private static final String[] LABELS = {"<10ms", "<100ms", "<1s", "<5s", "<30s", "<5m", ">=5m"};
+
+        private final AtomicLongArray _counts = new AtomicLongArray(LABELS.length);
+
+        public void record(long millis) {
+            int i = 0;
+            while (i < BOUNDS.length && millis >= BOUNDS[i]) {
+                i++;
+            }
+            _counts.incrementAndGet(i);
+        }
+
+        public Map<String, Long> toMap() {
+            Map<String, Long> map = new LinkedHashMap<String, Long>();
+            for (int i = 0; i < LABELS.length; i++) {
+                map.put(LABELS[i], _counts.get(i));
+            }
+            return map;
+        }
+    }
 }
@@ -29,4 +29,20 @@ public interface MerovingianMBean {
     boolean releaseLockAsLastResortAndIReallyKnowWhatIAmDoing(String key);
     
     void cleanupForServer(long msId);
+
+    /**
+     * @return number of acquisitions by how long they waited for the lock
+     */
+    Map<String, Long> getLockWaitHistogram();
+
+    /**
+     * @return number of releases by how long the lock was held
+     */
+    Map<String, Long> getLockHoldHistogram();
+
+    long getLockWaitTimeouts();
+
+    long getLockHandoffs();
+
+    int getLocalWaiters();
 }
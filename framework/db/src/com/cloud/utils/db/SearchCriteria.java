@@ -336,6 +336,29 @@ public class SearchCriteria<K> {
         return params;
     }
 
+    /**
+     * @return the value attr is compared to if the criteria is a plain AND of
+     * conditions that includes attr = value; null if it can't be determined.
+     */
+    protected Object getAndedEqualityValue(Attribute attr) {
+        Object value = null;
+        List<Condition> all = new ArrayList<Condition>(_conditions);
+        all.addAll(_additionals);
+        for (Condition condition : all) {
+            if (condition.cond != null && condition.cond.contains("OR")) {
+                return null;
+            }
+            if (condition.op != Op.EQ || !attr.equals(condition.attr)) {
+                continue;
+            }
+            Object[] objs = condition.isPreset() ? condition.presets : _params.get(condition.name);
+            if (objs != null && objs.length == 1 && objs[0] != null) {
+                value = objs[0];
+            }
+        }
+        return value;
+    }
+
     public Collection<JoinBuilder<SearchCriteria<?>>> getJoins() {
         return _joins != null ? _joins.values() : null;
     }
@@ -19,12 +19,14 @@ package com.cloud.utils.db;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.Serializable;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Savepoint;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -109,6 +111,9 @@ public class Transaction {
     private String _name;
     private Connection _conn;
     private boolean _txn;
+    private boolean _rowsLocked;
+    private List<Pair<GenericDaoBase<?, ?>, Serializable>> _cacheEvictions;
+    private List<Runnable> _completionActions;
     private short _dbId;
     private long _txnTime;
     private Statement _stmt;
@@ -204,6 +209,81 @@ public class Transaction {
         return _txn;
     }
 
+    /**
+     * Records that rows have been read with SELECT ... FOR UPDATE or
+     * LOCK IN SHARE MODE in the current transaction.  Entity caches are
+     * bypassed for the rest of the transaction so callers keep seeing what
+     * they locked.
+     */
+    public void registerRowLock() {
+        if (_txn) {
+            _rowsLocked = true;
+        }
+    }
+
+    public boolean hasRowLocks() {
+        return _txn && _rowsLocked;
+    }
+
+    /**
+     * Schedules a cache eviction to be repeated once the current transaction
+     * ends, so that a reader that loaded the old row while the transaction
+     * was open can't leave it behind in the cache.
+     * @return false if there is no transaction and the eviction is already final.
+     */
+    protected boolean registerCacheEviction(GenericDaoBase<?, ?> dao, Serializable id) {
+        if (!_txn) {
+            return false;
+        }
+        if (_cacheEvictions == null) {
+            _cacheEvictions = new ArrayList<Pair<GenericDaoBase<?, ?>, Serializable>>();
+        }
+        _cacheEvictions.add(new Pair<GenericDaoBase<?, ?>, Serializable>(dao, id));
+        return true;
+    }
+
+    /**
+     * Schedules an action to run once the transaction open on this thread
+     * ends, for caches kept outside of the DAOs that, like the entity caches,
+     * have to drop what a reader may have loaded while the transaction was
+     * open.  The action runs whether the transaction commits or rolls back.
+     * @return false if there is no transaction and the action was not scheduled.
+     */
+    public static boolean registerCompletionAction(Runnable action) {
+        Transaction txn = tls.get();
+        if (txn == null || !txn._txn) {
+            return false;
+        }
+        if (txn._completionActions == null) {
+            txn._completionActions = new ArrayList<Runnable>();
+        }
+        txn._completionActions.add(action);
+        return true;
+    }
+
+    protected void flushCacheEvictions() {
+        _rowsLocked = false;
+        if (_cacheEvictions != null) {
+            List<Pair<GenericDaoBase<?, ?>, Serializable>> evictions = _cacheEvictions;
+            _cacheEvictions = null;
+            for (Pair<GenericDaoBase<?, ?>, Serializable> eviction : evictions) {
+                eviction.first().evictFromCache(eviction.second(), true);
+            }
+        }
+
+        if (_completionActions != null) {
+            List<Runnable> actions = _completionActions;
+            _completionActions = null;
+            for (Runnable action : actions) {
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    s_logger.warn("Unable to run an action on completion of transaction " + _name, e);
+                }
+            }
+        }
+    }
+
     public static Connection getStandaloneConnectionWithException() throws SQLException {
         Connection conn = s_ds.getConnection();
         if (s_connLogger.isTraceEnabled()) {
@@ -740,6 +820,8 @@ public class Transaction {
                 s_logger.trace("txn: DB Changes committed. Time = " + (System.currentTimeMillis() - _txnTime));
                 clearLockTimes();
                 closeConnection();
+            } else {
+                flushCacheEvictions();
             }
             return true;
         } catch (final SQLException e) {
@@ -751,6 +833,10 @@ public class Transaction {
     protected void closeConnection() {
         closePreviousStatement();
 
+        if (!_txn) {
+            flushCacheEvictions();
+        }
+
         if (_conn == null) {
             return;
         }
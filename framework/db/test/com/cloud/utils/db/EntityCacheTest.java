@@ -0,0 +1,180 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.ehcache.CacheManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks how the entity cache of a DAO is kept in step with transactions,
+ * without a database: rows are put in the cache the way a read outside of
+ * a transaction would.
+ */
+public class EntityCacheTest {
+    private static final AtomicInteger s_daoCount = new AtomicInteger();
+
+    private DbTestDao _dao;
+    private Transaction _txn;
+    private final List<Serializable> _broadcasts = new CopyOnWriteArrayList<Serializable>();
+
+    @Before
+    public void setUp() throws Exception {
+        // what the @DB interceptor would open for a call into the DAO
+        _txn = Transaction.open("EntityCacheTest");
+        _dao = new DbTestDao();
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("cache.size", "100");
+        _dao.configure("EntityCacheTest-" + s_daoCount.incrementAndGet(), params);
+
+        GenericDaoBase.setCacheInvalidator(new EntityCacheInvalidator() {
+            @Override
+            public void invalidated(String daoName, Serializable id) {
+                _broadcasts.add(id);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        GenericDaoBase.setCacheInvalidator(null);
+        CacheManager.getInstance().removeCache(_dao.getName());
+        _txn.close();
+    }
+
+    @Test
+    public void testUpdateOutsideOfTransactionEvicts() throws Exception {
+        DbTestVO row = cache(1L);
+
+        _dao.invalidateCache(1L);
+
+        assertNull(_dao._cache.get(1L));
+        assertEquals(1, _broadcasts.size());
+        // a read from before the update can't be put back
+        _dao.putInCache(row, _dao._cacheVersion.get() - 1);
+        assertNull(_dao._cache.get(1L));
+    }
+
+    @Test
+    public void testCommittedUpdateEvictsAgainOnCommit() throws Exception {
+        DbTestVO row = cache(1L);
+
+        _txn.start();
+        _dao.invalidateCache(1L);
+        assertNull(_dao._cache.get(1L));
+        // peers aren't told until the update is final
+        assertEquals(0, _broadcasts.size());
+
+        // a reader on another thread loads the old row while the update is uncommitted
+        long version = _dao._cacheVersion.get();
+        putOnOtherThread(row, version);
+        assertSame(row, _dao._cache.get(1L).getObjectValue());
+
+        _txn.commit();
+        assertNull(_dao._cache.get(1L));
+        assertEquals(1, _broadcasts.size());
+        assertEquals(1L, _broadcasts.get(0));
+
+        // the same read finishing after the commit can't cache the old row either
+        putOnOtherThread(row, version);
+        assertNull(_dao._cache.get(1L));
+    }
+
+    @Test
+    public void testRolledBackUpdateEvictsOnRollback() throws Exception {
+        DbTestVO row = cache(1L);
+
+        _txn.start();
+        _dao.invalidateCache(1L);
+        putOnOtherThread(row, _dao._cacheVersion.get());
+        _txn.rollback();
+
+        assertNull(_dao._cache.get(1L));
+        assertEquals(1, _broadcasts.size());
+
+        // once the transaction is over the row can be cached again
+        putOnOtherThread(row, _dao._cacheVersion.get());
+        assertNotNull(_dao._cache.get(1L));
+    }
+
+    @Test
+    public void testRowsReadInTransactionAreNotCached() throws Exception {
+        DbTestVO row = newRow(1L);
+
+        _txn.start();
+        _dao.putInCache(row, _dao._cacheVersion.get());
+        assertNull(_dao._cache.get(1L));
+        _txn.commit();
+    }
+
+    @Test
+    public void testRemoteEvictionIsNotBroadcastAgain() throws Exception {
+        cache(1L);
+        cache(2L);
+
+        GenericDaoBase.invalidateCache(_dao.getName(), "1");
+        assertNull(_dao._cache.get(1L));
+        assertNotNull(_dao._cache.get(2L));
+
+        GenericDaoBase.invalidateCache(_dao.getName(), null);
+        assertNull(_dao._cache.get(2L));
+        assertEquals(0, _broadcasts.size());
+    }
+
+    private DbTestVO newRow(long id) throws Exception {
+        DbTestVO row = new DbTestVO();
+        _dao._idField.set(row, id);
+        return row;
+    }
+
+    private DbTestVO cache(long id) throws Exception {
+        DbTestVO row = newRow(id);
+        _dao.putInCache(row, _dao._cacheVersion.get());
+        assertSame(row, _dao._cache.get(id).getObjectValue());
+        return row;
+    }
+
+    private void putOnOtherThread(final DbTestVO row, final long version) throws InterruptedException {
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Transaction txn = Transaction.open("EntityCacheTest-Reader");
+                try {
+                    _dao.putInCache(row, version);
+                } finally {
+                    txn.close();
+                }
+            }
+        });
+        reader.start();
+        reader.join();
+    }
+}
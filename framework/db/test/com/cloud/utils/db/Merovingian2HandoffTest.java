@@ -0,0 +1,435 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Runs the lock masters of two management servers against an op_lock kept in memory.
+ */
+public class Merovingian2HandoffTest {
+    private static final String KEY = "lck";
+
+    private static class Row {
+        final long msId;
+        final String threadName;
+        final int threadId;
+
+        Row(long msId, String threadName, int threadId) {
+            this.msId = msId;
+            this.threadName = threadName;
+            this.threadId = threadId;
+        }
+
+        boolean ownedBy(long msId, String threadName, int threadId) {
+            return this.msId == msId && this.threadName.equals(threadName) && this.threadId == threadId;
+        }
+    }
+
+    private final Map<String, Row> _opLock = new HashMap<String, Row>();
+    private final AtomicInteger _inserts = new AtomicInteger();
+
+    private class TestLockMaster extends Merovingian2 {
+        private final long _id;
+
+        TestLockMaster(long msId) {
+            super(msId, null);
+            _id = msId;
+        }
+
+        @Override
+        protected boolean doAcquire(String key, String threadName, int threadId) {
+            synchronized (_opLock) {
+                if (_opLock.containsKey(key)) {
+                    return false;
+                }
+                _opLock.put(key, new Row(_id, threadName, threadId));
+                _inserts.incrementAndGet();
+                return true;
+            }
+        }
+
+        @Override
+        protected boolean handOver(String key, String threadName, int threadId, Thread next) {
+            synchronized (_opLock) {
+                Row row = _opLock.get(key);
+                if (row == null || !row.ownedBy(_id, threadName, threadId)) {
+                    return false;
+                }
+                _opLock.put(key, new Row(_id, next.getName(), System.identityHashCode(next)));
+                return true;
+            }
+        }
+
+        @Override
+        protected void doRelease(String key, String threadName, int threadId) {
+            synchronized (_opLock) {
+                Row row = _opLock.get(key);
+                if (row != null && row.ownedBy(_id, threadName, threadId)) {
+                    _opLock.remove(key);
+                }
+            }
+        }
+
+        @Override
+        protected Map<String, String> isLocked(String key) {
+            synchronized (_opLock) {
+                Row row = _opLock.get(key);
+                if (row == null) {
+                    return null;
+                }
+                Map<String, String> lock = new HashMap<String, String>();
+                lock.put("key", key);
+                lock.put("mgmt", Long.toString(row.msId));
+                lock.put("name", row.threadName);
+                lock.put("tid", Integer.toString(row.threadId));
+                return lock;
+            }
+        }
+
+        @Override
+        protected int deleteLocks(long msId) throws SQLException {
+            synchronized (_opLock) {
+                int rows = 0;
+                for (Iterator<Row> it = _opLock.values().iterator(); it.hasNext();) {
+                    if (it.next().msId == msId) {
+                        it.remove();
+                        rows++;
+                    }
+                }
+                return rows;
+            }
+        }
+
+        @Override
+        protected int deleteThreadLocks(String threadName, int threadId) throws SQLException {
+            synchronized (_opLock) {
+                int rows = 0;
+                for (Iterator<Row> it = _opLock.values().iterator(); it.hasNext();) {
+                    if (it.next().ownedBy(_id, threadName, threadId)) {
+                        it.remove();
+                        rows++;
+                    }
+                }
+                return rows;
+            }
+        }
+
+        @Override
+        protected int deleteLock(String key) throws SQLException {
+            synchronized (_opLock) {
+                return _opLock.remove(key) != null ? 1 : 0;
+            }
+        }
+
+        int lockStates() {
+            return ((Map<?, ?>)ReflectionTestUtils.getField(this, "_locks")).size();
+        }
+    }
+
+    /**
+     * Delivers the notifications between two lock masters the way the cluster does.
+     */
+    private static void connect(final Merovingian2 ms1, final Merovingian2 ms2) {
+        final Merovingian2[] masters = {null, ms1, ms2};
+        for (final Merovingian2 master : new Merovingian2[] {ms1, ms2}) {
+            final long self = master == ms1 ? 1 : 2;
+            master.setLockWaiterNotifier(new LockWaiterNotifier() {
+                @Override
+                public void waitFor(long ownerMsId, String key) {
+                    masters[(int)ownerMsId].onRemoteWaiter(self, key);
+                }
+
+                @Override
+                public void released(long waiterMsId, String key) {
+                    masters[(int)waiterMsId].onRemoteRelease(key);
+                }
+            });
+        }
+    }
+
+    /**
+     * Acquires the lock on a thread of its own and holds it until told to release it.
+     */
+    private static class Holder extends Thread {
+        final Merovingian2 _master;
+        final int _wait;
+        final CountDownLatch _acquired = new CountDownLatch(1);
+        final CountDownLatch _release = new CountDownLatch(1);
+        final AtomicBoolean _result = new AtomicBoolean();
+        final AtomicBoolean _released = new AtomicBoolean();
+        volatile long _waited;
+
+        Holder(String name, Merovingian2 master, int wait) {
+            super(name);
+            _master = master;
+            _wait = wait;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long start = System.currentTimeMillis();
+            _result.set(_master.acquire(KEY, _wait));
+            _waited = System.currentTimeMillis() - start;
+            _acquired.countDown();
+            if (_result.get()) {
+                try {
+                    _release.await();
+                } catch (InterruptedException e) {
+                }
+                _released.set(_master.release(KEY));
+            }
+        }
+
+        boolean awaitAcquired() throws InterruptedException {
+            return _acquired.await(20, TimeUnit.SECONDS) && _result.get();
+        }
+
+        void releaseAndJoin() throws InterruptedException {
+            _release.countDown();
+            join(20000);
+        }
+    }
+
+    private static void waitForWaiters(Merovingian2 master, int waiters) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (master.getLocalWaiters() < waiters && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(waiters, master.getLocalWaiters());
+    }
+
+    @Test
+    public void testHandoffToLocalWaiter() throws InterruptedException {
+        TestLockMaster master = new TestLockMaster(1);
+        Holder first = new Holder("first", master, 10);
+        first.start();
+        assertTrue(first.awaitAcquired());
+
+        Holder second = new Holder("second", master, 10);
+        second.start();
+        waitForWaiters(master, 1);
+
+        first.releaseAndJoin();
+        assertTrue(first._released.get());
+        assertTrue(second.awaitAcquired());
+        assertEquals("the lock is handed over instead of released and inserted again", 1, _inserts.get());
+        assertEquals(1, master.getLockHandoffs());
+        synchronized (_opLock) {
+            assertEquals("second", _opLock.get(KEY).threadName);
+        }
+
+        second.releaseAndJoin();
+        assertTrue(_opLock.isEmpty());
+        assertEquals("idle locks are dropped", 0, master.lockStates());
+    }
+
+    @Test
+    public void testReentrantAndTimeout() throws InterruptedException {
+        TestLockMaster master = new TestLockMaster(1);
+        assertTrue(master.acquire(KEY, 1));
+        assertTrue(master.acquire(KEY, 1));
+        assertEquals(2, master.owns(KEY));
+
+        Holder other = new Holder("other", master, 1);
+        other.start();
+        assertFalse(other.awaitAcquired());
+        assertEquals(1, master.getLockWaitTimeouts());
+
+        assertTrue(master.release(KEY));
+        assertTrue(master.release(KEY));
+        assertFalse(master.release(KEY));
+        assertEquals(0, master.owns(KEY));
+        assertEquals(0, master.lockStates());
+    }
+
+    @Test
+    public void testRemoteWaiterIsWokenUp() throws InterruptedException {
+        TestLockMaster ms1 = new TestLockMaster(1);
+        TestLockMaster ms2 = new TestLockMaster(2);
+        connect(ms1, ms2);
+
+        Holder owner = new Holder("owner", ms2, 10);
+        owner.start();
+        assertTrue(owner.awaitAcquired());
+
+        Holder waiter = new Holder("waiter", ms1, 30);
+        waiter.start();
+        waitForWaiters(ms1, 1);
+        // let the waiter find the owner and ask it to be notified
+        Thread.sleep(200);
+
+        long released = System.currentTimeMillis();
+        owner.releaseAndJoin();
+        assertTrue(waiter.awaitAcquired());
+        assertTrue("the waiter is notified rather than polling op_lock", System.currentTimeMillis() - released < 2000);
+        synchronized (_opLock) {
+            assertEquals(1, _opLock.get(KEY).msId);
+        }
+        waiter.releaseAndJoin();
+        assertEquals(0, ms1.lockStates());
+        assertEquals(0, ms2.lockStates());
+    }
+
+    @Test
+    public void testRemoteWaiterIsNotStarved() throws InterruptedException {
+        final TestLockMaster ms1 = new TestLockMaster(1);
+        TestLockMaster ms2 = new TestLockMaster(2);
+        connect(ms1, ms2);
+
+        // threads on ms1 keep the lock busy, each waiting for it again as soon as it has released it
+        final AtomicBoolean stop = new AtomicBoolean();
+        Thread[] locals = new Thread[3];
+        for (int i = 0; i < locals.length; i++) {
+            locals[i] = new Thread("local-" + i) {
+                @Override
+                public void run() {
+                    while (!stop.get()) {
+                        if (ms1.acquire(KEY, 30)) {
+                            try {
+                                Thread.sleep(5);
+                            } catch (InterruptedException e) {
+                            }
+                            ms1.release(KEY);
+                        }
+                    }
+                }
+            };
+            locals[i].setDaemon(true);
+            locals[i].start();
+        }
+
+        Holder remote = new Holder("remote", ms2, 15);
+        remote.start();
+        try {
+            assertTrue(remote.awaitAcquired());
+            assertTrue("the remote waiter gets its turn after a bounded number of local handoffs", remote._waited < 10000);
+        } finally {
+            stop.set(true);
+            remote.releaseAndJoin();
+            for (Thread local : locals) {
+                local.join(20000);
+            }
+        }
+        assertTrue(ms1.getLockHandoffs() > 0);
+    }
+
+    @Test
+    public void testCleanupThisServerDropsOwnership() throws InterruptedException {
+        TestLockMaster master = new TestLockMaster(1);
+        Holder owner = new Holder("owner", master, 10);
+        owner.start();
+        assertTrue(owner.awaitAcquired());
+
+        Holder waiter = new Holder("waiter", master, 30);
+        waiter.start();
+        waitForWaiters(master, 1);
+
+        long cleanedUp = System.currentTimeMillis();
+        master.cleanupThisServer();
+        assertTrue(waiter.awaitAcquired());
+        assertTrue(System.currentTimeMillis() - cleanedUp < 2000);
+
+        owner.releaseAndJoin();
+        assertFalse("the owner lost the lock in the cleanup", owner._released.get());
+        synchronized (_opLock) {
+            assertEquals("waiter", _opLock.get(KEY).threadName);
+        }
+        waiter.releaseAndJoin();
+        assertTrue(waiter._released.get());
+        assertEquals(0, master.lockStates());
+    }
+
+    @Test
+    public void testLastResortReleaseWakesUpWaiters() throws InterruptedException {
+        TestLockMaster ms1 = new TestLockMaster(1);
+        TestLockMaster ms2 = new TestLockMaster(2);
+        connect(ms1, ms2);
+
+        Holder owner = new Holder("owner", ms1, 10);
+        owner.start();
+        assertTrue(owner.awaitAcquired());
+        Holder local = new Holder("local", ms1, 30);
+        local.start();
+        waitForWaiters(ms1, 1);
+
+        long released = System.currentTimeMillis();
+        assertTrue(ms1.releaseLockAsLastResortAndIReallyKnowWhatIAmDoing(KEY));
+        assertTrue(local.awaitAcquired());
+        assertTrue(System.currentTimeMillis() - released < 2000);
+
+        owner.releaseAndJoin();
+        assertFalse(owner._released.get());
+        local.releaseAndJoin();
+        assertTrue(local._released.get());
+        assertEquals(0, ms1.lockStates());
+    }
+
+    @Test
+    public void testCleanupThreadHandsOverLeakedLock() throws InterruptedException {
+        final TestLockMaster master = new TestLockMaster(1);
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final CountDownLatch cleanup = new CountDownLatch(1);
+        Thread leaker = new Thread("leaker") {
+            @Override
+            public void run() {
+                master.acquire(KEY, 10);
+                acquired.countDown();
+                try {
+                    cleanup.await();
+                    master.cleanupThread();
+                } catch (InterruptedException e) {
+                } catch (AssertionError e) {
+                    // cleanupThread() asserts that nothing had to be cleaned up
+                }
+            }
+        };
+        leaker.setDaemon(true);
+        leaker.start();
+        assertTrue(acquired.await(10, TimeUnit.SECONDS));
+
+        Holder waiter = new Holder("waiter", master, 30);
+        waiter.start();
+        waitForWaiters(master, 1);
+
+        long cleanedUp = System.currentTimeMillis();
+        cleanup.countDown();
+        assertTrue(waiter.awaitAcquired());
+        assertTrue(System.currentTimeMillis() - cleanedUp < 2000);
+        leaker.join(20000);
+
+        waiter.releaseAndJoin();
+        assertTrue(waiter._released.get());
+        assertTrue(_opLock.isEmpty());
+        assertEquals(0, master.lockStates());
+    }
+}
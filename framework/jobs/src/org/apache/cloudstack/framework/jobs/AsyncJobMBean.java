@@ -34,4 +34,8 @@ public interface AsyncJobMBean {
 	public String getSyncQueueId();
 	public String getSyncQueueContentType();
 	public String getSyncQueueContentId();
+
+	// jobs of the same command waiting to run and running on this node
+	public int getCmdQueuedCount();
+	public int getCmdRunningCount();
 }
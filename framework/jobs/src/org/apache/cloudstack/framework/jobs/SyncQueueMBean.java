@@ -0,0 +1,35 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs;
+
+public interface SyncQueueMBean {
+    /**
+     * @return sync object types that have had items dequeued since the last reset
+     */
+    public String[] getSyncObjTypes();
+
+    public long getDequeueCount(String syncObjType);
+    public long getAverageWaitMs(String syncObjType);
+    public long getMaxWaitMs(String syncObjType);
+
+    /**
+     * @return one line per sync object type with its dequeue count and queue wait times
+     */
+    public String[] getWaitSummary();
+
+    public void resetWaitStats();
+}
@@ -0,0 +1,62 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.StandardMBean;
+
+import org.apache.cloudstack.framework.jobs.AsyncJobExecutionMBean;
+
+/**
+ * Reports, per job type, how many jobs the execution strategy of this
+ * node has queued and running.
+ */
+public class AsyncJobExecutionMBeanImpl extends StandardMBean implements AsyncJobExecutionMBean {
+    private final AsyncJobExecutionStrategy _executor;
+
+    public AsyncJobExecutionMBeanImpl(AsyncJobExecutionStrategy executor) {
+        super(AsyncJobExecutionMBean.class, false);
+        _executor = executor;
+    }
+
+    @Override
+    public String[] getJobTypes() {
+        List<String> types = _executor.getJobTypes();
+        return types.toArray(new String[types.size()]);
+    }
+
+    @Override
+    public int getQueuedCount(String jobType) {
+        return _executor.getQueuedCount(jobType);
+    }
+
+    @Override
+    public int getRunningCount(String jobType) {
+        return _executor.getRunningCount(jobType);
+    }
+
+    @Override
+    public String[] getJobTypeSummary() {
+        List<String> summary = new ArrayList<String>();
+        for (String type : _executor.getJobTypes()) {
+            summary.add(type + ": queued " + _executor.getQueuedCount(type) + ", running " + _executor.getRunningCount(type));
+        }
+        return summary.toArray(new String[summary.size()]);
+    }
+}
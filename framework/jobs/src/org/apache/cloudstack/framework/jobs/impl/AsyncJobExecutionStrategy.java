@@ -0,0 +1,57 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.cloudstack.framework.jobs.AsyncJob;
+
+/**
+ * Decides where and when AsyncJobManagerImpl runs the jobs handed to it.
+ */
+public interface AsyncJobExecutionStrategy {
+    /**
+     * Runs the task of the job now or once the job's type has room for it.
+     * @throws RejectedExecutionException if the strategy has been shut down
+     */
+    void execute(AsyncJob job, Runnable task) throws RejectedExecutionException;
+
+    /**
+     * @return the type concurrency caps and statistics are kept under for the job
+     */
+    String getJobType(AsyncJob job);
+
+    /**
+     * @return the job types that have been handed to the strategy so far
+     */
+    List<String> getJobTypes();
+
+    /**
+     * @return number of jobs of the type waiting to be run
+     */
+    int getQueuedCount(String jobType);
+
+    /**
+     * @return number of jobs of the type being run
+     */
+    int getRunningCount(String jobType);
+
+    void shutdown();
+
+    boolean isShutdown();
+}
@@ -28,11 +28,13 @@ import com.cloud.utils.DateUtil;
 
 public class AsyncJobMBeanImpl extends StandardMBean implements AsyncJobMBean {
 	private final AsyncJob _job;
+	private final AsyncJobExecutionStrategy _executor;
 	
-	public AsyncJobMBeanImpl(AsyncJob job) {
+	public AsyncJobMBeanImpl(AsyncJob job, AsyncJobExecutionStrategy executor) {
 		super(AsyncJobMBean.class, false);
 		
 		_job = job;
+		_executor = executor;
 	}
 	
 	@Override
@@ -162,4 +164,14 @@ public class AsyncJobMBeanImpl extends StandardMBean implements AsyncJobMBean {
 		}
 		return "N/A";
 	}
+
+	@Override
+	public int getCmdQueuedCount() {
+		return _executor.getQueuedCount(_executor.getJobType(_job));
+	}
+
+	@Override
+	public int getCmdRunningCount() {
+		return _executor.getRunningCount(_executor.getJobType(_job));
+	}
 }
@@ -19,18 +19,23 @@ package org.apache.cloudstack.framework.jobs.impl;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
@@ -56,7 +61,9 @@ import org.apache.cloudstack.jobs.JobInfo;
 import org.apache.cloudstack.jobs.JobInfo.Status;
 import org.apache.cloudstack.utils.identity.ManagementServerNode;
 
+import com.cloud.cluster.ClusterManager;
 import com.cloud.cluster.ClusterManagerListener;
+import com.cloud.cluster.ClusterServicePdu;
 import com.cloud.cluster.ManagementServerHost;
 import com.cloud.utils.DateUtil;
 import com.cloud.utils.Predicate;
@@ -76,12 +83,19 @@ import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionUtil;
 import com.cloud.utils.mgmt.JmxUtil;
 
-public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager, ClusterManagerListener, Configurable {
+public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager, ClusterManagerListener, Configurable, SyncQueueListener {
     // Advanced
     private static final ConfigKey<Long> JobExpireMinutes = new ConfigKey<Long>(Long.class, "job.expire.minutes", "Advanced", "1440",
         "Time (in minutes) for async-jobs to be kept in system", true, ConfigKey.Scope.Global, 60l);
     private static final ConfigKey<Long> JobCancelThresholdMinutes = new ConfigKey<Long>(Long.class, "job.cancel.threshold.minutes", "Advanced", "60",
         "Time (in minutes) for async-jobs to be forcely cancelled if it has been in process for long", true, ConfigKey.Scope.Global, 60l);
+    private static final ConfigKey<Long> JobQueueScanInterval = new ConfigKey<Long>(Long.class, "job.queue.scan.interval", "Advanced", "30",
+        "Time (in seconds) between scans of the sync queues for items that were not dispatched when they became available", true, ConfigKey.Scope.Global, 1000l);
+    private static final ConfigKey<Integer> JobExecutionMaxThreads = new ConfigKey<Integer>(Integer.class, "job.execution.max.threads", "Advanced", "0",
+        "Maximum number of threads to run async jobs on, threads above the pool size derived from db.cloud.maxActive are only kept while busy. 0 keeps the pool at that size",
+        false);
+    private static final ConfigKey<String> JobConcurrencyLimits = new ConfigKey<String>(String.class, "job.concurrency.limits", "Advanced", "",
+        "Comma separated list of <command>=<limit> pairs capping how many async jobs of a command run at once, e.g. DeployVMCmd=50", false);
 
     private static final Logger s_logger = Logger.getLogger(AsyncJobManagerImpl.class);
 
@@ -92,6 +106,11 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private static final int HEARTBEAT_INTERVAL = 2000;
     private static final int GC_INTERVAL = 10000;				// 10 seconds
 
+    // name of the cluster notification dispatcher, with the notification kinds it handles
+    private static final String QUEUE_NOTIFICATION_DISPATCHER = "AsyncJobQueue";
+    private static final String JOB_COMPLETED_NOTIFICATION = "job:";
+    private static final String QUEUE_RETURNED_NOTIFICATION = "queue:";
+
     @Inject
     private SyncQueueItemDao _queueItemDao;
     @Inject
@@ -110,11 +129,20 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private AsyncJobMonitor _jobMonitor;
     @Inject
     private ConfigDepot _configDepot;
+    @Inject
+    private ClusterManager _clusterMgr;
 
     private volatile long _executionRunNumber = 1;
 
     private final ScheduledExecutorService _heartbeatScheduler = Executors.newScheduledThreadPool(1, new NamedThreadFactory("AsyncJobMgr-Heartbeat"));
-    private ExecutorService _executor;
+    private AsyncJobExecutionStrategy _executor;
+
+    // queue items are dispatched from here as soon as they are signalled, the
+    // heartbeat only rescans the queues every job.queue.scan.interval as a safety net
+    private final ExecutorService _queueDispatcher = Executors.newSingleThreadExecutor(new NamedThreadFactory("AsyncJobMgr-QueueDispatcher"));
+    private final Set<Long> _pendingQueueIds = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    private final AtomicBoolean _queueScanPending = new AtomicBoolean(false);
+    private volatile long _lastQueueScan;
 
     @Override
     public String getConfigComponentName() {
@@ -123,7 +151,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {JobExpireMinutes, JobCancelThresholdMinutes};
+        return new ConfigKey<?>[] {JobExpireMinutes, JobCancelThresholdMinutes, JobQueueScanInterval, JobExecutionMaxThreads, JobConcurrencyLimits};
     }
 
     @Override
@@ -187,8 +215,11 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
             job.setInitMsid(getMsid());
             dao.persist(job);
 
-            syncAsyncJobExecution(job, syncObjType, syncObjId, 1);
+            SyncQueueVO queue = queueJob(job, syncObjType, syncObjId, 1);
             txt.commit();
+
+            // the queue manager signalled the item before it was committed here
+            onQueueItemAvailable(queue.getId());
             return job.getId();
         } catch (Exception e) {
             String errMsg = "Unable to schedule async job for command " + job.getCmd() + ", unexpected exception.";
@@ -242,11 +273,18 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
             job.setLastUpdated(DateUtil.currentGMTTime());
             _jobDao.update(jobId, job);
 
-            List<Long> wakeupList = wakeupByJoinedJobCompletion(jobId);
+            List<Long> joinerIds = _joinMapDao.customSearch(JoinJobSearch.create("joinJobId", jobId), null);
+            List<Long> wakeupList = wakeupByJoinedJobCompletion(jobId, joinerIds);
             _joinMapDao.disjoinAllJobs(jobId);
 
             txn.commit();
 
+            if (!joinerIds.isEmpty()) {
+                // joined jobs have had their queue items released, and may be waiting on other nodes
+                kickQueueScan();
+                _clusterMgr.broadcastNotification(QUEUE_NOTIFICATION_DISPATCHER, JOB_COMPLETED_NOTIFICATION + jobId);
+            }
+
             for (Long id : wakeupList) {
                 // TODO, we assume that all jobs in this category is API job only
                 AsyncJobVO jobToWakeup = _jobDao.findById(id);
@@ -406,6 +444,10 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
     @Override
     public void syncAsyncJobExecution(AsyncJob job, String syncObjType, long syncObjId, long queueSizeLimit) {
+        queueJob(job, syncObjType, syncObjId, queueSizeLimit);
+    }
+
+    private SyncQueueVO queueJob(AsyncJob job, String syncObjType, long syncObjId, long queueSizeLimit) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Sync job-" + job.getId() + " execution on object " + syncObjType + "." + syncObjId);
         }
@@ -430,6 +472,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
         if (queue == null)
             throw new CloudRuntimeException("Unable to insert queue item into database, DB is full?");
+        return queue;
     }
 
     @Override
@@ -452,7 +495,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         if (executeInContext) {
             runnable.run();
         } else {
-            _executor.submit(runnable);
+            _executor.execute(job, runnable);
         }
     }
 
@@ -503,7 +546,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                     txn = Transaction.open(Transaction.CLOUD_DB);
 
                     try {
-                        JmxUtil.registerMBean("AsyncJobManager", "Active Job " + job.getId(), new AsyncJobMBeanImpl(job));
+                        JmxUtil.registerMBean("AsyncJobManager", "Active Job " + job.getId(), new AsyncJobMBeanImpl(job, _executor));
                     } catch (Exception e) {
                         // Due to co-existence of normal-dispatched-job/wakeup-dispatched-job, MBean register() call
                         // is expected to fail under situations
@@ -550,9 +593,9 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                         jobToUpdate.setExecutingMsid(null);
                         _jobDao.update(job.getId(), jobToUpdate);
 
+                        // purging the item signals the queue dispatcher to run the next one
                         if (job.getSyncSource() != null) {
                             _queueMgr.purgeItem(job.getSyncSource().getId());
-                            checkQueue(job.getSyncSource().getQueueId());
                         }
 
                         try {
@@ -611,6 +654,9 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
                 job.setExecutingMsid(null);
                 _jobDao.update(job.getId(), job);
+
+                // let the other nodes pick it up rather than wait for their next queue scan
+                _clusterMgr.broadcastNotification(QUEUE_NOTIFICATION_DISPATCHER, QUEUE_RETURNED_NOTIFICATION + item.getQueueId());
             }
 
         } else {
@@ -634,7 +680,6 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
             }
 
             _queueMgr.purgeItem(executionContext.getSyncSource().getId());
-            checkQueue(executionContext.getSyncSource().getQueueId());
         }
     }
 
@@ -686,20 +731,93 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         }
     }
 
+    @Override
+    public void onQueueItemAvailable(long queueId) {
+        if (_pendingQueueIds.add(queueId)) {
+            dispatchQueues();
+        }
+    }
+
+    private void kickQueueScan() {
+        if (_queueScanPending.compareAndSet(false, true)) {
+            dispatchQueues();
+        }
+    }
+
+    private void dispatchQueues() {
+        if (_executor == null || _executor.isShutdown()) {
+            // nothing can be run here any more, leave the items to the other nodes
+            return;
+        }
+
+        try {
+            _queueDispatcher.submit(getQueueDispatchTask());
+        } catch (RejectedExecutionException e) {
+            s_logger.debug("Queue dispatcher is shutting down, leaving queue items to the next queue scan");
+        }
+    }
+
+    private Runnable getQueueDispatchTask() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                if (_pendingQueueIds.isEmpty() && !_queueScanPending.get()) {
+                    // already taken care of by an earlier task
+                    return;
+                }
+
+                Transaction txn = Transaction.open("AsyncJobManagerImpl.getQueueDispatchTask");
+                try {
+                    if (_queueScanPending.compareAndSet(true, false)) {
+                        scanQueues();
+                    }
+
+                    Iterator<Long> it = _pendingQueueIds.iterator();
+                    while (it.hasNext()) {
+                        Long queueId = it.next();
+                        it.remove();
+                        checkQueue(queueId);
+                    }
+                } catch (Throwable e) {
+                    s_logger.error("Unexpected exception when dispatching sync queue items, ", e);
+                } finally {
+                    try {
+                        txn.close();
+                    } catch (Throwable e) {
+                        s_logger.error("Unexpected exception", e);
+                    }
+                }
+            }
+        };
+    }
+
+    private void scanQueues() {
+        _lastQueueScan = System.currentTimeMillis();
+
+        List<SyncQueueItemVO> l = _queueMgr.dequeueFromAny(getMsid(), MAX_ONETIME_SCHEDULE_SIZE);
+        if (l != null && l.size() > 0) {
+            for (SyncQueueItemVO item : l) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Execute sync-queue item: " + item.toString());
+                }
+                executeQueueItem(item, false);
+            }
+
+            if (l.size() >= MAX_ONETIME_SCHEDULE_SIZE) {
+                // there may be more, carry on once the signalled queues have had their turn
+                kickQueueScan();
+            }
+        }
+    }
+
     private Runnable getHeartbeatTask() {
         return new Runnable() {
             @Override
             public void run() {
                 Transaction txn = Transaction.open("AsyncJobManagerImpl.getHeartbeatTask");
                 try {
-                    List<SyncQueueItemVO> l = _queueMgr.dequeueFromAny(getMsid(), MAX_ONETIME_SCHEDULE_SIZE);
-                    if (l != null && l.size() > 0) {
-                        for (SyncQueueItemVO item : l) {
-                            if (s_logger.isDebugEnabled()) {
-                                s_logger.debug("Execute sync-queue item: " + item.toString());
-                            }
-                            executeQueueItem(item, false);
-                        }
+                    if (System.currentTimeMillis() - _lastQueueScan >= JobQueueScanInterval.value()) {
+                        kickQueueScan();
                     }
 
                     List<Long> standaloneWakeupJobs = wakeupScan();
@@ -817,11 +935,9 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     }
 
     @DB
-    protected List<Long> wakeupByJoinedJobCompletion(long joinedJobId) {
-        SearchCriteria<Long> joinJobSC = JoinJobSearch.create("joinJobId", joinedJobId);
-
-        List<Long> result = _joinMapDao.customSearch(joinJobSC, null);
-        if (result.size() > 0) {
+    protected List<Long> wakeupByJoinedJobCompletion(long joinedJobId, List<Long> joinerIds) {
+        if (joinerIds.size() > 0) {
+            List<Long> result = new ArrayList<Long>(joinerIds);
             Collections.sort(result);
             Long[] ids = result.toArray(new Long[result.size()]);
 
@@ -876,11 +992,16 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         List<Long> wakupIds = _joinMapDao.findJobsToWakeBetween(cutDate);
         txn.commit();
 
+        if (result.size() > 0) {
+            // queue items of the woken up jobs have been released
+            kickQueueScan();
+        }
         return wakupIds;
     }
 
     @Override
     public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
+        int poolSize;
         try {
             final File dbPropsFile = PropertiesUtil.findConfigFile("db.properties");
             final Properties dbProps = new Properties();
@@ -888,14 +1009,25 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
             final int cloudMaxActive = Integer.parseInt(dbProps.getProperty("db.cloud.maxActive"));
 
-            int poolSize = (cloudMaxActive * 2) / 3;
-
-            s_logger.info("Start AsyncJobManager thread pool in size " + poolSize);
-            _executor = Executors.newFixedThreadPool(poolSize, new NamedThreadFactory(AsyncJobManager.JOB_POOL_THREAD_PREFIX));
+            poolSize = (cloudMaxActive * 2) / 3;
         } catch (final Exception e) {
             throw new ConfigurationException("Unable to load db.properties to configure AsyncJobManagerImpl");
         }
 
+        // most jobs spend their time waiting on agents and locks rather than on the
+        // database, so the pool may be allowed to grow past the size derived from it
+        int maxThreads = JobExecutionMaxThreads.value();
+        Map<String, Integer> typeLimits = ThrottledJobExecutionStrategy.parseTypeLimits(JobConcurrencyLimits.value());
+
+        s_logger.info("Start AsyncJobManager thread pool in size " + poolSize + (maxThreads > poolSize ? ", growing up to " + maxThreads : "") +
+                      (typeLimits.isEmpty() ? "" : ", job concurrency limits " + typeLimits));
+        _executor = new ThrottledJobExecutionStrategy(AsyncJobManager.JOB_POOL_THREAD_PREFIX, poolSize, maxThreads, typeLimits);
+        try {
+            JmxUtil.registerMBean("AsyncJobManager", "Job Execution", new AsyncJobExecutionMBeanImpl(_executor));
+        } catch (Exception e) {
+            s_logger.warn("Unable to register job execution statistics to JMX", e);
+        }
+
         JoinJobSearch = _joinMapDao.createSearchBuilder(Long.class);
         JoinJobSearch.and(JoinJobSearch.entity().getJoinJobId(), Op.EQ, "joinJobId");
         JoinJobSearch.selectField(JoinJobSearch.entity().getJobId());
@@ -924,6 +1056,9 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         AsyncJobExecutionContext.init(this, _joinMapDao);
         OutcomeImpl.init(this);
 
+        _queueMgr.registerListener(this);
+        _clusterMgr.registerNotificationDispatcher(new QueueNotificationDispatcher());
+
         return true;
     }
 
@@ -974,10 +1109,41 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     @Override
     public boolean stop() {
         _heartbeatScheduler.shutdown();
+        _queueDispatcher.shutdown();
         _executor.shutdown();
         return true;
     }
 
+    /**
+     * Handles the notifications peers send when a job with joined jobs completes
+     * or when they had to return a queue item they couldn't run.
+     */
+    private class QueueNotificationDispatcher implements ClusterManager.Dispatcher {
+        @Override
+        public String getName() {
+            return QUEUE_NOTIFICATION_DISPATCHER;
+        }
+
+        @Override
+        public String dispatch(ClusterServicePdu pdu) {
+            String message = pdu.getJsonPackage();
+            try {
+                if (message.startsWith(JOB_COMPLETED_NOTIFICATION)) {
+                    long jobId = Long.parseLong(message.substring(JOB_COMPLETED_NOTIFICATION.length()));
+                    _messageBus.publish(null, AsyncJob.Topics.JOB_STATE, PublishScope.LOCAL, jobId);
+                    kickQueueScan();
+                } else if (message.startsWith(QUEUE_RETURNED_NOTIFICATION)) {
+                    onQueueItemAvailable(Long.parseLong(message.substring(QUEUE_RETURNED_NOTIFICATION.length())));
+                } else {
+                    s_logger.warn("Unrecognized async job notification from " + pdu.getSourcePeer() + ": " + message);
+                }
+            } catch (NumberFormatException e) {
+                s_logger.warn("Invalid async job notification from " + pdu.getSourcePeer() + ": " + message);
+            }
+            return null;
+        }
+    }
+
     private GenericSearchBuilder<SyncQueueItemVO, Long> ContentIdsSearch;
     private GenericSearchBuilder<AsyncJobJoinMapVO, Long> JoinJobSearch;
     private SearchBuilder<AsyncJobVO> JobIdsSearch;
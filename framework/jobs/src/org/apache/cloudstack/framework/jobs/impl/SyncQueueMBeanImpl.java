@@ -0,0 +1,117 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import org.apache.cloudstack.framework.jobs.SyncQueueMBean;
+
+/**
+ * Keeps track of how long items wait in the sync queues before being
+ * dequeued, per sync object type.
+ */
+public class SyncQueueMBeanImpl extends StandardMBean implements SyncQueueMBean {
+    private final Map<String, WaitStats> _waitStats = new ConcurrentHashMap<String, WaitStats>();
+
+    public SyncQueueMBeanImpl() {
+        super(SyncQueueMBean.class, false);
+    }
+
+    public void recordWait(String syncObjType, long waitMs) {
+        if (syncObjType == null) {
+            return;
+        }
+
+        WaitStats stats = _waitStats.get(syncObjType);
+        if (stats == null) {
+            synchronized (_waitStats) {
+                stats = _waitStats.get(syncObjType);
+                if (stats == null) {
+                    stats = new WaitStats();
+                    _waitStats.put(syncObjType, stats);
+                }
+            }
+        }
+        stats.record(Math.max(waitMs, 0));
+    }
+
+    @Override
+    public String[] getSyncObjTypes() {
+        return _waitStats.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public long getDequeueCount(String syncObjType) {
+        WaitStats stats = _waitStats.get(syncObjType);
+        return stats != null ? stats._count.get() : 0;
+    }
+
+    @Override
+    public long getAverageWaitMs(String syncObjType) {
+        WaitStats stats = _waitStats.get(syncObjType);
+        return stats != null ? stats.getAverage() : 0;
+    }
+
+    @Override
+    public long getMaxWaitMs(String syncObjType) {
+        WaitStats stats = _waitStats.get(syncObjType);
+        return stats != null ? stats._max.get() : 0;
+    }
+
+    @Override
+    public String[] getWaitSummary() {
+        List<String> summary = new ArrayList<String>();
+        for (Map.Entry<String, WaitStats> entry : _waitStats.entrySet()) {
+            WaitStats stats = entry.getValue();
+            summary.add(entry.getKey() + ": dequeued " + stats._count.get() + ", average wait " + stats.getAverage() + " ms, max wait " + stats._max.get() +
+                        " ms");
+        }
+        return summary.toArray(new String[summary.size()]);
+    }
+
+    @Override
+    public void resetWaitStats() {
+        _waitStats.clear();
+    }
+
+    private static class WaitStats {
+        final AtomicLong _count = new AtomicLong();
+        final AtomicLong _total = new AtomicLong();
+        final AtomicLong _max = new AtomicLong();
+
+        void record(long waitMs) {
+            _count.incrementAndGet();
+            _total.addAndGet(waitMs);
+
+            long max = _max.get();
+            while (waitMs > max && !_max.compareAndSet(max, waitMs)) {
+                max = _max.get();
+            }
+        }
+
+        long getAverage() {
+            long count = _count.get();
+            return count == 0 ? 0 : _total.get() / count;
+        }
+    }
+}
@@ -19,8 +19,12 @@ package org.apache.cloudstack.framework.jobs.impl;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.inject.Inject;
+import javax.naming.ConfigurationException;
+
 import org.apache.log4j.Logger;
 
 import org.apache.cloudstack.framework.jobs.dao.SyncQueueDao;
@@ -31,6 +35,7 @@ import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 
 public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManager {
     public static final Logger s_logger = Logger.getLogger(SyncQueueManagerImpl.class.getName());
@@ -38,6 +43,36 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
     @Inject private SyncQueueDao _syncQueueDao;
     @Inject private SyncQueueItemDao _syncQueueItemDao;
 
+    private final List<SyncQueueListener> _listeners = new CopyOnWriteArrayList<SyncQueueListener>();
+    private final SyncQueueMBeanImpl _queueStats = new SyncQueueMBeanImpl();
+
+    @Override
+    public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
+        super.configure(name, params);
+
+        try {
+            JmxUtil.registerMBean("SyncQueueManager", "Queue Wait", _queueStats);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register sync queue statistics to JMX", e);
+        }
+        return true;
+    }
+
+    @Override
+    public void registerListener(SyncQueueListener listener) {
+        _listeners.add(listener);
+    }
+
+    private void notifyItemAvailable(long queueId) {
+        for (SyncQueueListener listener : _listeners) {
+            try {
+                listener.onQueueItemAvailable(queueId);
+            } catch (Throwable e) {
+                s_logger.warn("Unexpected exception when notifying sync queue listener " + listener, e);
+            }
+        }
+    }
+
     @Override
     @DB
     public SyncQueueVO queue(String syncObjType, long syncObjId, String itemType, long itemId, long queueSizeLimit) {
@@ -63,6 +98,7 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
             _syncQueueItemDao.persist(item);
             txn.commit();
 
+            notifyItemAvailable(queueVO.getId());
             return queueVO;
         } catch(Exception e) {
             s_logger.error("Unexpected exception: ", e);
@@ -105,6 +141,7 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
                     _syncQueueItemDao.update(itemVO.getId(), itemVO);
 
                     txt.commit();
+                    recordQueueWait(queueVO, itemVO, dt);
                     return itemVO;
                 } else {
                     if(s_logger.isDebugEnabled())
@@ -128,6 +165,7 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
     public List<SyncQueueItemVO> dequeueFromAny(Long msid, int maxItems) {
 
         List<SyncQueueItemVO> resultList = new ArrayList<SyncQueueItemVO>();
+        List<SyncQueueVO> waitedQueues = new ArrayList<SyncQueueVO>();
         Transaction txt = Transaction.currentTxn();
         try {
             txt.start();
@@ -156,10 +194,16 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
                         _syncQueueItemDao.update(item.getId(), itemVO);
 
                         resultList.add(item);
+                        waitedQueues.add(queueVO);
                     }
                 }
             }
             txt.commit();
+
+            Date dt = DateUtil.currentGMTTime();
+            for (int i = 0; i < resultList.size(); i++) {
+                recordQueueWait(waitedQueues.get(i), resultList.get(i), dt);
+            }
             return resultList;
         } catch(Exception e) {
             s_logger.error("Unexpected exception: ", e);
@@ -171,6 +215,7 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
     @Override
     @DB
     public void purgeItem(long queueItemId) {
+        Long releasedQueueId = null;
         Transaction txt = Transaction.currentTxn();
         try {
             txt.start();
@@ -188,18 +233,25 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
                     assert (queueVO.getQueueSize() > 0) : "Count reduce happens when it's already <= 0!";
                     queueVO.setQueueSize(queueVO.getQueueSize() - 1);
                     _syncQueueDao.update(queueVO.getId(), queueVO);
+                    releasedQueueId = queueVO.getId();
                 }
             }
             txt.commit();
         } catch(Exception e) {
             s_logger.error("Unexpected exception: ", e);
             txt.rollback();
+            return;
+        }
+
+        if (releasedQueueId != null) {
+            notifyItemAvailable(releasedQueueId);
         }
     }
 
     @Override
     @DB
     public void returnItem(long queueItemId) {
+        Long queueId = null;
         Transaction txt = Transaction.currentTxn();
         try {
             txt.start();
@@ -215,11 +267,17 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
 
                 queueVO.setLastUpdated(DateUtil.currentGMTTime());
                 _syncQueueDao.update(queueVO.getId(), queueVO);
+                queueId = queueVO.getId();
             }
             txt.commit();
         } catch(Exception e) {
             s_logger.error("Unexpected exception: ", e);
             txt.rollback();
+            return;
+        }
+
+        if (queueId != null) {
+            notifyItemAvailable(queueId);
         }
     }
 
@@ -233,6 +291,12 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
         return _syncQueueItemDao.getBlockedQueueItems(thresholdMs, exclusive);
     }
 
+    private void recordQueueWait(SyncQueueVO queueVO, SyncQueueItemVO itemVO, Date dequeued) {
+        if (itemVO.getCreated() != null) {
+            _queueStats.recordWait(queueVO.getSyncObjType(), dequeued.getTime() - itemVO.getCreated().getTime());
+        }
+    }
+
     private boolean queueReadyToProcess(SyncQueueVO queueVO) {
     	return true;
     	
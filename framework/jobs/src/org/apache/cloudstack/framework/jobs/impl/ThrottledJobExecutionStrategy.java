@@ -0,0 +1,250 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import org.apache.cloudstack.framework.jobs.AsyncJob;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+
+/**
+ * Runs jobs on a thread pool that grows up to maxThreads while jobs are
+ * blocked and shrinks back to coreThreads once they are idle, with an
+ * optional cap on how many jobs of each type run at once.  Jobs over
+ * their type's cap wait in a per type FIFO instead of holding a pool
+ * thread, so a burst of one kind of job can't starve the others.
+ */
+public class ThrottledJobExecutionStrategy implements AsyncJobExecutionStrategy {
+    private static final Logger s_logger = Logger.getLogger(ThrottledJobExecutionStrategy.class);
+
+    private static final long IDLE_THREAD_KEEPALIVE_SECONDS = 60;
+
+    private final ThreadPoolExecutor _pool;
+    private final Map<String, Integer> _typeLimits;
+    private final Map<String, JobTypeState> _types = new HashMap<String, JobTypeState>();
+
+    public ThrottledJobExecutionStrategy(String threadPrefix, int coreThreads, int maxThreads, Map<String, Integer> typeLimits) {
+        // the queue is unbounded so the pool never grows past its core size on
+        // its own, raise the core size instead and let idle threads time out
+        int threads = Math.max(coreThreads, maxThreads);
+        _pool = new ThreadPoolExecutor(threads, threads, IDLE_THREAD_KEEPALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new NamedThreadFactory(threadPrefix));
+        if (threads > coreThreads) {
+            _pool.allowCoreThreadTimeOut(true);
+        }
+        _typeLimits = typeLimits;
+    }
+
+    /**
+     * Parses a comma separated list of type=limit pairs.
+     */
+    public static Map<String, Integer> parseTypeLimits(String limits) {
+        Map<String, Integer> typeLimits = new HashMap<String, Integer>();
+        if (limits == null) {
+            return typeLimits;
+        }
+
+        for (String pair : limits.split(",")) {
+            pair = pair.trim();
+            if (pair.isEmpty()) {
+                continue;
+            }
+
+            int index = pair.indexOf('=');
+            try {
+                int limit = index > 0 ? Integer.parseInt(pair.substring(index + 1).trim()) : 0;
+                if (limit <= 0) {
+                    s_logger.warn("Ignoring invalid job concurrency limit " + pair);
+                    continue;
+                }
+                typeLimits.put(pair.substring(0, index).trim(), limit);
+            } catch (NumberFormatException e) {
+                s_logger.warn("Ignoring invalid job concurrency limit " + pair);
+            }
+        }
+        return typeLimits;
+    }
+
+    @Override
+    public void execute(AsyncJob job, Runnable task) throws RejectedExecutionException {
+        if (_pool.isShutdown()) {
+            throw new RejectedExecutionException("Job execution has been shut down");
+        }
+
+        String type = getJobType(job);
+        JobTypeState state = getState(type);
+        TypedTask typedTask = new TypedTask(state, task);
+        synchronized (state) {
+            if (state._limit > 0 && state._admitted >= state._limit) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Job-" + job.getId() + " waits as " + state._admitted + " " + type + " jobs are already running");
+                }
+                state._waiting.add(typedTask);
+                return;
+            }
+            state._admitted++;
+        }
+
+        try {
+            _pool.execute(typedTask);
+        } catch (RejectedExecutionException e) {
+            synchronized (state) {
+                state._admitted--;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public String getJobType(AsyncJob job) {
+        String cmd = job.getCmd();
+        if (cmd == null) {
+            return "Unknown";
+        }
+
+        // commands are stored with their class names
+        return cmd.substring(cmd.lastIndexOf('.') + 1);
+    }
+
+    @Override
+    public List<String> getJobTypes() {
+        synchronized (_types) {
+            return new ArrayList<String>(_types.keySet());
+        }
+    }
+
+    @Override
+    public int getQueuedCount(String jobType) {
+        JobTypeState state = findState(jobType);
+        if (state == null) {
+            return 0;
+        }
+
+        synchronized (state) {
+            return state._waiting.size() + state._admitted - state._running;
+        }
+    }
+
+    @Override
+    public int getRunningCount(String jobType) {
+        JobTypeState state = findState(jobType);
+        if (state == null) {
+            return 0;
+        }
+
+        synchronized (state) {
+            return state._running;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        _pool.shutdown();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return _pool.isShutdown();
+    }
+
+    private JobTypeState findState(String type) {
+        synchronized (_types) {
+            return _types.get(type);
+        }
+    }
+
+    private JobTypeState getState(String type) {
+        synchronized (_types) {
+            JobTypeState state = _types.get(type);
+            if (state == null) {
+                Integer limit = _typeLimits.get(type);
+                state = new JobTypeState(limit != null ? limit : 0);
+                _types.put(type, state);
+            }
+            return state;
+        }
+    }
+
+    private void onTaskDone(JobTypeState state) {
+        TypedTask next;
+        synchronized (state) {
+            state._running--;
+            next = state._waiting.poll();
+            if (next == null) {
+                state._admitted--;
+                return;
+            }
+            // the finished task's slot goes straight to the next one
+        }
+
+        try {
+            _pool.execute(next);
+        } catch (RejectedExecutionException e) {
+            s_logger.warn("Unable to run a queued job as job execution has been shut down");
+            synchronized (state) {
+                state._admitted--;
+            }
+        }
+    }
+
+    private static class JobTypeState {
+        final int _limit;
+        final LinkedList<TypedTask> _waiting = new LinkedList<TypedTask>();
+
+        // jobs handed to the pool, whether or not they have a thread yet
+        int _admitted;
+        int _running;
+
+        JobTypeState(int limit) {
+            _limit = limit;
+        }
+    }
+
+    private class TypedTask implements Runnable {
+        private final JobTypeState _state;
+        private final Runnable _task;
+
+        TypedTask(JobTypeState state, Runnable task) {
+            _state = state;
+            _task = task;
+        }
+
+        @Override
+        public void run() {
+            synchronized (_state) {
+                _state._running++;
+            }
+
+            try {
+                _task.run();
+            } finally {
+                onTaskDone(_state);
+            }
+        }
+    }
+}
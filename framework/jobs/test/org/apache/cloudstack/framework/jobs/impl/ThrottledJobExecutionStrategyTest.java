@@ -0,0 +1,187 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.cloudstack.framework.jobs.AsyncJob;
+
+public class ThrottledJobExecutionStrategyTest extends TestCase {
+    private static final String DEPLOY = "org.apache.cloudstack.api.command.user.vm.DeployVMCmd";
+    private static final String STOP = "org.apache.cloudstack.api.command.user.vm.StopVMCmd";
+
+    private ThrottledJobExecutionStrategy _strategy;
+
+    @Override
+    protected void setUp() {
+        Map<String, Integer> limits = new HashMap<String, Integer>();
+        limits.put("DeployVMCmd", 1);
+        _strategy = new ThrottledJobExecutionStrategy("Job-Test", 4, 4, limits);
+    }
+
+    @Override
+    protected void tearDown() {
+        _strategy.shutdown();
+    }
+
+    public void testParseTypeLimits() {
+        Map<String, Integer> limits = ThrottledJobExecutionStrategy.parseTypeLimits(" DeployVMCmd=2, StopVMCmd = 3,,Bad=x,Zero=0,NoLimit");
+        assertEquals(2, limits.size());
+        assertEquals(Integer.valueOf(2), limits.get("DeployVMCmd"));
+        assertEquals(Integer.valueOf(3), limits.get("StopVMCmd"));
+        assertTrue(ThrottledJobExecutionStrategy.parseTypeLimits(null).isEmpty());
+    }
+
+    public void testJobsOverTheTypeLimitWait() throws Exception {
+        BlockingTask first = new BlockingTask();
+        BlockingTask second = new BlockingTask();
+        _strategy.execute(job(DEPLOY), first);
+        _strategy.execute(job(DEPLOY), second);
+        assertTrue(first._started.await(10, TimeUnit.SECONDS));
+
+        assertEquals(1, _strategy.getRunningCount("DeployVMCmd"));
+        assertEquals(1, _strategy.getQueuedCount("DeployVMCmd"));
+        assertFalse(second._started.await(200, TimeUnit.MILLISECONDS));
+
+        // other types aren't held up by the deployments
+        BlockingTask stop = new BlockingTask();
+        _strategy.execute(job(STOP), stop);
+        assertTrue(stop._started.await(10, TimeUnit.SECONDS));
+        assertEquals(1, _strategy.getRunningCount("StopVMCmd"));
+        assertEquals(0, _strategy.getQueuedCount("StopVMCmd"));
+
+        first._release.countDown();
+        assertTrue(second._started.await(10, TimeUnit.SECONDS));
+        assertEquals(0, _strategy.getQueuedCount("DeployVMCmd"));
+
+        second._release.countDown();
+        stop._release.countDown();
+        waitForIdle("DeployVMCmd");
+        waitForIdle("StopVMCmd");
+    }
+
+    public void testWaitingJobsRunInOrder() throws Exception {
+        BlockingTask first = new BlockingTask();
+        _strategy.execute(job(DEPLOY), first);
+        assertTrue(first._started.await(10, TimeUnit.SECONDS));
+
+        final List<Integer> order = new CopyOnWriteArrayList<Integer>();
+        final CountDownLatch done = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) {
+            final int index = i;
+            _strategy.execute(job(DEPLOY), new Runnable() {
+                @Override
+                public void run() {
+                    order.add(index);
+                    done.countDown();
+                }
+            });
+        }
+        assertEquals(5, _strategy.getQueuedCount("DeployVMCmd"));
+
+        first._release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), order);
+        waitForIdle("DeployVMCmd");
+    }
+
+    public void testFailedJobReleasesItsSlot() throws Exception {
+        final CountDownLatch failing = new CountDownLatch(1);
+        BlockingTask gate = new BlockingTask();
+        _strategy.execute(job(DEPLOY), gate);
+        assertTrue(gate._started.await(10, TimeUnit.SECONDS));
+        _strategy.execute(job(DEPLOY), new Runnable() {
+            @Override
+            public void run() {
+                failing.countDown();
+                throw new RuntimeException("job failed");
+            }
+        });
+        BlockingTask next = new BlockingTask();
+        _strategy.execute(job(DEPLOY), next);
+
+        gate._release.countDown();
+        assertTrue(failing.await(10, TimeUnit.SECONDS));
+        assertTrue(next._started.await(10, TimeUnit.SECONDS));
+        assertEquals(1, _strategy.getRunningCount("DeployVMCmd"));
+        assertEquals(0, _strategy.getQueuedCount("DeployVMCmd"));
+
+        next._release.countDown();
+        waitForIdle("DeployVMCmd");
+    }
+
+    public void testJobTypes() throws Exception {
+        assertTrue(_strategy.getJobTypes().isEmpty());
+        assertEquals(0, _strategy.getQueuedCount("DeployVMCmd"));
+        assertEquals(0, _strategy.getRunningCount("DeployVMCmd"));
+
+        BlockingTask task = new BlockingTask();
+        _strategy.execute(job(DEPLOY), task);
+        assertEquals("DeployVMCmd", _strategy.getJobType(job(DEPLOY)));
+        assertEquals("Unknown", _strategy.getJobType(job(null)));
+        assertEquals(Collections.singletonList("DeployVMCmd"), _strategy.getJobTypes());
+
+        AsyncJobExecutionMBeanImpl mbean = new AsyncJobExecutionMBeanImpl(_strategy);
+        assertTrue(task._started.await(10, TimeUnit.SECONDS));
+        assertEquals(1, mbean.getRunningCount("DeployVMCmd"));
+        assertEquals("DeployVMCmd: queued 0, running 1", mbean.getJobTypeSummary()[0]);
+
+        task._release.countDown();
+        waitForIdle("DeployVMCmd");
+    }
+
+    private void waitForIdle(String type) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (_strategy.getRunningCount(type) != 0 || _strategy.getQueuedCount(type) != 0) {
+            assertTrue("jobs of " + type + " still running", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static AsyncJob job(String cmd) {
+        AsyncJob job = mock(AsyncJob.class);
+        when(job.getCmd()).thenReturn(cmd);
+        return job;
+    }
+
+    private static class BlockingTask implements Runnable {
+        final CountDownLatch _started = new CountDownLatch(1);
+        final CountDownLatch _release = new CountDownLatch(1);
+
+        @Override
+        public void run() {
+            _started.countDown();
+            try {
+                _release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -22,6 +22,7 @@
 // Automatically generated by addcopyright.py at 04/03/2012
 package com.cloud.baremetal.manager;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -173,10 +174,11 @@ public class BareMetalTemplateAdapter extends TemplateAdapterBase implements Tem
 		}
 		else{
             List<DataCenterVO> dcs = _dcDao.listAllIncludingRemoved();
+            List<UsageEventVO> usageEvents = new ArrayList<UsageEventVO>(dcs.size());
             for ( DataCenterVO dc : dcs){
-                UsageEventVO usageEvent = new UsageEventVO(eventType, account.getId(), dc.getId(), templateId, null);
-                _usageEventDao.persist(usageEvent);
+                usageEvents.add(new UsageEventVO(eventType, account.getId(), dc.getId(), templateId, null));
             }
+            _usageEventDao.persistBatch(usageEvents);
 		}
 
         VMTemplateZoneVO templateZone = _tmpltZoneDao.findByZoneTemplate(profile.getZoneId(), templateId);
@@ -367,6 +367,8 @@ ServerResource {
     protected String _pool;
     protected String _localGateway;
     private boolean _can_bridge_firewall;
+    // last ruleset programmed per vm, which delta ruleset updates are applied on
+    private final Map<String, SecurityGroupRulesCmd> _appliedRulesets = new ConcurrentHashMap<String, SecurityGroupRulesCmd>();
     protected String _localStoragePath;
     protected String _localStorageUUID;
     protected String _guestCpuMode;
@@ -2637,6 +2639,19 @@ ServerResource {
     private Answer execute(SecurityGroupRulesCmd cmd) {
         String vif = null;
         String brname = null;
+
+        if (cmd.isDelta()) {
+            SecurityGroupRulesCmd applied = _appliedRulesets.get(cmd.getVmName());
+            if (applied == null || !cmd.getBaseSignature().equals(applied.getSignature())) {
+                s_logger.debug("Ruleset of vm " + cmd.getVmName() + " does not match " + cmd.getBaseSignature() + ", asking for a full update");
+                return new SecurityGroupRuleAnswer(cmd, false, "ruleset fingerprint mismatch", SecurityGroupRuleAnswer.FailureReason.RULESET_MISMATCH);
+            }
+            if (!cmd.applyDelta(applied.getIngressRuleSet(), applied.getEgressRuleSet())) {
+                s_logger.debug("Ruleset of vm " + cmd.getVmName() + " rebuilt from the delta does not match " + cmd.getSignature() + ", asking for a full update");
+                return new SecurityGroupRuleAnswer(cmd, false, "ruleset fingerprint mismatch", SecurityGroupRuleAnswer.FailureReason.RULESET_MISMATCH);
+            }
+        }
+
         try {
             Connect conn = LibvirtConnection.getConnectionByVmName(cmd.getVmName());
             List<InterfaceDef> nics = getInterfaces(conn, cmd.getVmName());
@@ -2652,16 +2667,20 @@ ServerResource {
                 cmd.getGuestMac(), cmd.stringifyRules(), vif, brname, cmd.getSecIpsString());
 
         if (!result) {
+            _appliedRulesets.remove(cmd.getVmName());
             s_logger.warn("Failed to program network rules for vm "
                     + cmd.getVmName());
             return new SecurityGroupRuleAnswer(cmd, false,
                     "programming network rules failed");
         } else {
+            _appliedRulesets.put(cmd.getVmName(), cmd);
             s_logger.debug("Programmed network rules for vm " + cmd.getVmName()
                     + " guestIp=" + cmd.getGuestIp() + ",ingress numrules="
                     + cmd.getIngressRuleSet().length + ",egress numrules="
                     + cmd.getEgressRuleSet().length);
-            return new SecurityGroupRuleAnswer(cmd);
+            SecurityGroupRuleAnswer answer = new SecurityGroupRuleAnswer(cmd);
+            answer.setSignature(cmd.getSignature());
+            return answer;
         }
     }
 
@@ -4848,6 +4867,7 @@ ServerResource {
         if (!_can_bridge_firewall) {
             return false;
         }
+        _appliedRulesets.remove(vmName);
         String vif = null;
         List<InterfaceDef> intfs = getInterfaces(conn, vmName);
         if (intfs.size() > 0) {
@@ -4872,6 +4892,7 @@ ServerResource {
         if (!_can_bridge_firewall) {
             return false;
         }
+        _appliedRulesets.remove(vmName);
 
         List<InterfaceDef> intfs = getInterfaces(conn, vmName);
         if (intfs.size() == 0 || intfs.size() < nic.getDeviceId()) {
@@ -17,7 +17,9 @@
 package com.cloud.api;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -31,6 +33,7 @@ import org.apache.cloudstack.affinity.dao.AffinityGroupDao;
 import org.apache.cloudstack.api.ApiCommandJobType;
 import org.apache.cloudstack.api.ApiConstants.HostDetails;
 import org.apache.cloudstack.api.ApiConstants.VMDetails;
+import org.apache.cloudstack.api.InternalIdentity;
 import org.apache.cloudstack.api.response.AccountResponse;
 import org.apache.cloudstack.api.response.AsyncJobResponse;
 import org.apache.cloudstack.api.response.DiskOfferingResponse;
@@ -62,6 +65,7 @@ import org.apache.cloudstack.lb.dao.ApplicationLoadBalancerRuleDao;
 import org.apache.cloudstack.storage.datastore.db.PrimaryDataStoreDao;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
 
+import com.cloud.api.ResponseEnrichmentContext.Entity;
 import com.cloud.api.query.dao.AccountJoinDao;
 import com.cloud.api.query.dao.AffinityGroupJoinDao;
 import com.cloud.api.query.dao.AsyncJobJoinDao;
@@ -248,6 +252,8 @@ import com.cloud.storage.dao.VMTemplateDao;
 import com.cloud.storage.dao.VMTemplateDetailsDao;
 import com.cloud.storage.dao.VolumeDao;
 import com.cloud.storage.snapshot.SnapshotPolicy;
+import com.cloud.tags.ResourceTagVO;
+import com.cloud.tags.dao.ResourceTagDao;
 import com.cloud.template.TemplateManager;
 import com.cloud.template.VirtualMachineTemplate;
 import com.cloud.user.Account;
@@ -268,6 +274,8 @@ import com.cloud.uservm.UserVm;
 import com.cloud.utils.EnumUtils;
 import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.Pair;
+import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.SearchCriteria;
 import com.cloud.vm.ConsoleProxyVO;
 import com.cloud.vm.DomainRouterVO;
 import com.cloud.vm.InstanceGroup;
@@ -400,6 +408,7 @@ public class ApiDBUtils {
     static NetworkACLDao _networkACLDao;
     static ServiceOfferingDetailsDao _serviceOfferingDetailsDao;
     static AccountService _accountService;
+    static ResourceTagDao _resourceTagDao;
 
 
     @Inject
@@ -513,6 +522,7 @@ public class ApiDBUtils {
     @Inject private NetworkACLDao networkACLDao;
     @Inject private ServiceOfferingDetailsDao serviceOfferingDetailsDao;
     @Inject private AccountService accountService;
+    @Inject private ResourceTagDao resourceTagDao;
     @Inject
     private ConfigurationManager configMgr;
 
@@ -626,6 +636,7 @@ public class ApiDBUtils {
         _networkACLDao = networkACLDao;
         _serviceOfferingDetailsDao = serviceOfferingDetailsDao;
         _accountService = accountService;
+        _resourceTagDao = resourceTagDao;
     }
 
     // ///////////////////////////////////////////////////////////
@@ -768,7 +779,7 @@ public class ApiDBUtils {
     // ///////////////////////////////////////////////////////////
 
     public static Account findAccountById(Long accountId) {
-        return _accountDao.findByIdIncludingRemoved(accountId);
+        return findById(Entity.Account, _accountDao, accountId, true);
     }
 
     public static Account findAccountByIdIncludingRemoved(Long accountId) {
@@ -797,7 +808,7 @@ public class ApiDBUtils {
     }
 
     public static DomainVO findDomainById(Long domainId) {
-        return _domainDao.findByIdIncludingRemoved(domainId);
+        return findById(Entity.Domain, _domainDao, domainId, true);
     }
 
     public static DomainVO findDomainByIdIncludingRemoved(Long domainId) {
@@ -825,7 +836,7 @@ public class ApiDBUtils {
     }
 
     public static IPAddressVO findIpAddressById(long addressId) {
-        return _ipAddressDao.findById(addressId);
+        return findById(Entity.IpAddress, _ipAddressDao, addressId, false);
     }
 
     public static GuestOSCategoryVO getHostGuestOSCategory(long hostId) {
@@ -905,15 +916,15 @@ public class ApiDBUtils {
     }
 
     public static UserVm findUserVmById(Long vmId) {
-        return _userVmDao.findById(vmId);
+        return findById(Entity.UserVm, _userVmDao, vmId, false);
     }
 
     public static VlanVO findVlanById(long vlanDbId) {
-        return _vlanDao.findById(vlanDbId);
+        return findById(Entity.Vlan, _vlanDao, vlanDbId, false);
     }
 
     public static VolumeVO findVolumeById(Long volumeId) {
-        return _volumeDao.findByIdIncludingRemoved(volumeId);
+        return findById(Entity.Volume, _volumeDao, volumeId, true);
     }
 
     public static Site2SiteVpnGatewayVO findVpnGatewayById(Long vpnGatewayId) {
@@ -929,7 +940,7 @@ public class ApiDBUtils {
     }
 
     public static DataCenterVO findZoneById(Long zoneId) {
-        return _zoneDao.findById(zoneId);
+        return findById(Entity.Zone, _zoneDao, zoneId, false);
     }
 
     public static Long getAccountIdForVlan(long vlanDbId) {
@@ -998,7 +1009,7 @@ public class ApiDBUtils {
     }
 
     public static PhysicalNetworkVO findPhysicalNetworkById(long id) {
-        return _physicalNetworkDao.findById(id);
+        return findById(Entity.PhysicalNetwork, _physicalNetworkDao, id, false);
     }
 
     public static PhysicalNetworkTrafficTypeVO findPhysicalNetworkTrafficTypeById(long id) {
@@ -1006,7 +1017,7 @@ public class ApiDBUtils {
     }
 
     public static NetworkVO findNetworkById(long id) {
-        return _networkDao.findById(id);
+        return findById(Entity.Network, _networkDao, id, false);
     }
 
     public static Map<Service, Map<Capability, String>> getNetworkCapabilities(long networkId, long zoneId) {
@@ -1018,7 +1029,7 @@ public class ApiDBUtils {
     }
 
     public static Long getVlanNetworkId(long vlanId) {
-        VlanVO vlan = _vlanDao.findById(vlanId);
+        VlanVO vlan = findVlanById(vlanId);
         if (vlan != null) {
             return vlan.getNetworkId();
         } else {
@@ -1076,7 +1087,15 @@ public class ApiDBUtils {
     }
 
     public static Project findProjectByProjectAccountId(long projectAccountId) {
-        return _projectMgr.findByProjectAccountId(projectAccountId);
+        ResponseEnrichmentContext context = ResponseEnrichmentContext.current();
+        if (context != null && context.isLoaded(Entity.Project, projectAccountId)) {
+            return context.get(Entity.Project, projectAccountId);
+        }
+        Project found = _projectMgr.findByProjectAccountId(projectAccountId);
+        if (context != null) {
+            context.put(Entity.Project, projectAccountId, found);
+        }
+        return found;
     }
 
     public static Project findProjectByProjectAccountIdIncludingRemoved(long projectAccountId) {
@@ -1159,7 +1178,134 @@ public class ApiDBUtils {
     }
 
     public static List<? extends ResourceTag> listByResourceTypeAndId(TaggedResourceType type, long resourceId) {
-        return _taggedResourceService.listByResourceTypeAndId(type, resourceId);
+        ResponseEnrichmentContext context = ResponseEnrichmentContext.current();
+        Pair<TaggedResourceType, Long> key = new Pair<TaggedResourceType, Long>(type, resourceId);
+        if (context != null && context.isLoaded(Entity.ResourceTags, key)) {
+            return context.get(Entity.ResourceTags, key);
+        }
+        List<? extends ResourceTag> found = _taggedResourceService.listByResourceTypeAndId(type, resourceId);
+        if (context != null) {
+            context.put(Entity.ResourceTags, key, found);
+        }
+        return found;
+    }
+
+    /**
+     * Looks the row up in the enrichment context of the current request,
+     * where prefetch() may have loaded it already, before going to the
+     * database.  Rows read from the database, or found missing, are added to
+     * the context.
+     */
+    private static <T> T findById(Entity entity, GenericDao<T, Long> dao, Long id, boolean includingRemoved) {
+        ResponseEnrichmentContext context = ResponseEnrichmentContext.current();
+        if (context != null && context.isLoaded(entity, id)) {
+            return context.get(entity, id);
+        }
+        T found = includingRemoved ? dao.findByIdIncludingRemoved(id) : dao.findById(id);
+        if (context != null) {
+            context.put(entity, id, found);
+        }
+        return found;
+    }
+
+    /**
+     * Loads the given rows with one query into the enrichment context of the
+     * current request, so that the find*ById() calls made while building the
+     * responses do not go to the database one row at a time.  Does nothing
+     * when there is no context.
+     */
+    public static <T extends InternalIdentity> void prefetch(Entity entity, GenericDao<T, Long> dao, Collection<Long> ids, boolean includingRemoved) {
+        ResponseEnrichmentContext context = ResponseEnrichmentContext.current();
+        if (context == null) {
+            return;
+        }
+        Set<Long> missing = context.notLoaded(entity, ids);
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        SearchCriteria<T> sc = dao.createSearchCriteria();
+        sc.addAnd("id", SearchCriteria.Op.IN, missing.toArray());
+        List<T> found = includingRemoved ? dao.searchIncludingRemoved(sc, null, null, false) : dao.search(sc, null);
+        for (T row : found) {
+            Long id = row.getId();
+            context.put(entity, id, row);
+            missing.remove(id);
+        }
+        // remember what is not there, so that it is not looked up again either
+        for (Long id : missing) {
+            context.put(entity, id, null);
+        }
+    }
+
+    /**
+     * Loads the tags of the given resources with one query into the
+     * enrichment context of the current request
+     */
+    public static void prefetchResourceTags(TaggedResourceType type, Collection<Long> resourceIds) {
+        ResponseEnrichmentContext context = ResponseEnrichmentContext.current();
+        if (context == null || resourceIds.isEmpty()) {
+            return;
+        }
+        List<Pair<TaggedResourceType, Long>> keys = new ArrayList<Pair<TaggedResourceType, Long>>(resourceIds.size());
+        for (Long resourceId : resourceIds) {
+            keys.add(new Pair<TaggedResourceType, Long>(type, resourceId));
+        }
+        Set<Pair<TaggedResourceType, Long>> missing = context.notLoaded(Entity.ResourceTags, keys);
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        Map<Long, List<ResourceTag>> tagsById = new HashMap<Long, List<ResourceTag>>();
+        for (Pair<TaggedResourceType, Long> key : missing) {
+            tagsById.put(key.second(), new ArrayList<ResourceTag>());
+        }
+        for (ResourceTagVO tag : _resourceTagDao.listByResourceIds(tagsById.keySet(), type)) {
+            tagsById.get(tag.getResourceId()).add(tag);
+        }
+        for (Map.Entry<Long, List<ResourceTag>> entry : tagsById.entrySet()) {
+            context.put(Entity.ResourceTags, new Pair<TaggedResourceType, Long>(type, entry.getKey()), entry.getValue());
+        }
+    }
+
+    public static void prefetchZones(Collection<Long> zoneIds) {
+        prefetch(Entity.Zone, _zoneDao, zoneIds, false);
+    }
+
+    public static void prefetchAccounts(Collection<Long> accountIds) {
+        prefetch(Entity.Account, _accountDao, accountIds, true);
+    }
+
+    public static void prefetchDomains(Collection<Long> domainIds) {
+        prefetch(Entity.Domain, _domainDao, domainIds, true);
+    }
+
+    public static void prefetchNetworks(Collection<Long> networkIds) {
+        prefetch(Entity.Network, _networkDao, networkIds, false);
+    }
+
+    public static void prefetchVlans(Collection<Long> vlanIds) {
+        prefetch(Entity.Vlan, _vlanDao, vlanIds, false);
+    }
+
+    public static void prefetchIpAddresses(Collection<Long> addressIds) {
+        prefetch(Entity.IpAddress, _ipAddressDao, addressIds, false);
+    }
+
+    public static void prefetchUserVms(Collection<Long> vmIds) {
+        prefetch(Entity.UserVm, _userVmDao, vmIds, false);
+    }
+
+    public static void prefetchVpcs(Collection<Long> vpcIds) {
+        prefetch(Entity.Vpc, _vpcDao, vpcIds, false);
+    }
+
+    public static void prefetchPhysicalNetworks(Collection<Long> physicalNetworkIds) {
+        prefetch(Entity.PhysicalNetwork, _physicalNetworkDao, physicalNetworkIds, false);
+    }
+
+    public static void prefetchVolumes(Collection<Long> volumeIds) {
+        prefetch(Entity.Volume, _volumeDao, volumeIds, true);
     }
     public static List<ConditionVO> getAutoScalePolicyConditions(long policyId)
     {
@@ -1251,7 +1397,7 @@ public class ApiDBUtils {
     }
 
     public static VpcVO findVpcById(long vpcId){
-        return _vpcDao.findById(vpcId);
+        return findById(Entity.Vpc, _vpcDao, vpcId, false);
     }
 
     public static SnapshotPolicy findSnapshotPolicyById(long policyId){
@@ -25,10 +25,13 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
@@ -46,31 +49,26 @@ import org.apache.cloudstack.api.BaseAsyncCreateCmd;
 import org.apache.cloudstack.api.BaseCmd;
 import org.apache.cloudstack.api.BaseCmd.CommandType;
 import org.apache.cloudstack.api.BaseListCmd;
-import org.apache.cloudstack.api.EntityReference;
+import org.apache.cloudstack.api.Identity;
 import org.apache.cloudstack.api.InternalIdentity;
 import org.apache.cloudstack.api.Parameter;
 import org.apache.cloudstack.api.ServerApiException;
-import org.apache.cloudstack.api.Validate;
-import org.apache.cloudstack.api.command.admin.resource.ArchiveAlertsCmd;
-import org.apache.cloudstack.api.command.admin.resource.DeleteAlertsCmd;
-import org.apache.cloudstack.api.command.user.event.ArchiveEventsCmd;
-import org.apache.cloudstack.api.command.user.event.DeleteEventsCmd;
-import org.apache.cloudstack.api.command.user.event.ListEventsCmd;
 import org.apache.cloudstack.context.CallContext;
 import org.apache.cloudstack.framework.jobs.AsyncJob;
 import org.apache.cloudstack.framework.jobs.AsyncJobManager;
 
+import com.cloud.api.CmdParameterBinder.BoundParameter;
 import com.cloud.exception.InvalidParameterValueException;
 import com.cloud.user.Account;
 import com.cloud.user.AccountManager;
 import com.cloud.utils.DateUtil;
-import com.cloud.utils.ReflectUtil;
 import com.cloud.utils.db.EntityManager;
 import com.cloud.utils.exception.CSExceptionErrorCode;
 import com.cloud.utils.exception.CloudRuntimeException;
 
 public class ApiDispatcher {
     private static final Logger s_logger = Logger.getLogger(ApiDispatcher.class.getName());
+    private static final Pattern s_uuidPattern = Pattern.compile("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$");
 
     Long _createSnapshotQueueSizeLimit;
     @Inject
@@ -174,26 +172,33 @@ public class ApiDispatcher {
                 pageSize = Long.valueOf((String)pageSizeObj);
             }
 
-            if ((unpackedParams.get(ApiConstants.PAGE) == null) && (pageSize != null && !pageSize.equals(BaseListCmd.PAGESIZE_UNLIMITED))) {
+            // a page token takes the place of the page
+            if ((unpackedParams.get(ApiConstants.PAGE) == null && unpackedParams.get(ApiConstants.PAGE_TOKEN) == null)
+                    && (pageSize != null && !pageSize.equals(BaseListCmd.PAGESIZE_UNLIMITED))) {
                 ServerApiException ex = new ServerApiException(ApiErrorCode.PARAM_ERROR, "\"page\" parameter is required when \"pagesize\" is specified");
                 ex.setCSErrorCode(CSExceptionErrorCode.getCSErrCode(ex.getClass().getName()));
                 throw ex;
             } else if (pageSize == null && (unpackedParams.get(ApiConstants.PAGE) != null)) {
                 throw new ServerApiException(ApiErrorCode.PARAM_ERROR, "\"pagesize\" parameter is required when \"page\" is specified");
             }
+
+            if (unpackedParams.get(ApiConstants.PAGE_TOKEN) != null && !((BaseListCmd)cmd).isPageTokenSupported()) {
+                throw new InvalidParameterValueException("\"pagetoken\" parameter is not supported by API command "
+                        + cmd.getCommandName().substring(0, cmd.getCommandName().length() - 8));
+            }
         }
 
-        List<Field> fields = ReflectUtil.getAllFieldsForClass(cmd.getClass(), BaseCmd.class);
+        CmdParameterBinder binder = CmdParameterBinder.getBinder(cmd.getClass());
+        Map<List<Class<?>>, Map<String, Long>> resolvedUuids = null;
+        if (binder.hasUuidParameters()) {
+            resolvedUuids = resolveUuids(binder, unpackedParams);
+        }
 
-        for (Field field : fields) {
-            Parameter parameterAnnotation = field.getAnnotation(Parameter.class);
-            if ((parameterAnnotation == null) || !parameterAnnotation.expose()) {
-                continue;
-            }
+        for (BoundParameter parameter : binder.getParameters()) {
+            Parameter parameterAnnotation = parameter.getParameter();
+            Field field = parameter.getField();
 
-            //TODO: Annotate @Validate on API Cmd classes, FIXME how to process Validate
-            Validate validateAnnotation = field.getAnnotation(Validate.class);
-            Object paramObj = unpackedParams.get(parameterAnnotation.name());
+            Object paramObj = unpackedParams.get(parameter.getName());
             if (paramObj == null) {
                 if (parameterAnnotation.required()) {
                     throw new ServerApiException(ApiErrorCode.PARAM_ERROR, "Unable to execute API command " + cmd.getCommandName().substring(0, cmd.getCommandName().length() - 8) + " due to missing parameter "
@@ -204,7 +209,7 @@ public class ApiDispatcher {
 
             // marshall the parameter into the correct type and set the field value
             try {
-                setFieldValue(field, cmd, paramObj, parameterAnnotation);
+                setFieldValue(parameter, cmd, paramObj, resolvedUuids);
             } catch (IllegalArgumentException argEx) {
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("Unable to execute API command " + cmd.getCommandName() + " due to invalid value " + paramObj + " for parameter " + parameterAnnotation.name());
@@ -235,8 +240,8 @@ public class ApiDispatcher {
 
             //check access on the resource this field points to
             try {
-                ACL checkAccess = field.getAnnotation(ACL.class);
-                CommandType fieldType = parameterAnnotation.type();
+                ACL checkAccess = parameter.getAcl();
+                CommandType fieldType = parameter.getType();
 
                 if (checkAccess != null) {
                     // Verify that caller can perform actions in behalf of vm owner
@@ -247,15 +252,15 @@ public class ApiDispatcher {
                     //for maps, specify access to be checkd on key or value.
 
                     // find the controlled entity DBid by uuid
-                    if (parameterAnnotation.entityType() != null) {
-                        Class<?>[] entityList = parameterAnnotation.entityType()[0].getAnnotation(EntityReference.class).value();
+                    if (parameter.getEntities() != null) {
+                        Class<?>[] entityList = parameter.getEntities();
 
                         for (Class entity : entityList) {
                             // Check if the parameter type is a single
                             // Id or list of id's/name's
                             switch (fieldType) {
                             case LIST:
-                                CommandType listType = parameterAnnotation.collectionType();
+                                CommandType listType = parameter.getCollectionType();
                                 switch (listType) {
                                 case LONG:
                                 case UUID:
@@ -302,6 +307,10 @@ public class ApiDispatcher {
                             }
                         }
 
+                    } else {
+                        // the binder refuses such parameters already, never let access go unchecked
+                        throw new CloudRuntimeException("Unable to check access on parameter " + parameter.getName() + " of command "
+                                + cmd.getCommandName() + ", it doesn't refer to any entity");
                     }
 
                 }
@@ -321,7 +330,77 @@ public class ApiDispatcher {
 
     }
 
-    private static Long translateUuidToInternalId(String uuid, Parameter annotation)
+    /**
+     * Looks up the uuids passed to the uuid parameters of a command with one query per entity type, where
+     * there is more than one uuid of that type to look up.  translateUuidToInternalId takes the ids found here
+     * and looks up whatever is left one uuid at a time, as before.
+     *
+     * @return the internal ids found, by the entities of the parameters and then by uuid
+     */
+    private static Map<List<Class<?>>, Map<String, Long>> resolveUuids(CmdParameterBinder binder, Map<String, Object> unpackedParams) {
+        Map<List<Class<?>>, Set<String>> uuidsByEntities = new HashMap<List<Class<?>>, Set<String>>();
+        for (BoundParameter parameter : binder.getParameters()) {
+            if (!parameter.isUuid() || parameter.getEntities() == null) {
+                continue;
+            }
+            Object paramObj = unpackedParams.get(parameter.getName());
+            if (paramObj == null) {
+                continue;
+            }
+
+            Set<String> uuids = uuidsByEntities.get(parameter.getEntityKey());
+            if (uuids == null) {
+                uuids = new HashSet<String>();
+                uuidsByEntities.put(parameter.getEntityKey(), uuids);
+            }
+            if (parameter.getType() == CommandType.LIST) {
+                StringTokenizer st = new StringTokenizer(paramObj.toString(), ",");
+                while (st.hasMoreTokens()) {
+                    String token = st.nextToken();
+                    if (s_uuidPattern.matcher(token).matches()) {
+                        uuids.add(token);
+                    }
+                }
+            } else if (s_uuidPattern.matcher(paramObj.toString()).matches()) {
+                uuids.add(paramObj.toString());
+            }
+        }
+
+        Map<List<Class<?>>, Map<String, Long>> resolved = new HashMap<List<Class<?>>, Map<String, Long>>();
+        for (Map.Entry<List<Class<?>>, Set<String>> entry : uuidsByEntities.entrySet()) {
+            Set<String> uuids = entry.getValue();
+            if (uuids.size() < 2) {
+                continue;
+            }
+
+            Map<String, Long> ids = new HashMap<String, Long>();
+            // search the entities in order, the first one a uuid is found in wins as in translateUuidToInternalId
+            for (Class<?> entity : entry.getKey()) {
+                List<?> objVOs;
+                try {
+                    objVOs = s_instance._entityMgr.listByUuids(entity, uuids);
+                } catch (RuntimeException e) {
+                    s_logger.debug("Unable to look up " + entity.getSimpleName() + " uuids in one query, looking them up one at a time: " + e.getMessage());
+                    break;
+                }
+                for (Object objVO : objVOs) {
+                    if (objVO instanceof Identity && objVO instanceof InternalIdentity) {
+                        String uuid = ((Identity)objVO).getUuid();
+                        if (uuids.remove(uuid)) {
+                            ids.put(uuid, ((InternalIdentity)objVO).getId());
+                        }
+                    }
+                }
+                if (uuids.isEmpty()) {
+                    break;
+                }
+            }
+            resolved.put(entry.getKey(), ids);
+        }
+        return resolved;
+    }
+
+    private static Long translateUuidToInternalId(String uuid, BoundParameter parameter, Map<List<Class<?>>, Map<String, Long>> resolvedUuids)
     {
         if (uuid.equals("-1")) {
             // FIXME: This is to handle a lot of hardcoded special cases where -1 is sent
@@ -330,9 +409,9 @@ public class ApiDispatcher {
         }
         Long internalId = null;
         // If annotation's empty, the cmd existed before 3.x try conversion to long
-        boolean isPre3x = annotation.since().isEmpty();
+        boolean isPre3x = parameter.isPre3x();
         // Match against Java's UUID regex to check if input is uuid string
-        boolean isUuid = uuid.matches("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$");
+        boolean isUuid = s_uuidPattern.matcher(uuid).matches();
         // Enforce that it's uuid for newly added apis from version 3.x
         if (!isPre3x && !isUuid)
             return null;
@@ -346,15 +425,22 @@ public class ApiDispatcher {
             if (internalId != null)
                 return internalId;
         }
-        // There may be multiple entities defined on the @EntityReference of a Response.class
-        // UUID CommandType would expect only one entityType, so use the first entityType
-        Class<?>[] entities = annotation.entityType()[0].getAnnotation(EntityReference.class).value();
+        // Take the id if it was looked up along with the other uuids of the request
+        if (resolvedUuids != null && parameter.getEntityKey() != null) {
+            Map<String, Long> ids = resolvedUuids.get(parameter.getEntityKey());
+            if (ids != null) {
+                internalId = ids.get(uuid);
+                if (internalId != null)
+                    return internalId;
+            }
+        }
         // Go through each entity which is an interface to a VO class and get a VO object
         // Try to getId() for the object using reflection, break on first non-null value
-        for (Class<?> entity : entities) {
+        Class<?>[] entities = parameter.getEntities();
+        for (int i = 0; entities != null && i < entities.length; i++) {
             // For backward compatibility, we search within removed entities and let service layer deal
             // with removed ones, return empty response or error
-            Object objVO = s_instance._entityMgr.findByUuid(entity, uuid);
+            Object objVO = s_instance._entityMgr.findByUuid(entities[i], uuid);
             if (objVO == null) {
                 continue;
             }
@@ -372,17 +458,18 @@ public class ApiDispatcher {
         if (internalId == null) {
             if (s_logger.isDebugEnabled())
                 s_logger.debug("Object entity uuid = " + uuid + " does not exist in the database.");
-            throw new InvalidParameterValueException("Invalid parameter " + annotation.name() + " value=" + uuid
+            throw new InvalidParameterValueException("Invalid parameter " + parameter.getName() + " value=" + uuid
                     + " due to incorrect long value format, or entity does not exist or due to incorrect parameter annotation for the field in api cmd class.");
         }
         return internalId;
     }
 
     @SuppressWarnings({"unchecked", "rawtypes"})
-    private static void setFieldValue(Field field, BaseCmd cmdObj, Object paramObj, Parameter annotation) throws IllegalArgumentException, ParseException {
+    private static void setFieldValue(BoundParameter parameter, BaseCmd cmdObj, Object paramObj, Map<List<Class<?>>, Map<String, Long>> resolvedUuids) throws IllegalArgumentException, ParseException {
+        Field field = parameter.getField();
+        Parameter annotation = parameter.getParameter();
         try {
-            field.setAccessible(true);
-            CommandType fieldType = annotation.type();
+            CommandType fieldType = parameter.getType();
             switch (fieldType) {
             case BOOLEAN:
                 field.set(cmdObj, Boolean.valueOf(paramObj.toString()));
@@ -391,10 +478,7 @@ public class ApiDispatcher {
                 // This piece of code is for maintaining backward compatibility
                 // and support both the date formats(Bug 9724)
                 // Do the date messaging for ListEventsCmd only
-                if (cmdObj instanceof ListEventsCmd || cmdObj instanceof DeleteEventsCmd
-                        || cmdObj instanceof ArchiveEventsCmd
-                        || cmdObj instanceof ArchiveAlertsCmd
-                        || cmdObj instanceof DeleteAlertsCmd) {
+                if (parameter.isLegacyDates()) {
                     boolean isObjInNewDateFormat = isObjInNewDateFormat(paramObj.toString());
                     if (isObjInNewDateFormat) {
                         DateFormat newFormat = BaseCmd.NEW_INPUT_FORMAT;
@@ -440,9 +524,9 @@ public class ApiDispatcher {
             case LIST:
                 List listParam = new ArrayList();
                 StringTokenizer st = new StringTokenizer(paramObj.toString(), ",");
+                CommandType listType = parameter.getCollectionType();
                 while (st.hasMoreTokens()) {
                     String token = st.nextToken();
-                    CommandType listType = annotation.collectionType();
                     switch (listType) {
                     case INTEGER:
                         listParam.add(Integer.valueOf(token));
@@ -450,7 +534,7 @@ public class ApiDispatcher {
                     case UUID:
                         if (token.isEmpty())
                             break;
-                        Long internalId = translateUuidToInternalId(token, annotation);
+                        Long internalId = translateUuidToInternalId(token, parameter, resolvedUuids);
                         listParam.add(internalId);
                         break;
                     case LONG: {
@@ -469,7 +553,7 @@ public class ApiDispatcher {
             case UUID:
                 if (paramObj.toString().isEmpty())
                     break;
-                Long internalId = translateUuidToInternalId(paramObj.toString(), annotation);
+                Long internalId = translateUuidToInternalId(paramObj.toString(), parameter, resolvedUuids);
                 field.set(cmdObj, internalId);
                 break;
             case LONG:
@@ -0,0 +1,339 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import org.apache.cloudstack.api.CacheableResponse;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
+
+import com.cloud.event.EventTypes;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Caches the serialized responses of the list APIs annotated with
+ * CacheableResponse, per calling account and request parameters, so that
+ * clients polling them with the same parameters every few seconds do not
+ * run the searches and serialization again every time.
+ *
+ * Responses expire after a few seconds.  Completed action events on the
+ * entities an API is invalidated by evict its responses earlier, this
+ * subscribes to them on the message bus.  Events on the other management
+ * servers are not seen here, the expiry bounds how long their changes go
+ * unnoticed.
+ */
+public class ApiResponseCache implements MessageSubscriber {
+    private static final Logger s_logger = Logger.getLogger(ApiResponseCache.class);
+
+    // request parameters that do not change what a request returns
+    private static final String[] IGNORED_PARAMS = { "signature", "signatureversion", "apikey", "sessionkey", "expires", "httpmethod", "response", "_" };
+
+    private final Map<String, CachedApi> _apis = new HashMap<String, CachedApi>();
+    private final Map<String, List<CachedApi>> _apisByEntity = new HashMap<String, List<CachedApi>>();
+    private volatile long _ttl;
+    private volatile int _maxSize;
+
+    /**
+     * @param ttl milliseconds a response is cached for, 0 to cache nothing
+     * @param maxSize maximum number of responses cached per api
+     */
+    public void configure(long ttl, int maxSize) {
+        _ttl = ttl;
+        _maxSize = maxSize;
+    }
+
+    public boolean isEnabled() {
+        return _ttl > 0 && !_apis.isEmpty();
+    }
+
+    /**
+     * Caches the responses of the api if its command class is annotated
+     * with CacheableResponse.  Only to be called while ApiServer starts.
+     */
+    public void register(String apiName, Class<?> cmdClass) {
+        CacheableResponse cacheable = cmdClass.getAnnotation(CacheableResponse.class);
+        if (cacheable == null) {
+            return;
+        }
+
+        CachedApi api = new CachedApi(apiName);
+        _apis.put(apiName, api);
+        for (Class<?> entity : cacheable.invalidatedBy()) {
+            List<CachedApi> apis = _apisByEntity.get(entity.getName());
+            if (apis == null) {
+                apis = new ArrayList<CachedApi>();
+                _apisByEntity.put(entity.getName(), apis);
+            }
+            apis.add(api);
+        }
+    }
+
+    public Collection<CachedApi> getCachedApis() {
+        return _apis.values();
+    }
+
+    /**
+     * @return the api if its responses are cached, null otherwise
+     */
+    public CachedApi getCachedApi(String apiName) {
+        return _ttl > 0 ? _apis.get(apiName) : null;
+    }
+
+    /**
+     * @return what identifies a response among the ones cached for an api:
+     * the calling account, the response type and the request parameters
+     * that affect the response, in name order
+     */
+    @SuppressWarnings("rawtypes")
+    public static String getKey(long accountId, String responseType, Map params) {
+        Map<String, String> sorted = new TreeMap<String, String>();
+        for (Object name : params.keySet()) {
+            if (isIgnored((String)name)) {
+                continue;
+            }
+            Object[] values = (Object[])params.get(name);
+            sorted.put((String)name, values != null && values.length > 0 && values[0] != null ? values[0].toString() : "");
+        }
+
+        StringBuilder key = new StringBuilder();
+        key.append(accountId).append('|').append(responseType);
+        for (Map.Entry<String, String> param : sorted.entrySet()) {
+            // length prefixed, so that no name or value can be mistaken for another
+            key.append('|').append(param.getKey().length()).append(':').append(param.getKey());
+            key.append(param.getValue().length()).append(':').append(param.getValue());
+        }
+        return key.toString();
+    }
+
+    private static boolean isIgnored(String name) {
+        for (String ignored : IGNORED_PARAMS) {
+            if (ignored.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evicts the responses of the apis invalidated by the entity a
+     * completed action event is about
+     */
+    @Override
+    public void onPublishMessage(String senderAddress, String subject, Object args) {
+        String entityClass = EventTypes.getEntityClassForEvent((String)args);
+        if (entityClass == null) {
+            return;
+        }
+        List<CachedApi> apis = _apisByEntity.get(entityClass);
+        if (apis == null) {
+            return;
+        }
+
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Evicting the cached responses invalidated by " + args);
+        }
+        for (CachedApi api : apis) {
+            api.invalidate();
+        }
+    }
+
+    static String computeEtag(String response) {
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            byte[] digest = md5.digest(response.getBytes("UTF-8"));
+            return "\"" + String.format("%032x", new BigInteger(1, digest)) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new CloudRuntimeException("Unable to compute the etag of an api response", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new CloudRuntimeException("Unable to compute the etag of an api response", e);
+        }
+    }
+
+    public static class CachedResponse {
+        private final String _response;
+        private final String _etag;
+        private final long _cached = System.currentTimeMillis();
+
+        CachedResponse(String response) {
+            _response = response;
+            _etag = computeEtag(response);
+        }
+
+        public String getResponse() {
+            return _response;
+        }
+
+        public String getEtag() {
+            return _etag;
+        }
+
+        /**
+         * @return true if the value of an If-None-Match header lists this response's etag
+         */
+        public boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String etag : ifNoneMatch.split(",")) {
+                etag = etag.trim();
+                if (etag.startsWith("W/")) {
+                    etag = etag.substring(2);
+                }
+                if (etag.equals("*") || etag.equals(_etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The responses cached for one api, and how often they were used
+     */
+    public class CachedApi implements ApiResponseCacheMBean {
+        private final String _apiName;
+        private final ConcurrentHashMap<String, CachedResponse> _responses = new ConcurrentHashMap<String, CachedResponse>();
+        // bumped on every eviction so that a response racing with it is not cached
+        private final AtomicLong _generation = new AtomicLong(0);
+        private final AtomicLong _hits = new AtomicLong(0);
+        private final AtomicLong _misses = new AtomicLong(0);
+        private final AtomicLong _notModified = new AtomicLong(0);
+        private final AtomicLong _invalidations = new AtomicLong(0);
+
+        CachedApi(String apiName) {
+            _apiName = apiName;
+        }
+
+        /**
+         * @return the cached response, null if there is none or it has expired
+         */
+        public CachedResponse get(String key) {
+            CachedResponse response = _responses.get(key);
+            if (response != null && System.currentTimeMillis() - response._cached > _ttl) {
+                _responses.remove(key, response);
+                response = null;
+            }
+
+            if (response != null) {
+                _hits.incrementAndGet();
+            } else {
+                _misses.incrementAndGet();
+            }
+            return response;
+        }
+
+        /**
+         * @return the generation to pass to put() with the response executed next
+         */
+        public long getGeneration() {
+            return _generation.get();
+        }
+
+        /**
+         * Caches a response unless the api was invalidated since generation
+         * was taken, or there are too many responses cached already
+         *
+         * @return the response to write to the client
+         */
+        public CachedResponse put(String key, String text, long generation) {
+            CachedResponse response = new CachedResponse(text);
+            if (_responses.size() >= _maxSize) {
+                evictExpired();
+                if (_responses.size() >= _maxSize) {
+                    return response;
+                }
+            }
+
+            _responses.put(key, response);
+            if (_generation.get() != generation) {
+                // invalidated while it was being executed
+                _responses.remove(key, response);
+            }
+            return response;
+        }
+
+        public void notModified() {
+            _notModified.incrementAndGet();
+        }
+
+        public void invalidate() {
+            _generation.incrementAndGet();
+            _invalidations.incrementAndGet();
+            _responses.clear();
+        }
+
+        private void evictExpired() {
+            long cutoff = System.currentTimeMillis() - _ttl;
+            for (Iterator<CachedResponse> it = _responses.values().iterator(); it.hasNext();) {
+                if (it.next()._cached < cutoff) {
+                    it.remove();
+                }
+            }
+        }
+
+        @Override
+        public String getApiName() {
+            return _apiName;
+        }
+
+        @Override
+        public int getCachedResponses() {
+            return _responses.size();
+        }
+
+        @Override
+        public long getHits() {
+            return _hits.get();
+        }
+
+        @Override
+        public long getMisses() {
+            return _misses.get();
+        }
+
+        @Override
+        public long getNotModified() {
+            return _notModified.get();
+        }
+
+        @Override
+        public long getInvalidations() {
+            return _invalidations.get();
+        }
+
+        @Override
+        public double getHitRate() {
+            long hits = _hits.get();
+            long requests = hits + _misses.get();
+            return requests == 0 ? 0 : (double)hits / requests;
+        }
+    }
+}
@@ -113,6 +113,7 @@ import org.apache.cloudstack.api.response.SnapshotPolicyResponse;
 import org.apache.cloudstack.api.response.SnapshotResponse;
 import org.apache.cloudstack.api.response.SnapshotScheduleResponse;
 import org.apache.cloudstack.api.response.StaticRouteResponse;
+import org.apache.cloudstack.api.response.StatsSampleResponse;
 import org.apache.cloudstack.api.response.StorageNetworkIpRangeResponse;
 import org.apache.cloudstack.api.response.StoragePoolResponse;
 import org.apache.cloudstack.api.response.SystemVmInstanceResponse;
@@ -255,6 +256,7 @@ import com.cloud.projects.ProjectInvitation;
 import com.cloud.region.ha.GlobalLoadBalancerRule;
 import com.cloud.server.Criteria;
 import com.cloud.server.ResourceTag;
+import com.cloud.server.StatsSample;
 import com.cloud.server.ResourceTag.TaggedResourceType;
 import com.cloud.service.ServiceOfferingVO;
 import com.cloud.storage.DiskOfferingVO;
@@ -460,6 +462,22 @@ public class ApiResponseHelper implements ResponseGenerator {
         return snapshotResponse;
     }
 
+    @Override
+    public void prefetchSnapshotResponses(List<? extends Snapshot> snapshots) {
+        if (ResponseEnrichmentContext.current() == null) {
+            return;
+        }
+        List<Long> volumeIds = new ArrayList<Long>(snapshots.size());
+        List<Long> snapshotIds = new ArrayList<Long>(snapshots.size());
+        for (Snapshot snapshot : snapshots) {
+            volumeIds.add(snapshot.getVolumeId());
+            snapshotIds.add(snapshot.getId());
+        }
+        prefetchOwners(snapshots);
+        ApiDBUtils.prefetchVolumes(volumeIds);
+        ApiDBUtils.prefetchResourceTags(TaggedResourceType.Snapshot, snapshotIds);
+    }
+
     @Override
     public VMSnapshotResponse createVMSnapshotResponse(VMSnapshot vmSnapshot) {
         VMSnapshotResponse vmSnapshotResponse = new VMSnapshotResponse();
@@ -713,6 +731,46 @@ public class ApiResponseHelper implements ResponseGenerator {
         return ipResponse;
     }
 
+    @Override
+    public void prefetchIPAddressResponses(List<? extends IpAddress> ipAddresses) {
+        if (ResponseEnrichmentContext.current() == null) {
+            return;
+        }
+        List<Long> ipIds = new ArrayList<Long>(ipAddresses.size());
+        List<Long> vlanIds = new ArrayList<Long>(ipAddresses.size());
+        List<Long> zoneIds = new ArrayList<Long>(ipAddresses.size());
+        List<Long> vmIds = new ArrayList<Long>();
+        List<Long> networkIds = new ArrayList<Long>();
+        List<Long> vpcIds = new ArrayList<Long>();
+        List<Long> physicalNetworkIds = new ArrayList<Long>();
+        List<IpAddress> allocated = new ArrayList<IpAddress>();
+        for (IpAddress ipAddr : ipAddresses) {
+            ipIds.add(ipAddr.getId());
+            vlanIds.add(ipAddr.getVlanId());
+            zoneIds.add(ipAddr.getDataCenterId());
+            vmIds.add(ipAddr.getAssociatedWithVmId());
+            networkIds.add(ipAddr.getAssociatedWithNetworkId());
+            vpcIds.add(ipAddr.getVpcId());
+            physicalNetworkIds.add(ipAddr.getPhysicalNetworkId());
+            if (ipAddr.getAllocatedToAccountId() != null) {
+                allocated.add(ipAddr);
+            }
+        }
+
+        ApiDBUtils.prefetchVlans(vlanIds);
+        // the network an address belongs to comes from its vlan
+        for (Long vlanId : vlanIds) {
+            networkIds.add(ApiDBUtils.getVlanNetworkId(vlanId));
+        }
+        ApiDBUtils.prefetchZones(zoneIds);
+        prefetchOwners(allocated);
+        ApiDBUtils.prefetchUserVms(vmIds);
+        ApiDBUtils.prefetchNetworks(networkIds);
+        ApiDBUtils.prefetchVpcs(vpcIds);
+        ApiDBUtils.prefetchPhysicalNetworks(physicalNetworkIds);
+        ApiDBUtils.prefetchResourceTags(TaggedResourceType.PublicIpAddress, ipIds);
+    }
+
     @Override
     public LoadBalancerResponse createLoadBalancerResponse(LoadBalancer loadBalancer) {
         LoadBalancerResponse lbResponse = new LoadBalancerResponse();
@@ -1042,6 +1100,24 @@ public class ApiResponseHelper implements ResponseGenerator {
         return response;
     }
 
+    @Override
+    public void prefetchPortForwardingRuleResponses(List<? extends PortForwardingRule> fwRules) {
+        if (ResponseEnrichmentContext.current() == null) {
+            return;
+        }
+        List<Long> ruleIds = new ArrayList<Long>(fwRules.size());
+        List<Long> ipIds = new ArrayList<Long>(fwRules.size());
+        List<Long> vmIds = new ArrayList<Long>(fwRules.size());
+        for (PortForwardingRule fwRule : fwRules) {
+            ruleIds.add(fwRule.getId());
+            ipIds.add(fwRule.getSourceIpAddressId());
+            vmIds.add(fwRule.getVirtualMachineId());
+        }
+        ApiDBUtils.prefetchIpAddresses(ipIds);
+        ApiDBUtils.prefetchUserVms(vmIds);
+        ApiDBUtils.prefetchResourceTags(TaggedResourceType.PortForwardingRule, ruleIds);
+    }
+
     @Override
     public IpForwardingRuleResponse createIpForwardingRuleResponse(StaticNatRule fwRule) {
         IpForwardingRuleResponse response = new IpForwardingRuleResponse();
@@ -1788,6 +1864,54 @@ public class ApiResponseHelper implements ResponseGenerator {
     }
 
 
+    @Override
+    public List<StatsSampleResponse> createStatsSampleResponse(List<? extends StatsSample> samples) {
+        List<StatsSampleResponse> sampleResponses = new ArrayList<StatsSampleResponse>();
+        // all samples of a listing normally belong to one resource, so resolve its uuid once
+        Map<String, String> uuids = new HashMap<String, String>();
+
+        for (StatsSample sample : samples) {
+            String key = sample.getResourceType() + ":" + sample.getResourceId();
+            String uuid = uuids.get(key);
+            if (uuid == null && !uuids.containsKey(key)) {
+                switch (sample.getResourceType()) {
+                case Host:
+                    HostVO host = ApiDBUtils.findHostById(sample.getResourceId());
+                    uuid = host != null ? host.getUuid() : null;
+                    break;
+                case VirtualMachine:
+                    VMInstanceVO vm = ApiDBUtils.findVMInstanceById(sample.getResourceId());
+                    uuid = vm != null ? vm.getUuid() : null;
+                    break;
+                case StoragePool:
+                    StoragePoolVO pool = ApiDBUtils.findStoragePoolById(sample.getResourceId());
+                    uuid = pool != null ? pool.getUuid() : null;
+                    break;
+                }
+                uuids.put(key, uuid);
+            }
+
+            StatsSampleResponse sampleResponse = new StatsSampleResponse();
+            sampleResponse.setResourceType(sample.getResourceType().toString());
+            sampleResponse.setResourceId(uuid);
+            sampleResponse.setTimestamp(sample.getTimestamp());
+            sampleResponse.setCpuUtilization(sample.getCpuUtilization());
+            sampleResponse.setMemoryUsed(sample.getMemoryUsed());
+            sampleResponse.setMemoryFreeKBs(sample.getMemoryFreeKBs());
+            sampleResponse.setNetworkReadKBs(sample.getNetworkReadKBs());
+            sampleResponse.setNetworkWriteKBs(sample.getNetworkWriteKBs());
+            sampleResponse.setDiskReadKBs(sample.getDiskReadKBs());
+            sampleResponse.setDiskWriteKBs(sample.getDiskWriteKBs());
+            sampleResponse.setDiskReadIOs(sample.getDiskReadIOs());
+            sampleResponse.setDiskWriteIOs(sample.getDiskWriteIOs());
+            sampleResponse.setStorageUsedBytes(sample.getStorageUsedBytes());
+            sampleResponse.setStorageCapacityBytes(sample.getStorageCapacityBytes());
+            sampleResponse.setObjectName("statssample");
+            sampleResponses.add(sampleResponse);
+        }
+        return sampleResponses;
+    }
+
     @Override
     public List<CapacityResponse> createCapacityResponse(List<? extends Capacity> result, DecimalFormat format) {
         List<CapacityResponse> capacityResponses = new ArrayList<CapacityResponse>();
@@ -2309,6 +2433,31 @@ public class ApiResponseHelper implements ResponseGenerator {
         return response;
     }
 
+    @Override
+    public void prefetchNetworkResponses(List<? extends Network> networks) {
+        if (ResponseEnrichmentContext.current() == null) {
+            return;
+        }
+        List<Long> networkIds = new ArrayList<Long>(networks.size());
+        List<Long> zoneIds = new ArrayList<Long>(networks.size());
+        List<Long> physicalNetworkIds = new ArrayList<Long>(networks.size());
+        List<Long> relatedIds = new ArrayList<Long>(networks.size());
+        List<Long> vpcIds = new ArrayList<Long>();
+        for (Network network : networks) {
+            networkIds.add(network.getId());
+            zoneIds.add(network.getDataCenterId());
+            physicalNetworkIds.add(network.getPhysicalNetworkId());
+            relatedIds.add(network.getRelated());
+            vpcIds.add(network.getVpcId());
+        }
+        ApiDBUtils.prefetchZones(zoneIds);
+        ApiDBUtils.prefetchPhysicalNetworks(physicalNetworkIds);
+        ApiDBUtils.prefetchNetworks(relatedIds);
+        ApiDBUtils.prefetchVpcs(vpcIds);
+        prefetchOwners(networks);
+        ApiDBUtils.prefetchResourceTags(TaggedResourceType.Network, networkIds);
+    }
+
     @Override
     public Long getSecurityGroupId(String groupName, long accountId) {
         SecurityGroup sg = ApiDBUtils.getSecurityGroup(groupName, accountId);
@@ -2377,6 +2526,27 @@ public class ApiResponseHelper implements ResponseGenerator {
         return response;
     }
 
+    @Override
+    public void prefetchFirewallResponses(List<? extends FirewallRule> fwRules) {
+        if (ResponseEnrichmentContext.current() == null) {
+            return;
+        }
+        List<Long> ruleIds = new ArrayList<Long>(fwRules.size());
+        List<Long> ipIds = new ArrayList<Long>();
+        List<Long> networkIds = new ArrayList<Long>();
+        for (FirewallRule fwRule : fwRules) {
+            ruleIds.add(fwRule.getId());
+            if (fwRule.getTrafficType() == FirewallRule.TrafficType.Ingress) {
+                ipIds.add(fwRule.getSourceIpAddressId());
+            } else if (fwRule.getTrafficType() == FirewallRule.TrafficType.Egress) {
+                networkIds.add(fwRule.getNetworkId());
+            }
+        }
+        ApiDBUtils.prefetchIpAddresses(ipIds);
+        ApiDBUtils.prefetchNetworks(networkIds);
+        ApiDBUtils.prefetchResourceTags(TaggedResourceType.FirewallRule, ruleIds);
+    }
+
     @Override
     public NetworkACLItemResponse createNetworkACLItemResponse(NetworkACLItem aclItem) {
         NetworkACLItemResponse response = new NetworkACLItemResponse();
@@ -2443,6 +2613,17 @@ public class ApiResponseHelper implements ResponseGenerator {
     // TODO: we may need to refactor once ControlledEntityResponse and
     // ControlledEntity id to uuid conversion are all done.
     // currently code is scattered in
+    private void prefetchOwners(List<? extends ControlledEntity> objects) {
+        List<Long> accountIds = new ArrayList<Long>(objects.size());
+        List<Long> domainIds = new ArrayList<Long>(objects.size());
+        for (ControlledEntity object : objects) {
+            accountIds.add(object.getAccountId());
+            domainIds.add(object.getDomainId());
+        }
+        ApiDBUtils.prefetchAccounts(accountIds);
+        ApiDBUtils.prefetchDomains(domainIds);
+    }
+
     private void populateOwner(ControlledEntityResponse response, ControlledEntity object) {
         Account account = ApiDBUtils.findAccountById(object.getAccountId());
 
@@ -48,6 +48,7 @@ import javax.annotation.PostConstruct;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import javax.inject.Inject;
+import javax.management.StandardMBean;
 import javax.naming.ConfigurationException;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
@@ -119,7 +120,10 @@ import org.apache.cloudstack.framework.config.impl.ConfigurationVO;
 import org.apache.cloudstack.framework.jobs.AsyncJob;
 import org.apache.cloudstack.framework.jobs.AsyncJobManager;
 import org.apache.cloudstack.framework.jobs.impl.AsyncJobVO;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
 
+import com.cloud.api.ApiResponseCache.CachedApi;
+import com.cloud.api.ApiResponseCache.CachedResponse;
 import com.cloud.api.response.ApiResponseSerializer;
 import com.cloud.configuration.Config;
 import com.cloud.domain.Domain;
@@ -151,6 +155,7 @@ import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionProxyObject;
+import com.cloud.utils.mgmt.JmxUtil;
 
 @Component
 public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiServerService {
@@ -159,6 +164,8 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
 
     public static boolean encodeApiResponse = false;
     public static String jsonContentType = "text/javascript";
+    public static boolean streamListResponses = true;
+    public static boolean gzipListResponses = true;
     @Inject ApiDispatcher _dispatcher;
 
     @Inject private AccountManager _accountMgr;
@@ -168,6 +175,8 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
     @Inject private ConfigurationDao _configDao;
     @Inject
     private EntityManager _entityMgr;
+    @Inject
+    private MessageBus _messageBus;
 
     @Inject List<PluggableService> _pluggableServices;
     @Inject List<APIChecker> _apiAccessCheckers;
@@ -175,8 +184,16 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
     @Inject
     protected ApiAsyncJobDispatcher _asyncDispatcher;
     private static int _workerCount = 0;
-    private static final DateFormat _dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+    // SimpleDateFormat and Mac are not thread safe, keep one per request thread instead of locking them
+    private static final ThreadLocal<DateFormat> s_expiresFormat = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+        }
+    };
+    private static final ThreadLocal<Mac> s_hmacSha1 = new ThreadLocal<Mac>();
     private static Map<String, Class<?>> _apiNameCmdClassMap = new HashMap<String, Class<?>>();
+    private final ApiResponseCache _responseCache = new ApiResponseCache();
 
     private static ExecutorService _executor = new ThreadPoolExecutor(10, 150, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("ApiServer"));
 
@@ -238,8 +255,27 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             }
             _apiNameCmdClassMap.put(apiName, cmdClass);
         }
+        CmdParameterBinder.compile(_apiNameCmdClassMap.values());
+
+        for (Map.Entry<String, Class<?>> api : _apiNameCmdClassMap.entrySet()) {
+            _responseCache.register(api.getKey(), api.getValue());
+        }
+        _responseCache.configure(NumbersUtil.parseLong(_configDao.getValue(Config.ApiListResponseCacheTtl.key()), 5) * 1000L,
+                NumbersUtil.parseInt(_configDao.getValue(Config.ApiListResponseCacheSize.key()), 1000));
+        if (_responseCache.isEnabled()) {
+            _messageBus.subscribe(ActionEventUtils.ActionEventCompletedSubject, _responseCache);
+            for (CachedApi api : _responseCache.getCachedApis()) {
+                try {
+                    JmxUtil.registerMBean("ApiResponseCache", api.getApiName(), new StandardMBean(api, ApiResponseCacheMBean.class));
+                } catch (Exception e) {
+                    s_logger.warn("Unable to register the response cache mbean of api " + api.getApiName(), e);
+                }
+            }
+        }
 
         encodeApiResponse = Boolean.valueOf(_configDao.getValue(Config.EncodeApiResponse.key()));
+        streamListResponses = !"false".equalsIgnoreCase(_configDao.getValue(Config.StreamApiListResponses.key()));
+        gzipListResponses = !"false".equalsIgnoreCase(_configDao.getValue(Config.GzipApiListResponses.key()));
         String jsonType = _configDao.getValue(Config.JavaScriptDefaultContentType.key());
         if (jsonType != null) {
             jsonContentType = jsonType;
@@ -324,7 +360,71 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
     @Override
     @SuppressWarnings("rawtypes")
     public String handleRequest(Map params, String responseType, StringBuffer auditTrailSb) throws ServerApiException {
-        String response = null;
+        ResponseObject response = executeRequest(params, responseType, auditTrailSb);
+        return serializeResponse(params, response, responseType, auditTrailSb);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public String serializeResponse(Map params, ResponseObject response, String responseType, StringBuffer auditTrailSb) throws ServerApiException {
+        if (response == null) {
+            return null;
+        }
+
+        String responseText = null;
+        try {
+            responseText = ApiResponseSerializer.toSerializedString(response, responseType);
+        } catch (RuntimeException ex) {
+            throw serializationFailed(response, ex);
+        }
+        buildAuditTrail(auditTrailSb, ((String[])params.get("command"))[0], responseText);
+        return responseText;
+    }
+
+    /**
+     * @return the error to answer with when serializing the response of an api command failed
+     */
+    static ServerApiException serializationFailed(ResponseObject response, RuntimeException ex) {
+        s_logger.error("unhandled exception serializing the response of api command: " + response.getResponseName(), ex);
+        String errorMsg = ex.getMessage();
+        if (CallContext.current().getCallingAccount().getType() != Account.ACCOUNT_TYPE_ADMIN){
+            // hide internal details to non-admin user for security reason
+            errorMsg = BaseCmd.USER_ERROR_MESSAGE;
+        }
+        return new ServerApiException(ApiErrorCode.INTERNAL_ERROR, errorMsg, ex);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public CachedResponse handleCachedRequest(Map params, String responseType, String ifNoneMatch, StringBuffer auditTrailSb) throws ServerApiException {
+        String[] command = (String[]) params.get("command");
+        CachedApi api = (command == null) ? null : _responseCache.getCachedApi(command[0]);
+        if (api == null) {
+            return null;
+        }
+
+        String key = ApiResponseCache.getKey(CallContext.current().getCallingAccountId(), responseType, params);
+        CachedResponse response = api.get(key);
+        boolean cached = (response != null);
+        if (!cached) {
+            long generation = api.getGeneration();
+            String responseText = handleRequest(params, responseType, auditTrailSb);
+            response = api.put(key, (responseText == null) ? "" : responseText, generation);
+        }
+
+        if (response.matches(ifNoneMatch)) {
+            api.notModified();
+            auditTrailSb.append(" " + HttpServletResponse.SC_NOT_MODIFIED + " " + command[0] + " response not modified");
+        } else if (cached) {
+            auditTrailSb.append(" " + HttpServletResponse.SC_OK + " " + command[0] + " response served from cache");
+        }
+        return response;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public ResponseObject executeRequest(Map params, String responseType, StringBuffer auditTrailSb) throws ServerApiException {
+        ResponseObject response = null;
         String[] command = null;
 
         try {
@@ -372,7 +472,6 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
 
                     // This is where the command is either serialized, or directly dispatched
                     response = queueCommand(cmdObj, paramMap);
-                    buildAuditTrail(auditTrailSb, command[0], response);
                 } else {
                     if (!command[0].equalsIgnoreCase("login") && !command[0].equalsIgnoreCase("logout")) {
                         String errorString = "Unknown API command: " + ((command == null) ? "null" : command[0]);
@@ -441,25 +540,25 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
         return response;
     }
 
-    private String getBaseAsyncResponse(long jobId, BaseAsyncCmd cmd) {
+    private ResponseObject getBaseAsyncResponse(long jobId, BaseAsyncCmd cmd) {
         AsyncJobResponse response = new AsyncJobResponse();
 
         AsyncJob job = _entityMgr.findById(AsyncJob.class, jobId);
         response.setJobId(job.getUuid());
         response.setResponseName(cmd.getCommandName());
-        return ApiResponseSerializer.toSerializedString(response, cmd.getResponseType());
+        return response;
     }
 
-    private String getBaseAsyncCreateResponse(long jobId, BaseAsyncCreateCmd cmd, String objectUuid) {
+    private ResponseObject getBaseAsyncCreateResponse(long jobId, BaseAsyncCreateCmd cmd, String objectUuid) {
         CreateCmdResponse response = new CreateCmdResponse();
         AsyncJob job = _entityMgr.findById(AsyncJob.class, jobId);
         response.setJobId(job.getUuid());
         response.setId(objectUuid);
         response.setResponseName(cmd.getCommandName());
-        return ApiResponseSerializer.toSerializedString(response, cmd.getResponseType());
+        return response;
     }
 
-    private String queueCommand(BaseCmd cmdObj, Map<String, String> params) throws Exception {
+    private ResponseObject queueCommand(BaseCmd cmdObj, Map<String, String> params) throws Exception {
         CallContext ctx = CallContext.current();
         Long callerUserId = ctx.getCallingUserId();
         Account caller = ctx.getCallingAccount();
@@ -528,33 +627,45 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                 return getBaseAsyncResponse(jobId, asyncCmd);
             }
         } else {
-            _dispatcher.dispatch(cmdObj, params, false);
-
-            // if the command is of the listXXXCommand, we will need to also return the
-            // the job id and status if possible
-            // For those listXXXCommand which we have already created DB views, this step is not needed since async job is joined in their db views.
-            if (cmdObj instanceof BaseListCmd && !(cmdObj instanceof ListVMsCmd) && !(cmdObj instanceof ListRoutersCmd)
-                    && !(cmdObj instanceof ListSecurityGroupsCmd)
-                    && !(cmdObj instanceof ListTagsCmd)
-                    && !(cmdObj instanceof ListEventsCmd)
-                    && !(cmdObj instanceof ListVMGroupsCmd)
-                    && !(cmdObj instanceof ListProjectsCmd)
-                    && !(cmdObj instanceof ListProjectAccountsCmd)
-                    && !(cmdObj instanceof ListProjectInvitationsCmd)
-                    && !(cmdObj instanceof ListHostsCmd)
-                    && !(cmdObj instanceof ListVolumesCmd)
-                    && !(cmdObj instanceof ListUsersCmd)
-                    && !(cmdObj instanceof ListAccountsCmd)
-                    && !(cmdObj instanceof ListStoragePoolsCmd)
-                    && !(cmdObj instanceof ListDiskOfferingsCmd)
-                    && !(cmdObj instanceof ListServiceOfferingsCmd)
-                    && !(cmdObj instanceof ListZonesByCmd)
-                    ) {
-                buildAsyncListResponse((BaseListCmd) cmdObj, caller);
+            // list commands only read, so what their responses refer to is
+            // looked up once for the whole list instead of once per object
+            boolean enrich = cmdObj instanceof BaseListCmd;
+            if (enrich) {
+                ResponseEnrichmentContext.register();
             }
+            try {
+                _dispatcher.dispatch(cmdObj, params, false);
+
+                // if the command is of the listXXXCommand, we will need to also return the
+                // the job id and status if possible
+                // For those listXXXCommand which we have already created DB views, this step is not needed since async job is joined in their db views.
+                if (cmdObj instanceof BaseListCmd && !(cmdObj instanceof ListVMsCmd) && !(cmdObj instanceof ListRoutersCmd)
+                        && !(cmdObj instanceof ListSecurityGroupsCmd)
+                        && !(cmdObj instanceof ListTagsCmd)
+                        && !(cmdObj instanceof ListEventsCmd)
+                        && !(cmdObj instanceof ListVMGroupsCmd)
+                        && !(cmdObj instanceof ListProjectsCmd)
+                        && !(cmdObj instanceof ListProjectAccountsCmd)
+                        && !(cmdObj instanceof ListProjectInvitationsCmd)
+                        && !(cmdObj instanceof ListHostsCmd)
+                        && !(cmdObj instanceof ListVolumesCmd)
+                        && !(cmdObj instanceof ListUsersCmd)
+                        && !(cmdObj instanceof ListAccountsCmd)
+                        && !(cmdObj instanceof ListStoragePoolsCmd)
+                        && !(cmdObj instanceof ListDiskOfferingsCmd)
+                        && !(cmdObj instanceof ListServiceOfferingsCmd)
+                        && !(cmdObj instanceof ListZonesByCmd)
+                        ) {
+                    buildAsyncListResponse((BaseListCmd) cmdObj, caller);
+                }
 
-            SerializationContext.current().setUuidTranslation(true);
-            return ApiResponseSerializer.toSerializedString((ResponseObject) cmdObj.getResponseObject(), cmdObj.getResponseType());
+                SerializationContext.current().setUuidTranslation(true);
+                return (ResponseObject) cmdObj.getResponseObject();
+            } finally {
+                if (enrich) {
+                    ResponseEnrichmentContext.unregister();
+                }
+            }
         }
     }
 
@@ -658,6 +769,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
 
             String signatureVersion = null;
             String expires = null;
+            StringBuilder unsignedRequestSb = new StringBuilder(256);
 
             for (String paramName : parameterNames) {
                 // parameters come as name/value pairs in the form String/String[]
@@ -675,11 +787,10 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                         expires = paramValue;
                     }
 
-                    if (unsignedRequest == null) {
-                        unsignedRequest = paramName + "=" + URLEncoder.encode(paramValue, "UTF-8").replaceAll("\\+", "%20");
-                    } else {
-                        unsignedRequest = unsignedRequest + "&" + paramName + "=" + URLEncoder.encode(paramValue, "UTF-8").replaceAll("\\+", "%20");
+                    if (unsignedRequestSb.length() > 0) {
+                        unsignedRequestSb.append('&');
                     }
+                    unsignedRequestSb.append(paramName).append('=').append(URLEncoder.encode(paramValue, "UTF-8").replace("+", "%20"));
                 }
             }
 
@@ -697,13 +808,11 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                     s_logger.debug("Missing Expires parameter -- ignoring request. Signature: " + signature + ", apiKey: " + apiKey);
                     return false;
                 }
-                synchronized (_dateFormat) {
-                    try {
-                        expiresTS = _dateFormat.parse(expires);
-                    } catch (ParseException pe) {
-                        s_logger.debug("Incorrect date format for Expires parameter", pe);
-                        return false;
-                    }
+                try {
+                    expiresTS = s_expiresFormat.get().parse(expires);
+                } catch (ParseException pe) {
+                    s_logger.debug("Incorrect date format for Expires parameter", pe);
+                    return false;
                 }
                 Date now = new Date(System.currentTimeMillis());
                 if (expiresTS.before(now)) {
@@ -746,9 +855,13 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                 return false;
             }
 
-            unsignedRequest = unsignedRequest.toLowerCase();
+            unsignedRequest = unsignedRequestSb.toString().toLowerCase();
 
-            Mac mac = Mac.getInstance("HmacSHA1");
+            Mac mac = s_hmacSha1.get();
+            if (mac == null) {
+                mac = Mac.getInstance("HmacSHA1");
+                s_hmacSha1.set(mac);
+            }
             SecretKeySpec keySpec = new SecretKeySpec(secretKey.getBytes(), "HmacSHA1");
             mac.init(keySpec);
             mac.update(unsignedRequest.getBytes());
@@ -20,8 +20,10 @@ import java.util.Map;
 
 import javax.servlet.http.HttpSession;
 
+import org.apache.cloudstack.api.ResponseObject;
 import org.apache.cloudstack.api.ServerApiException;
 
+import com.cloud.api.ApiResponseCache.CachedResponse;
 import com.cloud.exception.CloudAuthenticationException;
 
 public interface ApiServerService {
@@ -35,4 +37,20 @@ public interface ApiServerService {
     public String getSerializedApiError(ServerApiException ex, Map<String, Object[]> apiCommandParams, String responseType);
 
     public String handleRequest(Map params, String responseType, StringBuffer auditTrailSb) throws ServerApiException;
+
+    /**
+     * Executes the request like handleRequest, but leaves the response unserialized so that it can be
+     * written to the client while it is serialized.  The caller records the response in the audit trail.
+     */
+    public ResponseObject executeRequest(Map params, String responseType, StringBuffer auditTrailSb) throws ServerApiException;
+
+    public String serializeResponse(Map params, ResponseObject response, String responseType, StringBuffer auditTrailSb) throws ServerApiException;
+
+    /**
+     * Handles the request of a list API whose responses are cached, from the cache if possible.  Counts
+     * the response as not modified if it matches ifNoneMatch, the caller then only sends its etag.
+     *
+     * @return the response, null if the responses of the API are not cached
+     */
+    public CachedResponse handleCachedRequest(Map params, String responseType, String ifNoneMatch, StringBuffer auditTrailSb) throws ServerApiException;
 }
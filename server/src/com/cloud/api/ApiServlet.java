@@ -16,12 +16,18 @@
 // under the License.
 package com.cloud.api;
 
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URLDecoder;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 import javax.inject.Inject;
 import javax.servlet.ServletConfig;
@@ -37,9 +43,13 @@ import org.springframework.web.context.support.SpringBeanAutowiringSupport;
 
 import org.apache.cloudstack.api.ApiErrorCode;
 import org.apache.cloudstack.api.BaseCmd;
+import org.apache.cloudstack.api.ResponseObject;
 import org.apache.cloudstack.api.ServerApiException;
+import org.apache.cloudstack.api.response.ListResponse;
 import org.apache.cloudstack.context.CallContext;
 
+import com.cloud.api.ApiResponseCache.CachedResponse;
+import com.cloud.api.response.ApiResponseSerializer;
 import com.cloud.exception.CloudAuthenticationException;
 import com.cloud.user.Account;
 import com.cloud.user.AccountService;
@@ -52,6 +62,7 @@ import com.cloud.utils.db.EntityManager;
 public class ApiServlet extends HttpServlet {
     public static final Logger s_logger = Logger.getLogger(ApiServlet.class.getName());
     private static final Logger s_accessLogger = Logger.getLogger("apiserver." + ApiServer.class.getName());
+    private static final int STREAM_BUFFER_SIZE = 8192;
 
     @Inject ApiServerService _apiServer;
     @Inject AccountService _accountMgr;
@@ -309,8 +320,19 @@ public class ApiServlet extends HttpServlet {
 
                 // Add the HTTP method (GET/POST/PUT/DELETE) as well into the params map.
                 params.put("httpmethod", new String[] { req.getMethod() });
-                String response = _apiServer.handleRequest(params, responseType, auditTrailSb);
-                writeResponse(resp, response != null ? response : "", HttpServletResponse.SC_OK, responseType);
+                String ifNoneMatch = req.getHeader("If-None-Match");
+                CachedResponse cachedResponse = _apiServer.handleCachedRequest(params, responseType, ifNoneMatch, auditTrailSb);
+                if (cachedResponse != null) {
+                    writeCachedResponse(resp, cachedResponse, ifNoneMatch, responseType);
+                } else {
+                    ResponseObject response = _apiServer.executeRequest(params, responseType, auditTrailSb);
+                    if (response instanceof ListResponse && ApiServer.streamListResponses) {
+                        writeStreamedResponse(req, resp, response, responseType, auditTrailSb);
+                    } else {
+                        String responseText = _apiServer.serializeResponse(params, response, responseType, auditTrailSb);
+                        writeResponse(resp, responseText != null ? responseText : "", HttpServletResponse.SC_OK, responseType);
+                    }
+                }
             } else {
                 if (session != null) {
                     try {
@@ -374,6 +396,150 @@ public class ApiServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Writes a response of a list API whose responses are cached, with its etag so that the client can
+     * ask for it again with If-None-Match, and only the etag if the client already has it.
+     */
+    private void writeCachedResponse(HttpServletResponse resp, CachedResponse response, String ifNoneMatch, String responseType) {
+        resp.setHeader("ETag", response.getEtag());
+        // responses are per account, and clients are to revalidate them every time
+        resp.setHeader("Cache-Control", "private, no-cache");
+        if (response.matches(ifNoneMatch)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        writeResponse(resp, response.getResponse(), HttpServletResponse.SC_OK, responseType);
+    }
+
+    /**
+     * Writes a list response while it is serialized, instead of serializing it into a String first, so
+     * that listing thousands of objects does not need memory for all of their serialized text at once.
+     * The response goes out in chunks, gzipped if the client accepts it.  Nothing is sent before the
+     * first chunk is serialized, so a response that fails to serialize before then is answered with an
+     * error like any other; one that fails later can only be cut short.  The audit trail records the
+     * number of objects listed and the bytes written rather than the response text.
+     */
+    private void writeStreamedResponse(HttpServletRequest req, HttpServletResponse resp, ResponseObject response, String responseType, StringBuffer auditTrailSb) {
+        boolean gzip = false;
+        if (ApiServer.gzipListResponses) {
+            String acceptEncoding = req.getHeader("Accept-Encoding");
+            gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+        }
+
+        int count = 0;
+        if (((ListResponse<?>)response).getResponses() != null) {
+            count = ((ListResponse<?>)response).getResponses().size();
+        }
+
+        StreamedResponseWriter streamed = new StreamedResponseWriter(resp, responseType, gzip);
+        try {
+            Writer out = new BufferedWriter(streamed, STREAM_BUFFER_SIZE);
+            ApiResponseSerializer.writeSerializedResponse(response, responseType, out);
+            out.close();
+        } catch (IOException ioex) {
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("exception writing response: " + ioex);
+            }
+        } catch (RuntimeException ex) {
+            if (!streamed.isCommitted()) {
+                throw ApiServer.serializationFailed(response, ex);
+            }
+            if (!(ex instanceof IllegalStateException)) {
+                s_logger.error("unknown exception writing api response, the response was cut short", ex);
+            }
+        }
+        auditTrailSb.append(" " + HttpServletResponse.SC_OK + " " + response.getResponseName() + " listed " + count + " objects, " + streamed.getCount() + " bytes"
+                + (gzip ? " gzipped" : ""));
+    }
+
+    /**
+     * Commits the response and opens its output stream on the first write, so that the status and
+     * headers go out only once there is serialized text to send.
+     */
+    private static class StreamedResponseWriter extends Writer {
+        private final HttpServletResponse _resp;
+        private final String _responseType;
+        private final boolean _gzip;
+        private CountingOutputStream _counter;
+        private Writer _out;
+
+        public StreamedResponseWriter(HttpServletResponse resp, String responseType, boolean gzip) {
+            _resp = resp;
+            _responseType = responseType;
+            _gzip = gzip;
+        }
+
+        private Writer open() throws IOException {
+            if (_out == null) {
+                if (BaseCmd.RESPONSE_TYPE_JSON.equalsIgnoreCase(_responseType)) {
+                    _resp.setContentType(ApiServer.jsonContentType + "; charset=UTF-8");
+                } else {
+                    _resp.setContentType("text/xml; charset=UTF-8");
+                }
+                _resp.setStatus(HttpServletResponse.SC_OK);
+                if (ApiServer.gzipListResponses) {
+                    _resp.addHeader("Vary", "Accept-Encoding");
+                }
+                if (_gzip) {
+                    _resp.setHeader("Content-Encoding", "gzip");
+                }
+                _counter = new CountingOutputStream(_resp.getOutputStream());
+                OutputStream os = _gzip ? new GZIPOutputStream(_counter, STREAM_BUFFER_SIZE) : _counter;
+                _out = new OutputStreamWriter(os, "UTF-8");
+            }
+            return _out;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            open().write(cbuf, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (_out != null) {
+                _out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            open().close();
+        }
+
+        public boolean isCommitted() {
+            return _out != null;
+        }
+
+        public long getCount() {
+            return _counter != null ? _counter.getCount() : 0;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long _count;
+
+        public CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            _count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            _count += len;
+        }
+
+        public long getCount() {
+            return _count;
+        }
+    }
+
     @SuppressWarnings("rawtypes")
     private String getLoginSuccessResponse(HttpSession session, String responseType) {
         StringBuffer sb = new StringBuffer();
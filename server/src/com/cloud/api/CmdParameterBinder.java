@@ -0,0 +1,223 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import org.apache.cloudstack.api.ACL;
+import org.apache.cloudstack.api.BaseCmd;
+import org.apache.cloudstack.api.BaseCmd.CommandType;
+import org.apache.cloudstack.api.EntityReference;
+import org.apache.cloudstack.api.Parameter;
+import org.apache.cloudstack.api.command.admin.resource.ArchiveAlertsCmd;
+import org.apache.cloudstack.api.command.admin.resource.DeleteAlertsCmd;
+import org.apache.cloudstack.api.command.admin.resource.ListStatsHistoryCmd;
+import org.apache.cloudstack.api.command.user.event.ArchiveEventsCmd;
+import org.apache.cloudstack.api.command.user.event.DeleteEventsCmd;
+import org.apache.cloudstack.api.command.user.event.ListEventsCmd;
+
+import com.cloud.utils.ReflectUtil;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * The exposed @Parameter fields of an API command class, looked up once per
+ * class instead of on every request.  The fields are already made accessible
+ * and everything ApiDispatcher needs from their annotations is resolved up
+ * front, so binding the parameters of a request only reads and sets fields.
+ */
+public class CmdParameterBinder {
+    private static final Logger s_logger = Logger.getLogger(CmdParameterBinder.class);
+
+    private static final Map<Class<?>, CmdParameterBinder> s_binders = new ConcurrentHashMap<Class<?>, CmdParameterBinder>();
+
+    // date parameters of these commands also take the old date format, see ApiDispatcher
+    private static final Class<?>[] s_legacyDateCmds = {ListEventsCmd.class, DeleteEventsCmd.class, ArchiveEventsCmd.class,
+        ArchiveAlertsCmd.class, DeleteAlertsCmd.class, ListStatsHistoryCmd.class};
+
+    private final List<BoundParameter> _parameters;
+    private final boolean _hasUuidParameters;
+
+    private CmdParameterBinder(Class<?> cmdClass) {
+        boolean legacyDates = false;
+        for (Class<?> legacyCmd : s_legacyDateCmds) {
+            if (legacyCmd.isAssignableFrom(cmdClass)) {
+                legacyDates = true;
+                break;
+            }
+        }
+
+        List<BoundParameter> parameters = new ArrayList<BoundParameter>();
+        boolean hasUuidParameters = false;
+        for (Field field : ReflectUtil.getAllFieldsForClass(cmdClass, BaseCmd.class)) {
+            Parameter parameter = field.getAnnotation(Parameter.class);
+            if (parameter == null || !parameter.expose()) {
+                continue;
+            }
+
+            try {
+                field.setAccessible(true);
+            } catch (SecurityException e) {
+                throw new CloudRuntimeException("Unable to make field " + field.getName() + " of API command " + cmdClass.getName() + " accessible", e);
+            }
+            BoundParameter bound = new BoundParameter(field, parameter, legacyDates);
+            if (bound.getAcl() != null && bound.getEntities() == null) {
+                // access to the parameter could not be checked, refuse the command rather than let it through unchecked
+                throw new CloudRuntimeException("Parameter " + field.getName() + " of API command " + cmdClass.getName()
+                        + " has @ACL but its entityType has no @EntityReference");
+            }
+            hasUuidParameters |= bound.isUuid();
+            parameters.add(bound);
+        }
+        _parameters = Collections.unmodifiableList(parameters);
+        _hasUuidParameters = hasUuidParameters;
+    }
+
+    /**
+     * @return the binder of the API command class, built on first use
+     */
+    public static CmdParameterBinder getBinder(Class<?> cmdClass) {
+        CmdParameterBinder binder = s_binders.get(cmdClass);
+        if (binder == null) {
+            // building it twice in a race is harmless, both are the same
+            binder = new CmdParameterBinder(cmdClass);
+            s_binders.put(cmdClass, binder);
+        }
+        return binder;
+    }
+
+    /**
+     * Builds the binders of the API command classes ahead of their first request
+     */
+    public static void compile(Collection<Class<?>> cmdClasses) {
+        long startTick = System.currentTimeMillis();
+        int parameters = 0;
+        for (Class<?> cmdClass : cmdClasses) {
+            try {
+                parameters += getBinder(cmdClass).getParameters().size();
+            } catch (CloudRuntimeException e) {
+                s_logger.warn("Unable to build the parameter binder of API command " + cmdClass.getName() + ": " + e.getMessage());
+            }
+        }
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Built the parameter binders of " + cmdClasses.size() + " API commands with " + parameters + " parameters in "
+                    + (System.currentTimeMillis() - startTick) + " ms");
+        }
+    }
+
+    public List<BoundParameter> getParameters() {
+        return _parameters;
+    }
+
+    public boolean hasUuidParameters() {
+        return _hasUuidParameters;
+    }
+
+    public static class BoundParameter {
+        private final Field _field;
+        private final Parameter _parameter;
+        private final ACL _acl;
+        private final CommandType _type;
+        private final CommandType _collectionType;
+        private final Class<?>[] _entities;
+        private final List<Class<?>> _entityKey;
+        private final boolean _pre3x;
+        private final boolean _legacyDates;
+
+        BoundParameter(Field field, Parameter parameter, boolean legacyDates) {
+            _field = field;
+            _parameter = parameter;
+            _acl = field.getAnnotation(ACL.class);
+            _type = parameter.type();
+            _collectionType = parameter.collectionType();
+            // There may be multiple entities defined on the @EntityReference of a Response.class
+            // UUID CommandType would expect only one entityType, so use the first entityType
+            Class<?>[] entityType = parameter.entityType();
+            EntityReference reference = entityType.length > 0 ? entityType[0].getAnnotation(EntityReference.class) : null;
+            _entities = reference != null ? reference.value() : null;
+            _entityKey = _entities != null ? Collections.unmodifiableList(Arrays.asList(_entities)) : null;
+            // If annotation's empty, the cmd existed before 3.x
+            _pre3x = parameter.since().isEmpty();
+            _legacyDates = legacyDates;
+        }
+
+        public Field getField() {
+            return _field;
+        }
+
+        public Parameter getParameter() {
+            return _parameter;
+        }
+
+        public String getName() {
+            return _parameter.name();
+        }
+
+        /**
+         * @return the @ACL annotation of the field, null if it has none
+         */
+        public ACL getAcl() {
+            return _acl;
+        }
+
+        public CommandType getType() {
+            return _type;
+        }
+
+        public CommandType getCollectionType() {
+            return _collectionType;
+        }
+
+        /**
+         * @return the entities the parameter refers to, null if it doesn't refer to any
+         */
+        public Class<?>[] getEntities() {
+            return _entities;
+        }
+
+        /**
+         * @return the entities the parameter refers to as a list that parameters referring to the same
+         * entities are equal on, null if it doesn't refer to any
+         */
+        public List<Class<?>> getEntityKey() {
+            return _entityKey;
+        }
+
+        public boolean isPre3x() {
+            return _pre3x;
+        }
+
+        public boolean isLegacyDates() {
+            return _legacyDates;
+        }
+
+        /**
+         * @return true if the parameter takes uuids which are translated to internal ids
+         */
+        public boolean isUuid() {
+            return _type == CommandType.UUID || (_type == CommandType.LIST && _collectionType == CommandType.UUID);
+        }
+    }
+}
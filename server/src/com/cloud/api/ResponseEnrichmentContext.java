@@ -0,0 +1,103 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers the entities looked up while building the responses of one API
+ * request, so that the zone, account, domain and so on shared by the objects
+ * of a list are read from the database once for the whole list.  The list
+ * APIs also load what a page of objects refers to in bulk before creating
+ * their responses, see the prefetch methods of ApiDBUtils.
+ *
+ * There is only a context while ApiServer dispatches a command, lookups
+ * anywhere else go to the database as before.
+ */
+public class ResponseEnrichmentContext {
+    private static ThreadLocal<ResponseEnrichmentContext> s_currentContext = new ThreadLocal<ResponseEnrichmentContext>();
+
+    public enum Entity {
+        Zone, Account, Domain, Network, Vlan, IpAddress, UserVm, Vpc, PhysicalNetwork, Volume, Project, ResourceTags
+    }
+
+    private final Map<Entity, Map<Object, Object>> _entities = new EnumMap<Entity, Map<Object, Object>>(Entity.class);
+
+    private ResponseEnrichmentContext() {
+    }
+
+    /**
+     * @return the context of the request being dispatched by this thread, null if there is none
+     */
+    public static ResponseEnrichmentContext current() {
+        return s_currentContext.get();
+    }
+
+    public static ResponseEnrichmentContext register() {
+        ResponseEnrichmentContext context = new ResponseEnrichmentContext();
+        s_currentContext.set(context);
+        return context;
+    }
+
+    public static void unregister() {
+        s_currentContext.remove();
+    }
+
+    /**
+     * @return true if the entity has been looked up, including if it was not found
+     */
+    public boolean isLoaded(Entity entity, Object key) {
+        Map<Object, Object> loaded = _entities.get(entity);
+        return loaded != null && loaded.containsKey(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(Entity entity, Object key) {
+        Map<Object, Object> loaded = _entities.get(entity);
+        return loaded != null ? (T)loaded.get(key) : null;
+    }
+
+    /**
+     * Remembers what a lookup found, null if it found nothing
+     */
+    public void put(Entity entity, Object key, Object value) {
+        Map<Object, Object> loaded = _entities.get(entity);
+        if (loaded == null) {
+            loaded = new HashMap<Object, Object>();
+            _entities.put(entity, loaded);
+        }
+        loaded.put(key, value);
+    }
+
+    /**
+     * @return the keys that have not been looked up yet, without nulls and duplicates
+     */
+    public <K> Set<K> notLoaded(Entity entity, Collection<K> keys) {
+        Set<K> notLoaded = new HashSet<K>();
+        for (K key : keys) {
+            if (key != null && !isLoaded(entity, key)) {
+                notLoaded.add(key);
+            }
+        }
+        return notLoaded;
+    }
+}
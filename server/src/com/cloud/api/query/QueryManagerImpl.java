@@ -35,6 +35,7 @@ import org.apache.cloudstack.affinity.AffinityGroupResponse;
 import org.apache.cloudstack.affinity.AffinityGroupVMMapVO;
 import org.apache.cloudstack.affinity.dao.AffinityGroupDomainMapDao;
 import org.apache.cloudstack.affinity.dao.AffinityGroupVMMapDao;
+import org.apache.cloudstack.api.BaseListCmd;
 import org.apache.cloudstack.api.BaseListProjectAndAccountResourcesCmd;
 import org.apache.cloudstack.api.command.admin.host.ListHostsCmd;
 import org.apache.cloudstack.api.command.admin.internallb.ListInternalLBVMsCmd;
@@ -697,9 +698,28 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         List<UserVmResponse> vmResponses = ViewResponseHelper.createUserVmResponse("virtualmachine", cmd.getDetails(),
                 result.first().toArray(new UserVmJoinVO[result.first().size()]));
         response.setResponses(vmResponses, result.second());
+
+        Set<Long> vmIds = new HashSet<Long>();
+        long lastId = 0;
+        for (UserVmJoinVO vm : result.first()) {
+            vmIds.add(vm.getId());
+            lastId = Math.max(lastId, vm.getId());
+        }
+        setNextPageToken(response, cmd, vmIds.size(), lastId);
         return response;
     }
 
+    /**
+     * Gives a full page a token that lets the next page seek past its last
+     * row instead of skipping rows with an offset.
+     */
+    private void setNextPageToken(ListResponse<?> response, BaseListCmd cmd, int pageItems, long lastId) {
+        Long pageSize = cmd.getPageSizeVal();
+        if (pageSize != null && pageItems > 0 && pageItems >= pageSize.longValue()) {
+            response.setNextPageToken(BaseListCmd.encodePageToken(lastId));
+        }
+    }
+
     private Pair<List<UserVmJoinVO>, Integer> searchForUserVMsInternal(ListVMsCmd cmd) {
         Account caller = CallContext.current().getCallingAccount();
         List<Long> permittedAccounts = new ArrayList<Long>();
@@ -753,6 +773,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
             c.addCriteria(Criteria.ACCOUNTID, permittedAccounts.toArray());
         }
         c.addCriteria(Criteria.ISADMIN, _accountMgr.isAdmin(caller.getType()));
+        c.addCriteria(Criteria.SEEK_AFTER, cmd.getPageTokenId());
 
         return searchForUserVMsByCriteria(c, caller, domainId, isRecursive, permittedAccounts, listAll,
                 listProjectResourcesCriteria, tags);
@@ -763,6 +784,10 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
             ListProjectResourcesCriteria listProjectResourcesCriteria, Map<String, String> tags) {
         Filter searchFilter = new Filter(UserVmJoinVO.class, c.getOrderBy(), c.getAscending(), c.getOffset(),
                 c.getLimit());
+        Long seekAfter = (Long)c.getCriteria(Criteria.SEEK_AFTER);
+        if (seekAfter != null) {
+            searchFilter.seekAfter(seekAfter);
+        }
 
         // first search distinct vm id by using query criteria and pagination
         SearchBuilder<UserVmJoinVO> sb = _userVmJoinDao.createSearchBuilder();
@@ -931,10 +956,11 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
             sc.setParameters("affinityGroupId", affinityGroupId);
         }
 
-        // search vm details by ids
+        // search vm details by ids; the count ignores the seek of a page
+        // token, so token pages report the total like offset pages do
         Pair<List<UserVmJoinVO>, Integer> uniqueVmPair = _userVmJoinDao.searchAndCount(sc, searchFilter);
         Integer count = uniqueVmPair.second();
-        if (count.intValue() == 0) {
+        if (uniqueVmPair.first().isEmpty()) {
             // handle empty result cases
             return uniqueVmPair;
         }
@@ -1603,6 +1629,14 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         List<VolumeResponse> volumeResponses = ViewResponseHelper.createVolumeResponse(result.first().toArray(
                 new VolumeJoinVO[result.first().size()]));
         response.setResponses(volumeResponses, result.second());
+
+        Set<Long> volumeIds = new HashSet<Long>();
+        long lastId = Long.MAX_VALUE;
+        for (VolumeJoinVO volume : result.first()) {
+            volumeIds.add(volume.getId());
+            lastId = Math.min(lastId, volume.getId());
+        }
+        setNextPageToken(response, cmd, volumeIds.size(), lastId);
         return response;
     }
 
@@ -1631,8 +1665,17 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         Long domainId = domainIdRecursiveListProject.first();
         Boolean isRecursive = domainIdRecursiveListProject.second();
         ListProjectResourcesCriteria listProjectResourcesCriteria = domainIdRecursiveListProject.third();
-        Filter searchFilter = new Filter(VolumeJoinVO.class, "created", false, cmd.getStartIndex(),
+        // newest first; ids grow with creation time and, unlike the created
+        // date, are unique so pages can seek on them. Requests without a
+        // token use the same order, as their full pages hand out the token
+        // for the next one; only volumes created in the same second can come
+        // back in a different order than when sorting on created.
+        Filter searchFilter = new Filter(VolumeJoinVO.class, "id", false, cmd.getStartIndex(),
                 cmd.getPageSizeVal());
+        Long seekAfter = cmd.getPageTokenId();
+        if (seekAfter != null) {
+            searchFilter.seekAfter(seekAfter);
+        }
 
         // hack for now, this should be done better but due to needing a join I
         // opted to
@@ -1718,7 +1761,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         // search Volume details by ids
         Pair<List<VolumeJoinVO>, Integer> uniqueVolPair = _volumeJoinDao.searchAndCount(sc, searchFilter);
         Integer count = uniqueVolPair.second();
-        if (count.intValue() == 0) {
+        if (uniqueVolPair.first().isEmpty()) {
             // empty result
             return uniqueVolPair;
         }
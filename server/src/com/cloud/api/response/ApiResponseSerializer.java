@@ -31,6 +31,9 @@ import org.apache.cloudstack.api.ResponseObject;
 import org.apache.cloudstack.api.response.*;
 import org.apache.log4j.Logger;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
@@ -50,6 +53,21 @@ public class ApiResponseSerializer {
         }
     }
 
+    /**
+     * Serializes the response straight to out, one list item at a time, so that a large list response
+     * is never held in memory as a whole
+     */
+    public static void writeSerializedResponse(ResponseObject result, String responseType, Writer out) throws IOException {
+        s_logger.trace("===Serializing Response===");
+        if (BaseCmd.RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
+            if (result != null) {
+                writeJSON(result, out);
+            }
+        } else {
+            writeXML(result, out);
+        }
+    }
+
     private static final Pattern s_unicodeEscapePattern = Pattern.compile("\\\\u([0-9A-Fa-f]{4})");
 
     public static String unescape(String escaped) {
@@ -63,67 +81,87 @@ public class ApiResponseSerializer {
 
     public static String toJSONSerializedString(ResponseObject result) {
         if (result != null) {
-            Gson gson = ApiResponseGsonHelper.getBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
+            StringWriter out = new StringWriter();
+            try {
+                writeJSON(result, out);
+            } catch (IOException e) {
+                throw new CloudRuntimeException("Unable to serialize " + result.getResponseName(), e);
+            }
+            return out.toString();
+        }
+        return null;
+    }
 
-            StringBuilder sb = new StringBuilder();
+    private static void writeJSON(ResponseObject result, Writer sb) throws IOException {
+        Gson gson = ApiResponseGsonHelper.getBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
 
-            sb.append("{ \"").append(result.getResponseName()).append("\" : ");
-            if (result instanceof ListResponse) {
-                List<? extends ResponseObject> responses = ((ListResponse) result).getResponses();
-                Integer count = ((ListResponse) result).getCount();
-                boolean nonZeroCount = (count != null && count.longValue() != 0);
-                if (nonZeroCount) {
-                    sb.append("{ \"").append(ApiConstants.COUNT).append("\":").append(count);
+        sb.append("{ \"").append(result.getResponseName()).append("\" : ");
+        if (result instanceof ListResponse) {
+            List<? extends ResponseObject> responses = ((ListResponse) result).getResponses();
+            Integer count = ((ListResponse) result).getCount();
+            boolean nonZeroCount = (count != null && count.longValue() != 0);
+            if (nonZeroCount) {
+                sb.append("{ \"").append(ApiConstants.COUNT).append("\":").append(String.valueOf(count));
+                String nextPageToken = ((ListResponse) result).getNextPageToken();
+                if (nextPageToken != null) {
+                    sb.append(" ,\"").append(ApiConstants.NEXT_PAGE_TOKEN).append("\":\"").append(nextPageToken).append("\"");
                 }
+            }
 
-                if ((responses != null) && !responses.isEmpty()) {
-                    String jsonStr = gson.toJson(responses.get(0));
-                    jsonStr = unescape(jsonStr);
-
-                    if (nonZeroCount) {
-                        sb.append(" ,\"").append(responses.get(0).getObjectName()).append("\" : [  ").append(jsonStr);
-                    }
-
-                    for (int i = 1; i < ((ListResponse) result).getResponses().size(); i++) {
-                        jsonStr = gson.toJson(responses.get(i));
-                        jsonStr = unescape(jsonStr);
-                        sb.append(", ").append(jsonStr);
-                    }
-                    sb.append(" ] }");
-                } else  {
-                    if (!nonZeroCount){
-                        sb.append("{");
-                    }
+            if ((responses != null) && !responses.isEmpty()) {
+                String jsonStr = gson.toJson(responses.get(0));
+                jsonStr = unescape(jsonStr);
 
-                    sb.append(" }");
+                if (nonZeroCount) {
+                    sb.append(" ,\"").append(responses.get(0).getObjectName()).append("\" : [  ").append(jsonStr);
                 }
-            } else if (result instanceof SuccessResponse) {
-                sb.append("{ \"success\" : \"").append(((SuccessResponse) result).getSuccess()).append("\"} ");
-            } else if (result instanceof ExceptionResponse) {
-            	String jsonErrorText = gson.toJson((ExceptionResponse) result);
-            	jsonErrorText = unescape(jsonErrorText);
-            	sb.append(jsonErrorText);
-            } else {
-                String jsonStr = gson.toJson(result);
-                if ((jsonStr != null) && !"".equals(jsonStr)) {
+
+                for (int i = 1; i < ((ListResponse) result).getResponses().size(); i++) {
+                    jsonStr = gson.toJson(responses.get(i));
                     jsonStr = unescape(jsonStr);
-                    if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse) {
-                        sb.append(jsonStr);
-                    } else {
-                        sb.append(" { \"").append(result.getObjectName()).append("\" : ").append(jsonStr).append(" } ");
-                    }
+                    sb.append(", ").append(jsonStr);
+                }
+                sb.append(" ] }");
+            } else  {
+                if (!nonZeroCount){
+                    sb.append("{");
+                }
+
+                sb.append(" }");
+            }
+        } else if (result instanceof SuccessResponse) {
+            sb.append("{ \"success\" : \"").append(String.valueOf(((SuccessResponse) result).getSuccess())).append("\"} ");
+        } else if (result instanceof ExceptionResponse) {
+        	String jsonErrorText = gson.toJson((ExceptionResponse) result);
+        	jsonErrorText = unescape(jsonErrorText);
+        	sb.append(jsonErrorText);
+        } else {
+            String jsonStr = gson.toJson(result);
+            if ((jsonStr != null) && !"".equals(jsonStr)) {
+                jsonStr = unescape(jsonStr);
+                if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse) {
+                    sb.append(jsonStr);
                 } else {
-                    sb.append("{ }");
+                    sb.append(" { \"").append(result.getObjectName()).append("\" : ").append(jsonStr).append(" } ");
                 }
+            } else {
+                sb.append("{ }");
             }
-            sb.append(" }");
-            return sb.toString();
         }
-        return null;
+        sb.append(" }");
     }
 
     private static String toXMLSerializedString(ResponseObject result) {
-        StringBuilder sb = new StringBuilder();
+        StringWriter out = new StringWriter();
+        try {
+            writeXML(result, out);
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Unable to serialize " + result.getResponseName(), e);
+        }
+        return out.toString();
+    }
+
+    private static void writeXML(ResponseObject result, Writer sb) throws IOException {
         sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
         sb.append("<").append(result.getResponseName()).append(" cloud-stack-version=\"").append(ApiDBUtils.getVersion()).append("\">");
 
@@ -131,8 +169,13 @@ public class ApiResponseSerializer {
             Integer count = ((ListResponse) result).getCount();
 
             if (count != null && count != 0) {
-                sb.append("<").append(ApiConstants.COUNT).append(">").append(((ListResponse) result).getCount()).
+                sb.append("<").append(ApiConstants.COUNT).append(">").append(String.valueOf(((ListResponse) result).getCount())).
                 append("</").append(ApiConstants.COUNT).append(">");
+                String nextPageToken = ((ListResponse) result).getNextPageToken();
+                if (nextPageToken != null) {
+                    sb.append("<").append(ApiConstants.NEXT_PAGE_TOKEN).append(">").append(nextPageToken).
+                    append("</").append(ApiConstants.NEXT_PAGE_TOKEN).append(">");
+                }
             }
             List<? extends ResponseObject> responses = ((ListResponse) result).getResponses();
             if ((responses != null) && !responses.isEmpty()) {
@@ -149,10 +192,9 @@ public class ApiResponseSerializer {
         }
 
         sb.append("</").append(result.getResponseName()).append(">");
-        return sb.toString();
     }
 
-    private static void serializeResponseObjXML(StringBuilder sb, ResponseObject obj) {
+    private static void serializeResponseObjXML(Writer sb, ResponseObject obj) throws IOException {
         if (!(obj instanceof SuccessResponse) && !(obj instanceof ExceptionResponse)) {
             sb.append("<").append(obj.getObjectName()).append(">");
         }
@@ -171,7 +213,7 @@ public class ApiResponseSerializer {
         return fields.toArray(new Field[] {});
     }
 
-    private static void serializeResponseObjFieldsXML(StringBuilder sb, ResponseObject obj) {
+    private static void serializeResponseObjFieldsXML(Writer sb, ResponseObject obj) throws IOException {
         boolean isAsync = false;
         if (obj instanceof AsyncJobResponse)
             isAsync = true;
@@ -17,6 +17,7 @@
 package com.cloud.capacity;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -747,6 +748,9 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
         capacitySC.addAnd("podId", SearchCriteria.Op.EQ, server.getPodId());
 
         if (startup instanceof StartupRoutingCommand) {
+            List<CapacityVO> capacitiesToPersist = new ArrayList<CapacityVO>();
+            List<CapacityVO> capacitiesToUpdate = new ArrayList<CapacityVO>();
+
             SearchCriteria<CapacityVO> capacityCPU = _capacityDao.createSearchCriteria();
             capacityCPU.addAnd("hostOrPoolId", SearchCriteria.Op.EQ, server.getId());
             capacityCPU.addAnd("dataCenterId", SearchCriteria.Op.EQ, server.getDataCenterId());
@@ -770,12 +774,12 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
                     s_logger.debug("What? new cpu is :" + newTotalCpu + ", old one is " + CapacityVOCpu.getUsedCapacity() + ","
                             + CapacityVOCpu.getReservedCapacity() + "," + CapacityVOCpu.getTotalCapacity());
                 }
-                _capacityDao.update(CapacityVOCpu.getId(), CapacityVOCpu);
+                capacitiesToUpdate.add(CapacityVOCpu);
             } else {
                 CapacityVO capacity = new CapacityVO(server.getId(), server.getDataCenterId(), server.getPodId(), server.getClusterId(), 0L,
                         server.getCpus().longValue() * server.getSpeed().longValue(),
                         CapacityVO.CAPACITY_TYPE_CPU);
-                _capacityDao.persist(capacity);
+                capacitiesToPersist.add(capacity);
             }
 
             SearchCriteria<CapacityVO> capacityMem = _capacityDao.createSearchCriteria();
@@ -799,12 +803,15 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
                     s_logger.debug("What? new cpu is :" + newTotalMem + ", old one is " + CapacityVOMem.getUsedCapacity() + ","
                             + CapacityVOMem.getReservedCapacity() + "," + CapacityVOMem.getTotalCapacity());
                 }
-                _capacityDao.update(CapacityVOMem.getId(), CapacityVOMem);
+                capacitiesToUpdate.add(CapacityVOMem);
             } else {
                 CapacityVO capacity = new CapacityVO(server.getId(), server.getDataCenterId(), server.getPodId(), server.getClusterId(), 0L,
                         server.getTotalMemory(), CapacityVO.CAPACITY_TYPE_MEMORY);
-                _capacityDao.persist(capacity);
+                capacitiesToPersist.add(capacity);
             }
+
+            _capacityDao.updateBatch(capacitiesToUpdate);
+            _capacityDao.persistBatch(capacitiesToPersist);
         }
 
     }
@@ -99,6 +99,7 @@ public enum Config {
 	SecurityGroupWorkerThreads("Network", ManagementServer.class, Integer.class, "network.securitygroups.workers.pool.size", "50", "Number of worker threads processing the security group update work queue", null),
 	SecurityGroupWorkGlobalLockTimeout("Network", ManagementServer.class, Integer.class, "network.securitygroups.work.lock.timeout", "300", "Lock wait timeout (seconds) while updating the security group work queue", null),
 	SecurityGroupWorkPerAgentMaxQueueSize("Network", ManagementServer.class, Integer.class, "network.securitygroups.work.per.agent.queue.size", "100", "The number of outstanding security group work items that can be queued to a host. If exceeded, work items will get dropped to conserve memory. Security Group Sync will take care of ensuring that the host gets updated eventually", null),
+	SecurityGroupWorkBatchSize("Network", ManagementServer.class, Integer.class, "network.securitygroups.work.batch.size", "50", "The number of security group work items a worker takes at a time. Updates for vms on the same host in one batch are sent in a single request", null),
 
 	SecurityGroupDefaultAdding("Network", ManagementServer.class, Boolean.class, "network.securitygroups.defaultadding", "true", "If true, the user VM would be added to the default security group by default", null),
 
@@ -202,6 +203,11 @@ public enum Config {
 	CapacitySkipcountingHours("Advanced", ManagementServer.class, Integer.class, "capacity.skipcounting.hours", "3600", "Time (in seconds) to wait before release VM's cpu and memory when VM in stopped state", null),
 	VmStatsInterval("Advanced", ManagementServer.class, Integer.class, "vm.stats.interval", "60000", "The interval (in milliseconds) when vm stats are retrieved from agents.", null),
 	VmDiskStatsInterval("Advanced", ManagementServer.class, Integer.class, "vm.disk.stats.interval", "0", "Interval (in seconds) to report vm disk statistics.", null),
+	StatsCollectorThreads("Advanced", ManagementServer.class, Integer.class, "stats.collector.threads", "10", "Number of hosts host and vm stats are retrieved from in parallel.", null),
+	StatsCollectorHostTimeout("Advanced", ManagementServer.class, Long.class, "stats.collector.host.timeout", "30000", "Time (in milliseconds) to wait for the stats of a host before leaving it out of a collection pass.", null),
+	StatsHistorySamples("Advanced", ManagementServer.class, Integer.class, "stats.history.samples", "60", "Number of host, vm and storage pool stats samples kept in memory for listStatsHistory.", null),
+	StatsHistoryCoarseSamples("Advanced", ManagementServer.class, Integer.class, "stats.history.coarse.samples", "144", "Number of averaged host, vm and storage pool stats samples kept in memory for listStatsHistory.", null),
+	StatsHistoryCoarseInterval("Advanced", ManagementServer.class, Integer.class, "stats.history.coarse.interval", "600", "Interval (in seconds) stats samples are averaged over for the longer history kept in memory.", null),
 	VmTransitionWaitInterval("Advanced", ManagementServer.class, Integer.class, "vm.tranisition.wait.interval", "3600", "Time (in seconds) to wait before taking over a VM in transition state", null),
         VmDiskThrottlingIopsReadRate("Advanced", ManagementServer.class, Integer.class, "vm.disk.throttling.iops_read_rate", "0", "Default disk I/O read rate in requests per second allowed in User vm's disk.", null),
         VmDiskThrottlingIopsWriteRate("Advanced", ManagementServer.class, Integer.class, "vm.disk.throttling.iops_write_rate", "0", "Default disk I/O writerate in requests per second allowed in User vm's disk.", null),
@@ -229,6 +235,8 @@ public enum Config {
     SetVmInternalNameUsingDisplayName("Advanced", ManagementServer.class, Boolean.class, "vm.instancename.flag", "false",
             "If set to true, will set guest VM's name as it appears on the hypervisor, to its hostname", "true,false"),
     IncorrectLoginAttemptsAllowed("Advanced", ManagementServer.class, Integer.class, "incorrect.login.attempts.allowed", "5", "Incorrect login attempts allowed before the user is disabled", null),
+    ApiKeyCacheTtl("Advanced", ManagementServer.class, Integer.class, "api.key.cache.ttl", "300", "Seconds the user and account of an API key are cached for verifying signed API requests, 0 to look them up on every request", null),
+    ApiKeyCacheSize("Advanced", ManagementServer.class, Integer.class, "api.key.cache.size", "10000", "Maximum number of API keys cached for verifying signed API requests", null),
     // Ovm
     OvmPublicNetwork("Hidden", ManagementServer.class, String.class, "ovm.public.network.device", null, "Specify the public bridge on host for public network", null),
     OvmPrivateNetwork("Hidden", ManagementServer.class, String.class, "ovm.private.network.device", null, "Specify the private bridge on host for private network", null),
@@ -281,6 +289,9 @@ public enum Config {
     DirectNetworkStatsInterval("Usage", ManagementServer.class, Integer.class, "direct.network.stats.interval", "86400", "Interval (in seconds) to collect stats from Traffic Monitor", null),
     UsageSanityCheckInterval("Usage", ManagementServer.class, Integer.class, "usage.sanity.check.interval", null, "Interval (in days) to check sanity of usage data", null),
     UsageAggregationTimezone("Usage", ManagementServer.class, String.class, "usage.aggregation.timezone", "GMT", "The timezone to use for usage stats aggregation", null),
+    UsageParseWorkers("Usage", ManagementServer.class, Integer.class, "usage.parse.workers", "4", "Number of threads the usage server parses accounts with", null),
+    UsageParsePartitionSize("Usage", ManagementServer.class, Integer.class, "usage.parse.partition.size", "500", "Number of accounts parsed and committed together by a usage parse thread", null),
+    UsageAggregationIncremental("Usage", ManagementServer.class, Boolean.class, "usage.aggregation.incremental", "false", "Keep the open running and allocated vm usage intervals in memory and update them from new usage events, instead of reading them again for every account and aggregation range. Other usage types are still read from the database.", null),
     TrafficSentinelIncludeZones("Usage", ManagementServer.class, Integer.class, "traffic.sentinel.include.zones", "EXTERNAL", "Traffic going into specified list of zones is metered. For metering all traffic leave this parameter empty", null),
     TrafficSentinelExcludeZones("Usage", ManagementServer.class, Integer.class, "traffic.sentinel.exclude.zones", "", "Traffic going into specified list of zones is not metered.", null),
 
@@ -318,6 +329,10 @@ public enum Config {
 	//disabling lb as cluster sync does not work with distributed cluster
 	SubDomainNetworkAccess("Advanced", NetworkOrchestrationService.class, Boolean.class, "allow.subdomain.network.access", "true", "Allow subdomains to use networks dedicated to their parent domain(s)", null),
 	EncodeApiResponse("Advanced", ManagementServer.class, Boolean.class, "encode.api.response", "false", "Do URL encoding for the api response, false by default", null),
+	StreamApiListResponses("Advanced", ManagementServer.class, Boolean.class, "api.list.response.streaming", "true", "Write the responses of list APIs to the client while they are serialized, instead of building them in memory first", null),
+	GzipApiListResponses("Advanced", ManagementServer.class, Boolean.class, "api.list.response.gzip", "true", "Compress streamed list API responses with gzip for clients that accept it", null),
+	ApiListResponseCacheTtl("Advanced", ManagementServer.class, Integer.class, "api.list.response.cache.ttl", "5", "Seconds the responses of cacheable list APIs (listZones, listServiceOfferings, listTemplates, listCapacity) are served from cache, 0 to disable the cache", null),
+	ApiListResponseCacheSize("Advanced", ManagementServer.class, Integer.class, "api.list.response.cache.size", "1000", "Maximum number of list API responses cached per API", null),
 	DnsBasicZoneUpdates("Advanced", NetworkOrchestrationService.class, String.class, "network.dns.basiczone.updates", "all", "This parameter can take 2 values: all (default) and pod. It defines if DHCP/DNS requests have to be send to all dhcp servers in cloudstack, or only to the one in the same pod", "all,pod"),
 
 	ClusterMessageTimeOutSeconds("Advanced", ManagementServer.class, Integer.class, "cluster.message.timeout.seconds", "300", "Time (in seconds) to wait before a inter-management server message post times out.", null),
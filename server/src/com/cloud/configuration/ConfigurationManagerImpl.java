@@ -124,6 +124,7 @@ import com.cloud.domain.dao.DomainDao;
 import com.cloud.event.ActionEvent;
 import com.cloud.event.EventTypes;
 import com.cloud.event.UsageEventUtils;
+import com.cloud.event.UsageEventVO;
 import com.cloud.exception.ConcurrentOperationException;
 import com.cloud.exception.InsufficientCapacityException;
 import com.cloud.exception.InvalidParameterValueException;
@@ -3035,11 +3036,7 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
             // generate usage event for dedication of every ip address in the
             // range
             List<IPAddressVO> ips = _publicIpAddressDao.listByVlanId(vlan.getId());
-            for (IPAddressVO ip : ips) {
-                UsageEventUtils.publishUsageEvent(EventTypes.EVENT_NET_IP_ASSIGN, vlanOwner.getId(), ip
-                        .getDataCenterId(), ip.getId(), ip.getAddress().toString(), ip.isSourceNat(), vlan
-                        .getVlanType().toString(), ip.getSystem(), ip.getClass().getName(), ip.getUuid());
-            }
+            publishIpUsageEvents(EventTypes.EVENT_NET_IP_ASSIGN, vlanOwner.getId(), ips, vlan.getVlanType().toString());
             // increment resource count for dedicated public ip's
             _resourceLimitMgr.incrementResourceCount(vlanOwner.getId(), ResourceType.public_ip, new Long(ips.size()));
         } else if (podId != null) {
@@ -3118,11 +3115,7 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
                                 + " removal");
                     }
                     else {
-                        for (IPAddressVO ip : ips) {
-                            UsageEventUtils.publishUsageEvent(EventTypes.EVENT_NET_IP_RELEASE, acctVln.get(0).getId(), ip
-                                    .getDataCenterId(), ip.getId(), ip.getAddress().toString(), ip.isSourceNat(), vlanRange
-                                    .getVlanType().toString(), ip.getSystem(), ip.getClass().getName(), ip.getUuid());
-                        }
+                        publishIpUsageEvents(EventTypes.EVENT_NET_IP_RELEASE, acctVln.get(0).getId(), ips, vlanRange.getVlanType().toString());
                     }
                 } finally {
                     _vlanDao.releaseFromLockTable(vlanDbId);
@@ -3235,11 +3228,7 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
         txn.commit();
 
         // generate usage event for dedication of every ip address in the range
-        for (IPAddressVO ip : ips) {
-            UsageEventUtils.publishUsageEvent(EventTypes.EVENT_NET_IP_ASSIGN, vlanOwner.getId(), ip.getDataCenterId(),
-                    ip.getId(), ip.getAddress().toString(), ip.isSourceNat(), vlan.getVlanType().toString(),
-                    ip.getSystem(), ip.getClass().getName(), ip.getUuid());
-        }
+        publishIpUsageEvents(EventTypes.EVENT_NET_IP_ASSIGN, vlanOwner.getId(), ips, vlan.getVlanType().toString());
 
         // increment resource count for dedicated public ip's
         _resourceLimitMgr.incrementResourceCount(vlanOwner.getId(), ResourceType.public_ip, new Long(ips.size()));
@@ -3311,13 +3300,13 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
         // A Public IP range can only be dedicated to one account at a time
         if (_accountVlanMapDao.remove(acctVln.get(0).getId())) {
             // generate usage events to remove dedication for every ip in the range that has been disassociated
+            List<IPAddressVO> releasedIps = new ArrayList<IPAddressVO>(ips.size());
             for (IPAddressVO ip : ips) {
                 if (!ipsInUse.contains(ip)) {
-                    UsageEventUtils.publishUsageEvent(EventTypes.EVENT_NET_IP_RELEASE, acctVln.get(0).getAccountId(), ip
-                            .getDataCenterId(), ip.getId(), ip.getAddress().toString(), ip.isSourceNat(), vlan
-                            .getVlanType().toString(), ip.getSystem(), ip.getClass().getName(), ip.getUuid());
+                    releasedIps.add(ip);
                 }
             }
+            publishIpUsageEvents(EventTypes.EVENT_NET_IP_RELEASE, acctVln.get(0).getAccountId(), releasedIps, vlan.getVlanType().toString());
             // decrement resource count for dedicated public ip's
             _resourceLimitMgr.decrementResourceCount(acctVln.get(0).getAccountId(), ResourceType.public_ip, new Long(
                     ips.size()));
@@ -3327,6 +3316,21 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
         }
     }
 
+    private void publishIpUsageEvents(String eventType, long accountId, List<IPAddressVO> ips, String vlanType) {
+        if (ips.isEmpty()) {
+            return;
+        }
+
+        List<UsageEventVO> events = new ArrayList<UsageEventVO>(ips.size());
+        List<String> uuids = new ArrayList<String>(ips.size());
+        for (IPAddressVO ip : ips) {
+            events.add(new UsageEventVO(eventType, accountId, ip.getDataCenterId(), ip.getId(), ip.getAddress().toString(),
+                    ip.isSourceNat(), vlanType, ip.getSystem()));
+            uuids.add(ip.getUuid());
+        }
+        UsageEventUtils.publishUsageEvents(events, ips.get(0).getClass().getName(), uuids);
+    }
+
     @DB
     protected boolean savePublicIPRange(String startIP, String endIP, long zoneId, long vlanDbId, long sourceNetworkid,
             long physicalNetworkId) {
@@ -30,6 +30,8 @@ import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.apache.cloudstack.context.CallContext;
 import org.apache.cloudstack.framework.events.EventBus;
 import org.apache.cloudstack.framework.events.EventBusException;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
 
 import com.cloud.event.dao.EventDao;
 import com.cloud.server.ManagementServer;
@@ -53,6 +55,8 @@ public class ActionEventUtils {
     public static final String EntityType = "entity_type";
     public static final String EntityUuid = "entity_uuid";
     public static final String EntityDetails = "entity_details";
+    // published on the message bus with the event type when an action has changed an entity
+    public static final String ActionEventCompletedSubject = "ActionEvent.Completed";
 
     @Inject EventDao eventDao;
     @Inject AccountDao accountDao;
@@ -76,6 +80,8 @@ public class ActionEventUtils {
         Event event = persistActionEvent(userId, accountId, domainId, null, type, Event.State.Completed,
                 description, null);
 
+        publishOnMessageBus(type);
+
         return event.getId();
     }
 
@@ -132,6 +138,8 @@ public class ActionEventUtils {
         Event event = persistActionEvent(userId, accountId, null, level, type, Event.State.Completed,
                 description, startEventId);
 
+        publishOnMessageBus(type);
+
         return event.getId();
     }
 
@@ -142,6 +150,8 @@ public class ActionEventUtils {
 
         Event event = persistActionEvent(userId, accountId, null, level, type, Event.State.Created, description, null);
 
+        publishOnMessageBus(type);
+
         return event.getId();
     }
 
@@ -168,6 +178,21 @@ public class ActionEventUtils {
         return event;
     }
 
+    private static void publishOnMessageBus(String eventType) {
+        MessageBus messageBus;
+        try {
+            messageBus = ComponentContext.getComponent(MessageBus.class);
+        } catch(NoSuchBeanDefinitionException nbe) {
+            return; // nothing to notify without a message bus
+        }
+
+        try {
+            messageBus.publish(null, ActionEventCompletedSubject, PublishScope.LOCAL, eventType);
+        } catch (RuntimeException e) {
+            s_logger.warn("Failed to publish action event " + eventType + " on the message bus", e);
+        }
+    }
+
     private static void publishOnEventBus(long userId, long accountId, String eventCategory,
                                           String eventType, Event.State state, String description) {
         try {
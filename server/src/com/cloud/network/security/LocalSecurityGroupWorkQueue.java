@@ -17,12 +17,13 @@
 package com.cloud.network.security;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -34,26 +35,36 @@ import com.cloud.network.security.SecurityGroupWork.Step;
 /**
  * Security Group Work Queue that is not shared with other management servers
  *
+ * Work is coalesced per vm: a vm that is already queued is not queued again.
+ * Priority work (e.g. a vm that just started) is handed out before any
+ * background work, and submitting priority work for a vm that is already
+ * queued in the background promotes it.
  */
 public class LocalSecurityGroupWorkQueue implements SecurityGroupWorkQueue {
     protected static Logger s_logger = Logger.getLogger(LocalSecurityGroupWorkQueue.class);
 
-    //protected Set<SecurityGroupWork> _currentWork = new HashSet<SecurityGroupWork>(); 
-    protected Set<SecurityGroupWork> _currentWork = new TreeSet<SecurityGroupWork>();    
+    protected Map<Long, LocalSecurityGroupWork> _priorityWork = new LinkedHashMap<Long, LocalSecurityGroupWork>();
+    protected Map<Long, LocalSecurityGroupWork> _backgroundWork = new LinkedHashMap<Long, LocalSecurityGroupWork>();
 
     private final ReentrantLock _lock = new ReentrantLock();
     private final Condition _notEmpty = _lock.newCondition(); 
     private final AtomicInteger _count = new AtomicInteger(0);
+
+    private final QueueLatency _priorityLatency = new QueueLatency();
+    private final QueueLatency _backgroundLatency = new QueueLatency();
     
     public static class LocalSecurityGroupWork implements SecurityGroupWork, Comparable<LocalSecurityGroupWork> {
         Long _logSequenceNumber;
         Long _instanceId;
         Step _step;
+        long _submitted;
+        boolean _priority;
         
         public LocalSecurityGroupWork(Long instanceId, Long logSequence, Step step){
             this._instanceId = instanceId;
             this._logSequenceNumber = logSequence;
             this._step = step;
+            this._submitted = System.currentTimeMillis();
         }
         
         @Override
@@ -82,6 +93,10 @@ public class LocalSecurityGroupWorkQueue implements SecurityGroupWorkQueue {
             
         }
 
+        public boolean isPriority() {
+            return _priority;
+        }
+
         @Override
         public int compareTo(LocalSecurityGroupWork o) {
             //return this._instanceId.compareTo(o.getInstanceId());
@@ -104,15 +119,44 @@ public class LocalSecurityGroupWorkQueue implements SecurityGroupWorkQueue {
         }
         
     }
+
+    /**
+     * Time spent in the queue by the work handed out for one class of work
+     */
+    protected static class QueueLatency {
+        private final AtomicLong _dispatched = new AtomicLong(0);
+        private final AtomicLong _total = new AtomicLong(0);
+        private volatile long _max;
+
+        void record(long latency) {
+            _dispatched.incrementAndGet();
+            _total.addAndGet(latency);
+            if (latency > _max) {
+                _max = latency;
+            }
+        }
+
+        long getDispatched() {
+            return _dispatched.get();
+        }
+
+        double getAverage() {
+            long dispatched = _dispatched.get();
+            return dispatched == 0 ? 0 : (double)_total.get() / dispatched;
+        }
+
+        long getMax() {
+            return _max;
+        }
+    }
     
     
     @Override
     public void submitWorkForVm(long vmId, long sequenceNumber) {
         _lock.lock(); 
         try {
-            SecurityGroupWork work = new LocalSecurityGroupWork(vmId, sequenceNumber, Step.Scheduled);
-            boolean added = _currentWork.add(work);
-            if (added)
+            LocalSecurityGroupWork work = new LocalSecurityGroupWork(vmId, sequenceNumber, Step.Scheduled);
+            if (enqueue(work, false))
                 _count.incrementAndGet();
         } finally {
             _lock.unlock();
@@ -124,13 +168,17 @@ public class LocalSecurityGroupWorkQueue implements SecurityGroupWorkQueue {
    
     @Override
     public int submitWorkForVms(Set<Long> vmIds) {
+        return submitWorkForVms(vmIds, false);
+    }
+
+    @Override
+    public int submitWorkForVms(Set<Long> vmIds, boolean priority) {
         _lock.lock(); 
         int newWork = _count.get();
         try {
             for (Long vmId: vmIds) {
-                SecurityGroupWork work = new LocalSecurityGroupWork(vmId, null, SecurityGroupWork.Step.Scheduled);
-                boolean added = _currentWork.add(work);
-                if (added)
+                LocalSecurityGroupWork work = new LocalSecurityGroupWork(vmId, null, SecurityGroupWork.Step.Scheduled);
+                if (enqueue(work, priority))
                     _count.incrementAndGet();
             }
         } finally {
@@ -141,6 +189,34 @@ public class LocalSecurityGroupWorkQueue implements SecurityGroupWorkQueue {
         return newWork;
     }
 
+    /**
+     * Must be called with the lock held.
+     * @return true if the vm was not queued before
+     */
+    private boolean enqueue(LocalSecurityGroupWork work, boolean priority) {
+        Long vmId = work.getInstanceId();
+        if (_priorityWork.containsKey(vmId)) {
+            return false;
+        }
+        LocalSecurityGroupWork queued = _backgroundWork.get(vmId);
+        if (queued != null) {
+            if (priority) {
+                // keep the original submit time so the latency covers the whole wait
+                _backgroundWork.remove(vmId);
+                queued._priority = true;
+                _priorityWork.put(vmId, queued);
+            }
+            return false;
+        }
+        work._priority = priority;
+        if (priority) {
+            _priorityWork.put(vmId, work);
+        } else {
+            _backgroundWork.put(vmId, work);
+        }
+        return true;
+    }
+
     
     @Override
     public List<SecurityGroupWork> getWork(int numberOfWorkItems) throws InterruptedException {
@@ -152,14 +228,9 @@ public class LocalSecurityGroupWorkQueue implements SecurityGroupWorkQueue {
                 _notEmpty.await();
             }
             int n = Math.min(numberOfWorkItems, _count.get());
-            Iterator<SecurityGroupWork> iter = _currentWork.iterator();
-            while (i < n ) {
-                SecurityGroupWork w = iter.next();
-                w.setStep(Step.Processing);
-                work.add(w);
-                iter.remove();
-                ++i;
-            }
+            long now = System.currentTimeMillis();
+            i += dequeue(_priorityWork, n, now, _priorityLatency, work);
+            i += dequeue(_backgroundWork, n - i, now, _backgroundLatency, work);
         } finally {
             int c = _count.addAndGet(-i);
             if (c > 0)
@@ -169,6 +240,20 @@ public class LocalSecurityGroupWorkQueue implements SecurityGroupWorkQueue {
         return work;
 
     }
+
+    private int dequeue(Map<Long, LocalSecurityGroupWork> queue, int n, long now, QueueLatency latency, List<SecurityGroupWork> work) {
+        int i = 0;
+        Iterator<LocalSecurityGroupWork> iter = queue.values().iterator();
+        while (i < n && iter.hasNext()) {
+            LocalSecurityGroupWork w = iter.next();
+            w.setStep(Step.Processing);
+            latency.record(now - w._submitted);
+            work.add(w);
+            iter.remove();
+            ++i;
+        }
+        return i;
+    }
     
     private void signalNotEmpty() {
         _lock.lock();
@@ -190,7 +275,8 @@ public class LocalSecurityGroupWorkQueue implements SecurityGroupWorkQueue {
     public void clear() {
         _lock.lock();
         try {
-            _currentWork.clear();
+            _priorityWork.clear();
+            _backgroundWork.clear();
             _count.set(0);
         } finally {
             _lock.unlock();
@@ -204,15 +290,42 @@ public class LocalSecurityGroupWorkQueue implements SecurityGroupWorkQueue {
         List<Long> vmIds = new ArrayList<Long>();
         _lock.lock();
         try {
-           Iterator<SecurityGroupWork> iter = _currentWork.iterator();
-           while (iter.hasNext()) {
-               vmIds.add(iter.next().getInstanceId());
-           }
+           vmIds.addAll(_priorityWork.keySet());
+           vmIds.addAll(_backgroundWork.keySet());
         } finally {
             _lock.unlock();
         }
         return vmIds;
     }
+
+
+    @Override
+    public int getPriorityQueueSize() {
+        _lock.lock();
+        try {
+            return _priorityWork.size();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+
+    @Override
+    public long getDispatchedCount(boolean priority) {
+        return (priority ? _priorityLatency : _backgroundLatency).getDispatched();
+    }
+
+
+    @Override
+    public double getAverageQueueLatency(boolean priority) {
+        return (priority ? _priorityLatency : _backgroundLatency).getAverage();
+    }
+
+
+    @Override
+    public long getMaxQueueLatency(boolean priority) {
+        return (priority ? _priorityLatency : _backgroundLatency).getMax();
+    }
         
 
 }
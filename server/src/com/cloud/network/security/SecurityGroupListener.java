@@ -90,6 +90,7 @@ public class SecurityGroupListener implements Listener {
         for (Answer ans: answers) {
             if (ans instanceof SecurityGroupRuleAnswer) {
                 SecurityGroupRuleAnswer ruleAnswer = (SecurityGroupRuleAnswer) ans;
+                _securityGroupManager.processRulesetAnswer(agentId, ruleAnswer);
                 if (ans.getResult()) {
                     s_logger.debug("Successfully programmed rule " + ruleAnswer.toString() + " into host " + agentId);
                     _workDao.updateStep(ruleAnswer.getVmId(), ruleAnswer.getLogSequenceNumber(), Step.Done);
@@ -99,7 +100,10 @@ public class SecurityGroupListener implements Listener {
                     s_logger.debug("Failed to program rule " + ruleAnswer.toString() + " into host " + agentId 
                             +" due to " + ruleAnswer.getDetails()
                             +" and updated  jobs");
-                    if (ruleAnswer.getReason() == FailureReason.CANNOT_BRIDGE_FIREWALL) {
+                    if (ruleAnswer.getReason() == FailureReason.RULESET_MISMATCH) {
+                        s_logger.debug("Sending the full security group rules for vm " + ruleAnswer.getVmId() + " since host " + agentId + " has a different ruleset");
+                        affectedVms.add(ruleAnswer.getVmId());
+                    } else if (ruleAnswer.getReason() == FailureReason.CANNOT_BRIDGE_FIREWALL) {
                         s_logger.debug("Not retrying security group rules for vm " + ruleAnswer.getVmId() + " on failure since host " + agentId + " cannot do bridge firewalling");
                     } else if (ruleAnswer.getReason() == FailureReason.PROGRAMMING_FAILED){
                         if (checkShouldRetryOnFailure(ruleAnswer.getVmId())) {
@@ -111,10 +115,11 @@ public class SecurityGroupListener implements Listener {
                     }
                 }
                 commandNum++;
-                if (_workTracker != null)
-                    _workTracker.processAnswers(agentId, seq, answers);
             }
         }
+        // one request may carry the updates for several vms on the host
+        if (commandNum > 0 && _workTracker != null)
+            _workTracker.processAnswers(agentId, seq, answers);
 
         if (affectedVms.size() > 0) {
             _securityGroupManager.scheduleRulesetUpdateToHosts(affectedVms, false, new Long(10 * 1000l));
@@ -16,13 +16,16 @@
 // under the License.
 package com.cloud.network.security;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.ejb.Local;
 import javax.naming.ConfigurationException;
@@ -30,7 +33,10 @@ import javax.naming.ConfigurationException;
 import org.springframework.context.annotation.Primary;
 import org.springframework.stereotype.Component;
 
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.SecurityGroupRuleAnswer;
 import com.cloud.agent.api.SecurityGroupRulesCmd;
+import com.cloud.agent.api.SecurityGroupRulesCmd.IpPortAndProto;
 import com.cloud.agent.manager.Commands;
 import com.cloud.configuration.Config;
 import com.cloud.exception.AgentUnavailableException;
@@ -41,12 +47,21 @@ import com.cloud.utils.Profiler;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.vm.NicVO;
+import com.cloud.vm.VMInstanceVO;
+import com.cloud.vm.VirtualMachine;
 import com.cloud.vm.VirtualMachine.State;
 import com.cloud.network.security.SecurityRule.SecurityRuleType;
 
 /**
  * Same as the base class -- except it uses the abstracted security group work queue
  *
+ * Workers take a batch of work at a time, send all the updates for the vms on
+ * one host in a single request and compute the rules of each security group
+ * only once per batch. A vm that just started is queued ahead of the resyncs
+ * its start triggers for other vms.
+ *
+ * Hosts that report the signature of the ruleset they programmed only get the
+ * cidrs added and revoked since, until they report a different ruleset.
  */
 @Local(value={ SecurityGroupManager.class, SecurityGroupService.class })
 public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl{
@@ -57,6 +72,46 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl{
     WorkerThread[] _workers;
     private Set<Long> _disabledVms = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
     private boolean _schedulerDisabled = false;
+    private int _workBatchSize = WORK_BATCH_SIZE;
+    // rulesets sent to hosts but not answered yet, and the ones the hosts confirmed, by vm id
+    private final ConcurrentMap<Long, AppliedRuleset> _pendingRulesets = new ConcurrentHashMap<Long, AppliedRuleset>();
+    private final Map<Long, AppliedRuleset> _appliedRulesets = new ConcurrentHashMap<Long, AppliedRuleset>();
+
+    protected static final int WORK_BATCH_SIZE = 50;
+
+    /**
+     * Ruleset sent to the host of a vm, kept to send the next update to the
+     * same host as a delta against it.
+     */
+    protected static class AppliedRuleset {
+        final long _hostId;
+        final long _seqNum;
+        final String _signature;
+        final IpPortAndProto[] _ingress;
+        final IpPortAndProto[] _egress;
+
+        AppliedRuleset(long hostId, SecurityGroupRulesCmd cmd) {
+            _hostId = hostId;
+            _seqNum = cmd.getSeqNum();
+            _signature = cmd.getSignature();
+            _ingress = cmd.getIngressRuleSet();
+            _egress = cmd.getEgressRuleSet();
+        }
+    }
+
+    /**
+     * Rules computed for the security groups in one batch of work, so vms that
+     * share a group do not query the same rules and group members again.
+     */
+    protected static class RulesetCache {
+        final Map<Long, Map<PortAndProto, Set<String>>> _ingress = new HashMap<Long, Map<PortAndProto, Set<String>>>();
+        final Map<Long, Map<PortAndProto, Set<String>>> _egress = new HashMap<Long, Map<PortAndProto, Set<String>>>();
+        final Map<Long, List<String>> _members = new HashMap<Long, List<String>>();
+
+        Map<Long, Map<PortAndProto, Set<String>>> getRules(SecurityRuleType type) {
+            return type == SecurityRuleType.IngressRule ? _ingress : _egress;
+        }
+    }
 
     
     protected class WorkerThread extends Thread {
@@ -87,6 +142,30 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl{
     @Override
     //@DB
     public void scheduleRulesetUpdateToHosts(List<Long> affectedVms, boolean updateSeqno, Long delayMs) {
+        scheduleRulesetUpdates(affectedVms, updateSeqno, null);
+    }
+
+    @Override
+    public void handleVmStarted(VMInstanceVO vm) {
+        if (vm.getType() != VirtualMachine.Type.User || !isVmSecurityGroupEnabled(vm.getId()))
+            return;
+        // the host starts the vm with the default rules
+        _appliedRulesets.remove(vm.getId());
+        List<Long> affectedVms = getAffectedVmsForVmStart(vm);
+        scheduleRulesetUpdates(affectedVms, true, vm.getId());
+    }
+
+    @Override
+    protected void handleVmStopped(VMInstanceVO vm) {
+        _pendingRulesets.remove(vm.getId());
+        _appliedRulesets.remove(vm.getId());
+        super.handleVmStopped(vm);
+    }
+
+    /**
+     * @param priorityVm vm to queue ahead of the background work, may be null
+     */
+    protected void scheduleRulesetUpdates(List<Long> affectedVms, boolean updateSeqno, Long priorityVm) {
         if (affectedVms.size() == 0) {
             return;
         }
@@ -111,7 +190,12 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl{
                 throw new CloudRuntimeException("Failed to create ruleset log entries");
             }
         }
-        int newJobs = _workQueue.submitWorkForVms(workItems);
+        int newJobs = 0;
+        if (priorityVm != null && workItems.contains(priorityVm)) {
+            // already queued as priority work, so the submit below skips it
+            newJobs += _workQueue.submitWorkForVms(Collections.singleton(priorityVm), true);
+        }
+        newJobs += _workQueue.submitWorkForVms(workItems);
         _mBean.logScheduledDetails(workItems);
         p.stop();
         if (s_logger.isDebugEnabled()){
@@ -133,32 +217,51 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl{
         s_logger.trace("Checking the work queue");
         List<SecurityGroupWork> workItems;
         try {
-            workItems = _workQueue.getWork(1);
-            for (SecurityGroupWork work: workItems) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Processing " + work.getInstanceId());
-                }
+            workItems = _workQueue.getWork(_workBatchSize);
+        } catch (InterruptedException e1) {
+           s_logger.warn("SG work: caught InterruptException", e1);
+           return;
+        }
 
-                try {
-                    VmRulesetLogVO rulesetLog = _rulesetLogDao.findByVmId(work.getInstanceId());
-                    if (rulesetLog == null) {
-                        s_logger.warn("Could not find ruleset log for vm " + work.getInstanceId());
-                        continue;
-                    }
-                    work.setLogsequenceNumber(rulesetLog.getLogsequence());
-                    sendRulesetUpdates(work);
-                    _mBean.logUpdateDetails(work.getInstanceId(), work.getLogsequenceNumber());
-                }catch (Exception e) {
-                    s_logger.error("Problem during SG work " + work, e);
-                    work.setStep(Step.Error);
+        Map<Long, Commands> cmdsByHost = new HashMap<Long, Commands>();
+        List<SecurityGroupWork> sent = new ArrayList<SecurityGroupWork>(workItems.size());
+        RulesetCache cache = new RulesetCache();
+        for (SecurityGroupWork work: workItems) {
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("Processing " + work.getInstanceId());
+            }
+
+            try {
+                VmRulesetLogVO rulesetLog = _rulesetLogDao.findByVmId(work.getInstanceId());
+                if (rulesetLog == null) {
+                    s_logger.warn("Could not find ruleset log for vm " + work.getInstanceId());
+                    continue;
                 }
+                work.setLogsequenceNumber(rulesetLog.getLogsequence());
+                addRulesetUpdate(work, cmdsByHost, cache);
+                sent.add(work);
+            }catch (Exception e) {
+                s_logger.error("Problem during SG work " + work, e);
+                work.setStep(Step.Error);
             }
-        } catch (InterruptedException e1) {
-           s_logger.warn("SG work: caught InterruptException", e1);
+        }
+
+        sendRulesetUpdates(cmdsByHost);
+        for (SecurityGroupWork work : sent) {
+            _mBean.logUpdateDetails(work.getInstanceId(), work.getLogsequenceNumber());
         }
     }
     
     public void sendRulesetUpdates(SecurityGroupWork work){
+        Map<Long, Commands> cmdsByHost = new HashMap<Long, Commands>();
+        addRulesetUpdate(work, cmdsByHost, new RulesetCache());
+        sendRulesetUpdates(cmdsByHost);
+    }
+
+    /**
+     * Adds the ruleset update for the vm to the request for its host
+     */
+    protected void addRulesetUpdate(SecurityGroupWork work, Map<Long, Commands> cmdsByHost, RulesetCache cache) {
         Long userVmId = work.getInstanceId();
         UserVm vm = _userVMDao.findById(userVmId);
 
@@ -166,17 +269,16 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl{
             if (s_logger.isTraceEnabled()) { 
                 s_logger.trace("SecurityGroupManager v2: found vm, " + userVmId + " state=" + vm.getState());
             }
-            Map<PortAndProto, Set<String>> ingressRules = generateRulesForVM(userVmId, SecurityRuleType.IngressRule);
-            Map<PortAndProto, Set<String>> egressRules = generateRulesForVM(userVmId, SecurityRuleType.EgressRule);
             Long agentId = vm.getHostId();
             if (agentId != null) {
+                Map<PortAndProto, Set<String>> ingressRules = generateRulesForVM(userVmId, SecurityRuleType.IngressRule, cache);
+                Map<PortAndProto, Set<String>> egressRules = generateRulesForVM(userVmId, SecurityRuleType.EgressRule, cache);
                 String privateIp = vm.getPrivateIpAddress();
                 NicVO nic = _nicDao.findByIp4AddressAndVmId(privateIp, vm.getId());
                 List<String> nicSecIps = null;
                 if (nic != null) {
                     if (nic.getSecondaryIp()) {
                         //get secondary ips of the vm
-                        long networkId = nic.getNetworkId();
                         nicSecIps = _nicSecIpDao.getSecondaryIpAddressesForNic(nic.getId());
                     }
                 }
@@ -184,20 +286,22 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl{
                         vm.getPrivateMacAddress(), vm.getId(), null, 
                         work.getLogsequenceNumber(), ingressRules, egressRules, nicSecIps);
                 cmd.setMsId(_serverId);
+                AppliedRuleset applied = _appliedRulesets.get(userVmId);
+                _pendingRulesets.put(userVmId, new AppliedRuleset(agentId, cmd));
+                if (applied != null && applied._hostId == agentId) {
+                    cmd.convertToDelta(applied._signature, applied._ingress, applied._egress);
+                }
                 if (s_logger.isDebugEnabled()) {
-                    s_logger.debug("SecurityGroupManager v2: sending ruleset update for vm " + vm.getInstanceName() + 
+                    s_logger.debug("SecurityGroupManager v2: queueing " + (cmd.isDelta() ? "delta" : "full") + " ruleset update for vm " + vm.getInstanceName() + 
                                    ":ingress num rules=" + cmd.getIngressRuleSet().length + ":egress num rules=" + cmd.getEgressRuleSet().length + " num cidrs=" + cmd.getTotalNumCidrs() + " sig=" + cmd.getSignature());
                 }
-                Commands cmds = new Commands(cmd);
-                try {
-                    _agentMgr.send(agentId, cmds, _answerListener);
-                    if (s_logger.isTraceEnabled()) {
-                        s_logger.trace("SecurityGroupManager v2: sent ruleset updates for " + vm.getInstanceName() + " curr queue size=" + _workQueue.size());
-                    }
-                } catch (AgentUnavailableException e) {
-                    s_logger.debug("Unable to send updates for vm: " + userVmId + "(agentid=" + agentId + ")");
-                    _workTracker.handleException(agentId);
+                Commands cmds = cmdsByHost.get(agentId);
+                if (cmds == null) {
+                    // one vm failing to program must not stop the updates for the others on the host
+                    cmds = new Commands(Command.OnError.Continue);
+                    cmdsByHost.put(agentId, cmds);
                 }
+                cmds.addCommand(cmd);
             }
         } else {
             if (s_logger.isDebugEnabled()) {
@@ -209,6 +313,36 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl{
         }
     }
 
+    protected void sendRulesetUpdates(Map<Long, Commands> cmdsByHost) {
+        for (Map.Entry<Long, Commands> entry : cmdsByHost.entrySet()) {
+            Long agentId = entry.getKey();
+            Commands cmds = entry.getValue();
+            try {
+                _agentMgr.send(agentId, cmds, _answerListener);
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("SecurityGroupManager v2: sent " + cmds.size() + " ruleset updates to host " + agentId + " curr queue size=" + _workQueue.size());
+                }
+            } catch (AgentUnavailableException e) {
+                s_logger.debug("Unable to send updates for " + cmds.size() + " vms (agentid=" + agentId + ")");
+                _workTracker.handleException(agentId);
+            }
+        }
+    }
+
+    @Override
+    protected void processRulesetAnswer(long agentId, SecurityGroupRuleAnswer answer) {
+        Long vmId = answer.getVmId();
+        AppliedRuleset pending = _pendingRulesets.get(vmId);
+        if (answer.getResult() && answer.getSignature() != null && pending != null && pending._hostId == agentId
+                && answer.getLogSequenceNumber() != null && pending._seqNum == answer.getLogSequenceNumber() && pending._signature.equals(answer.getSignature())) {
+            _appliedRulesets.put(vmId, pending);
+            _pendingRulesets.remove(vmId, pending);
+        } else {
+            // what the host has programmed is unknown, so the next update is a full one
+            _appliedRulesets.remove(vmId);
+        }
+    }
+
     @Override
     public void cleanupFinishedWork() {
         //TODO: over time clean up op_vm_ruleset_log table for destroyed vms
@@ -222,36 +356,68 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl{
      */
     @Override
     protected Map<PortAndProto, Set<String>> generateRulesForVM(Long userVmId, SecurityRuleType type) {
+        return generateRulesForVM(userVmId, type, new RulesetCache());
+    }
+
+    protected Map<PortAndProto, Set<String>> generateRulesForVM(Long userVmId, SecurityRuleType type, RulesetCache cache) {
 
         Map<PortAndProto, Set<String>> allowed = new TreeMap<PortAndProto, Set<String>>();
 
         List<SecurityGroupVMMapVO> groupsForVm = _securityGroupVMMapDao.listByInstanceId(userVmId);
         for (SecurityGroupVMMapVO mapVO : groupsForVm) {
-            List<SecurityGroupRuleVO> rules = _securityGroupRuleDao.listBySecurityGroupId(mapVO.getSecurityGroupId(), type);
-            for (SecurityGroupRuleVO rule : rules) {
-                PortAndProto portAndProto = new PortAndProto(rule.getProtocol(), rule.getStartPort(), rule.getEndPort());
-                Set<String> cidrs = allowed.get(portAndProto);
+            Map<PortAndProto, Set<String>> groupRules = generateRulesForGroup(mapVO.getSecurityGroupId(), type, cache);
+            // the cached sets are shared by every vm in the group, so copy them on merge
+            for (Map.Entry<PortAndProto, Set<String>> entry : groupRules.entrySet()) {
+                Set<String> cidrs = allowed.get(entry.getKey());
                 if (cidrs == null) {
                     cidrs = new TreeSet<String>(new CidrComparator());
+                    allowed.put(entry.getKey(), cidrs);
                 }
-                if (rule.getAllowedNetworkId() != null) {
+                cidrs.addAll(entry.getValue());
+            }
+        }
+
+        return allowed;
+    }
+
+    protected Map<PortAndProto, Set<String>> generateRulesForGroup(Long securityGroupId, SecurityRuleType type, RulesetCache cache) {
+        Map<Long, Map<PortAndProto, Set<String>>> cachedRules = cache.getRules(type);
+        Map<PortAndProto, Set<String>> allowed = cachedRules.get(securityGroupId);
+        if (allowed != null) {
+            return allowed;
+        }
+
+        allowed = new TreeMap<PortAndProto, Set<String>>();
+        List<SecurityGroupRuleVO> rules = _securityGroupRuleDao.listBySecurityGroupId(securityGroupId, type);
+        for (SecurityGroupRuleVO rule : rules) {
+            PortAndProto portAndProto = new PortAndProto(rule.getProtocol(), rule.getStartPort(), rule.getEndPort());
+            Set<String> cidrs = allowed.get(portAndProto);
+            if (cidrs == null) {
+                cidrs = new TreeSet<String>(new CidrComparator());
+            }
+            if (rule.getAllowedNetworkId() != null) {
+                List<String> members = cache._members.get(rule.getAllowedNetworkId());
+                if (members == null) {
+                    members = new ArrayList<String>();
                     List<SecurityGroupVMMapVO> allowedInstances = _securityGroupVMMapDao.listBySecurityGroup(rule.getAllowedNetworkId(), State.Running);
                     for (SecurityGroupVMMapVO ngmapVO : allowedInstances) {
                         //here, we differ from the superclass: instead of creating N more queries to the
                         //nics table, we use what's already there in the VO since the listBySecurityGroup already
                         //did a join with the nics table
-                        String cidr = ngmapVO.getGuestIpAddress() + "/32";
-                        cidrs.add(cidr);
+                        members.add(ngmapVO.getGuestIpAddress() + "/32");
                     }
-                } else if (rule.getAllowedSourceIpCidr() != null) {
-                    cidrs.add(rule.getAllowedSourceIpCidr());
-                }
-                if (cidrs.size() > 0) {
-                    allowed.put(portAndProto, cidrs);
+                    cache._members.put(rule.getAllowedNetworkId(), members);
                 }
+                cidrs.addAll(members);
+            } else if (rule.getAllowedSourceIpCidr() != null) {
+                cidrs.add(rule.getAllowedSourceIpCidr());
+            }
+            if (cidrs.size() > 0) {
+                allowed.put(portAndProto, cidrs);
             }
         }
 
+        cachedRules.put(securityGroupId, allowed);
         return allowed;
     }
 
@@ -276,6 +442,7 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl{
         boolean result = super.configure(name, params);
         Map<String, String> configs = _configDao.getConfiguration("Network", params);
         int bufferLength = NumbersUtil.parseInt(configs.get(Config.SecurityGroupWorkPerAgentMaxQueueSize.key()), 100);
+        _workBatchSize = NumbersUtil.parseInt(configs.get(Config.SecurityGroupWorkBatchSize.key()), WORK_BATCH_SIZE);
         _workTracker =  new SecurityGroupWorkTracker(_agentMgr, _answerListener, bufferLength);
         _answerListener.setWorkDispatcher(_workTracker);
         return result;
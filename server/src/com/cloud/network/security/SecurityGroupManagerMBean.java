@@ -40,6 +40,20 @@ public interface SecurityGroupManagerMBean {
     Map<Long, Date> getLastUpdateSentTimestamps();
     
     int getQueueSize();
+
+    int getPriorityQueueSize();
+
+    long getPriorityWorkDispatched();
+
+    double getAveragePriorityQueueLatency();
+
+    long getMaxPriorityQueueLatency();
+
+    long getBackgroundWorkDispatched();
+
+    double getAverageBackgroundQueueLatency();
+
+    long getMaxBackgroundQueueLatency();
     
     List<Long> getVmsInQueue();
     
@@ -30,6 +30,12 @@ public interface SecurityGroupWorkQueue {
     void submitWorkForVm(long vmId, long sequenceNumber);
     
     int submitWorkForVms(Set<Long> vmIds);
+
+    /**
+     * Priority work is handed out before any background work
+     * @return number of vms that were not already queued
+     */
+    int submitWorkForVms(Set<Long> vmIds, boolean priority);
     
     List<SecurityGroupWork> getWork(int numberOfWorkItems) throws InterruptedException;
     
@@ -38,4 +44,15 @@ public interface SecurityGroupWorkQueue {
     void clear();
     
     List<Long> getVmsInQueue();
+
+    int getPriorityQueueSize();
+
+    long getDispatchedCount(boolean priority);
+
+    /**
+     * @return average time (ms) work spent queued before being handed out
+     */
+    double getAverageQueueLatency(boolean priority);
+
+    long getMaxQueueLatency(boolean priority);
 }
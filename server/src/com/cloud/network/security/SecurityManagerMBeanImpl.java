@@ -52,6 +52,41 @@ public class SecurityManagerMBeanImpl extends StandardMBean implements SecurityG
     public int getQueueSize() {
        return this._sgMgr.getQueueSize();
     }
+
+    @Override
+    public int getPriorityQueueSize() {
+        return _sgMgr.getWorkQueue().getPriorityQueueSize();
+    }
+
+    @Override
+    public long getPriorityWorkDispatched() {
+        return _sgMgr.getWorkQueue().getDispatchedCount(true);
+    }
+
+    @Override
+    public double getAveragePriorityQueueLatency() {
+        return _sgMgr.getWorkQueue().getAverageQueueLatency(true);
+    }
+
+    @Override
+    public long getMaxPriorityQueueLatency() {
+        return _sgMgr.getWorkQueue().getMaxQueueLatency(true);
+    }
+
+    @Override
+    public long getBackgroundWorkDispatched() {
+        return _sgMgr.getWorkQueue().getDispatchedCount(false);
+    }
+
+    @Override
+    public double getAverageBackgroundQueueLatency() {
+        return _sgMgr.getWorkQueue().getAverageQueueLatency(false);
+    }
+
+    @Override
+    public long getMaxBackgroundQueueLatency() {
+        return _sgMgr.getWorkQueue().getMaxQueueLatency(false);
+    }
     
     @Override
     public void logUpdateDetails(Long vmId, Long seqno) {
@@ -41,6 +41,7 @@ import org.apache.cloudstack.api.command.admin.cluster.DeleteClusterCmd;
 import org.apache.cloudstack.api.command.admin.host.AddHostCmd;
 import org.apache.cloudstack.api.command.admin.host.AddSecondaryStorageCmd;
 import org.apache.cloudstack.api.command.admin.host.CancelMaintenanceCmd;
+import org.apache.cloudstack.api.command.admin.host.ListHostRebalancePlanCmd;
 import org.apache.cloudstack.api.command.admin.host.PrepareForMaintenanceCmd;
 import org.apache.cloudstack.api.command.admin.host.ReconnectHostCmd;
 import org.apache.cloudstack.api.command.admin.host.UpdateHostCmd;
@@ -101,6 +102,7 @@ import com.cloud.ha.HighAvailabilityManager;
 import com.cloud.ha.HighAvailabilityManager.WorkType;
 import com.cloud.host.DetailVO;
 import com.cloud.host.Host;
+import com.cloud.host.HostRebalancePlan;
 import com.cloud.host.Host.Type;
 import com.cloud.host.HostStats;
 import com.cloud.host.HostVO;
@@ -133,6 +135,7 @@ import com.cloud.storage.secondary.SecondaryStorageVmManager;
 import com.cloud.user.Account;
 import com.cloud.user.AccountManager;
 import com.cloud.user.User;
+import com.cloud.utils.Pair;
 import com.cloud.utils.StringUtils;
 import com.cloud.utils.UriUtils;
 import com.cloud.utils.component.Manager;
@@ -235,6 +238,8 @@ public class ResourceManagerImpl extends ManagerBase implements ResourceManager,
     protected ConfigurationManager _configMgr;
     @Inject
     protected ClusterVSMMapDao _clusterVSMMapDao;
+    @Inject
+    protected HostRebalancePlanner _rebalancePlanner;
 
     protected long _nodeId = ManagementServerNode.getManagementServerId();
 
@@ -2492,4 +2497,16 @@ public class ResourceManagerImpl extends ManagerBase implements ResourceManager,
             return false;
         }
     }
+
+    @Override
+    public Pair<List<? extends HostRebalancePlan>, Integer> listHostRebalancePlan(ListHostRebalancePlanCmd cmd) {
+        List<? extends HostRebalancePlan> plan = _rebalancePlanner.planTransfers();
+        Long pageSize = cmd.getPageSizeVal();
+        if (pageSize == null) {
+            return new Pair<List<? extends HostRebalancePlan>, Integer>(plan, plan.size());
+        }
+        int from = (int)Math.min(plan.size(), cmd.getStartIndex());
+        int to = (int)Math.min(plan.size(), from + pageSize);
+        return new Pair<List<? extends HostRebalancePlan>, Integer>(plan.subList(from, to), plan.size());
+    }
 }
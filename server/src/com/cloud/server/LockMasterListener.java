@@ -18,6 +18,8 @@ package com.cloud.server;
 
 import java.util.List;
 
+import com.cloud.cluster.ClusterLockNotifier;
+import com.cloud.cluster.ClusterManager;
 import com.cloud.cluster.ClusterManagerListener;
 import com.cloud.cluster.ManagementServerHost;
 import com.cloud.utils.db.Merovingian2;
@@ -33,6 +35,15 @@ public class LockMasterListener implements ClusterManagerListener {
         _lockMaster = Merovingian2.createLockMaster(msId);
     }
 
+    public LockMasterListener(long msId, ClusterManager clusterMgr) {
+        this(msId);
+
+        // lets waiters on other management servers know when our locks are released
+        ClusterLockNotifier notifier = new ClusterLockNotifier(clusterMgr, _lockMaster);
+        clusterMgr.registerNotificationDispatcher(notifier);
+        _lockMaster.setLockWaiterNotifier(notifier);
+    }
+
     @Override
     public void onManagementNodeJoined(List<? extends ManagementServerHost> nodeList, long selfNodeId) {
     }
@@ -78,6 +78,7 @@ import org.apache.cloudstack.api.command.admin.host.AddSecondaryStorageCmd;
 import org.apache.cloudstack.api.command.admin.host.CancelMaintenanceCmd;
 import org.apache.cloudstack.api.command.admin.host.DeleteHostCmd;
 import org.apache.cloudstack.api.command.admin.host.FindHostsForMigrationCmd;
+import org.apache.cloudstack.api.command.admin.host.ListHostRebalancePlanCmd;
 import org.apache.cloudstack.api.command.admin.host.ListHostsCmd;
 import org.apache.cloudstack.api.command.admin.host.PrepareForMaintenanceCmd;
 import org.apache.cloudstack.api.command.admin.host.ReconnectHostCmd;
@@ -134,6 +135,7 @@ import org.apache.cloudstack.api.command.admin.resource.CleanVMReservationsCmd;
 import org.apache.cloudstack.api.command.admin.resource.DeleteAlertsCmd;
 import org.apache.cloudstack.api.command.admin.resource.ListAlertsCmd;
 import org.apache.cloudstack.api.command.admin.resource.ListCapacityCmd;
+import org.apache.cloudstack.api.command.admin.resource.ListStatsHistoryCmd;
 import org.apache.cloudstack.api.command.admin.resource.UploadCustomCertificateCmd;
 import org.apache.cloudstack.api.command.admin.router.ConfigureVirtualRouterElementCmd;
 import org.apache.cloudstack.api.command.admin.router.CreateVirtualRouterElementCmd;
@@ -814,7 +816,7 @@ public class ManagementServerImpl extends ManagerBase implements ManagementServe
     public boolean start() {
         s_logger.info("Startup CloudStack management server...");
 
-        _clusterMgr.registerListener(new LockMasterListener(ManagementServerNode.getManagementServerId()));
+        _clusterMgr.registerListener(new LockMasterListener(ManagementServerNode.getManagementServerId(), _clusterMgr));
 
         enableAdminUser("password");
         return true;
@@ -2415,6 +2417,35 @@ public class ManagementServerImpl extends ManagerBase implements ManagementServe
         return null;
     }
 
+    @Override
+    public List<? extends StatsSample> listStatsHistory(ListStatsHistoryCmd cmd) {
+        Date startDate = cmd.getStartDate();
+        Date endDate = cmd.getEndDate();
+        if (startDate != null && endDate != null && startDate.after(endDate)) {
+            throw new InvalidParameterValueException("Start date " + startDate + " is after the end date " + endDate);
+        }
+
+        StatsCollector collector = StatsCollector.getInstance();
+        Boolean coarse = null;
+        if (cmd.getInterval() != null) {
+            if (cmd.getInterval() <= 0) {
+                throw new InvalidParameterValueException("Interval must be a positive number of minutes");
+            }
+            coarse = cmd.getInterval() * 60000L >= collector.getStatsHistoryCoarseInterval();
+        }
+
+        List<StatsSample> samples = collector.listStatsHistory(cmd.getResourceType(), cmd.getResourceId(), startDate, endDate, coarse);
+        Long pageSize = cmd.getPageSizeVal();
+        if (pageSize == null) {
+            return samples;
+        }
+        int from = cmd.getStartIndex().intValue();
+        if (from >= samples.size()) {
+            return new ArrayList<StatsSample>();
+        }
+        return samples.subList(from, (int)Math.min(samples.size(), from + pageSize));
+    }
+
     @Override
     public List<CapacityVO> listCapacities(ListCapacityCmd cmd) {
 
@@ -2555,6 +2586,7 @@ public class ManagementServerImpl extends ManagerBase implements ManagementServe
         cmdList.add(UpdateRegionCmd.class);
         cmdList.add(ListAlertsCmd.class);
         cmdList.add(ListCapacityCmd.class);
+        cmdList.add(ListStatsHistoryCmd.class);
         cmdList.add(UploadCustomCertificateCmd.class);
         cmdList.add(ConfigureVirtualRouterElementCmd.class);
         cmdList.add(CreateVirtualRouterElementCmd.class);
@@ -2845,6 +2877,7 @@ public class ManagementServerImpl extends ManagerBase implements ManagementServe
         cmdList.add(ListPortableIpRangesCmd.class);
         cmdList.add(ListDeploymentPlannersCmd.class);
         cmdList.add(ReleaseHostReservationCmd.class);
+        cmdList.add(ListHostRebalancePlanCmd.class);
         cmdList.add(ScaleSystemVMCmd.class);
         cmdList.add(AddResourceDetailCmd.class);
         cmdList.add(RemoveResourceDetailCmd.class);
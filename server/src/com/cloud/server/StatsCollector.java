@@ -25,10 +25,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.inject.Inject;
 
@@ -67,6 +72,7 @@ import com.cloud.host.Status;
 import com.cloud.host.dao.HostDao;
 import com.cloud.hypervisor.Hypervisor.HypervisorType;
 import com.cloud.resource.ResourceState;
+import com.cloud.server.StatsSample.ResourceType;
 import com.cloud.storage.StorageManager;
 import com.cloud.storage.StoragePoolHostVO;
 import com.cloud.storage.StorageStats;
@@ -130,6 +136,14 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
 	long volumeStatsInterval = -1L;
 	int vmDiskStatsInterval = 0;
 
+	// hosts are asked for their stats in parallel on this pool
+	private ExecutorService _collectorPool;
+	int collectorThreads = 10;
+	long hostStatsTimeout = 30000L;
+
+	private StatsHistory _statsHistory;
+	private long _statsHistoryRetention;
+
 	private ScheduledExecutorService _diskStatsUpdateExecutor;
     private int _usageAggregationRange = 1440;
     private String _usageTimeZone = "GMT";
@@ -159,6 +173,21 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
 		return true;
 	}
 
+	@Override
+	public boolean stop() {
+		if (_executor != null) {
+			_executor.shutdown();
+		}
+		if (_diskStatsUpdateExecutor != null) {
+			_diskStatsUpdateExecutor.shutdown();
+		}
+		if (_collectorPool != null) {
+			// interrupts fetches from hosts that are still waiting on an answer
+			_collectorPool.shutdownNow();
+		}
+		return true;
+	}
+
 	private void init(Map<String, String> configs) {
 		_executor = Executors.newScheduledThreadPool(3, new NamedThreadFactory("StatsCollector"));
 
@@ -167,6 +196,16 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
 		 storageStatsInterval = NumbersUtil.parseLong(configs.get("storage.stats.interval"), 60000L);
 		 volumeStatsInterval = NumbersUtil.parseLong(configs.get("volume.stats.interval"), -1L);
 		 vmDiskStatsInterval = NumbersUtil.parseInt(configs.get("vm.disk.stats.interval"), 0);
+		 collectorThreads = Math.max(NumbersUtil.parseInt(configs.get("stats.collector.threads"), 10), 1);
+		 hostStatsTimeout = NumbersUtil.parseLong(configs.get("stats.collector.host.timeout"), 30000L);
+
+		 _collectorPool = Executors.newFixedThreadPool(collectorThreads, new NamedThreadFactory("StatsCollector-Worker"));
+
+		 int historySamples = Math.max(NumbersUtil.parseInt(configs.get("stats.history.samples"), 60), 1);
+		 int historyCoarseSamples = Math.max(NumbersUtil.parseInt(configs.get("stats.history.coarse.samples"), 144), 1);
+		 long historyCoarseInterval = Math.max(NumbersUtil.parseLong(configs.get("stats.history.coarse.interval"), 600L), 1L) * 1000L;
+		 _statsHistory = new StatsHistory(historySamples, historyCoarseSamples, historyCoarseInterval);
+		 _statsHistoryRetention = historyCoarseSamples * historyCoarseInterval;
 
 		 if (hostStatsInterval > 0) {
 		     _executor.scheduleWithFixedDelay(new HostCollector(), 15000L, hostStatsInterval, TimeUnit.MILLISECONDS);
@@ -230,6 +269,73 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
 
 	}
 
+	/**
+	 * Fetches something from each host.
+	 */
+	interface HostFetcher<T> {
+	    T fetch(HostVO host) throws Exception;
+	}
+
+	/**
+	 * Runs the fetcher against all of the hosts in parallel on the collector
+	 * pool.  Hosts that fail or don't answer within the per host timeout are
+	 * left out of the result, the latter are counted as stragglers.
+	 */
+	<T> Map<Long, T> fetchFromHosts(String what, List<HostVO> hosts, final HostFetcher<T> fetcher) {
+	    long startTick = System.currentTimeMillis();
+
+	    List<Future<T>> futures = new ArrayList<Future<T>>(hosts.size());
+	    for (final HostVO host : hosts) {
+	        futures.add(_collectorPool.submit(new Callable<T>() {
+	            @Override
+	            public T call() throws Exception {
+	                return fetcher.fetch(host);
+	            }
+	        }));
+	    }
+
+	    Map<Long, T> results = new HashMap<Long, T>();
+	    int stragglers = 0;
+	    for (int i = 0; i < futures.size(); i++) {
+	        HostVO host = hosts.get(i);
+	        Future<T> future = futures.get(i);
+
+	        // the pool runs collectorThreads hosts at a time, so the i-th host
+	        // can't have started before i / collectorThreads rounds of timeouts
+	        long deadline = startTick + hostStatsTimeout * (i / collectorThreads + 1);
+	        try {
+	            T result = future.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+	            if (result != null) {
+	                results.put(host.getId(), result);
+	            }
+	        } catch (TimeoutException e) {
+	            future.cancel(true);
+	            stragglers++;
+	            if (s_logger.isDebugEnabled()) {
+	                s_logger.debug("Timed out getting " + what + " for host with ID: " + host.getId());
+	            }
+	        } catch (ExecutionException e) {
+	            s_logger.debug("Failed to get " + what + " for host with ID: " + host.getId(), e.getCause());
+	        } catch (InterruptedException e) {
+	            s_logger.warn("Interrupted while getting " + what + ", giving up on the remaining hosts");
+	            for (int j = i; j < futures.size(); j++) {
+	                futures.get(j).cancel(true);
+	            }
+	            Thread.currentThread().interrupt();
+	            break;
+	        }
+	    }
+
+	    long duration = System.currentTimeMillis() - startTick;
+	    if (stragglers > 0) {
+	        s_logger.warn("Collected " + what + " from " + results.size() + " of " + hosts.size() + " hosts in " + duration + " ms, " + stragglers +
+	                      " hosts did not answer within " + hostStatsTimeout + " ms");
+	    } else if (s_logger.isDebugEnabled()) {
+	        s_logger.debug("Collected " + what + " from " + results.size() + " of " + hosts.size() + " hosts in " + duration + " ms");
+	    }
+	    return results;
+	}
+
 	class HostCollector implements Runnable {
 		@Override
         public void run() {
@@ -250,21 +356,26 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                 sc.addAnd("type", SearchCriteria.Op.NEQ, Host.Type.L2Networking.toString());
                 sc.addAnd("type", SearchCriteria.Op.NEQ, Host.Type.BaremetalDhcp.toString());
                 sc.addAnd("type", SearchCriteria.Op.NEQ, Host.Type.BaremetalPxe.toString());
-				ConcurrentHashMap<Long, HostStats> hostStats = new ConcurrentHashMap<Long, HostStats>();
 				List<HostVO> hosts = _hostDao.search(sc, null);
-				for (HostVO host : hosts)
-				{
-				    HostStatsEntry stats = (HostStatsEntry) _resourceMgr.getHostStatistics(host.getId());
-				    if (stats != null)
-				    {
-                        hostStats.put(host.getId(), stats);
-				    }
-				    else
-				    {
-				        s_logger.warn("Received invalid host stats for host: " + host.getId());
+				Map<Long, HostStats> stats = fetchFromHosts("host stats", hosts, new HostFetcher<HostStats>() {
+				    @Override
+				    public HostStats fetch(HostVO host) {
+				        HostStatsEntry stats = (HostStatsEntry) _resourceMgr.getHostStatistics(host.getId());
+				        if (stats == null) {
+				            s_logger.warn("Received invalid host stats for host: " + host.getId());
+				        }
+				        return stats;
 				    }
+				});
+				_hostStats = new ConcurrentHashMap<Long, HostStats>(stats);
+
+				long now = System.currentTimeMillis();
+				for (Map.Entry<Long, HostStats> entry : stats.entrySet()) {
+				    HostStats hostStats = entry.getValue();
+				    _statsHistory.record(ResourceType.Host, entry.getKey(), now, hostStats.getCpuUtilization(), hostStats.getUsedMemory(),
+				        hostStats.getFreeMemoryKBs(), hostStats.getNetworkReadKBs(), hostStats.getNetworkWriteKBs());
 				}
-				_hostStats = hostStats;
+				_statsHistory.prune(now - _statsHistoryRetention);
 			}
 			catch (Throwable t)
 			{
@@ -290,17 +401,24 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                 sc.addAnd("type", SearchCriteria.Op.NEQ, Host.Type.SecondaryStorageVM.toString());
 				List<HostVO> hosts = _hostDao.search(sc, null);
 
-				for (HostVO host : hosts) {
-					List<UserVmVO> vms = _userVmDao.listRunningByHostId(host.getId());
-					List<Long> vmIds = new ArrayList<Long>();
+				Map<Long, HashMap<Long, VmStatsEntry>> statsByHost = fetchFromHosts("VM stats", hosts, new HostFetcher<HashMap<Long, VmStatsEntry>>() {
+				    @Override
+				    public HashMap<Long, VmStatsEntry> fetch(HostVO host) throws Exception {
+				        List<UserVmVO> vms = _userVmDao.listRunningByHostId(host.getId());
+				        List<Long> vmIds = new ArrayList<Long>();
 
-					for (UserVmVO vm : vms) {
-						vmIds.add(vm.getId());
-					}
+				        for (UserVmVO vm : vms) {
+				            vmIds.add(vm.getId());
+				        }
+				        return _userVmMgr.getVirtualMachineStatistics(host.getId(), host.getName(), vmIds);
+				    }
+				});
 
+				long now = System.currentTimeMillis();
+				for (HostVO host : hosts) {
 					try
 					{
-							HashMap<Long, VmStatsEntry> vmStatsById = _userVmMgr.getVirtualMachineStatistics(host.getId(), host.getName(), vmIds);
+							HashMap<Long, VmStatsEntry> vmStatsById = statsByHost.get(host.getId());
 
 							if(vmStatsById != null)
 							{
@@ -312,6 +430,12 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
 									VmStatsEntry statsForCurrentIteration = vmStatsById.get(vmId);
 									statsInMemory = (VmStatsEntry) _VmStats.get(vmId);
 
+									// history keeps what was read in this pass rather than the running totals
+									_statsHistory.record(ResourceType.VirtualMachine, vmId, now, statsForCurrentIteration.getCPUUtilization(),
+									    statsForCurrentIteration.getNetworkReadKBs(), statsForCurrentIteration.getNetworkWriteKBs(),
+									    statsForCurrentIteration.getDiskReadKBs(), statsForCurrentIteration.getDiskWriteKBs(),
+									    statsForCurrentIteration.getDiskReadIOs(), statsForCurrentIteration.getDiskWriteIOs());
+
 									if(statsInMemory == null)
 									{
 										//no stats exist for this vm, directly persist
@@ -403,27 +527,38 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
             // collect the vm disk statistics(total) from hypervisor. added by weizhou, 2013.03.
             Transaction txn = Transaction.open(Transaction.CLOUD_DB);
             try {
-                txn.start();
                 SearchCriteria<HostVO> sc = _hostDao.createSearchCriteria();
                 sc.addAnd("status", SearchCriteria.Op.EQ, Status.Up.toString());
                 sc.addAnd("resourceState", SearchCriteria.Op.NIN, ResourceState.Maintenance, ResourceState.PrepareForMaintenance, ResourceState.ErrorInMaintenance);
                 sc.addAnd("type", SearchCriteria.Op.EQ, Host.Type.Routing.toString());
                 sc.addAnd("hypervisorType", SearchCriteria.Op.EQ, HypervisorType.KVM); // support KVM only util 2013.06.25
+                // the stats end up in the database, so each management server only
+                // takes care of the hosts connected to it
+                sc.addAnd("managementServerId", SearchCriteria.Op.EQ, mgmtSrvrId);
                 List<HostVO> hosts = _hostDao.search(sc, null);
 
-                for (HostVO host : hosts) {
-                    List<UserVmVO> vms = _userVmDao.listRunningByHostId(host.getId());
-                    List<Long> vmIds = new ArrayList<Long>();
+                Map<Long, HashMap<Long, List<VmDiskStatsEntry>>> statsByHost = fetchFromHosts("VM disk stats", hosts,
+                    new HostFetcher<HashMap<Long, List<VmDiskStatsEntry>>>() {
+                        @Override
+                        public HashMap<Long, List<VmDiskStatsEntry>> fetch(HostVO host) throws Exception {
+                            List<UserVmVO> vms = _userVmDao.listRunningByHostId(host.getId());
+                            List<Long> vmIds = new ArrayList<Long>();
 
-                    for (UserVmVO vm : vms) {
-                        if (vm.getType() == VirtualMachine.Type.User) // user vm
-                            vmIds.add(vm.getId());
-                    }
+                            for (UserVmVO vm : vms) {
+                                if (vm.getType() == VirtualMachine.Type.User) // user vm
+                                    vmIds.add(vm.getId());
+                            }
+                            return _userVmMgr.getVmDiskStatistics(host.getId(), host.getName(), vmIds);
+                        }
+                    });
 
-                    HashMap<Long, List<VmDiskStatsEntry>> vmDiskStatsById = _userVmMgr.getVmDiskStatistics(host.getId(), host.getName(), vmIds);
+                txn.start();
+                for (HostVO host : hosts) {
+                    HashMap<Long, List<VmDiskStatsEntry>> vmDiskStatsById = statsByHost.get(host.getId());
                     if (vmDiskStatsById == null)
                         continue;
 
+                    List<VmDiskStatisticsVO> vmDiskStatsToUpdate = new ArrayList<VmDiskStatisticsVO>();
                     Set<Long> vmIdSet = vmDiskStatsById.keySet();
                     for(Long vmId : vmIdSet)
                     {
@@ -506,9 +641,10 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                                 vmDiskStat_lock.setAggIORead(vmDiskStat_lock.getNetIORead() + vmDiskStat_lock.getCurrentIORead());
                             }
 
-                            _vmDiskStatsDao.update(vmDiskStat_lock.getId(), vmDiskStat_lock);
+                            vmDiskStatsToUpdate.add(vmDiskStat_lock);
                         }
                     }
+                    _vmDiskStatsDao.updateBatch(vmDiskStatsToUpdate);
                 }
                 txn.commit();
             } catch (Exception e) {
@@ -577,6 +713,11 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                     }
 				}
                 _storagePoolStats = storagePoolStats;
+
+                long now = System.currentTimeMillis();
+                for (Map.Entry<Long, StorageStats> entry : storagePoolStats.entrySet()) {
+                    _statsHistory.record(ResourceType.StoragePool, entry.getKey(), now, entry.getValue().getByteUsed(), entry.getValue().getCapacityBytes());
+                }
 			} catch (Throwable t) {
 				s_logger.error("Error trying to retrieve storage stats", t);
 			}
@@ -594,4 +735,18 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
 	public StorageStats getStoragePoolStats(long id) {
 		return _storagePoolStats.get(id);
 	}
+
+	/**
+	 * @param coarse whether to list averages over stats.history.coarse.interval rather than
+	 *        every collected sample, null to pick depending on how far back startDate is
+	 */
+	public List<StatsSample> listStatsHistory(ResourceType type, long id, Date startDate, Date endDate, Boolean coarse) {
+	    long endTime = endDate != null ? endDate.getTime() : Long.MAX_VALUE;
+	    long startTime = startDate != null ? startDate.getTime() : 0;
+	    return _statsHistory.list(type, id, startTime, endTime, coarse);
+	}
+
+	public long getStatsHistoryCoarseInterval() {
+	    return _statsHistory.getCoarseInterval();
+	}
 }
@@ -0,0 +1,287 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cloud.server.StatsSample.ResourceType;
+
+/**
+ * Short in-memory history of the stats StatsCollector gathers.  Each
+ * resource keeps two ring buffers: every collected sample for the recent
+ * past, and averages over coarseInterval for further back, so the memory a
+ * resource takes is fixed however long it is tracked.
+ */
+public class StatsHistory {
+    enum Metric {
+        CpuUtilization, MemoryUsed, MemoryFreeKBs, NetworkReadKBs, NetworkWriteKBs, DiskReadKBs, DiskWriteKBs, DiskReadIOs, DiskWriteIOs, StorageUsedBytes,
+        StorageCapacityBytes
+    }
+
+    // order of the values recorded for each resource type
+    static final Metric[] HOST_METRICS = {Metric.CpuUtilization, Metric.MemoryUsed, Metric.MemoryFreeKBs, Metric.NetworkReadKBs, Metric.NetworkWriteKBs};
+    static final Metric[] VM_METRICS = {Metric.CpuUtilization, Metric.NetworkReadKBs, Metric.NetworkWriteKBs, Metric.DiskReadKBs, Metric.DiskWriteKBs,
+        Metric.DiskReadIOs, Metric.DiskWriteIOs};
+    static final Metric[] STORAGE_POOL_METRICS = {Metric.StorageUsedBytes, Metric.StorageCapacityBytes};
+
+    private final int _fineSamples;
+    private final int _coarseSamples;
+    private final long _coarseInterval;
+    private final Map<ResourceType, Map<Long, ResourceHistory>> _histories = new EnumMap<ResourceType, Map<Long, ResourceHistory>>(ResourceType.class);
+
+    public StatsHistory(int fineSamples, int coarseSamples, long coarseInterval) {
+        _fineSamples = fineSamples;
+        _coarseSamples = coarseSamples;
+        _coarseInterval = coarseInterval;
+        for (ResourceType type : ResourceType.values()) {
+            _histories.put(type, new ConcurrentHashMap<Long, ResourceHistory>());
+        }
+    }
+
+    static Metric[] getMetrics(ResourceType type) {
+        switch (type) {
+        case Host:
+            return HOST_METRICS;
+        case VirtualMachine:
+            return VM_METRICS;
+        default:
+            return STORAGE_POOL_METRICS;
+        }
+    }
+
+    public long getCoarseInterval() {
+        return _coarseInterval;
+    }
+
+    /**
+     * Records a sample for the resource, the values being in the order of
+     * getMetrics(type).
+     */
+    public void record(ResourceType type, long resourceId, long timestamp, double... values) {
+        Map<Long, ResourceHistory> histories = _histories.get(type);
+        ResourceHistory history = histories.get(resourceId);
+        if (history == null) {
+            synchronized (histories) {
+                history = histories.get(resourceId);
+                if (history == null) {
+                    history = new ResourceHistory(getMetrics(type).length);
+                    histories.put(resourceId, history);
+                }
+            }
+        }
+        history.add(timestamp, values);
+    }
+
+    /**
+     * @param coarse whether to list the coarse averages rather than every
+     *        sample, null to pick the fine samples if they go back as far as startTime
+     * @return samples of the resource between startTime and endTime, oldest first
+     */
+    public List<StatsSample> list(ResourceType type, long resourceId, long startTime, long endTime, Boolean coarse) {
+        List<StatsSample> samples = new ArrayList<StatsSample>();
+        ResourceHistory history = _histories.get(type).get(resourceId);
+        if (history == null) {
+            return samples;
+        }
+
+        for (StatsRingBuffer.Entry entry : history.list(startTime, endTime, coarse)) {
+            samples.add(new Sample(type, resourceId, entry.getTimestamp(), entry.getValues()));
+        }
+        return samples;
+    }
+
+    /**
+     * Forgets the resources that haven't had a sample since the given time,
+     * which takes care of the ones that have been removed.
+     */
+    public void prune(long before) {
+        for (Map<Long, ResourceHistory> histories : _histories.values()) {
+            Iterator<ResourceHistory> it = histories.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().getLatestTimestamp() < before) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private class ResourceHistory {
+        private final StatsRingBuffer _fine;
+        private final StatsRingBuffer _coarse;
+
+        // running sums of the coarse interval being filled in
+        private final double[] _sums;
+        private int _count;
+        private long _bucketStart;
+
+        ResourceHistory(int metrics) {
+            _fine = new StatsRingBuffer(_fineSamples, metrics);
+            _coarse = new StatsRingBuffer(_coarseSamples, metrics);
+            _sums = new double[metrics];
+        }
+
+        synchronized void add(long timestamp, double[] values) {
+            _fine.add(timestamp, values);
+
+            long bucketStart = timestamp - timestamp % _coarseInterval;
+            if (bucketStart != _bucketStart) {
+                if (_count > 0) {
+                    _coarse.add(_bucketStart, getAverages());
+                }
+                Arrays.fill(_sums, 0);
+                _count = 0;
+                _bucketStart = bucketStart;
+            }
+
+            for (int i = 0; i < _sums.length; i++) {
+                _sums[i] += values[i];
+            }
+            _count++;
+        }
+
+        synchronized List<StatsRingBuffer.Entry> list(long startTime, long endTime, Boolean coarse) {
+            if (coarse == null) {
+                // until the fine buffer wraps around it holds everything there is
+                coarse = _fine.size() == _fine.capacity() && _fine.getOldestTimestamp() > startTime;
+            }
+
+            if (!coarse) {
+                return _fine.list(startTime, endTime);
+            }
+
+            List<StatsRingBuffer.Entry> entries = _coarse.list(startTime, endTime);
+            // include the interval being filled in, so the latest samples aren't missing
+            if (_count > 0 && _bucketStart >= startTime && _bucketStart <= endTime) {
+                entries.add(new StatsRingBuffer.Entry(_bucketStart, getAverages()));
+            }
+            return entries;
+        }
+
+        synchronized long getLatestTimestamp() {
+            return _fine.getLatestTimestamp();
+        }
+
+        private double[] getAverages() {
+            double[] averages = new double[_sums.length];
+            for (int i = 0; i < _sums.length; i++) {
+                averages[i] = _sums[i] / _count;
+            }
+            return averages;
+        }
+    }
+
+    static class Sample implements StatsSample {
+        private final ResourceType _type;
+        private final long _resourceId;
+        private final long _timestamp;
+        private final double[] _values;
+
+        Sample(ResourceType type, long resourceId, long timestamp, double[] values) {
+            _type = type;
+            _resourceId = resourceId;
+            _timestamp = timestamp;
+            _values = values;
+        }
+
+        private Double get(Metric metric) {
+            Metric[] metrics = getMetrics(_type);
+            for (int i = 0; i < metrics.length; i++) {
+                if (metrics[i] == metric) {
+                    return _values[i];
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public ResourceType getResourceType() {
+            return _type;
+        }
+
+        @Override
+        public long getResourceId() {
+            return _resourceId;
+        }
+
+        @Override
+        public Date getTimestamp() {
+            return new Date(_timestamp);
+        }
+
+        @Override
+        public Double getCpuUtilization() {
+            return get(Metric.CpuUtilization);
+        }
+
+        @Override
+        public Double getMemoryUsed() {
+            return get(Metric.MemoryUsed);
+        }
+
+        @Override
+        public Double getMemoryFreeKBs() {
+            return get(Metric.MemoryFreeKBs);
+        }
+
+        @Override
+        public Double getNetworkReadKBs() {
+            return get(Metric.NetworkReadKBs);
+        }
+
+        @Override
+        public Double getNetworkWriteKBs() {
+            return get(Metric.NetworkWriteKBs);
+        }
+
+        @Override
+        public Double getDiskReadKBs() {
+            return get(Metric.DiskReadKBs);
+        }
+
+        @Override
+        public Double getDiskWriteKBs() {
+            return get(Metric.DiskWriteKBs);
+        }
+
+        @Override
+        public Double getDiskReadIOs() {
+            return get(Metric.DiskReadIOs);
+        }
+
+        @Override
+        public Double getDiskWriteIOs() {
+            return get(Metric.DiskWriteIOs);
+        }
+
+        @Override
+        public Double getStorageUsedBytes() {
+            return get(Metric.StorageUsedBytes);
+        }
+
+        @Override
+        public Double getStorageCapacityBytes() {
+            return get(Metric.StorageCapacityBytes);
+        }
+    }
+}
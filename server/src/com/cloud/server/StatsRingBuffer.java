@@ -0,0 +1,124 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed size ring buffer of timestamped samples, each sample being the same
+ * number of metric values.  Everything is kept in preallocated primitive
+ * arrays, so a buffer takes the same memory however long it has been in use.
+ */
+public class StatsRingBuffer {
+    private final int _metrics;
+    private final long[] _timestamps;
+    private final double[] _values;
+
+    // slot the next sample goes into, and number of slots in use
+    private int _next;
+    private int _size;
+
+    public StatsRingBuffer(int capacity, int metrics) {
+        assert capacity > 0 && metrics > 0;
+        _metrics = metrics;
+        _timestamps = new long[capacity];
+        _values = new double[capacity * metrics];
+    }
+
+    /**
+     * Adds a sample, overwriting the oldest one once the buffer is full.
+     * Samples are expected in timestamp order.
+     */
+    public synchronized void add(long timestamp, double[] values) {
+        assert values.length == _metrics;
+        _timestamps[_next] = timestamp;
+        System.arraycopy(values, 0, _values, _next * _metrics, _metrics);
+        _next = (_next + 1) % _timestamps.length;
+        if (_size < _timestamps.length) {
+            _size++;
+        }
+    }
+
+    /**
+     * @return samples with startTime <= timestamp <= endTime, oldest first
+     */
+    public synchronized List<Entry> list(long startTime, long endTime) {
+        List<Entry> entries = new ArrayList<Entry>();
+        int slot = (_next - _size + _timestamps.length) % _timestamps.length;
+        for (int i = 0; i < _size; i++) {
+            long timestamp = _timestamps[slot];
+            if (timestamp > endTime) {
+                break;
+            }
+
+            if (timestamp >= startTime) {
+                double[] values = new double[_metrics];
+                System.arraycopy(_values, slot * _metrics, values, 0, _metrics);
+                entries.add(new Entry(timestamp, values));
+            }
+            slot = (slot + 1) % _timestamps.length;
+        }
+        return entries;
+    }
+
+    /**
+     * @return timestamp of the oldest sample still kept, 0 if there is none
+     */
+    public synchronized long getOldestTimestamp() {
+        if (_size == 0) {
+            return 0;
+        }
+        return _timestamps[(_next - _size + _timestamps.length) % _timestamps.length];
+    }
+
+    /**
+     * @return timestamp of the latest sample, 0 if there is none
+     */
+    public synchronized long getLatestTimestamp() {
+        if (_size == 0) {
+            return 0;
+        }
+        return _timestamps[(_next - 1 + _timestamps.length) % _timestamps.length];
+    }
+
+    public synchronized int size() {
+        return _size;
+    }
+
+    public int capacity() {
+        return _timestamps.length;
+    }
+
+    public static class Entry {
+        private final long _timestamp;
+        private final double[] _values;
+
+        Entry(long timestamp, double[] values) {
+            _timestamp = timestamp;
+            _values = values;
+        }
+
+        public long getTimestamp() {
+            return _timestamp;
+        }
+
+        public double[] getValues() {
+            return _values;
+        }
+    }
+}
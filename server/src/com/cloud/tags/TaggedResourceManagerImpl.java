@@ -253,6 +253,7 @@ public class TaggedResourceManagerImpl extends ManagerBase implements TaggedReso
         Account caller = CallContext.current().getCallingAccount();
         
         List<ResourceTag> resourceTags = new ArrayList<ResourceTag>(tags.size());
+        List<ResourceTagVO> tagsToPersist = new ArrayList<ResourceTagVO>(tags.size() * resourceIds.size());
         
         Transaction txn = Transaction.currentTxn();
         txn.start();
@@ -290,10 +291,11 @@ public class TaggedResourceManagerImpl extends ManagerBase implements TaggedReso
                 ResourceTagVO resourceTag = new ResourceTagVO(key, value, accountDomainPair.first(),
                         accountDomainPair.second(), 
                         id, resourceType, customer, resourceUuid);
-                resourceTag = _resourceTagDao.persist(resourceTag);
-                resourceTags.add(resourceTag);
+                tagsToPersist.add(resourceTag);
             }
         }
+
+        resourceTags.addAll(_resourceTagDao.persistBatch(tagsToPersist));
         
         txn.commit();
         
@@ -57,6 +57,7 @@ import org.apache.cloudstack.region.gslb.GlobalLoadBalancerRuleDao;
 
 import com.cloud.api.ApiDBUtils;
 import com.cloud.api.query.vo.ControlledViewEntity;
+import com.cloud.cluster.ClusterManager;
 import com.cloud.configuration.Config;
 import com.cloud.configuration.ConfigurationManager;
 import com.cloud.configuration.Resource.ResourceOwnerType;
@@ -246,6 +247,8 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
     private GlobalLoadBalancerRuleDao _gslbRuleDao;
     @Inject
     public com.cloud.region.ha.GlobalLoadBalancingRulesService _gslbService;
+    @Inject
+    private ClusterManager _clusterMgr;
 
     private List<UserAuthenticator> _userAuthenticators;
     List<UserAuthenticator> _userPasswordEncoders;
@@ -263,6 +266,10 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
     
 	int _cleanupInterval;
 
+    private final ApiKeyCredentialCache _apiKeyCache = new ApiKeyCredentialCache();
+    long _apiKeyCacheTtl;
+    int _apiKeyCacheSize;
+
     public List<UserAuthenticator> getUserAuthenticators() {
     	return _userAuthenticators;
     }
@@ -307,6 +314,10 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         String value = configs.get(Config.AccountCleanupInterval.key());
         _cleanupInterval = NumbersUtil.parseInt(value, 60 * 60 * 24); // 1 day.
 
+        _apiKeyCacheTtl = NumbersUtil.parseInt(configs.get(Config.ApiKeyCacheTtl.key()), 300) * 1000L;
+        _apiKeyCacheSize = NumbersUtil.parseInt(configs.get(Config.ApiKeyCacheSize.key()), 10000);
+        _apiKeyCache.joinCluster(_clusterMgr);
+
         return true;
     }
 
@@ -492,6 +503,9 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             }
             _userAccountDao.update(id, user);
              txn.commit();
+            if (toDisable) {
+                _apiKeyCache.invalidateUser(id);
+            }
         } catch (Exception e) {
             s_logger.error("Failed to update login attempts for user with id " + id );
         }
@@ -501,7 +515,9 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
     private boolean doSetUserStatus(long userId, State state) {
         UserVO userForUpdate = _userDao.createForUpdate();
         userForUpdate.setState(state);
-        return _userDao.update(Long.valueOf(userId), userForUpdate);
+        boolean success = _userDao.update(Long.valueOf(userId), userForUpdate);
+        _apiKeyCache.invalidateUser(userId);
+        return success;
     }
 
     @Override
@@ -511,6 +527,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         acctForUpdate.setState(State.enabled);
         acctForUpdate.setNeedsCleanup(false);
         success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+        _apiKeyCache.invalidateAccount(accountId);
         return success;
     }
 
@@ -525,6 +542,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
                 AccountVO acctForUpdate = _accountDao.createForUpdate();
                 acctForUpdate.setState(State.locked);
                 success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+                _apiKeyCache.invalidateAccount(accountId);
             } else {
                 if (s_logger.isInfoEnabled()) {
                     s_logger.info("Attempting to lock a non-enabled account, current state is " + account.getState() + " (accountId: " + accountId + "), locking failed.");
@@ -545,6 +563,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             s_logger.error("Unable to delete account " + accountId);
             return false;
         }
+        _apiKeyCache.invalidateAccount(accountId);
 
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Removed account " + accountId);
@@ -802,6 +821,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             AccountVO acctForUpdate = _accountDao.createForUpdate();
             acctForUpdate.setState(State.disabled);
             success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+            _apiKeyCache.invalidateAccount(accountId);
 
             if (success) {
                 boolean disableAccountResult = false;
@@ -1086,6 +1106,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             s_logger.error("error updating user", th);
             throw new CloudRuntimeException("Unable to update user " + id);
         }
+        _apiKeyCache.invalidateUser(id);
 
         CallContext.current().putContextParameter(User.class, user.getUuid());
 
@@ -1457,6 +1478,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         txn.commit();
 
         if (success) {
+            _apiKeyCache.invalidateAccount(account.getId());
             CallContext.current().putContextParameter(Account.class, account.getUuid());
             return _accountDao.findById(account.getId());
         } else {
@@ -1489,7 +1511,9 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
         checkAccess(CallContext.current().getCallingAccount(), null, true, account);
         CallContext.current().putContextParameter(User.class, user.getUuid());
-        return _userDao.remove(id);
+        boolean removed = _userDao.remove(id);
+        _apiKeyCache.invalidateUser(id);
+        return removed;
     }
 
     public class ResourceCountCalculateTask implements Runnable {
@@ -2009,7 +2033,28 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
     @Override
     public Pair<User, Account> findUserByApiKey(String apiKey) {
-        return _accountDao.findUserAccountByApiKey(apiKey);
+        if (_apiKeyCacheTtl <= 0) {
+            return _accountDao.findUserAccountByApiKey(apiKey);
+        }
+
+        Pair<User, Account> userAcctPair = _apiKeyCache.get(apiKey, _apiKeyCacheTtl);
+        if (userAcctPair != null) {
+            return userAcctPair;
+        }
+
+        long generation = _apiKeyCache.getGeneration();
+        userAcctPair = _accountDao.findUserAccountByApiKey(apiKey);
+        if (userAcctPair == null) {
+            return null;
+        }
+        // the api key lookup only fills in what verifying a request needs, the cache hands out the whole entities
+        UserVO user = _userDao.findById(userAcctPair.first().getId());
+        AccountVO account = _accountDao.findById(userAcctPair.second().getId());
+        if (user == null || account == null) {
+            return userAcctPair;
+        }
+        _apiKeyCache.put(apiKey, user, account, generation, _apiKeyCacheTtl, _apiKeyCacheSize);
+        return new Pair<User, Account>(user, account);
     }
 
     @Override @DB
@@ -2059,6 +2104,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             }
             updatedUser.setApiKey(encodedKey);
             _userDao.update(userId, updatedUser);
+            _apiKeyCache.invalidateUser(userId);
             return encodedKey;
         } catch (NoSuchAlgorithmException ex) {
             s_logger.error("error generating secret key for user id=" + userId, ex);
@@ -2086,6 +2132,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
             updatedUser.setSecretKey(encodedKey);
             _userDao.update(userId, updatedUser);
+            _apiKeyCache.invalidateUser(userId);
             return encodedKey;
         } catch (NoSuchAlgorithmException ex) {
             s_logger.error("error generating secret key for user id=" + userId, ex);
@@ -0,0 +1,245 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.user;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.cluster.ClusterManager;
+import com.cloud.cluster.ClusterServicePdu;
+import com.cloud.utils.Pair;
+import com.cloud.utils.db.Transaction;
+
+/**
+ * Caches the user and account an API key maps to, so that verifying a
+ * signed API request does not look them up in the database every time.
+ *
+ * Entries are evicted when the user or account is changed on any management
+ * server: changes made here are broadcast to the peers.  Entries also expire
+ * after a configurable time, which bounds how long a change made outside of
+ * AccountManager goes unnoticed.
+ */
+public class ApiKeyCredentialCache implements ClusterManager.Dispatcher {
+    private static final Logger s_logger = Logger.getLogger(ApiKeyCredentialCache.class);
+
+    public static final String NAME = "ApiKeyCache";
+    private static final String USER = "user|";
+    private static final String ACCOUNT = "account|";
+    private static final String ALL = "all";
+
+    private final ConcurrentHashMap<String, Credential> _credentials = new ConcurrentHashMap<String, Credential>();
+    // bumped on every eviction so that a lookup racing with it does not cache what it read
+    private final AtomicLong _generation = new AtomicLong(0);
+    private volatile ClusterManager _clusterMgr;
+
+    /**
+     * Starts broadcasting evictions to, and taking them from, the other management servers
+     */
+    public void joinCluster(ClusterManager clusterMgr) {
+        _clusterMgr = clusterMgr;
+        clusterMgr.registerNotificationDispatcher(this);
+    }
+
+    /**
+     * @return a copy of the cached user and account, null if the key is not
+     * cached or its entry is older than ttl milliseconds
+     */
+    public Pair<User, Account> get(String apiKey, long ttl) {
+        Credential credential = _credentials.get(apiKey);
+        if (credential == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - credential._cached > ttl) {
+            _credentials.remove(apiKey, credential);
+            return null;
+        }
+        return credential.toPair();
+    }
+
+    /**
+     * @return the generation to pass to put() with what is looked up next
+     */
+    public long getGeneration() {
+        return _generation.get();
+    }
+
+    /**
+     * Caches copies of the user and account, so later changes to the entities
+     * passed in do not show through to the cache.
+     */
+    public void put(String apiKey, UserVO user, AccountVO account, long generation, long ttl, int maxSize) {
+        if (_credentials.size() >= maxSize) {
+            evictExpired(ttl);
+            if (_credentials.size() >= maxSize) {
+                return;
+            }
+        }
+        Credential credential = new Credential(user, account);
+        _credentials.put(apiKey, credential);
+        if (_generation.get() != generation) {
+            // evicted while it was being looked up
+            _credentials.remove(apiKey, credential);
+        }
+    }
+
+    /**
+     * Evicts the user's entries now and, if a transaction is open, again when
+     * it ends, so that a lookup that reads the old row before the change is
+     * committed can't leave it behind.  The peers are told once the change is final.
+     */
+    public void invalidateUser(final long userId) {
+        evictUser(userId);
+        boolean deferred = Transaction.registerCompletionAction(new Runnable() {
+            @Override
+            public void run() {
+                evictUser(userId);
+                broadcast(USER + userId);
+            }
+        });
+        if (!deferred) {
+            broadcast(USER + userId);
+        }
+    }
+
+    public void invalidateAccount(final long accountId) {
+        evictAccount(accountId);
+        boolean deferred = Transaction.registerCompletionAction(new Runnable() {
+            @Override
+            public void run() {
+                evictAccount(accountId);
+                broadcast(ACCOUNT + accountId);
+            }
+        });
+        if (!deferred) {
+            broadcast(ACCOUNT + accountId);
+        }
+    }
+
+    public void invalidateAll() {
+        evictAll();
+        boolean deferred = Transaction.registerCompletionAction(new Runnable() {
+            @Override
+            public void run() {
+                evictAll();
+                broadcast(ALL);
+            }
+        });
+        if (!deferred) {
+            broadcast(ALL);
+        }
+    }
+
+    public int size() {
+        return _credentials.size();
+    }
+
+    private void evictUser(long userId) {
+        _generation.incrementAndGet();
+        for (Iterator<Credential> it = _credentials.values().iterator(); it.hasNext();) {
+            if (it.next()._userId == userId) {
+                it.remove();
+            }
+        }
+    }
+
+    private void evictAccount(long accountId) {
+        _generation.incrementAndGet();
+        for (Iterator<Credential> it = _credentials.values().iterator(); it.hasNext();) {
+            if (it.next()._accountId == accountId) {
+                it.remove();
+            }
+        }
+    }
+
+    private void evictExpired(long ttl) {
+        long cutoff = System.currentTimeMillis() - ttl;
+        for (Iterator<Credential> it = _credentials.values().iterator(); it.hasNext();) {
+            if (it.next()._cached < cutoff) {
+                it.remove();
+            }
+        }
+    }
+
+    private void evictAll() {
+        _generation.incrementAndGet();
+        _credentials.clear();
+    }
+
+    private void broadcast(String message) {
+        ClusterManager clusterMgr = _clusterMgr;
+        if (clusterMgr == null) {
+            return;
+        }
+        try {
+            clusterMgr.broadcastNotification(NAME, message);
+        } catch (Exception e) {
+            s_logger.warn("Unable to notify the peers to evict " + message + " from their api key caches: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String dispatch(ClusterServicePdu pdu) {
+        String message = pdu.getJsonPackage();
+        if (message == null) {
+            return null;
+        }
+
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Evicting " + message + " from the api key cache on request from " + pdu.getSourcePeer());
+        }
+        try {
+            if (message.startsWith(USER)) {
+                evictUser(Long.parseLong(message.substring(USER.length())));
+            } else if (message.startsWith(ACCOUNT)) {
+                evictAccount(Long.parseLong(message.substring(ACCOUNT.length())));
+            } else {
+                evictAll();
+            }
+        } catch (NumberFormatException e) {
+            s_logger.warn("Invalid api key cache notification " + message + ", evicting everything");
+            evictAll();
+        }
+        return null;
+    }
+
+    private static class Credential {
+        final long _cached = System.currentTimeMillis();
+        final long _userId;
+        final long _accountId;
+        final UserVO _user;
+        final AccountVO _account;
+
+        Credential(UserVO user, AccountVO account) {
+            _userId = user.getId();
+            _accountId = account.getId();
+            _user = new UserVO(user);
+            _account = new AccountVO(account);
+        }
+
+        Pair<User, Account> toPair() {
+            return new Pair<User, Account>(new UserVO(_user), new AccountVO(_account));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.ApiErrorCode;
+import org.apache.cloudstack.api.ServerApiException;
+import org.apache.cloudstack.api.command.user.event.DeleteEventsCmd;
+import org.apache.cloudstack.api.command.user.event.ListEventsCmd;
+import org.apache.cloudstack.api.command.user.vm.ListVMsCmd;
+import org.apache.cloudstack.api.command.user.volume.ListVolumesCmd;
+import org.apache.cloudstack.context.CallContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.cloud.event.Event;
+import com.cloud.exception.InvalidParameterValueException;
+import com.cloud.user.Account;
+import com.cloud.user.AccountManager;
+import com.cloud.user.User;
+import com.cloud.utils.db.EntityManager;
+
+public class ApiDispatcherTest extends TestCase {
+    private final String _uuid1 = UUID.randomUUID().toString();
+    private final String _uuid2 = UUID.randomUUID().toString();
+    private final String _uuid3 = UUID.randomUUID().toString();
+    private EntityManager _entityMgr;
+
+    @Override
+    protected void setUp() {
+        _entityMgr = mock(EntityManager.class);
+        ApiDispatcher dispatcher = new ApiDispatcher();
+        ReflectionTestUtils.setField(dispatcher, "_entityMgr", _entityMgr);
+        ReflectionTestUtils.setField(dispatcher, "_accountMgr", mock(AccountManager.class));
+        dispatcher.init();
+        CallContext.register(mock(User.class), mock(Account.class));
+    }
+
+    @Override
+    protected void tearDown() {
+        CallContext.unregister();
+    }
+
+    private Event event(long id, String uuid) {
+        Event event = mock(Event.class);
+        when(event.getId()).thenReturn(id);
+        when(event.getUuid()).thenReturn(uuid);
+        return event;
+    }
+
+    private DeleteEventsCmd deleteEvents() {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(ApiConstants.IDS, _uuid1 + "," + _uuid2 + "," + _uuid3);
+        DeleteEventsCmd cmd = new DeleteEventsCmd();
+        ApiDispatcher.processParameters(cmd, params);
+        return cmd;
+    }
+
+    public void testUuidsResolvedInOneQuery() {
+        doReturn(Arrays.asList(event(2, _uuid2), event(1, _uuid1))).when(_entityMgr).listByUuids(eq(Event.class), anyCollection());
+        // left out of the query result, looked up on its own
+        doReturn(event(3, _uuid3)).when(_entityMgr).findByUuid(Event.class, _uuid3);
+
+        DeleteEventsCmd cmd = deleteEvents();
+
+        assertEquals(Arrays.asList(1L, 2L, 3L), cmd.getIds());
+        verify(_entityMgr, times(1)).listByUuids(eq(Event.class), anyCollection());
+        verify(_entityMgr, never()).findByUuid(Event.class, _uuid1);
+        verify(_entityMgr, never()).findByUuid(Event.class, _uuid2);
+        verify(_entityMgr, times(1)).findByUuid(Event.class, _uuid3);
+    }
+
+    public void testUuidsLookedUpOneAtATimeWhenTheQueryFails() {
+        doThrow(new RuntimeException("no dao")).when(_entityMgr).listByUuids(eq(Event.class), anyCollection());
+        doReturn(event(1, _uuid1)).when(_entityMgr).findByUuid(Event.class, _uuid1);
+        doReturn(event(2, _uuid2)).when(_entityMgr).findByUuid(Event.class, _uuid2);
+        doReturn(event(3, _uuid3)).when(_entityMgr).findByUuid(Event.class, _uuid3);
+
+        DeleteEventsCmd cmd = deleteEvents();
+
+        assertEquals(Arrays.asList(1L, 2L, 3L), cmd.getIds());
+        verify(_entityMgr, times(3)).findByUuid(eq(Event.class), anyString());
+    }
+
+    public void testUnknownUuidIsRefused() {
+        doReturn(Arrays.asList(event(1, _uuid1), event(2, _uuid2))).when(_entityMgr).listByUuids(eq(Event.class), anyCollection());
+        try {
+            deleteEvents();
+            fail("an unknown uuid should be refused");
+        } catch (ServerApiException e) {
+            assertEquals(ApiErrorCode.PARAM_ERROR, e.getErrorCode());
+            assertTrue(e.getDescription().contains(_uuid3));
+        }
+    }
+
+    public void testPageTokenRefusedWhereUnsupported() {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(ApiConstants.PAGE_TOKEN, "k1");
+        params.put(ApiConstants.PAGE_SIZE, "10");
+        try {
+            ApiDispatcher.processParameters(new ListEventsCmd(), params);
+            fail("pagetoken should be refused by listEvents");
+        } catch (InvalidParameterValueException e) {
+            assertTrue(e.getMessage().contains("listevents"));
+        }
+
+        assertFalse(new ListEventsCmd().isPageTokenSupported());
+        assertTrue(new ListVMsCmd().isPageTokenSupported());
+        assertTrue(new ListVolumesCmd().isPageTokenSupported());
+    }
+}
@@ -0,0 +1,122 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.cloudstack.api.command.admin.resource.ListCapacityCmd;
+import org.apache.cloudstack.api.command.user.event.ListEventsCmd;
+import org.apache.cloudstack.api.command.user.zone.ListZonesByCmd;
+
+import com.cloud.api.ApiResponseCache.CachedApi;
+import com.cloud.api.ApiResponseCache.CachedResponse;
+import com.cloud.event.EventTypes;
+
+public class ApiResponseCacheTest extends TestCase {
+    private ApiResponseCache _cache;
+
+    @Override
+    protected void setUp() {
+        _cache = new ApiResponseCache();
+        _cache.register("listZones", ListZonesByCmd.class);
+        _cache.register("listCapacity", ListCapacityCmd.class);
+        _cache.register("listEvents", ListEventsCmd.class);
+        _cache.configure(60000, 10);
+    }
+
+    private Map<String, Object[]> params(String... nameValues) {
+        Map<String, Object[]> params = new HashMap<String, Object[]>();
+        for (int i = 0; i < nameValues.length; i += 2) {
+            params.put(nameValues[i], new String[] { nameValues[i + 1] });
+        }
+        return params;
+    }
+
+    public void testOnlyAnnotatedApisAreCached() {
+        assertTrue(_cache.isEnabled());
+        assertNotNull(_cache.getCachedApi("listZones"));
+        assertNull(_cache.getCachedApi("listEvents"));
+
+        _cache.configure(0, 10);
+        assertFalse(_cache.isEnabled());
+        assertNull(_cache.getCachedApi("listZones"));
+    }
+
+    public void testKeyIgnoresSignatureAndOrder() {
+        String key = ApiResponseCache.getKey(2, "json", params("command", "listZones", "available", "true", "apiKey", "a", "signature", "s1"));
+        assertEquals(key, ApiResponseCache.getKey(2, "json", params("signature", "s2", "available", "true", "command", "listZones", "_", "1234")));
+
+        assertFalse(key.equals(ApiResponseCache.getKey(3, "json", params("command", "listZones", "available", "true"))));
+        assertFalse(key.equals(ApiResponseCache.getKey(2, "xml", params("command", "listZones", "available", "true"))));
+        assertFalse(key.equals(ApiResponseCache.getKey(2, "json", params("command", "listZones", "available", "false"))));
+    }
+
+    public void testHitsAndMisses() {
+        CachedApi api = _cache.getCachedApi("listZones");
+        assertNull(api.get("key"));
+
+        CachedResponse response = api.put("key", "{ \"listzonesresponse\" : { } }", api.getGeneration());
+        assertSame(response, api.get("key"));
+        assertSame(response, api.get("key"));
+
+        assertEquals(2, api.getHits());
+        assertEquals(1, api.getMisses());
+        assertEquals(2.0 / 3, api.getHitRate(), 0.001);
+    }
+
+    public void testActionEventInvalidates() {
+        CachedApi zones = _cache.getCachedApi("listZones");
+        CachedApi capacity = _cache.getCachedApi("listCapacity");
+        zones.put("key", "zones", zones.getGeneration());
+        capacity.put("key", "capacity", capacity.getGeneration());
+
+        _cache.onPublishMessage(null, null, EventTypes.EVENT_VM_CREATE);
+        assertNotNull(zones.get("key"));
+        assertNull(capacity.get("key"));
+
+        _cache.onPublishMessage(null, null, EventTypes.EVENT_ZONE_EDIT);
+        assertNull(zones.get("key"));
+        assertEquals(1, zones.getInvalidations());
+    }
+
+    public void testResponseRacingInvalidationIsNotCached() {
+        CachedApi api = _cache.getCachedApi("listZones");
+        long generation = api.getGeneration();
+        _cache.onPublishMessage(null, null, EventTypes.EVENT_ZONE_CREATE);
+
+        assertNotNull(api.put("key", "zones", generation));
+        assertNull(api.get("key"));
+    }
+
+    public void testEtag() {
+        CachedApi api = _cache.getCachedApi("listZones");
+        CachedResponse response = api.put("key", "zones", api.getGeneration());
+        String etag = response.getEtag();
+        assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+        assertEquals(etag, api.put("other", "zones", api.getGeneration()).getEtag());
+        assertFalse(etag.equals(api.put("other", "other zones", api.getGeneration()).getEtag()));
+
+        assertTrue(response.matches(etag));
+        assertTrue(response.matches("\"abc\", W/" + etag));
+        assertTrue(response.matches("*"));
+        assertFalse(response.matches("\"abc\""));
+        assertFalse(response.matches(null));
+    }
+}
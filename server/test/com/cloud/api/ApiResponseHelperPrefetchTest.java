@@ -0,0 +1,308 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.apache.cloudstack.api.InternalIdentity;
+
+import com.cloud.dc.DataCenterVO;
+import com.cloud.dc.VlanVO;
+import com.cloud.dc.dao.DataCenterDao;
+import com.cloud.dc.dao.VlanDao;
+import com.cloud.domain.DomainVO;
+import com.cloud.domain.dao.DomainDao;
+import com.cloud.network.IpAddress;
+import com.cloud.network.Network;
+import com.cloud.network.dao.IPAddressDao;
+import com.cloud.network.dao.IPAddressVO;
+import com.cloud.network.dao.NetworkDao;
+import com.cloud.network.dao.NetworkVO;
+import com.cloud.network.dao.PhysicalNetworkDao;
+import com.cloud.network.dao.PhysicalNetworkVO;
+import com.cloud.network.rules.FirewallRule;
+import com.cloud.network.vpc.VpcVO;
+import com.cloud.network.vpc.dao.VpcDao;
+import com.cloud.server.ResourceTag.TaggedResourceType;
+import com.cloud.server.TaggedResourceService;
+import com.cloud.tags.ResourceTagVO;
+import com.cloud.tags.dao.ResourceTagDao;
+import com.cloud.user.AccountVO;
+import com.cloud.user.dao.AccountDao;
+import com.cloud.utils.db.Filter;
+import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.SearchCriteria;
+import com.cloud.vm.UserVmVO;
+import com.cloud.vm.dao.UserVmDao;
+
+/**
+ * Checks that the rows the response prefetches put in the enrichment context
+ * are the ones the per-row lookups of ApiDBUtils return without it, and that
+ * the lookups don't go back to the DAOs once the rows are prefetched.
+ */
+public class ApiResponseHelperPrefetchTest extends TestCase {
+    private final ApiResponseHelper _helper = new ApiResponseHelper();
+
+    private AccountDao _savedAccountDao;
+    private DomainDao _savedDomainDao;
+    private IPAddressDao _savedIpAddressDao;
+    private UserVmDao _savedUserVmDao;
+    private VlanDao _savedVlanDao;
+    private DataCenterDao _savedZoneDao;
+    private NetworkDao _savedNetworkDao;
+    private PhysicalNetworkDao _savedPhysicalNetworkDao;
+    private VpcDao _savedVpcDao;
+    private ResourceTagDao _savedResourceTagDao;
+    private TaggedResourceService _savedTaggedResourceService;
+
+    @Override
+    protected void setUp() {
+        _savedAccountDao = ApiDBUtils._accountDao;
+        _savedDomainDao = ApiDBUtils._domainDao;
+        _savedIpAddressDao = ApiDBUtils._ipAddressDao;
+        _savedUserVmDao = ApiDBUtils._userVmDao;
+        _savedVlanDao = ApiDBUtils._vlanDao;
+        _savedZoneDao = ApiDBUtils._zoneDao;
+        _savedNetworkDao = ApiDBUtils._networkDao;
+        _savedPhysicalNetworkDao = ApiDBUtils._physicalNetworkDao;
+        _savedVpcDao = ApiDBUtils._vpcDao;
+        _savedResourceTagDao = ApiDBUtils._resourceTagDao;
+        _savedTaggedResourceService = ApiDBUtils._taggedResourceService;
+
+        ApiDBUtils._accountDao = mock(AccountDao.class);
+        ApiDBUtils._domainDao = mock(DomainDao.class);
+        ApiDBUtils._ipAddressDao = mock(IPAddressDao.class);
+        ApiDBUtils._userVmDao = mock(UserVmDao.class);
+        ApiDBUtils._vlanDao = mock(VlanDao.class);
+        ApiDBUtils._zoneDao = mock(DataCenterDao.class);
+        ApiDBUtils._networkDao = mock(NetworkDao.class);
+        ApiDBUtils._physicalNetworkDao = mock(PhysicalNetworkDao.class);
+        ApiDBUtils._vpcDao = mock(VpcDao.class);
+        ApiDBUtils._resourceTagDao = mock(ResourceTagDao.class);
+        ApiDBUtils._taggedResourceService = mock(TaggedResourceService.class);
+    }
+
+    @Override
+    protected void tearDown() {
+        ResponseEnrichmentContext.unregister();
+
+        ApiDBUtils._accountDao = _savedAccountDao;
+        ApiDBUtils._domainDao = _savedDomainDao;
+        ApiDBUtils._ipAddressDao = _savedIpAddressDao;
+        ApiDBUtils._userVmDao = _savedUserVmDao;
+        ApiDBUtils._vlanDao = _savedVlanDao;
+        ApiDBUtils._zoneDao = _savedZoneDao;
+        ApiDBUtils._networkDao = _savedNetworkDao;
+        ApiDBUtils._physicalNetworkDao = _savedPhysicalNetworkDao;
+        ApiDBUtils._vpcDao = _savedVpcDao;
+        ApiDBUtils._resourceTagDao = _savedResourceTagDao;
+        ApiDBUtils._taggedResourceService = _savedTaggedResourceService;
+    }
+
+    public void testIpAddressPrefetchMatchesPerRowLookups() {
+        VlanVO vlan = row(VlanVO.class, 20);
+        when(vlan.getNetworkId()).thenReturn(50L);
+        table(ApiDBUtils._vlanDao, vlan);
+        table(ApiDBUtils._zoneDao, row(DataCenterVO.class, 1));
+        table(ApiDBUtils._accountDao, row(AccountVO.class, 2));
+        table(ApiDBUtils._domainDao, row(DomainVO.class, 3));
+        table(ApiDBUtils._userVmDao, row(UserVmVO.class, 30));
+        table(ApiDBUtils._networkDao, row(NetworkVO.class, 40), row(NetworkVO.class, 50));
+        table(ApiDBUtils._vpcDao, row(VpcVO.class, 60));
+        table(ApiDBUtils._physicalNetworkDao, row(PhysicalNetworkVO.class, 70));
+        ResourceTagVO tag = tag(TaggedResourceType.PublicIpAddress, 10);
+
+        // an allocated address on a vm of a vpc network, and a free one that refers to nothing else
+        IpAddress allocated = ipAddress(10, 20, 1, 2L, 3, 30L, 40L, 60L, 70L);
+        IpAddress free = ipAddress(11, 21, 1, null, 3, null, null, null, 70L);
+
+        Object[] perRow = lookUpIpAddresses();
+        ResponseEnrichmentContext.register();
+        _helper.prefetchIPAddressResponses(Arrays.asList(allocated, free));
+        Object[] prefetched = lookUpIpAddresses();
+
+        assertTrue(Arrays.equals(perRow, prefetched));
+        assertEquals(Collections.singletonList(tag), prefetched[prefetched.length - 2]);
+        assertNull(perRow[1]);
+        verify(ApiDBUtils._vlanDao, times(2)).findById(anyLong());
+        verify(ApiDBUtils._networkDao, times(2)).findById(anyLong());
+        verify(ApiDBUtils._zoneDao, times(1)).findById(anyLong());
+        verify(ApiDBUtils._accountDao, times(1)).findByIdIncludingRemoved(anyLong());
+        verify(ApiDBUtils._taggedResourceService, times(2)).listByResourceTypeAndId(any(TaggedResourceType.class), anyLong());
+        verify(ApiDBUtils._resourceTagDao).listByResourceIds(anyCollectionOf(Long.class), eq(TaggedResourceType.PublicIpAddress));
+    }
+
+    private Object[] lookUpIpAddresses() {
+        return new Object[] {ApiDBUtils.findVlanById(20), ApiDBUtils.findVlanById(21), ApiDBUtils.findZoneById(1L), ApiDBUtils.findAccountById(2L),
+            ApiDBUtils.findDomainById(3L), ApiDBUtils.findUserVmById(30L), ApiDBUtils.findNetworkById(40), ApiDBUtils.findNetworkById(50),
+            ApiDBUtils.findVpcById(60), ApiDBUtils.findPhysicalNetworkById(70),
+            ApiDBUtils.listByResourceTypeAndId(TaggedResourceType.PublicIpAddress, 10),
+            ApiDBUtils.listByResourceTypeAndId(TaggedResourceType.PublicIpAddress, 11)};
+    }
+
+    public void testNetworkPrefetchMatchesPerRowLookups() {
+        table(ApiDBUtils._zoneDao, row(DataCenterVO.class, 1));
+        table(ApiDBUtils._physicalNetworkDao, row(PhysicalNetworkVO.class, 70));
+        table(ApiDBUtils._networkDao, row(NetworkVO.class, 40));
+        table(ApiDBUtils._vpcDao, row(VpcVO.class, 60));
+        table(ApiDBUtils._accountDao, row(AccountVO.class, 2));
+        table(ApiDBUtils._domainDao, row(DomainVO.class, 3));
+        tag(TaggedResourceType.Network, 40);
+
+        Network network = network(40, 1, 70L, 40, 60L, 2, 3);
+        Network removed = network(41, 1, 71L, 41, null, 2, 3);
+
+        Object[] perRow = lookUpNetworks();
+        ResponseEnrichmentContext.register();
+        _helper.prefetchNetworkResponses(Arrays.asList(network, removed));
+        Object[] prefetched = lookUpNetworks();
+
+        assertTrue(Arrays.equals(perRow, prefetched));
+        verify(ApiDBUtils._networkDao, times(2)).findById(anyLong());
+        verify(ApiDBUtils._physicalNetworkDao, times(2)).findById(anyLong());
+        verify(ApiDBUtils._domainDao, times(1)).findByIdIncludingRemoved(anyLong());
+        verify(ApiDBUtils._taggedResourceService, times(2)).listByResourceTypeAndId(any(TaggedResourceType.class), anyLong());
+    }
+
+    private Object[] lookUpNetworks() {
+        return new Object[] {ApiDBUtils.findZoneById(1L), ApiDBUtils.findPhysicalNetworkById(70), ApiDBUtils.findPhysicalNetworkById(71),
+            ApiDBUtils.findNetworkById(40), ApiDBUtils.findNetworkById(41), ApiDBUtils.findVpcById(60), ApiDBUtils.findAccountById(2L),
+            ApiDBUtils.findDomainById(3L), ApiDBUtils.listByResourceTypeAndId(TaggedResourceType.Network, 40),
+            ApiDBUtils.listByResourceTypeAndId(TaggedResourceType.Network, 41)};
+    }
+
+    public void testFirewallRulePrefetchMatchesPerRowLookups() {
+        table(ApiDBUtils._ipAddressDao, row(IPAddressVO.class, 10));
+        table(ApiDBUtils._networkDao, row(NetworkVO.class, 40));
+        tag(TaggedResourceType.FirewallRule, 100);
+
+        // ingress rules are shown with their address, egress ones with their network
+        FirewallRule ingress = firewallRule(100, FirewallRule.TrafficType.Ingress, 10L, 40);
+        FirewallRule ingressOnMissingIp = firewallRule(101, FirewallRule.TrafficType.Ingress, 11L, 40);
+        FirewallRule egress = firewallRule(102, FirewallRule.TrafficType.Egress, null, 40);
+
+        Object[] perRow = lookUpFirewallRules();
+        ResponseEnrichmentContext.register();
+        _helper.prefetchFirewallResponses(Arrays.asList(ingress, ingressOnMissingIp, egress));
+        Object[] prefetched = lookUpFirewallRules();
+
+        assertTrue(Arrays.equals(perRow, prefetched));
+        assertNull(perRow[1]);
+        verify(ApiDBUtils._ipAddressDao, times(2)).findById(anyLong());
+        verify(ApiDBUtils._networkDao, times(1)).findById(anyLong());
+        verify(ApiDBUtils._taggedResourceService, times(3)).listByResourceTypeAndId(any(TaggedResourceType.class), anyLong());
+        verify(ApiDBUtils._resourceTagDao).listByResourceIds(anyCollectionOf(Long.class), eq(TaggedResourceType.FirewallRule));
+    }
+
+    private Object[] lookUpFirewallRules() {
+        return new Object[] {ApiDBUtils.findIpAddressById(10), ApiDBUtils.findIpAddressById(11), ApiDBUtils.findNetworkById(40),
+            ApiDBUtils.listByResourceTypeAndId(TaggedResourceType.FirewallRule, 100),
+            ApiDBUtils.listByResourceTypeAndId(TaggedResourceType.FirewallRule, 101),
+            ApiDBUtils.listByResourceTypeAndId(TaggedResourceType.FirewallRule, 102)};
+    }
+
+    public void testNoPrefetchOutsideOfRequest() {
+        table(ApiDBUtils._ipAddressDao, row(IPAddressVO.class, 10));
+        _helper.prefetchFirewallResponses(Collections.singletonList(firewallRule(100, FirewallRule.TrafficType.Ingress, 10L, 40)));
+
+        assertNotNull(ApiDBUtils.findIpAddressById(10));
+        verify(ApiDBUtils._ipAddressDao, times(0)).createSearchCriteria();
+        verify(ApiDBUtils._ipAddressDao, times(1)).findById(10L);
+    }
+
+    /**
+     * Backs the DAO with the given rows, both for the per-row lookups and
+     * for the searches of the prefetches.
+     */
+    private static <T extends InternalIdentity> void table(GenericDao<T, Long> dao, T... rows) {
+        doReturn(mock(SearchCriteria.class)).when(dao).createSearchCriteria();
+        doReturn(new ArrayList<T>(Arrays.asList(rows))).when(dao).search(any(SearchCriteria.class), any(Filter.class));
+        doReturn(new ArrayList<T>(Arrays.asList(rows))).when(dao).searchIncludingRemoved(any(SearchCriteria.class), any(Filter.class),
+            any(Boolean.class), anyBoolean());
+        for (T row : rows) {
+            long id = row.getId();
+            doReturn(row).when(dao).findById(id);
+            doReturn(row).when(dao).findByIdIncludingRemoved(id);
+        }
+    }
+
+    private static <T extends InternalIdentity> T row(Class<T> type, long id) {
+        T row = mock(type);
+        when(row.getId()).thenReturn(id);
+        return row;
+    }
+
+    private static ResourceTagVO tag(TaggedResourceType type, long resourceId) {
+        ResourceTagVO tag = mock(ResourceTagVO.class);
+        when(tag.getResourceId()).thenReturn(resourceId);
+        when(ApiDBUtils._resourceTagDao.listByResourceIds(anyCollectionOf(Long.class), eq(type))).thenReturn(Collections.singletonList(tag));
+        doReturn(Collections.singletonList(tag)).when(ApiDBUtils._taggedResourceService).listByResourceTypeAndId(type, resourceId);
+        return tag;
+    }
+
+    private static IpAddress ipAddress(long id, long vlanId, long zoneId, Long accountId, long domainId, Long vmId, Long networkId, Long vpcId,
+            Long physicalNetworkId) {
+        IpAddress ip = mock(IpAddress.class);
+        when(ip.getId()).thenReturn(id);
+        when(ip.getVlanId()).thenReturn(vlanId);
+        when(ip.getDataCenterId()).thenReturn(zoneId);
+        when(ip.getAllocatedToAccountId()).thenReturn(accountId);
+        when(ip.getAccountId()).thenReturn(accountId != null ? accountId : 1L);
+        when(ip.getDomainId()).thenReturn(domainId);
+        when(ip.getAssociatedWithVmId()).thenReturn(vmId);
+        when(ip.getAssociatedWithNetworkId()).thenReturn(networkId);
+        when(ip.getVpcId()).thenReturn(vpcId);
+        when(ip.getPhysicalNetworkId()).thenReturn(physicalNetworkId);
+        return ip;
+    }
+
+    private static Network network(long id, long zoneId, Long physicalNetworkId, long relatedId, Long vpcId, long accountId, long domainId) {
+        Network network = mock(Network.class);
+        when(network.getId()).thenReturn(id);
+        when(network.getDataCenterId()).thenReturn(zoneId);
+        when(network.getPhysicalNetworkId()).thenReturn(physicalNetworkId);
+        when(network.getRelated()).thenReturn(relatedId);
+        when(network.getVpcId()).thenReturn(vpcId);
+        when(network.getAccountId()).thenReturn(accountId);
+        when(network.getDomainId()).thenReturn(domainId);
+        return network;
+    }
+
+    private static FirewallRule firewallRule(long id, FirewallRule.TrafficType trafficType, Long sourceIpAddressId, long networkId) {
+        FirewallRule rule = mock(FirewallRule.class);
+        when(rule.getId()).thenReturn(id);
+        when(rule.getTrafficType()).thenReturn(trafficType);
+        when(rule.getSourceIpAddressId()).thenReturn(sourceIpAddressId);
+        when(rule.getNetworkId()).thenReturn(networkId);
+        return rule;
+    }
+}
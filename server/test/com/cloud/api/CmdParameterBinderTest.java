@@ -0,0 +1,109 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.cloudstack.api.ACL;
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.BaseCmd;
+import org.apache.cloudstack.api.BaseCmd.CommandType;
+import org.apache.cloudstack.api.Parameter;
+import org.apache.cloudstack.api.command.user.event.ListEventsCmd;
+import org.apache.cloudstack.api.command.user.vm.DestroyVMCmd;
+import org.apache.cloudstack.api.response.SuccessResponse;
+
+import com.cloud.api.CmdParameterBinder.BoundParameter;
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.vm.VirtualMachine;
+
+public class CmdParameterBinderTest extends TestCase {
+
+    // access to id can't be checked, SuccessResponse doesn't refer to any entity
+    public static class UncheckableAclCmd extends BaseCmd {
+        @ACL
+        @Parameter(name = ApiConstants.ID, type = CommandType.UUID, entityType = SuccessResponse.class)
+        private Long id;
+
+        @Override
+        public void execute() {
+        }
+
+        @Override
+        public String getCommandName() {
+            return "uncheckableaclresponse";
+        }
+
+        @Override
+        public long getEntityOwnerId() {
+            return 0;
+        }
+    }
+
+    private Map<String, BoundParameter> byName(CmdParameterBinder binder) {
+        Map<String, BoundParameter> parameters = new HashMap<String, BoundParameter>();
+        for (BoundParameter parameter : binder.getParameters()) {
+            parameters.put(parameter.getName(), parameter);
+        }
+        return parameters;
+    }
+
+    public void testBinderIsBuiltOnce() {
+        assertSame(CmdParameterBinder.getBinder(DestroyVMCmd.class), CmdParameterBinder.getBinder(DestroyVMCmd.class));
+    }
+
+    public void testUuidParameter() {
+        CmdParameterBinder binder = CmdParameterBinder.getBinder(DestroyVMCmd.class);
+        assertTrue(binder.hasUuidParameters());
+
+        BoundParameter id = byName(binder).get(ApiConstants.ID);
+        assertNotNull(id);
+        assertTrue(id.isUuid());
+        assertEquals(CommandType.UUID, id.getType());
+        assertTrue(id.getField().isAccessible());
+        assertEquals(VirtualMachine.class, id.getEntities()[0]);
+        assertEquals(id.getEntities().length, id.getEntityKey().size());
+    }
+
+    public void testInheritedAndLegacyDateParameters() {
+        Map<String, BoundParameter> parameters = byName(CmdParameterBinder.getBinder(ListEventsCmd.class));
+
+        // declared by the list command base classes
+        assertTrue(parameters.containsKey(ApiConstants.PAGE_SIZE));
+        assertTrue(parameters.containsKey(ApiConstants.ACCOUNT));
+
+        BoundParameter startDate = parameters.get(ApiConstants.START_DATE);
+        assertEquals(CommandType.DATE, startDate.getType());
+        assertTrue(startDate.isLegacyDates());
+        assertFalse(startDate.isUuid());
+        assertNull(startDate.getEntities());
+
+        assertFalse(byName(CmdParameterBinder.getBinder(DestroyVMCmd.class)).get(ApiConstants.ID).isLegacyDates());
+    }
+
+    public void testAclWithoutEntityIsRefused() {
+        try {
+            CmdParameterBinder.getBinder(UncheckableAclCmd.class);
+            fail("a parameter whose access can't be checked should be refused");
+        } catch (CloudRuntimeException e) {
+            assertTrue(e.getMessage().contains("@ACL"));
+        }
+    }
+}
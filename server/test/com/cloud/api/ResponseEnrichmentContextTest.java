@@ -0,0 +1,68 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import com.cloud.api.ResponseEnrichmentContext.Entity;
+
+public class ResponseEnrichmentContextTest extends TestCase {
+
+    @Override
+    protected void tearDown() throws Exception {
+        ResponseEnrichmentContext.unregister();
+    }
+
+    public void testNoContextOutsideOfRequest() {
+        assertNull(ResponseEnrichmentContext.current());
+
+        ResponseEnrichmentContext context = ResponseEnrichmentContext.register();
+        assertSame(context, ResponseEnrichmentContext.current());
+
+        ResponseEnrichmentContext.unregister();
+        assertNull(ResponseEnrichmentContext.current());
+    }
+
+    public void testRemembersWhatWasNotFound() {
+        ResponseEnrichmentContext context = ResponseEnrichmentContext.register();
+        assertFalse(context.isLoaded(Entity.Zone, 1L));
+
+        context.put(Entity.Zone, 1L, "zone1");
+        context.put(Entity.Zone, 2L, null);
+
+        assertTrue(context.isLoaded(Entity.Zone, 1L));
+        assertEquals("zone1", context.<String> get(Entity.Zone, 1L));
+        assertTrue(context.isLoaded(Entity.Zone, 2L));
+        assertNull(context.get(Entity.Zone, 2L));
+
+        // entities of different types do not share keys
+        assertFalse(context.isLoaded(Entity.Account, 1L));
+    }
+
+    public void testNotLoaded() {
+        ResponseEnrichmentContext context = ResponseEnrichmentContext.register();
+        context.put(Entity.Network, 1L, "network1");
+
+        Set<Long> notLoaded = context.notLoaded(Entity.Network, Arrays.asList(1L, 2L, 2L, null, 3L));
+        assertEquals(2, notLoaded.size());
+        assertTrue(notLoaded.contains(2L));
+        assertTrue(notLoaded.contains(3L));
+    }
+}
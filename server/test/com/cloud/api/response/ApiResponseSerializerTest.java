@@ -0,0 +1,80 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.response;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.cloudstack.api.BaseCmd;
+import org.apache.cloudstack.api.response.DomainResponse;
+import org.apache.cloudstack.api.response.ListResponse;
+
+public class ApiResponseSerializerTest extends TestCase {
+
+    private ListResponse<DomainResponse> listDomains(int count) {
+        List<DomainResponse> domains = new ArrayList<DomainResponse>();
+        for (int i = 0; i < count; i++) {
+            DomainResponse domain = new DomainResponse();
+            domain.setId("domain-" + i);
+            domain.setDomainName("Domain \"" + i + "\"");
+            domain.setLevel(1);
+            domain.setPath("ROOT/domain-" + i);
+            domain.setObjectName("domain");
+            domains.add(domain);
+        }
+        ListResponse<DomainResponse> response = new ListResponse<DomainResponse>();
+        response.setResponses(domains, count);
+        response.setResponseName("listdomainsresponse");
+        return response;
+    }
+
+    public void testStreamedJsonMatchesSerializedString() throws IOException {
+        for (int count : new int[] {0, 1, 3}) {
+            ListResponse<DomainResponse> response = listDomains(count);
+            StringWriter out = new StringWriter();
+            ApiResponseSerializer.writeSerializedResponse(response, BaseCmd.RESPONSE_TYPE_JSON, out);
+            assertEquals(ApiResponseSerializer.toSerializedString(response, BaseCmd.RESPONSE_TYPE_JSON), out.toString());
+        }
+    }
+
+    public void testStreamLargeList() throws IOException {
+        final long[] written = new long[1];
+        Writer out = new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+                written[0] += len;
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        ListResponse<DomainResponse> response = listDomains(10000);
+        ApiResponseSerializer.writeSerializedResponse(response, BaseCmd.RESPONSE_TYPE_JSON, out);
+        assertTrue(written[0] > 10000 * 50);
+    }
+}
@@ -17,6 +17,7 @@
 package com.cloud.network.security;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -216,4 +217,26 @@ public class SecurityGroupQueueTest extends TestCase {
         _testDequeueOneJob(10,1,10);
     }
 
+    public void testPriorityWorkDequeuedFirst() throws InterruptedException {
+        queue.clear();
+        Set<Long> background = new HashSet<Long>();
+        for (long i = 1; i <= 10; i++) {
+            background.add(i);
+        }
+        assertEquals(10, queue.submitWorkForVms(background));
+        // promoting a queued vm is not new work
+        assertEquals(0, queue.submitWorkForVms(Collections.singleton(7L), true));
+        assertEquals(1, queue.submitWorkForVms(Collections.singleton(11L), true));
+        assertEquals(11, queue.size());
+        assertEquals(2, queue.getPriorityQueueSize());
+
+        List<SecurityGroupWork> work = queue.getWork(3);
+        assertEquals(3, work.size());
+        assertEquals(Long.valueOf(7L), work.get(0).getInstanceId());
+        assertEquals(Long.valueOf(11L), work.get(1).getInstanceId());
+        assertEquals(8, queue.size());
+        assertEquals(0, queue.getPriorityQueueSize());
+        assertTrue(queue.getDispatchedCount(true) >= 2);
+    }
+
 }
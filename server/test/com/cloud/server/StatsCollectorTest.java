@@ -0,0 +1,161 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.cloud.host.HostVO;
+
+public class StatsCollectorTest {
+    private StatsCollector _collector;
+    private ExecutorService _pool;
+
+    @Before
+    public void setUp() {
+        _collector = new StatsCollector();
+        useCollectorThreads(4);
+        _collector.hostStatsTimeout = 5000L;
+    }
+
+    @After
+    public void tearDown() {
+        _collector.stop();
+    }
+
+    private void useCollectorThreads(int threads) {
+        if (_pool != null) {
+            _pool.shutdownNow();
+        }
+        _pool = Executors.newFixedThreadPool(threads);
+        _collector.collectorThreads = threads;
+        ReflectionTestUtils.setField(_collector, "_collectorPool", _pool);
+    }
+
+    @Test
+    public void testHostsAreFetchedInParallel() {
+        // every fetch waits for all of the others, so they only complete if they run at once
+        final CyclicBarrier barrier = new CyclicBarrier(4);
+        Map<Long, Long> results = _collector.fetchFromHosts("test stats", hosts(1, 2, 3, 4), new StatsCollector.HostFetcher<Long>() {
+            @Override
+            public Long fetch(HostVO host) throws Exception {
+                barrier.await(5, TimeUnit.SECONDS);
+                return host.getId() * 10;
+            }
+        });
+
+        assertEquals(4, results.size());
+        for (long id = 1; id <= 4; id++) {
+            assertEquals(Long.valueOf(id * 10), results.get(id));
+        }
+    }
+
+    @Test
+    public void testHostsMissingTheDeadlineAreLeftOut() {
+        _collector.hostStatsTimeout = 200L;
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        long startTick = System.currentTimeMillis();
+        Map<Long, Long> results = _collector.fetchFromHosts("test stats", hosts(1, 2, 3), new StatsCollector.HostFetcher<Long>() {
+            @Override
+            public Long fetch(HostVO host) throws Exception {
+                if (host.getId() == 2) {
+                    try {
+                        Thread.sleep(10000);
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                        throw e;
+                    }
+                }
+                return host.getId();
+            }
+        });
+        long duration = System.currentTimeMillis() - startTick;
+
+        assertEquals(2, results.size());
+        assertFalse(results.containsKey(2L));
+        assertTrue("took " + duration + " ms", duration < 5000);
+        // the straggler's fetch is cancelled rather than left to hold a collector thread
+        try {
+            assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void testQueuedHostsGetTheirOwnTimeout() {
+        // one collector thread: the second host only starts once the first one is done
+        useCollectorThreads(1);
+        _collector.hostStatsTimeout = 300L;
+        Map<Long, Long> results = _collector.fetchFromHosts("test stats", hosts(1, 2), new StatsCollector.HostFetcher<Long>() {
+            @Override
+            public Long fetch(HostVO host) throws Exception {
+                Thread.sleep(200);
+                return host.getId();
+            }
+        });
+
+        assertEquals(2, results.size());
+    }
+
+    @Test
+    public void testFailingHostsAreLeftOut() {
+        Map<Long, Long> results = _collector.fetchFromHosts("test stats", hosts(1, 2), new StatsCollector.HostFetcher<Long>() {
+            @Override
+            public Long fetch(HostVO host) throws Exception {
+                if (host.getId() == 1) {
+                    throw new Exception("agent unavailable");
+                }
+                // no stats from the agent
+                return null;
+            }
+        });
+
+        assertTrue(results.isEmpty());
+    }
+
+    @Test
+    public void testStopShutsDownTheCollectorPool() {
+        assertTrue(_collector.stop());
+        assertTrue(_pool.isShutdown());
+    }
+
+    private static List<HostVO> hosts(long... ids) {
+        List<HostVO> hosts = new ArrayList<HostVO>();
+        for (long id : ids) {
+            HostVO host = new HostVO("host-" + id);
+            ReflectionTestUtils.setField(host, "id", id);
+            hosts.add(host);
+        }
+        return hosts;
+    }
+}
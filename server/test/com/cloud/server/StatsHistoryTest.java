@@ -0,0 +1,75 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cloud.server.StatsSample.ResourceType;
+
+public class StatsHistoryTest {
+
+    @Test
+    public void testFineSamplesWrapAround() {
+        StatsHistory history = new StatsHistory(3, 10, 1000);
+        for (int i = 1; i <= 5; i++) {
+            history.record(ResourceType.StoragePool, 1, i * 100, i, 10 * i);
+        }
+
+        List<StatsSample> samples = history.list(ResourceType.StoragePool, 1, 0, Long.MAX_VALUE, false);
+        assertEquals(3, samples.size());
+        assertEquals(300, samples.get(0).getTimestamp().getTime());
+        assertEquals(500, samples.get(2).getTimestamp().getTime());
+        assertEquals(5.0, samples.get(2).getStorageUsedBytes(), 0);
+        assertEquals(50.0, samples.get(2).getStorageCapacityBytes(), 0);
+        assertNull(samples.get(2).getCpuUtilization());
+    }
+
+    @Test
+    public void testCoarseSamplesAverage() {
+        StatsHistory history = new StatsHistory(2, 10, 1000);
+        history.record(ResourceType.Host, 1, 100, 10, 0, 0, 0, 0);
+        history.record(ResourceType.Host, 1, 600, 30, 0, 0, 0, 0);
+        history.record(ResourceType.Host, 1, 1100, 50, 0, 0, 0, 0);
+
+        List<StatsSample> samples = history.list(ResourceType.Host, 1, 0, Long.MAX_VALUE, true);
+        assertEquals(2, samples.size());
+        assertEquals(0, samples.get(0).getTimestamp().getTime());
+        assertEquals(20.0, samples.get(0).getCpuUtilization(), 0);
+        assertEquals(1000, samples.get(1).getTimestamp().getTime());
+        assertEquals(50.0, samples.get(1).getCpuUtilization(), 0);
+
+        // the fine samples only reach back to 600, so the coarse ones are picked for anything earlier
+        assertEquals(2, history.list(ResourceType.Host, 1, 0, Long.MAX_VALUE, null).size());
+        assertEquals(600, history.list(ResourceType.Host, 1, 600, Long.MAX_VALUE, null).get(0).getTimestamp().getTime());
+    }
+
+    @Test
+    public void testPrune() {
+        StatsHistory history = new StatsHistory(2, 2, 1000);
+        history.record(ResourceType.StoragePool, 1, 100, 1, 1);
+        history.record(ResourceType.StoragePool, 2, 2000, 1, 1);
+        history.prune(1000);
+
+        assertEquals(0, history.list(ResourceType.StoragePool, 1, 0, Long.MAX_VALUE, null).size());
+        assertEquals(1, history.list(ResourceType.StoragePool, 2, 0, Long.MAX_VALUE, null).size());
+    }
+}
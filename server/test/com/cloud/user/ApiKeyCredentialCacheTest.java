@@ -0,0 +1,191 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.user;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import junit.framework.TestCase;
+
+import com.cloud.cluster.ClusterManager;
+import com.cloud.user.Account.State;
+import com.cloud.utils.Pair;
+import com.cloud.utils.db.Transaction;
+
+public class ApiKeyCredentialCacheTest extends TestCase {
+    private static final long TTL = 60000;
+
+    private UserVO user(long userId, long accountId, State state) {
+        UserVO user = new UserVO(userId);
+        user.setUsername("user" + userId);
+        user.setAccountId(accountId);
+        user.setSecretKey("secret" + userId);
+        user.setState(state);
+        return user;
+    }
+
+    private AccountVO account(long accountId) {
+        AccountVO account = new AccountVO(accountId);
+        account.setAccountName("account" + accountId);
+        account.setType(Account.ACCOUNT_TYPE_NORMAL);
+        account.setDomainId(1);
+        account.setState(State.enabled);
+        return account;
+    }
+
+    private void put(ApiKeyCredentialCache cache, String apiKey, long userId, long accountId, int maxSize) {
+        cache.put(apiKey, user(userId, accountId, State.enabled), account(accountId), cache.getGeneration(), TTL, maxSize);
+    }
+
+    public void testGetReturnsCopy() {
+        ApiKeyCredentialCache cache = new ApiKeyCredentialCache();
+        put(cache, "key1", 1, 10, 10);
+
+        Pair<User, Account> cached = cache.get("key1", TTL);
+        assertNotNull(cached);
+        assertEquals(1, cached.first().getId());
+        assertEquals("secret1", cached.first().getSecretKey());
+        assertEquals(State.enabled, cached.first().getState());
+        assertEquals(10, cached.second().getId());
+        assertEquals("account10", cached.second().getAccountName());
+
+        ((UserVO)cached.first()).setState(State.disabled);
+        assertEquals(State.enabled, cache.get("key1", TTL).first().getState());
+        assertNull(cache.get("key2", TTL));
+    }
+
+    public void testGetKeepsEntityFields() {
+        UserVO user = user(1, 10, State.enabled);
+        user.setUuid("user-uuid");
+        user.setApiKey("key1");
+        user.setFirstname("first");
+        user.setTimezone("UTC");
+        AccountVO account = account(10);
+        account.setUuid("account-uuid");
+        account.setNetworkDomain("example.org");
+        account.setDefaultZoneId(5L);
+
+        ApiKeyCredentialCache cache = new ApiKeyCredentialCache();
+        cache.put("key1", user, account, cache.getGeneration(), TTL, 10);
+        user.setUuid("changed");
+        account.setUuid("changed");
+
+        for (int i = 0; i < 2; i++) {
+            Pair<User, Account> cached = cache.get("key1", TTL);
+            UserVO cachedUser = (UserVO)cached.first();
+            AccountVO cachedAccount = (AccountVO)cached.second();
+            assertEquals("user-uuid", cachedUser.getUuid());
+            assertEquals("key1", cachedUser.getApiKey());
+            assertEquals("first", cachedUser.getFirstname());
+            assertEquals("UTC", cachedUser.getTimezone());
+            assertEquals(10, cachedUser.getAccountId());
+            assertEquals("account-uuid", cachedAccount.getUuid());
+            assertEquals("example.org", cachedAccount.getNetworkDomain());
+            assertEquals(Long.valueOf(5), cachedAccount.getDefaultZoneId());
+            assertEquals(1, cachedAccount.getDomainId());
+
+            cachedUser.setUuid("changed");
+            cachedAccount.setUuid("changed");
+        }
+    }
+
+    public void testExpiry() throws InterruptedException {
+        ApiKeyCredentialCache cache = new ApiKeyCredentialCache();
+        put(cache, "key1", 1, 10, 10);
+        Thread.sleep(5);
+        assertNull(cache.get("key1", 1));
+        assertEquals(0, cache.size());
+    }
+
+    public void testInvalidate() {
+        ApiKeyCredentialCache cache = new ApiKeyCredentialCache();
+        put(cache, "key1", 1, 10, 10);
+        put(cache, "key2", 2, 10, 10);
+        put(cache, "key3", 3, 20, 10);
+
+        cache.invalidateUser(1);
+        assertNull(cache.get("key1", TTL));
+        assertNotNull(cache.get("key2", TTL));
+
+        cache.invalidateAccount(10);
+        assertNull(cache.get("key2", TTL));
+        assertNotNull(cache.get("key3", TTL));
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    public void testLookupRacingWithEviction() {
+        ApiKeyCredentialCache cache = new ApiKeyCredentialCache();
+        long generation = cache.getGeneration();
+        cache.invalidateUser(1);
+        cache.put("key1", user(1, 10, State.enabled), account(10), generation, TTL, 10);
+        assertNull(cache.get("key1", TTL));
+    }
+
+    public void testKeysRotatedWhileLookupInFlight() {
+        ApiKeyCredentialCache cache = new ApiKeyCredentialCache();
+        ClusterManager clusterMgr = mock(ClusterManager.class);
+        cache.joinCluster(clusterMgr);
+
+        Transaction txn = Transaction.open("testKeysRotatedWhileLookupInFlight");
+        try {
+            txn.start();
+            // the new keys are written and the user evicted, but not committed yet
+            cache.invalidateUser(1);
+            // so a lookup that starts now still reads, and caches, the old keys
+            long generation = cache.getGeneration();
+            cache.put("key1", user(1, 10, State.enabled), account(10), generation, TTL, 10);
+            assertNotNull(cache.get("key1", TTL));
+            verify(clusterMgr, never()).broadcastNotification(anyString(), anyString());
+
+            txn.commit();
+            assertNull("the old keys are evicted once the new ones are committed", cache.get("key1", TTL));
+            verify(clusterMgr, times(1)).broadcastNotification(ApiKeyCredentialCache.NAME, "user|1");
+
+            // nor can a lookup that read them before the commit cache them afterwards
+            cache.put("key1", user(1, 10, State.enabled), account(10), generation, TTL, 10);
+            assertNull(cache.get("key1", TTL));
+        } finally {
+            txn.close();
+        }
+    }
+
+    public void testStatusChangeRolledBack() {
+        ApiKeyCredentialCache cache = new ApiKeyCredentialCache();
+        Transaction txn = Transaction.open("testStatusChangeRolledBack");
+        try {
+            txn.start();
+            cache.invalidateAccount(10);
+            put(cache, "key1", 1, 10, 10);
+            txn.rollback();
+            assertNull(cache.get("key1", TTL));
+        } finally {
+            txn.close();
+        }
+    }
+
+    public void testMaxSize() {
+        ApiKeyCredentialCache cache = new ApiKeyCredentialCache();
+        put(cache, "key1", 1, 10, 1);
+        put(cache, "key2", 2, 10, 1);
+        assertEquals(1, cache.size());
+        assertNull(cache.get("key2", TTL));
+    }
+}
@@ -88,6 +88,20 @@ CREATE TABLE `cloud`.`async_job_join_map` (
   INDEX `i_async_job_join_map__expiration`(`expiration`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
+CREATE TABLE `cloud_usage`.`usage_parse_checkpoint` (
+  `id` bigint unsigned NOT NULL AUTO_INCREMENT COMMENT 'id',
+  `job_id` bigint unsigned NOT NULL COMMENT 'usage job that committed the partition',
+  `start_millis` bigint unsigned NOT NULL COMMENT 'start time in milliseconds of the aggregation range',
+  `end_millis` bigint unsigned NOT NULL COMMENT 'end time in milliseconds of the aggregation range',
+  `first_account_id` bigint unsigned NOT NULL COMMENT 'lowest account id of the partition',
+  `last_account_id` bigint unsigned NOT NULL COMMENT 'highest account id of the partition',
+  `created` datetime NOT NULL COMMENT 'date the partition was committed',
+  PRIMARY KEY (`id`),
+  INDEX `i_usage_parse_checkpoint__range`(`start_millis`, `end_millis`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+ALTER TABLE `cloud`.`op_host` ADD COLUMN `command_rate` float NOT NULL DEFAULT 0 COMMENT 'commands per second sent to the host, as measured by its owning management server';
+
 ALTER TABLE `cloud`.`configuration` ADD COLUMN `default_value` VARCHAR(4095) COMMENT 'Default value for a configuration parameter';
 ALTER TABLE `cloud`.`configuration` ADD COLUMN `updated` datetime COMMENT 'Time this was updated by the server. null means this row is obsolete.';
 ALTER TABLE `cloud`.`configuration` ADD COLUMN `scope` VARCHAR(255) DEFAULT NULL COMMENT 'Can this parameter be scoped';
@@ -25,6 +25,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
@@ -51,6 +55,7 @@ import com.cloud.usage.dao.UsageJobDao;
 import com.cloud.usage.dao.UsageLoadBalancerPolicyDao;
 import com.cloud.usage.dao.UsageNetworkDao;
 import com.cloud.usage.dao.UsageNetworkOfferingDao;
+import com.cloud.usage.dao.UsageParseCheckpointDao;
 import com.cloud.usage.dao.UsagePortForwardingRuleDao;
 import com.cloud.usage.dao.UsageSecurityGroupDao;
 import com.cloud.usage.dao.UsageStorageDao;
@@ -59,18 +64,7 @@ import com.cloud.usage.dao.UsageVMSnapshotDao;
 import com.cloud.usage.dao.UsageVPNUserDao;
 import com.cloud.usage.dao.UsageVmDiskDao;
 import com.cloud.usage.dao.UsageVolumeDao;
-import com.cloud.usage.parser.IPAddressUsageParser;
-import com.cloud.usage.parser.LoadBalancerUsageParser;
-import com.cloud.usage.parser.NetworkOfferingUsageParser;
-import com.cloud.usage.parser.NetworkUsageParser;
-import com.cloud.usage.parser.PortForwardingUsageParser;
-import com.cloud.usage.parser.SecurityGroupUsageParser;
-import com.cloud.usage.parser.StorageUsageParser;
-import com.cloud.usage.parser.VMInstanceUsageParser;
-import com.cloud.usage.parser.VMSnapshotUsageParser;
-import com.cloud.usage.parser.VPNUserUsageParser;
-import com.cloud.usage.parser.VmDiskUsageParser;
-import com.cloud.usage.parser.VolumeUsageParser;
+import com.cloud.usage.parser.UsageParser;
 import com.cloud.user.Account;
 import com.cloud.user.AccountVO;
 import com.cloud.user.UserStatisticsVO;
@@ -99,6 +93,8 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
     private static final int DAILY_TIME = 60 * 24;
     private static final int THREE_DAYS_IN_MINUTES = 60 * 24 * 3;
     private static final int USAGE_AGGREGATION_RANGE_MIN = 10;
+    private static final int DEFAULT_PARSE_WORKERS = 4;
+    private static final int DEFAULT_PARSE_PARTITION_SIZE = 500;
 
     @Inject private AccountDao m_accountDao;
     @Inject private UserStatisticsDao m_userStatsDao;
@@ -120,11 +116,16 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
     @Inject protected UsageEventDao _usageEventDao;
     @Inject ConfigurationDao _configDao;
     @Inject private UsageVMSnapshotDao m_usageVMSnapshotDao;
+    @Inject private UsageParseCheckpointDao m_parseCheckpointDao;
+    @Inject private List<UsageParser> m_usageParsers;
     
     private String m_version = null;
     private final Calendar m_jobExecTime = Calendar.getInstance();
     private int m_aggregationDuration = 0;
     private int m_sanityCheckInterval = 0;
+    private int m_parseWorkers = DEFAULT_PARSE_WORKERS;
+    private int m_parsePartitionSize = DEFAULT_PARSE_PARTITION_SIZE;
+    private boolean m_incrementalAggregation = false;
     String m_hostname = null;
     int m_pid = 0;
     TimeZone m_usageTimezone = TimeZone.getTimeZone("GMT");;
@@ -135,6 +136,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
     private final ScheduledExecutorService m_executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Usage-Job"));
     private final ScheduledExecutorService m_heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Usage-HB"));
     private final ScheduledExecutorService m_sanityExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Usage-Sanity"));
+    private ExecutorService m_parseExecutor = null;
     private Future m_scheduledFuture = null;
     private Future m_heartbeat = null;
     private Future m_sanity = null;
@@ -180,6 +182,15 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         if(sanityCheckInterval != null){
             m_sanityCheckInterval = Integer.parseInt(sanityCheckInterval);
         }
+        String parseWorkers = configs.get("usage.parse.workers");
+        if (parseWorkers != null) {
+            m_parseWorkers = Math.max(1, Integer.parseInt(parseWorkers));
+        }
+        String parsePartitionSize = configs.get("usage.parse.partition.size");
+        if (parsePartitionSize != null) {
+            m_parsePartitionSize = Math.max(1, Integer.parseInt(parsePartitionSize));
+        }
+        m_incrementalAggregation = Boolean.parseBoolean(configs.get("usage.aggregation.incremental"));
 
         if(aggreagationTimeZone != null && !aggreagationTimeZone.isEmpty()){  
             m_usageTimezone = TimeZone.getTimeZone(aggreagationTimeZone);
@@ -231,6 +242,8 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
             throw new ConfigurationException("Unhandled exception configuring UsageManager " + e.toString());
         }
         m_pid = Integer.parseInt(System.getProperty("pid"));
+        m_parseExecutor = Executors.newFixedThreadPool(m_parseWorkers, new NamedThreadFactory("Usage-Parser"));
+        s_logger.debug("Usage parsing with " + m_parseWorkers + " workers over partitions of " + m_parsePartitionSize + " accounts");
         return true;
     }
 
@@ -276,6 +289,9 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         if(m_sanity != null){
             m_sanity.cancel(true);
         }
+        if (m_parseExecutor != null) {
+            m_parseExecutor.shutdownNow();
+        }
         return true;
     }
 
@@ -668,9 +684,13 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                 usageTxn.commit();
                 usageTxn.start();
 
-                boolean parsed = false;
-                numAcctsProcessed = 0;
-                
+                if (m_incrementalAggregation) {
+                    List<UsageEventVO> appliedEvents = events != null ? events : new ArrayList<UsageEventVO>();
+                    for (UsageParser parser : m_usageParsers) {
+                        parser.eventsApplied(appliedEvents, startDate);
+                    }
+                }
+
                 Date currentStartDate = startDate;
                 Date currentEndDate = endDate;
                 Date tempDate = endDate;
@@ -684,74 +704,24 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                     tempDate = aggregateCal.getTime();
                 }
                 
+                boolean parsed = true;
+                long lastRangeEndMillis = 0;
                 while (!currentEndDate.after(endDate) || (currentEndDate.getTime() -endDate.getTime() < 60000)){
-                    Long offset = Long.valueOf(0);
-                    Long limit = Long.valueOf(500);
-
-                    do {
-                        Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
-                        accounts = m_accountDao.listAll(filter);
-                        if ((accounts != null) && !accounts.isEmpty()) {
-                            for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
-                                numAcctsProcessed++;
-                            }
-                        }
-                        offset = new Long(offset.longValue() + limit.longValue());
-                    } while ((accounts != null) && !accounts.isEmpty());
-
-                    if (s_logger.isDebugEnabled()) {
-                        s_logger.debug("processed VM/Network Usage for " + numAcctsProcessed + " ACTIVE accts");
+                    // partitions committed so far stay committed, the next job picks up the rest of the range
+                    if (!parseAccounts(job, currentStartDate, currentEndDate, recentlyDeletedDate)) {
+                        parsed = false;
+                        break;
                     }
-                    numAcctsProcessed = 0;
-
-                    // reset offset
-                    offset = Long.valueOf(0);
-
-                    do {
-                        Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
-
-                        accounts = m_accountDao.findRecentlyDeletedAccounts(null, recentlyDeletedDate, filter);
-
-                        if ((accounts != null) && !accounts.isEmpty()) {
-                            for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
-                                List<Long> publicTemplates = m_usageDao.listPublicTemplatesByAccount(account.getId());
-                                for(Long templateId : publicTemplates){
-                                    //mark public templates owned by deleted accounts as deleted
-                                    List<UsageStorageVO> storageVOs = m_usageStorageDao.listById(account.getId(), templateId, StorageTypes.TEMPLATE);
-                                    if (storageVOs.size() > 1) {
-                                        s_logger.warn("More that one usage entry for storage: " + templateId + " assigned to account: " + account.getId() + "; marking them all as deleted...");
-                                    }
-                                    for (UsageStorageVO storageVO : storageVOs) {
-                                        if (s_logger.isDebugEnabled()) {
-                                            s_logger.debug("deleting template: " + storageVO.getId() + " from account: " + storageVO.getAccountId());
-                                        }
-                                        storageVO.setDeleted(account.getRemoved()); 
-                                        m_usageStorageDao.update(storageVO);
-                                    }
-                                }
-                                numAcctsProcessed++;
-                            }
-                        }
-                        offset = new Long(offset.longValue() + limit.longValue());
-                    } while ((accounts != null) && !accounts.isEmpty());
+                    lastRangeEndMillis = currentEndDate.getTime();
 
                     currentStartDate = new Date(currentEndDate.getTime() + 1);
                     aggregateCal.setTime(currentEndDate);
                     aggregateCal.add(Calendar.MINUTE, m_aggregationDuration);                        
                     currentEndDate = aggregateCal.getTime();
                 }
-                
-                if (s_logger.isDebugEnabled()) {
-                    s_logger.debug("processed Usage for " + numAcctsProcessed + " RECENTLY DELETED accts");
-                }
 
-                // FIXME: we don't break the above loop if something fails to parse, so it gets reset every account,
-                //        do we want to break out of processing accounts and rollback if there are errors?
-                if (!parsed) {
-                    usageTxn.rollback();
-                } else {
+                if (parsed) {
+                    m_parseCheckpointDao.removeUpTo(lastRangeEndMillis);
                     success = true;
                 }
             } catch (Exception ex) {
@@ -783,91 +753,167 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
     }
     
-    private boolean parseHelperTables(AccountVO account, Date currentStartDate, Date currentEndDate){
-        boolean parsed = false;
+    /**
+     * Parses the usage of the active and recently deleted accounts for one
+     * aggregation range.  Accounts are split, in id order, into partitions that
+     * the parse workers process in a transaction of their own; each committed
+     * partition is checkpointed so that a failed job is resumed without
+     * creating the usage records of those accounts a second time.
+     *
+     * @return true if all of the partitions have been committed
+     */
+    boolean parseAccounts(UsageJobVO job, Date startDate, Date endDate, Date recentlyDeletedDate) {
+        List<UsageParseCheckpointVO> checkpoints = m_parseCheckpointDao.listCommitted(startDate.getTime(), endDate.getTime());
+
+        TreeMap<Long, AccountVO> accounts = new TreeMap<Long, AccountVO>();
+        Long offset = Long.valueOf(0);
+        Long limit = Long.valueOf(500);
+        List<AccountVO> page = null;
+        do {
+            Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
+            page = m_accountDao.listAll(filter);
+            addUncommittedAccounts(accounts, page, checkpoints);
+            offset = new Long(offset.longValue() + limit.longValue());
+        } while ((page != null) && !page.isEmpty());
+
+        offset = Long.valueOf(0);
+        do {
+            Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
+            page = m_accountDao.findRecentlyDeletedAccounts(null, recentlyDeletedDate, filter);
+            addUncommittedAccounts(accounts, page, checkpoints);
+            offset = new Long(offset.longValue() + limit.longValue());
+        } while ((page != null) && !page.isEmpty());
 
-        parsed = VMInstanceUsageParser.parse(account, currentStartDate, currentEndDate);
         if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("vm usage instances successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+            s_logger.debug("Parsing usage of " + accounts.size() + " accts between " + startDate + " and " + endDate + ", " + checkpoints.size() + " partitions already committed");
         }
 
-        parsed = NetworkUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("network usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+        List<AccountVO> accountList = new ArrayList<AccountVO>(accounts.values());
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < accountList.size(); i += m_parsePartitionSize) {
+            List<AccountVO> partition = new ArrayList<AccountVO>(accountList.subList(i, Math.min(i + m_parsePartitionSize, accountList.size())));
+            futures.add(m_parseExecutor.submit(new PartitionParser(job.getId(), partition, startDate, endDate)));
         }
 
-        parsed = VmDiskUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("vm disk usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
-        }
-
-        parsed = VolumeUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("volume usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+        boolean success = true;
+        for (Future<Boolean> future : futures) {
+            try {
+                if (!future.get()) {
+                    success = false;
+                }
+            } catch (InterruptedException e) {
+                s_logger.warn("Interrupted while waiting for usage partitions to be parsed");
+                success = false;
+            } catch (ExecutionException e) {
+                s_logger.error("Unexpected exception while parsing usage partition", e.getCause());
+                success = false;
             }
         }
+        return success;
+    }
 
-        parsed = StorageUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("storage usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+    private void addUncommittedAccounts(Map<Long, AccountVO> accounts, List<AccountVO> page, List<UsageParseCheckpointVO> checkpoints) {
+        if (page == null) {
+            return;
         }
 
-        parsed = SecurityGroupUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("Security Group usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+        for (AccountVO account : page) {
+            boolean committed = false;
+            for (UsageParseCheckpointVO checkpoint : checkpoints) {
+                if (checkpoint.covers(account.getId())) {
+                    committed = true;
+                    break;
+                }
             }
-        }
-        
-        parsed = LoadBalancerUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("load balancer usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+            if (!committed) {
+                accounts.put(account.getId(), account);
             }
         }
-        
-        parsed = PortForwardingUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("port forwarding usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+    }
+
+    /**
+     * @return false if any of the parsers could not parse the usage of the account
+     */
+    private boolean parseHelperTables(AccountVO account, Date currentStartDate, Date currentEndDate){
+        boolean success = true;
+        for (UsageParser parser : m_usageParsers) {
+            if (!parser.parse(account, currentStartDate, currentEndDate)) {
+                s_logger.warn(parser.getClass().getSimpleName() + " failed to parse usage for account: " + account.getAccountName() + ", id: " + account.getId());
+                success = false;
             }
         }
-        
-        parsed = NetworkOfferingUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("network offering usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+        return success;
+    }
+
+    private void markPublicTemplatesDeleted(AccountVO account) {
+        List<Long> publicTemplates = m_usageDao.listPublicTemplatesByAccount(account.getId());
+        for(Long templateId : publicTemplates){
+            //mark public templates owned by deleted accounts as deleted
+            List<UsageStorageVO> storageVOs = m_usageStorageDao.listById(account.getId(), templateId, StorageTypes.TEMPLATE);
+            if (storageVOs.size() > 1) {
+                s_logger.warn("More that one usage entry for storage: " + templateId + " assigned to account: " + account.getId() + "; marking them all as deleted...");
             }
-        }
-        
-        parsed = IPAddressUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("IPAddress usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+            for (UsageStorageVO storageVO : storageVOs) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("deleting template: " + storageVO.getId() + " from account: " + storageVO.getAccountId());
+                }
+                storageVO.setDeleted(account.getRemoved()); 
+                m_usageStorageDao.update(storageVO);
             }
         }
-        parsed = VPNUserUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("VPN user usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+    }
+
+    /**
+     * Parses a partition of accounts on a usage parse worker, committing
+     * their usage records together with the partition checkpoint.
+     */
+    private class PartitionParser implements Callable<Boolean> {
+        private final long _jobId;
+        private final List<AccountVO> _accounts;
+        private final Date _startDate;
+        private final Date _endDate;
+
+        public PartitionParser(long jobId, List<AccountVO> accounts, Date startDate, Date endDate) {
+            _jobId = jobId;
+            _accounts = accounts;
+            _startDate = startDate;
+            _endDate = endDate;
         }
-        parsed = VMSnapshotUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("VM Snapshot usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+
+        @Override
+        public Boolean call() {
+            long firstAccountId = _accounts.get(0).getId();
+            long lastAccountId = _accounts.get(_accounts.size() - 1).getId();
+
+            Transaction txn = Transaction.open(Transaction.USAGE_DB);
+            try {
+                txn.start();
+                for (AccountVO account : _accounts) {
+                    if (!parseHelperTables(account, _startDate, _endDate)) {
+                        // no checkpoint, the next job parses the whole partition again
+                        s_logger.warn("Rolling back usage of accts " + firstAccountId + " to " + lastAccountId + " between " + _startDate + " and " + _endDate);
+                        txn.rollback();
+                        return false;
+                    }
+                    if (account.getRemoved() != null) {
+                        markPublicTemplatesDeleted(account);
+                    }
+                }
+                m_parseCheckpointDao.persist(new UsageParseCheckpointVO(_jobId, _startDate.getTime(), _endDate.getTime(), firstAccountId, lastAccountId));
+                txn.commit();
+
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("processed Usage for " + _accounts.size() + " accts, ids " + firstAccountId + " to " + lastAccountId);
+                }
+                return true;
+            } catch (Exception e) {
+                s_logger.error("Unable to parse usage for accts " + firstAccountId + " to " + lastAccountId + " between " + _startDate + " and " + _endDate, e);
+                txn.rollback();
+                return false;
+            } finally {
+                txn.close();
             }
         }
-        return parsed;
     }
 
     private void createHelperRecord(UsageEventVO event) {
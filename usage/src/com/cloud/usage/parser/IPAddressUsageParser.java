@@ -22,7 +22,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 
 import org.apache.log4j.Logger;
@@ -38,23 +37,14 @@ import com.cloud.user.AccountVO;
 import com.cloud.utils.Pair;
 
 @Component
-public class IPAddressUsageParser {
+public class IPAddressUsageParser extends UsageParser {
     public static final Logger s_logger = Logger.getLogger(IPAddressUsageParser.class.getName());
 
-    private static UsageDao m_usageDao;
-    private static UsageIPAddressDao m_usageIPAddressDao;
-
-    
     @Inject private UsageDao _usageDao;
     @Inject private UsageIPAddressDao _usageIPAddressDao;
 
-    @PostConstruct
-    void init() {
-    	m_usageDao = _usageDao;
-    	m_usageIPAddressDao = _usageIPAddressDao;
-    }
-    
-    public static boolean parse(AccountVO account, Date startDate, Date endDate) {
+    @Override
+    public boolean parse(AccountVO account, Date startDate, Date endDate) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Parsing IP Address usage for account: " + account.getId());
         }
@@ -67,7 +57,7 @@ public class IPAddressUsageParser {
         //     - look for an entry for accountId with end date in the given range
         //     - look for an entry for accountId with end date null (currently running vm or owned IP)
         //     - look for an entry for accountId with start date before given range *and* end date after given range
-        List<UsageIPAddressVO> usageIPAddress = m_usageIPAddressDao.getUsageRecords(account.getId(), account.getDomainId(), startDate, endDate);
+        List<UsageIPAddressVO> usageIPAddress = _usageIPAddressDao.getUsageRecords(account.getId(), account.getDomainId(), startDate, endDate);
 
         if(usageIPAddress.isEmpty()){
             s_logger.debug("No IP Address usage for this period");
@@ -131,7 +121,7 @@ public class IPAddressUsageParser {
         usageDataMap.put(key, ipUsageInfo);
     }
 
-    private static void createUsageRecord(long zoneId, long runningTime, Date startDate, Date endDate, AccountVO account, long IpId, String IPAddress, boolean isSourceNat, boolean isSystem) {
+    private void createUsageRecord(long zoneId, long runningTime, Date startDate, Date endDate, AccountVO account, long IpId, String IPAddress, boolean isSourceNat, boolean isSystem) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Total usage time " + runningTime + "ms");
         }
@@ -151,7 +141,7 @@ public class IPAddressUsageParser {
 
         UsageVO usageRecord = new UsageVO(zoneId, account.getAccountId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", UsageTypes.IP_ADDRESS, new Double(usage), IpId, 
                 (isSystem?1:0), (isSourceNat?"SourceNat":""), startDate, endDate);
-        m_usageDao.persist(usageRecord);
+        _usageDao.persist(usageRecord);
     }
 
     private static class IpInfo {
@@ -22,7 +22,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 
 import org.apache.log4j.Logger;
@@ -38,22 +37,14 @@ import com.cloud.user.AccountVO;
 import com.cloud.utils.Pair;
 
 @Component
-public class LoadBalancerUsageParser {
+public class LoadBalancerUsageParser extends UsageParser {
     public static final Logger s_logger = Logger.getLogger(LoadBalancerUsageParser.class.getName());
-    
-    private static UsageDao m_usageDao;
-    private static UsageLoadBalancerPolicyDao m_usageLoadBalancerPolicyDao;
-    
+
     @Inject private UsageDao _usageDao;
     @Inject private UsageLoadBalancerPolicyDao _usageLoadBalancerPolicyDao;
-    
-    @PostConstruct
-    void init() {
-    	m_usageDao = _usageDao;
-    	m_usageLoadBalancerPolicyDao = _usageLoadBalancerPolicyDao;
-    }
-    
-    public static boolean parse(AccountVO account, Date startDate, Date endDate) {
+
+    @Override
+    public boolean parse(AccountVO account, Date startDate, Date endDate) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Parsing all LoadBalancerPolicy usage events for account: " + account.getId());
         }
@@ -66,7 +57,7 @@ public class LoadBalancerUsageParser {
         //     - look for an entry for accountId with end date in the given range
         //     - look for an entry for accountId with end date null (currently running vm or owned IP)
         //     - look for an entry for accountId with start date before given range *and* end date after given range
-        List<UsageLoadBalancerPolicyVO> usageLBs = m_usageLoadBalancerPolicyDao.getUsageRecords(account.getId(), account.getDomainId(), startDate, endDate, false, 0);
+        List<UsageLoadBalancerPolicyVO> usageLBs = _usageLoadBalancerPolicyDao.getUsageRecords(account.getId(), account.getDomainId(), startDate, endDate, false, 0);
         
         if(usageLBs.isEmpty()){
             s_logger.debug("No load balancer usage events for this period");
@@ -128,7 +119,7 @@ public class LoadBalancerUsageParser {
         usageDataMap.put(key, lbUsageInfo);
     }
 
-    private static void createUsageRecord(int type, long runningTime, Date startDate, Date endDate, AccountVO account, long lbId, long zoneId) {
+    private void createUsageRecord(int type, long runningTime, Date startDate, Date endDate, AccountVO account, long lbId, long zoneId) {
         // Our smallest increment is hourly for now
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Total running time " + runningTime + "ms");
@@ -149,7 +140,7 @@ public class LoadBalancerUsageParser {
         //ToDo: get zone id
         UsageVO usageRecord = new UsageVO(zoneId, account.getId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", type,
                 new Double(usage), null, null, null, null, lbId, null, startDate, endDate);
-        m_usageDao.persist(usageRecord);
+        _usageDao.persist(usageRecord);
     }
     
     private static class LBInfo {
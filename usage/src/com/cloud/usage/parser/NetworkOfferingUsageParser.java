@@ -22,7 +22,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 
 import org.apache.log4j.Logger;
@@ -38,22 +37,14 @@ import com.cloud.utils.Pair;
 import org.springframework.stereotype.Component;
 
 @Component
-public class NetworkOfferingUsageParser {
+public class NetworkOfferingUsageParser extends UsageParser {
     public static final Logger s_logger = Logger.getLogger(NetworkOfferingUsageParser.class.getName());
-    
-    private static UsageDao m_usageDao;
-    private static UsageNetworkOfferingDao m_usageNetworkOfferingDao;
 
     @Inject private UsageDao _usageDao;
     @Inject private UsageNetworkOfferingDao _usageNetworkOfferingDao;
 
-    @PostConstruct
-    void init() {
-    	m_usageDao = _usageDao;
-    	m_usageNetworkOfferingDao = _usageNetworkOfferingDao;
-    }
-    
-    public static boolean parse(AccountVO account, Date startDate, Date endDate) {
+    @Override
+    public boolean parse(AccountVO account, Date startDate, Date endDate) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Parsing all NetworkOffering usage events for account: " + account.getId());
         }
@@ -66,7 +57,7 @@ public class NetworkOfferingUsageParser {
         //     - look for an entry for accountId with end date in the given range
         //     - look for an entry for accountId with end date null (currently running vm or owned IP)
         //     - look for an entry for accountId with start date before given range *and* end date after given range
-        List<UsageNetworkOfferingVO> usageNOs = m_usageNetworkOfferingDao.getUsageRecords(account.getId(), account.getDomainId(), startDate, endDate, false, 0);
+        List<UsageNetworkOfferingVO> usageNOs = _usageNetworkOfferingDao.getUsageRecords(account.getId(), account.getDomainId(), startDate, endDate, false, 0);
         
         if(usageNOs.isEmpty()){
             s_logger.debug("No NetworkOffering usage events for this period");
@@ -129,7 +120,7 @@ public class NetworkOfferingUsageParser {
         usageDataMap.put(key, noUsageInfo);
     }
 
-    private static void createUsageRecord(int type, long runningTime, Date startDate, Date endDate, AccountVO account, long vmId, long noId, long zoneId, boolean isDefault) {
+    private void createUsageRecord(int type, long runningTime, Date startDate, Date endDate, AccountVO account, long vmId, long noId, long zoneId, boolean isDefault) {
         // Our smallest increment is hourly for now
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Total running time " + runningTime + "ms");
@@ -150,7 +141,7 @@ public class NetworkOfferingUsageParser {
         long defaultNic = (isDefault) ? 1 : 0;
         UsageVO usageRecord = new UsageVO(zoneId, account.getId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", type,
                 new Double(usage), vmId, null, noId, null, defaultNic, null, startDate, endDate);
-        m_usageDao.persist(usageRecord);
+        _usageDao.persist(usageRecord);
     }
     
     private static class NOInfo {
@@ -22,7 +22,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 
 import org.apache.log4j.Logger;
@@ -38,22 +37,14 @@ import com.cloud.utils.db.SearchCriteria;
 import org.springframework.stereotype.Component;
 
 @Component
-public class NetworkUsageParser {
+public class NetworkUsageParser extends UsageParser {
 public static final Logger s_logger = Logger.getLogger(NetworkUsageParser.class.getName());
 
-    private static UsageDao m_usageDao;
-    private static UsageNetworkDao m_usageNetworkDao;
-
     @Inject private UsageDao _usageDao;
     @Inject private UsageNetworkDao _usageNetworkDao;
 
-    @PostConstruct
-    void init() {
-    	m_usageDao = _usageDao;
-    	m_usageNetworkDao = _usageNetworkDao;
-    }
-    
-    public static boolean parse(AccountVO account, Date startDate, Date endDate) {
+    @Override
+    public boolean parse(AccountVO account, Date startDate, Date endDate) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Parsing all Network usage events for account: " + account.getId());
         }
@@ -64,10 +55,10 @@ public static final Logger s_logger = Logger.getLogger(NetworkUsageParser.class.
 
         // - query usage_network table for all entries for userId with
         // event_date in the given range
-        SearchCriteria<UsageNetworkVO> sc = m_usageNetworkDao.createSearchCriteria();
+        SearchCriteria<UsageNetworkVO> sc = _usageNetworkDao.createSearchCriteria();
         sc.addAnd("accountId", SearchCriteria.Op.EQ, account.getId());
         sc.addAnd("eventTimeMillis", SearchCriteria.Op.BETWEEN, startDate.getTime(), endDate.getTime());
-        List<UsageNetworkVO> usageNetworkVOs = m_usageNetworkDao.search(sc, null);
+        List<UsageNetworkVO> usageNetworkVOs = _usageNetworkDao.search(sc, null);
 
         Map<String, NetworkInfo> networkUsageByZone = new HashMap<String, NetworkInfo>();
 
@@ -130,7 +121,7 @@ public static final Logger s_logger = Logger.getLogger(NetworkUsageParser.class.
             }
         }
 
-        m_usageDao.saveUsageRecords(usageRecords);
+        _usageDao.saveUsageRecords(usageRecords);
 
         return true;
     }
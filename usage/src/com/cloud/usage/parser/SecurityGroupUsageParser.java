@@ -22,7 +22,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 
 import org.apache.log4j.Logger;
@@ -38,22 +37,14 @@ import com.cloud.utils.Pair;
 import org.springframework.stereotype.Component;
 
 @Component
-public class SecurityGroupUsageParser {
+public class SecurityGroupUsageParser extends UsageParser {
     public static final Logger s_logger = Logger.getLogger(SecurityGroupUsageParser.class.getName());
-    
-    private static UsageDao m_usageDao;
-    private static UsageSecurityGroupDao m_usageSecurityGroupDao;
 
     @Inject private UsageDao _usageDao;
     @Inject private UsageSecurityGroupDao _usageSecurityGroupDao;
-    
-    @PostConstruct
-    void init() {
-    	m_usageDao = _usageDao;
-    	m_usageSecurityGroupDao = _usageSecurityGroupDao;
-    }
-    
-    public static boolean parse(AccountVO account, Date startDate, Date endDate) {
+
+    @Override
+    public boolean parse(AccountVO account, Date startDate, Date endDate) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Parsing all SecurityGroup usage events for account: " + account.getId());
         }
@@ -66,7 +57,7 @@ public class SecurityGroupUsageParser {
         //     - look for an entry for accountId with end date in the given range
         //     - look for an entry for accountId with end date null (currently running vm or owned IP)
         //     - look for an entry for accountId with start date before given range *and* end date after given range
-        List<UsageSecurityGroupVO> usageSGs = m_usageSecurityGroupDao.getUsageRecords(account.getId(), account.getDomainId(), startDate, endDate, false, 0);
+        List<UsageSecurityGroupVO> usageSGs = _usageSecurityGroupDao.getUsageRecords(account.getId(), account.getDomainId(), startDate, endDate, false, 0);
         
         if(usageSGs.isEmpty()){
             s_logger.debug("No SecurityGroup usage events for this period");
@@ -129,7 +120,7 @@ public class SecurityGroupUsageParser {
         usageDataMap.put(key, sgUsageInfo);
     }
 
-    private static void createUsageRecord(int type, long runningTime, Date startDate, Date endDate, AccountVO account, long vmId, long sgId, long zoneId) {
+    private void createUsageRecord(int type, long runningTime, Date startDate, Date endDate, AccountVO account, long vmId, long sgId, long zoneId) {
         // Our smallest increment is hourly for now
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Total running time " + runningTime + "ms");
@@ -149,7 +140,7 @@ public class SecurityGroupUsageParser {
 
         UsageVO usageRecord = new UsageVO(zoneId, account.getId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", type,
                 new Double(usage), vmId, null, null, null, sgId, null, startDate, endDate);
-        m_usageDao.persist(usageRecord);
+        _usageDao.persist(usageRecord);
     }
     
     private static class SGInfo {
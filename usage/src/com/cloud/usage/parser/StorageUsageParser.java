@@ -22,7 +22,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 
 import org.apache.log4j.Logger;
@@ -39,22 +38,14 @@ import com.cloud.utils.Pair;
 import org.springframework.stereotype.Component;
 
 @Component
-public class StorageUsageParser {
+public class StorageUsageParser extends UsageParser {
     public static final Logger s_logger = Logger.getLogger(StorageUsageParser.class.getName());
-    
-    private static UsageDao m_usageDao;
-    private static UsageStorageDao m_usageStorageDao;
 
     @Inject private UsageDao _usageDao;
     @Inject private UsageStorageDao _usageStorageDao;
- 
-    @PostConstruct
-    void init() {
-    	m_usageDao = _usageDao;
-    	m_usageStorageDao = _usageStorageDao;
-    }
-    
-    public static boolean parse(AccountVO account, Date startDate, Date endDate) {
+
+    @Override
+    public boolean parse(AccountVO account, Date startDate, Date endDate) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Parsing all Storage usage events for account: " + account.getId());
         }
@@ -67,7 +58,7 @@ public class StorageUsageParser {
         //     - look for an entry for accountId with end date in the given range
         //     - look for an entry for accountId with end date null (currently running vm or owned IP)
         //     - look for an entry for accountId with start date before given range *and* end date after given range
-        List<UsageStorageVO> usageUsageStorages = m_usageStorageDao.getUsageRecords(account.getId(), account.getDomainId(), startDate, endDate, false, 0);
+        List<UsageStorageVO> usageUsageStorages = _usageStorageDao.getUsageRecords(account.getId(), account.getDomainId(), startDate, endDate, false, 0);
         
         if(usageUsageStorages.isEmpty()){
             s_logger.debug("No Storage usage events for this period");
@@ -136,7 +127,7 @@ public class StorageUsageParser {
         usageDataMap.put(key, volUsageInfo);
     }
 
-    private static void createUsageRecord(long zoneId, int type, long runningTime, Date startDate, Date endDate, AccountVO account, long storageId, Long sourceId, long size, Long virtualSize) {
+    private void createUsageRecord(long zoneId, int type, long runningTime, Date startDate, Date endDate, AccountVO account, long storageId, Long sourceId, long size, Long virtualSize) {
         // Our smallest increment is hourly for now
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Total running time " + runningTime + "ms");
@@ -177,7 +168,7 @@ public class StorageUsageParser {
         //ToDo: get zone id
         UsageVO usageRecord = new UsageVO(zoneId, account.getId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", usage_type,
                 new Double(usage), null, null, null, tmplSourceId, storageId, size, virtualSize, startDate, endDate);
-        m_usageDao.persist(usageRecord);
+        _usageDao.persist(usageRecord);
     }
 
     private static class StorageInfo {
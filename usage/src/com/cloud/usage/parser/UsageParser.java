@@ -17,19 +17,35 @@
 package com.cloud.usage.parser;
 
 import java.util.Date;
+import java.util.List;
 
-import org.apache.log4j.Logger;
+import com.cloud.event.UsageEventVO;
+import com.cloud.user.AccountVO;
 
-public abstract class UsageParser implements Runnable {
-    public static final Logger s_logger = Logger.getLogger(UsageParser.class.getName());
-    
-    public void run() {
-        try {
-            parse(null);
-        } catch (Exception e) {
-            s_logger.warn("Error while parsing usage events", e);
-        }
+/**
+ * Turns the helper table entries of an account into usage records.
+ *
+ * One instance of each parser is shared by all the usage parse workers, so
+ * implementations must keep everything about a parse on the stack.
+ */
+public abstract class UsageParser {
+
+    /**
+     * Creates the usage records of the account for the given range, within the
+     * transaction of the calling thread.
+     *
+     * @return false if the usage of the account could not be parsed; the
+     *         partition of the account is then rolled back and left to the next job
+     */
+    public abstract boolean parse(AccountVO account, Date startDate, Date endDate);
+
+    /**
+     * Called in incremental aggregation mode, on the usage job thread, once the
+     * usage events of the job have been applied to the helper tables and before
+     * any account is parsed from startDate on.  Parsers keeping an index of the
+     * helper tables bring it up to date here, only VMInstanceUsageParser does
+     * so far; the others have nothing to do.
+     */
+    public void eventsApplied(List<UsageEventVO> events, Date startDate) {
     }
-    
-    public abstract void parse(Date endDate);
 }
@@ -0,0 +1,164 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage.parser;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cloud.usage.UsageVMInstanceVO;
+
+/**
+ * In-memory copy of the usage_vm_instance entries that are still open, or
+ * that ended recently enough to matter for the ranges left to parse, indexed
+ * by account and vm.  It is brought up to date from the vms touched by the
+ * usage events each job applies, so parsing no longer has to query the
+ * helper table once per account and range.
+ *
+ * Only modified on the usage job thread before the parse workers are
+ * started, the workers only read it.
+ *
+ * Neither the index nor its event id cursor are persisted.  Each job checks
+ * the cursor against the last usage event processed in the usage database,
+ * so after a restart, or once another usage server has run the job, the
+ * index is simply loaded again from usage_vm_instance.  The other usage
+ * types are parsed from their helper tables as before, and the parsers
+ * still emit one usage record per aggregation range rather than deltas.
+ */
+public class VMInstanceUsageIndex {
+    private final Map<Long, Map<Long, List<UsageVMInstanceVO>>> _byAccount = new HashMap<Long, Map<Long, List<UsageVMInstanceVO>>>();
+    private final Map<Long, Set<Long>> _vmAccounts = new HashMap<Long, Set<Long>>();
+    private final Set<Long> _vmsWithEndedEntries = new HashSet<Long>();
+
+    // id of the last usage event reflected here, -1 when the index has to be loaded again
+    private volatile long _lastEventId = -1;
+
+    public boolean isLoaded() {
+        return _lastEventId >= 0;
+    }
+
+    public long getLastEventId() {
+        return _lastEventId;
+    }
+
+    public void setLastEventId(long lastEventId) {
+        _lastEventId = lastEventId;
+    }
+
+    public void invalidate() {
+        _lastEventId = -1;
+    }
+
+    public void load(List<UsageVMInstanceVO> entries) {
+        _byAccount.clear();
+        _vmAccounts.clear();
+        _vmsWithEndedEntries.clear();
+        for (UsageVMInstanceVO entry : entries) {
+            add(entry);
+        }
+    }
+
+    /**
+     * Replaces everything known about the vm with its current entries.
+     */
+    public void refresh(long vmId, List<UsageVMInstanceVO> entries) {
+        Set<Long> accountIds = _vmAccounts.remove(vmId);
+        if (accountIds != null) {
+            for (Long accountId : accountIds) {
+                Map<Long, List<UsageVMInstanceVO>> vms = _byAccount.get(accountId);
+                if (vms != null) {
+                    vms.remove(vmId);
+                    if (vms.isEmpty()) {
+                        _byAccount.remove(accountId);
+                    }
+                }
+            }
+        }
+        _vmsWithEndedEntries.remove(vmId);
+
+        for (UsageVMInstanceVO entry : entries) {
+            add(entry);
+        }
+    }
+
+    /**
+     * Forgets the entries that ended before the given date, no range left to
+     * parse can include them anymore.
+     */
+    public void prune(Date date) {
+        for (Long vmId : new ArrayList<Long>(_vmsWithEndedEntries)) {
+            List<UsageVMInstanceVO> entries = new ArrayList<UsageVMInstanceVO>();
+            for (Long accountId : _vmAccounts.get(vmId)) {
+                for (UsageVMInstanceVO entry : _byAccount.get(accountId).get(vmId)) {
+                    if (entry.getEndDate() == null || !entry.getEndDate().before(date)) {
+                        entries.add(entry);
+                    }
+                }
+            }
+            refresh(vmId, entries);
+        }
+    }
+
+    /**
+     * Same entries as UsageVMInstanceDao.getUsageRecords() would return.
+     */
+    public List<UsageVMInstanceVO> getUsageRecords(long accountId, Date startDate, Date endDate) {
+        List<UsageVMInstanceVO> usageInstances = new ArrayList<UsageVMInstanceVO>();
+        Map<Long, List<UsageVMInstanceVO>> vms = _byAccount.get(accountId);
+        if (vms == null) {
+            return usageInstances;
+        }
+
+        for (List<UsageVMInstanceVO> entries : vms.values()) {
+            for (UsageVMInstanceVO entry : entries) {
+                if (entry.getEndDate() == null || (!entry.getStartDate().after(endDate) && !entry.getEndDate().before(startDate))) {
+                    usageInstances.add(entry);
+                }
+            }
+        }
+        return usageInstances;
+    }
+
+    private void add(UsageVMInstanceVO entry) {
+        Map<Long, List<UsageVMInstanceVO>> vms = _byAccount.get(entry.getAccountId());
+        if (vms == null) {
+            vms = new HashMap<Long, List<UsageVMInstanceVO>>();
+            _byAccount.put(entry.getAccountId(), vms);
+        }
+        List<UsageVMInstanceVO> entries = vms.get(entry.getVmInstanceId());
+        if (entries == null) {
+            entries = new ArrayList<UsageVMInstanceVO>();
+            vms.put(entry.getVmInstanceId(), entries);
+        }
+        entries.add(entry);
+
+        Set<Long> accountIds = _vmAccounts.get(entry.getVmInstanceId());
+        if (accountIds == null) {
+            accountIds = new HashSet<Long>();
+            _vmAccounts.put(entry.getVmInstanceId(), accountIds);
+        }
+        accountIds.add(entry.getAccountId());
+
+        if (entry.getEndDate() != null) {
+            _vmsWithEndedEntries.add(entry.getVmInstanceId());
+        }
+    }
+}
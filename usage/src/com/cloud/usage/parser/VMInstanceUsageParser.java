@@ -19,15 +19,18 @@ package com.cloud.usage.parser;
 import java.text.DecimalFormat;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 
 import org.apache.log4j.Logger;
 import org.apache.cloudstack.usage.UsageTypes;
 
+import com.cloud.event.UsageEventVO;
+import com.cloud.event.dao.UsageEventDao;
 import com.cloud.usage.UsageServer;
 import com.cloud.usage.UsageVMInstanceVO;
 import com.cloud.usage.UsageVO;
@@ -38,22 +41,17 @@ import com.cloud.utils.Pair;
 import org.springframework.stereotype.Component;
 
 @Component
-public class VMInstanceUsageParser {
+public class VMInstanceUsageParser extends UsageParser {
     public static final Logger s_logger = Logger.getLogger(VMInstanceUsageParser.class.getName());
 
-    private static UsageDao m_usageDao;
-    private static UsageVMInstanceDao m_usageInstanceDao;
-
-    @Inject private UsageDao _usageDao;;
+    @Inject private UsageDao _usageDao;
     @Inject private UsageVMInstanceDao _usageInstanceDao;
-    
-    @PostConstruct
-    void init() {
-    	m_usageDao = _usageDao;
-    	m_usageInstanceDao = _usageInstanceDao;
-    }
-    
-    public static boolean parse(AccountVO account, Date startDate, Date endDate) {
+    @Inject private UsageEventDao _usageEventDao;
+
+    private final VMInstanceUsageIndex _index = new VMInstanceUsageIndex();
+
+    @Override
+    public boolean parse(AccountVO account, Date startDate, Date endDate) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Parsing all VMInstance usage events for account: " + account.getId());
         }
@@ -66,7 +64,12 @@ public class VMInstanceUsageParser {
         //     - look for an entry for accountId with end date in the given range
         //     - look for an entry for accountId with end date null (currently running vm or owned IP)
         //     - look for an entry for accountId with start date before given range *and* end date after given range
-        List<UsageVMInstanceVO> usageInstances = m_usageInstanceDao.getUsageRecords(account.getId(), startDate, endDate);
+        List<UsageVMInstanceVO> usageInstances;
+        if (_index.isLoaded()) {
+            usageInstances = _index.getUsageRecords(account.getId(), startDate, endDate);
+        } else {
+            usageInstances = _usageInstanceDao.getUsageRecords(account.getId(), startDate, endDate);
+        }
 //ToDo: Add domainID for getting usage records
         
         // This map has both the running time *and* the usage amount.
@@ -138,6 +141,40 @@ public class VMInstanceUsageParser {
         return true;
     }
 
+    @Override
+    public void eventsApplied(List<UsageEventVO> events, Date startDate) {
+        try {
+            long firstEventId = Long.MAX_VALUE;
+            long lastEventId = 0;
+            Set<Long> resourceIds = new HashSet<Long>();
+            for (UsageEventVO event : events) {
+                firstEventId = Math.min(firstEventId, event.getId());
+                lastEventId = Math.max(lastEventId, event.getId());
+                resourceIds.add(event.getResourceId());
+            }
+
+            // the index is only trusted if it reflects every event processed before these ones,
+            // another usage server may have run the job in the meantime
+            long previousEventId = _usageEventDao.getLastProcessedEventId(firstEventId);
+            if (!_index.isLoaded() || _index.getLastEventId() != previousEventId) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Loading vm usage index, last event id " + _index.getLastEventId() + " while usage db is at " + previousEventId);
+                }
+                _index.load(_usageInstanceDao.listOpenOrEndedAfter(null, startDate));
+            } else {
+                // reloading every resource of the events is cheaper than telling which ones are vms
+                for (Long resourceId : resourceIds) {
+                    _index.refresh(resourceId, _usageInstanceDao.listOpenOrEndedAfter(resourceId, startDate));
+                }
+                _index.prune(startDate);
+            }
+            _index.setLastEventId(Math.max(previousEventId, lastEventId));
+        } catch (Exception e) {
+            s_logger.warn("Unable to update vm usage index, parsing from usage_vm_instance", e);
+            _index.invalidate();
+        }
+    }
+
     private static void updateVmUsageData(Map<String, Pair<String, Long>> usageDataMap, String key, String vmName, long duration) {
         Pair<String, Long> vmUsageInfo = usageDataMap.get(key);
         if (vmUsageInfo == null) {
@@ -150,7 +187,7 @@ public class VMInstanceUsageParser {
         usageDataMap.put(key, vmUsageInfo);
     }
 
-    private static void createUsageRecord(int type, long runningTime, Date startDate, Date endDate, AccountVO account, long vmId, String vmName, long zoneId, long serviceOfferingId, long templateId, String hypervisorType) {
+    private void createUsageRecord(int type, long runningTime, Date startDate, Date endDate, AccountVO account, long vmId, String vmName, long zoneId, long serviceOfferingId, long templateId, String hypervisorType) {
         // Our smallest increment is hourly for now
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Total running time " + runningTime + "ms");
@@ -175,7 +212,7 @@ public class VMInstanceUsageParser {
         usageDesc += " (ServiceOffering: " + serviceOfferingId + ") (Template: " + templateId + ")";
         UsageVO usageRecord = new UsageVO(Long.valueOf(zoneId), account.getId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", type,
                 new Double(usage), Long.valueOf(vmId), vmName, Long.valueOf(serviceOfferingId), Long.valueOf(templateId), Long.valueOf(vmId), startDate, endDate, hypervisorType);
-        m_usageDao.persist(usageRecord);
+        _usageDao.persist(usageRecord);
     }
 
     private static class VMInfo {
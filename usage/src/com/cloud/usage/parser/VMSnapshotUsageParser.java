@@ -22,7 +22,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 
 import org.apache.cloudstack.usage.UsageTypes;
@@ -36,22 +35,14 @@ import com.cloud.usage.dao.UsageVMSnapshotDao;
 import com.cloud.user.AccountVO;
 
 @Component
-public class VMSnapshotUsageParser {
+public class VMSnapshotUsageParser extends UsageParser {
     public static final Logger s_logger = Logger.getLogger(VMSnapshotUsageParser.class.getName());
-    
-    private static UsageDao m_usageDao;
-    private static UsageVMSnapshotDao m_usageVMSnapshotDao;
 
     @Inject private UsageDao _usageDao;
     @Inject private UsageVMSnapshotDao _usageVMSnapshotDao;
-    
-    @PostConstruct
-    void init() {
-        m_usageDao = _usageDao;
-        m_usageVMSnapshotDao = _usageVMSnapshotDao;
-    }
-    
-    public static boolean parse(AccountVO account, Date startDate, Date endDate) {
+
+    @Override
+    public boolean parse(AccountVO account, Date startDate, Date endDate) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Parsing all VmSnapshot volume usage events for account: " + account.getId());
         }
@@ -60,7 +51,7 @@ public class VMSnapshotUsageParser {
         }
 
         List<UsageVMSnapshotVO> usageUsageVMSnapshots = 
-                m_usageVMSnapshotDao.getUsageRecords(account.getId(), account.getDomainId(), startDate, endDate);
+                _usageVMSnapshotDao.getUsageRecords(account.getId(), account.getDomainId(), startDate, endDate);
         
         if(usageUsageVMSnapshots.isEmpty()){
             s_logger.debug("No VM snapshot usage events for this period");
@@ -77,7 +68,7 @@ public class VMSnapshotUsageParser {
                 unprocessedUsage.put(key, usageRec);
                 continue;
             }
-            UsageVMSnapshotVO previousEvent = m_usageVMSnapshotDao.
+            UsageVMSnapshotVO previousEvent = _usageVMSnapshotDao.
                     getPreviousUsageRecord(usageRec);
             if(previousEvent == null || previousEvent.getSize() == 0){
                 unprocessedUsage.put(key, usageRec);
@@ -96,11 +87,11 @@ public class VMSnapshotUsageParser {
                     account, volId, zoneId, previousEvent.getDiskOfferingId(), 
                     vmId, previousEvent.getSize());
             previousEvent.setProcessed(new Date());
-            m_usageVMSnapshotDao.update(previousEvent);
+            _usageVMSnapshotDao.update(previousEvent);
             
             if(usageRec.getSize() == 0){
                 usageRec.setProcessed(new Date());
-                m_usageVMSnapshotDao.update(usageRec);
+                _usageVMSnapshotDao.update(usageRec);
             }
             else
                 unprocessedUsage.put(key, usageRec);
@@ -121,7 +112,7 @@ public class VMSnapshotUsageParser {
         return true;
     }
 
-    private static void createUsageRecord(int type, long runningTime, Date startDate, Date endDate, AccountVO account, long volId, long zoneId, Long doId, Long vmId, long size) {
+    private void createUsageRecord(int type, long runningTime, Date startDate, Date endDate, AccountVO account, long volId, long zoneId, Long doId, Long vmId, long size) {
         // Our smallest increment is hourly for now
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Total running time " + runningTime + "ms");
@@ -147,7 +138,7 @@ public class VMSnapshotUsageParser {
         
         UsageVO usageRecord = new UsageVO(zoneId, account.getId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", type,
                 new Double(usage), vmId, null, doId, null, volId, size, startDate, endDate);
-        m_usageDao.persist(usageRecord);
+        _usageDao.persist(usageRecord);
     }
 
 }
@@ -22,7 +22,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 
 import org.apache.log4j.Logger;
@@ -38,22 +37,14 @@ import com.cloud.utils.Pair;
 import org.springframework.stereotype.Component;
 
 @Component
-public class VPNUserUsageParser {
+public class VPNUserUsageParser extends UsageParser {
     public static final Logger s_logger = Logger.getLogger(VPNUserUsageParser.class.getName());
-    
-    private static UsageDao m_usageDao;
-    private static UsageVPNUserDao m_usageVPNUserDao;
 
     @Inject private UsageDao _usageDao;
     @Inject private UsageVPNUserDao _usageVPNUserDao;
-    
-    @PostConstruct
-    void init() {
-    	m_usageDao = _usageDao;
-    	m_usageVPNUserDao = _usageVPNUserDao;
-    }
-    
-    public static boolean parse(AccountVO account, Date startDate, Date endDate) {
+
+    @Override
+    public boolean parse(AccountVO account, Date startDate, Date endDate) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Parsing all VPN user usage events for account: " + account.getId());
         }
@@ -61,7 +52,7 @@ public class VPNUserUsageParser {
             endDate = new Date();
         }
 
-        List<UsageVPNUserVO> usageVUs = m_usageVPNUserDao.getUsageRecords(account.getId(), account.getDomainId(), startDate, endDate, false, 0);
+        List<UsageVPNUserVO> usageVUs = _usageVPNUserDao.getUsageRecords(account.getId(), account.getDomainId(), startDate, endDate, false, 0);
         
         if(usageVUs.isEmpty()){
             s_logger.debug("No VPN user usage events for this period");
@@ -124,7 +115,7 @@ public class VPNUserUsageParser {
         usageDataMap.put(key, vuUsageInfo);
     }
 
-    private static void createUsageRecord(int type, long runningTime, Date startDate, Date endDate, AccountVO account, long userId, String userName, long zoneId) {
+    private void createUsageRecord(int type, long runningTime, Date startDate, Date endDate, AccountVO account, long userId, String userName, long zoneId) {
         // Our smallest increment is hourly for now
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Total running time " + runningTime + "ms");
@@ -144,7 +135,7 @@ public class VPNUserUsageParser {
 
         UsageVO usageRecord = new UsageVO(zoneId, account.getId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", type,
                 new Double(usage), null, null, null, null, userId, null, startDate, endDate);
-        m_usageDao.persist(usageRecord);
+        _usageDao.persist(usageRecord);
     }
     
     private static class VUInfo {
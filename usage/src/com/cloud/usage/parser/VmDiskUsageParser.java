@@ -22,7 +22,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 
 import org.apache.log4j.Logger;
@@ -38,22 +37,14 @@ import com.cloud.utils.db.SearchCriteria;
 import org.springframework.stereotype.Component;
 
 @Component
-public class VmDiskUsageParser {
+public class VmDiskUsageParser extends UsageParser {
 public static final Logger s_logger = Logger.getLogger(VmDiskUsageParser.class.getName());
 
-    private static UsageDao m_usageDao;
-    private static UsageVmDiskDao m_usageVmDiskDao;
-
     @Inject private UsageDao _usageDao;
     @Inject private UsageVmDiskDao _usageVmDiskDao;
 
-    @PostConstruct
-    void init() {
-        m_usageDao = _usageDao;
-        m_usageVmDiskDao = _usageVmDiskDao;
-    }
-
-    public static boolean parse(AccountVO account, Date startDate, Date endDate) {
+    @Override
+    public boolean parse(AccountVO account, Date startDate, Date endDate) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Parsing all Vm Disk usage events for account: " + account.getId());
         }
@@ -64,10 +55,10 @@ public static final Logger s_logger = Logger.getLogger(VmDiskUsageParser.class.g
 
         // - query usage_disk table for all entries for userId with
         // event_date in the given range
-        SearchCriteria<UsageVmDiskVO> sc = m_usageVmDiskDao.createSearchCriteria();
+        SearchCriteria<UsageVmDiskVO> sc = _usageVmDiskDao.createSearchCriteria();
         sc.addAnd("accountId", SearchCriteria.Op.EQ, account.getId());
         sc.addAnd("eventTimeMillis", SearchCriteria.Op.BETWEEN, startDate.getTime(), endDate.getTime());
-        List<UsageVmDiskVO> usageVmDiskVOs = m_usageVmDiskDao.search(sc, null);
+        List<UsageVmDiskVO> usageVmDiskVOs = _usageVmDiskDao.search(sc, null);
 
         Map<String, VmDiskInfo> vmDiskUsageByZone = new HashMap<String, VmDiskInfo>();
 
@@ -157,7 +148,7 @@ public static final Logger s_logger = Logger.getLogger(VmDiskUsageParser.class.g
             }
         }
 
-        m_usageDao.saveUsageRecords(usageRecords);
+        _usageDao.saveUsageRecords(usageRecords);
 
         return true;
     }
@@ -0,0 +1,171 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatcher;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.cloud.usage.dao.UsageParseCheckpointDao;
+import com.cloud.usage.parser.UsageParser;
+import com.cloud.user.AccountVO;
+import com.cloud.user.dao.AccountDao;
+import com.cloud.utils.db.Filter;
+
+public class UsageManagerImplTest extends TestCase {
+    private final Date _start = new Date(0);
+    private final Date _end = new Date(3600 * 1000L - 1);
+
+    private UsageManagerImpl _manager;
+    private AccountDao _accountDao;
+    private UsageParseCheckpointDao _checkpointDao;
+    private UsageParser _parser;
+    private ExecutorService _executor;
+    private UsageJobVO _job;
+
+    @Override
+    protected void setUp() {
+        _manager = new UsageManagerImpl();
+        _accountDao = mock(AccountDao.class);
+        _checkpointDao = mock(UsageParseCheckpointDao.class);
+        _parser = mock(UsageParser.class);
+        _executor = Executors.newFixedThreadPool(2);
+        ReflectionTestUtils.setField(_manager, "m_accountDao", _accountDao);
+        ReflectionTestUtils.setField(_manager, "m_parseCheckpointDao", _checkpointDao);
+        ReflectionTestUtils.setField(_manager, "m_usageParsers", Collections.singletonList(_parser));
+        ReflectionTestUtils.setField(_manager, "m_parseExecutor", _executor);
+        ReflectionTestUtils.setField(_manager, "m_parsePartitionSize", 2);
+
+        _job = new UsageJobVO();
+        _job.setId(7L);
+
+        when(_accountDao.findRecentlyDeletedAccounts(isNull(Long.class), any(Date.class), any(Filter.class))).thenReturn(new ArrayList<AccountVO>());
+        when(_checkpointDao.listCommitted(_start.getTime(), _end.getTime())).thenReturn(new ArrayList<UsageParseCheckpointVO>());
+        when(_parser.parse(any(AccountVO.class), eq(_start), eq(_end))).thenReturn(true);
+    }
+
+    @Override
+    protected void tearDown() {
+        _executor.shutdownNow();
+    }
+
+    public void testEveryPartitionIsCheckpointed() {
+        accounts(1, 2, 3, 4, 5);
+
+        assertTrue(_manager.parseAccounts(_job, _start, _end, _start));
+
+        verify(_parser, times(5)).parse(any(AccountVO.class), eq(_start), eq(_end));
+        List<UsageParseCheckpointVO> checkpoints = persistedCheckpoints(3);
+        assertCheckpoint(checkpoints, 1, 2);
+        assertCheckpoint(checkpoints, 3, 4);
+        assertCheckpoint(checkpoints, 5, 5);
+    }
+
+    public void testFailedParseLeavesThePartitionUncommitted() {
+        accounts(1, 2, 3, 4);
+        when(_parser.parse(account(3), eq(_start), eq(_end))).thenReturn(false);
+
+        assertFalse(_manager.parseAccounts(_job, _start, _end, _start));
+
+        List<UsageParseCheckpointVO> checkpoints = persistedCheckpoints(1);
+        assertCheckpoint(checkpoints, 1, 2);
+    }
+
+    public void testCommittedPartitionsAreNotParsedAgain() {
+        accounts(1, 2, 3, 4);
+        List<UsageParseCheckpointVO> committed = new ArrayList<UsageParseCheckpointVO>();
+        committed.add(new UsageParseCheckpointVO(6L, _start.getTime(), _end.getTime(), 1, 2));
+        when(_checkpointDao.listCommitted(_start.getTime(), _end.getTime())).thenReturn(committed);
+
+        assertTrue(_manager.parseAccounts(_job, _start, _end, _start));
+
+        verify(_parser, never()).parse(account(1), any(Date.class), any(Date.class));
+        verify(_parser, never()).parse(account(2), any(Date.class), any(Date.class));
+        verify(_parser).parse(account(3), eq(_start), eq(_end));
+        verify(_parser).parse(account(4), eq(_start), eq(_end));
+        assertCheckpoint(persistedCheckpoints(1), 3, 4);
+    }
+
+    /**
+     * Serves the accounts, in pages, to the paged listing of parseAccounts.
+     */
+    private void accounts(long... ids) {
+        final List<AccountVO> accounts = new ArrayList<AccountVO>();
+        for (long id : ids) {
+            accounts.add(new AccountVO(id));
+        }
+        when(_accountDao.listAll(any(Filter.class))).thenAnswer(new Answer<List<AccountVO>>() {
+            @Override
+            public List<AccountVO> answer(InvocationOnMock invocation) {
+                Filter filter = (Filter)invocation.getArguments()[0];
+                int offset = (int)Math.min(filter.getOffset(), accounts.size());
+                int end = (int)Math.min(filter.getOffset() + filter.getLimit(), accounts.size());
+                return new ArrayList<AccountVO>(accounts.subList(offset, end));
+            }
+        });
+    }
+
+    private static AccountVO account(final long id) {
+        return argThat(new ArgumentMatcher<AccountVO>() {
+            @Override
+            public boolean matches(Object argument) {
+                return ((AccountVO)argument).getId() == id;
+            }
+        });
+    }
+
+    private List<UsageParseCheckpointVO> persistedCheckpoints(int count) {
+        ArgumentCaptor<UsageParseCheckpointVO> captor = ArgumentCaptor.forClass(UsageParseCheckpointVO.class);
+        verify(_checkpointDao, times(count)).persist(captor.capture());
+        for (UsageParseCheckpointVO checkpoint : captor.getAllValues()) {
+            assertEquals(7L, checkpoint.getJobId());
+            assertEquals(_start.getTime(), checkpoint.getStartMillis());
+            assertEquals(_end.getTime(), checkpoint.getEndMillis());
+        }
+        return captor.getAllValues();
+    }
+
+    private void assertCheckpoint(List<UsageParseCheckpointVO> checkpoints, long firstAccountId, long lastAccountId) {
+        for (UsageParseCheckpointVO checkpoint : checkpoints) {
+            if (checkpoint.getFirstAccountId() == firstAccountId && checkpoint.getLastAccountId() == lastAccountId) {
+                return;
+            }
+        }
+        fail("No checkpoint for accts " + firstAccountId + " to " + lastAccountId);
+    }
+}
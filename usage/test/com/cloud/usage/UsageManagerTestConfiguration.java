@@ -56,6 +56,7 @@ import java.io.IOException;
         UsageVPNUserDaoImpl.class,
         UsageVmDiskDaoImpl.class,
         UsageSecurityGroupDaoImpl.class,
+        UsageParseCheckpointDaoImpl.class,
         ConfigurationDaoImpl.class,
         UsageManagerImpl.class,
         VMInstanceUsageParser.class,
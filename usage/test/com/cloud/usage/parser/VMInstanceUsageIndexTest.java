@@ -0,0 +1,190 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage.parser;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.cloudstack.usage.UsageTypes;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.cloud.event.EventTypes;
+import com.cloud.event.UsageEventVO;
+import com.cloud.event.dao.UsageEventDao;
+import com.cloud.usage.UsageVMInstanceVO;
+import com.cloud.usage.dao.UsageVMInstanceDao;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+public class VMInstanceUsageIndexTest extends TestCase {
+    private static final long HOUR = 3600 * 1000L;
+    private final Date _start = new Date(100 * HOUR);
+
+    public void testUsageRecordsPerAccountAndRange() {
+        VMInstanceUsageIndex index = new VMInstanceUsageIndex();
+        UsageVMInstanceVO running = entry(1, 10, _start, null);
+        UsageVMInstanceVO stopped = entry(1, 11, hours(-3), hours(-1));
+        UsageVMInstanceVO other = entry(2, 12, _start, null);
+        index.load(Arrays.asList(running, stopped, other));
+
+        List<UsageVMInstanceVO> records = index.getUsageRecords(1, hours(-2), hours(1));
+        assertEquals(2, records.size());
+        assertTrue(records.contains(running));
+        assertTrue(records.contains(stopped));
+
+        // the stopped vm ended before this range, the running one is still open
+        assertEquals(Collections.singletonList(running), index.getUsageRecords(1, _start, hours(1)));
+        assertEquals(Collections.singletonList(other), index.getUsageRecords(2, _start, hours(1)));
+        assertTrue(index.getUsageRecords(3, _start, hours(1)).isEmpty());
+    }
+
+    public void testRefreshReplacesTheVm() {
+        VMInstanceUsageIndex index = new VMInstanceUsageIndex();
+        UsageVMInstanceVO before = entry(1, 10, hours(-2), null);
+        index.load(Collections.singletonList(before));
+
+        // the vm was assigned to another account: the old entry ended, a new one started
+        UsageVMInstanceVO ended = entry(1, 10, hours(-2), hours(-1));
+        UsageVMInstanceVO moved = entry(2, 10, hours(-1), null);
+        index.refresh(10, Arrays.asList(ended, moved));
+
+        assertEquals(Collections.singletonList(ended), index.getUsageRecords(1, hours(-2), hours(1)));
+        assertEquals(Collections.singletonList(moved), index.getUsageRecords(2, hours(-2), hours(1)));
+
+        index.refresh(10, new ArrayList<UsageVMInstanceVO>());
+        assertTrue(index.getUsageRecords(1, hours(-2), hours(1)).isEmpty());
+        assertTrue(index.getUsageRecords(2, hours(-2), hours(1)).isEmpty());
+    }
+
+    public void testPruneDropsEntriesEndedBeforeTheDate() {
+        VMInstanceUsageIndex index = new VMInstanceUsageIndex();
+        UsageVMInstanceVO old = entry(1, 10, hours(-5), hours(-4));
+        UsageVMInstanceVO recent = entry(1, 10, hours(-4), hours(-1));
+        UsageVMInstanceVO open = entry(1, 11, hours(-5), null);
+        index.load(Arrays.asList(old, recent, open));
+
+        index.prune(hours(-2));
+        List<UsageVMInstanceVO> records = index.getUsageRecords(1, hours(-10), hours(1));
+        assertEquals(2, records.size());
+        assertFalse(records.contains(old));
+    }
+
+    public void testCursor() {
+        VMInstanceUsageIndex index = new VMInstanceUsageIndex();
+        assertFalse(index.isLoaded());
+        index.setLastEventId(0);
+        assertTrue(index.isLoaded());
+        index.setLastEventId(25);
+        assertEquals(25, index.getLastEventId());
+        index.invalidate();
+        assertFalse(index.isLoaded());
+    }
+
+    public void testParserAppliesEventsOnTopOfItsIndex() {
+        UsageEventDao eventDao = mock(UsageEventDao.class);
+        UsageVMInstanceDao instanceDao = mock(UsageVMInstanceDao.class);
+        VMInstanceUsageParser parser = parser(eventDao, instanceDao);
+        VMInstanceUsageIndex index = (VMInstanceUsageIndex)ReflectionTestUtils.getField(parser, "_index");
+
+        // first job: nothing loaded yet, the whole index is read
+        when(eventDao.getLastProcessedEventId(5)).thenReturn(4L);
+        when(instanceDao.listOpenOrEndedAfter(null, _start)).thenReturn(Collections.singletonList(entry(1, 10, _start, null)));
+        parser.eventsApplied(Arrays.asList(event(5, 10), event(6, 11)), _start);
+        assertEquals(6, index.getLastEventId());
+        assertEquals(1, index.getUsageRecords(1, _start, hours(1)).size());
+
+        // next job follows on: only the vms of its events are read again
+        when(eventDao.getLastProcessedEventId(7)).thenReturn(6L);
+        when(instanceDao.listOpenOrEndedAfter(11L, _start)).thenReturn(Collections.singletonList(entry(1, 11, _start, null)));
+        parser.eventsApplied(Collections.singletonList(event(7, 11)), _start);
+        assertEquals(7, index.getLastEventId());
+        assertEquals(2, index.getUsageRecords(1, _start, hours(1)).size());
+        verify(instanceDao, times(1)).listOpenOrEndedAfter((Long)isNull(), any(Date.class));
+
+        // another server processed events 8 and 9: the index is loaded again
+        when(eventDao.getLastProcessedEventId(10)).thenReturn(9L);
+        when(instanceDao.listOpenOrEndedAfter(null, _start)).thenReturn(new ArrayList<UsageVMInstanceVO>());
+        parser.eventsApplied(Collections.singletonList(event(10, 12)), _start);
+        assertEquals(10, index.getLastEventId());
+        assertTrue(index.getUsageRecords(1, _start, hours(1)).isEmpty());
+        verify(instanceDao, times(2)).listOpenOrEndedAfter((Long)isNull(), any(Date.class));
+        verify(instanceDao, never()).listOpenOrEndedAfter(eq(12L), any(Date.class));
+    }
+
+    public void testRestartedParserLoadsItsIndex() {
+        UsageEventDao eventDao = mock(UsageEventDao.class);
+        UsageVMInstanceDao instanceDao = mock(UsageVMInstanceDao.class);
+
+        // the usage db is well past the first event this usage server applies after a restart
+        when(eventDao.getLastProcessedEventId(42)).thenReturn(41L);
+        when(instanceDao.listOpenOrEndedAfter(null, _start)).thenReturn(Collections.singletonList(entry(1, 10, _start, null)));
+        VMInstanceUsageParser parser = parser(eventDao, instanceDao);
+        parser.eventsApplied(Collections.singletonList(event(42, 10)), _start);
+
+        VMInstanceUsageIndex index = (VMInstanceUsageIndex)ReflectionTestUtils.getField(parser, "_index");
+        assertEquals(42, index.getLastEventId());
+        assertEquals(1, index.getUsageRecords(1, _start, hours(1)).size());
+        verify(instanceDao, never()).listOpenOrEndedAfter(eq(10L), any(Date.class));
+    }
+
+    public void testParserDropsItsIndexOnFailure() {
+        UsageEventDao eventDao = mock(UsageEventDao.class);
+        UsageVMInstanceDao instanceDao = mock(UsageVMInstanceDao.class);
+        VMInstanceUsageParser parser = parser(eventDao, instanceDao);
+        VMInstanceUsageIndex index = (VMInstanceUsageIndex)ReflectionTestUtils.getField(parser, "_index");
+
+        when(eventDao.getLastProcessedEventId(anyLong())).thenThrow(new CloudRuntimeException("usage db is gone"));
+        index.setLastEventId(3);
+        parser.eventsApplied(Collections.singletonList(event(4, 10)), _start);
+        assertFalse(index.isLoaded());
+    }
+
+    private VMInstanceUsageParser parser(UsageEventDao eventDao, UsageVMInstanceDao instanceDao) {
+        VMInstanceUsageParser parser = new VMInstanceUsageParser();
+        ReflectionTestUtils.setField(parser, "_usageEventDao", eventDao);
+        ReflectionTestUtils.setField(parser, "_usageInstanceDao", instanceDao);
+        return parser;
+    }
+
+    private Date hours(int offset) {
+        return new Date(_start.getTime() + offset * HOUR);
+    }
+
+    private static UsageVMInstanceVO entry(long accountId, long vmId, Date startDate, Date endDate) {
+        return new UsageVMInstanceVO(UsageTypes.RUNNING_VM, 1, accountId, vmId, "vm-" + vmId, 1, 1, "KVM", startDate, endDate);
+    }
+
+    private static UsageEventVO event(long id, long vmId) {
+        UsageEventVO event = new UsageEventVO(EventTypes.EVENT_VM_START, 1, 1, vmId, "vm-" + vmId);
+        ReflectionTestUtils.setField(event, "id", id);
+        return event;
+    }
+}
@@ -17,6 +17,7 @@
 package com.cloud.utils.db;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -43,6 +44,15 @@ public interface EntityManager {
      */
     public <T> T findByUuid(Class<T> entityType, String uuid);
 
+    /**
+     * Finds the entities with any of the uuid strings in one query
+     * @param <T> entity class
+     * @param entityType type of entity you're looking for.
+     * @param uuids the unique ids
+     * @return the entities found, in no particular order.
+     */
+    public <T> List<? extends T> listByUuids(Class<T> entityType, Collection<String> uuids);
+
     /**
      * Finds an entity by external id which is always String
      * @param <T> entity class
@@ -0,0 +1,171 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.mgmt.JmxUtil;
+
+/**
+ * BufferPool hands out fixed size direct buffers carved out of larger slabs.
+ * The buffers are used as scratch space for the SSL wrap/unwrap and socket
+ * I/O done by Link, so they are leased for the duration of one operation
+ * and released right after.  Requests larger than the buffer size are served
+ * with unpooled heap buffers.
+ */
+public class BufferPool extends StandardMBean implements BufferPoolMBean {
+    private static final Logger s_logger = Logger.getLogger(BufferPool.class);
+
+    /* Large enough for an SSL packet plus the 4 byte frame header and for a full read of MAX_SIZE_PER_PACKET */
+    public static final int DEFAULT_BUFFER_SIZE = 18 * 1024;
+    public static final int DEFAULT_BUFFERS_PER_SLAB = 32;
+    public static final int DEFAULT_MAX_BUFFERS = 4096;
+
+    private static BufferPool s_instance;
+
+    private final int _bufferSize;
+    private final int _buffersPerSlab;
+    private final int _maxBuffers;
+    private final ConcurrentLinkedQueue<ByteBuffer> _available = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger _pooled = new AtomicInteger(0);
+    private final AtomicInteger _leased = new AtomicInteger(0);
+    private final AtomicLong _leaseCount = new AtomicLong(0);
+    private final AtomicLong _unpooledCount = new AtomicLong(0);
+
+    public BufferPool(int bufferSize, int buffersPerSlab, int maxBuffers) {
+        super(BufferPoolMBean.class, false);
+        _bufferSize = bufferSize;
+        _buffersPerSlab = buffersPerSlab;
+        _maxBuffers = maxBuffers;
+    }
+
+    /**
+     * @return the pool shared by all the NioConnections in this JVM.
+     */
+    public static synchronized BufferPool getInstance() {
+        if (s_instance == null) {
+            s_instance = new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_BUFFERS_PER_SLAB, DEFAULT_MAX_BUFFERS);
+            try {
+                JmxUtil.registerMBean("BufferPool", "NioBufferPool", s_instance);
+            } catch (Exception e) {
+                s_logger.warn("Unable to register the nio buffer pool mbean", e);
+            }
+        }
+        return s_instance;
+    }
+
+    /**
+     * Leases a cleared buffer with at least size bytes of capacity.  The
+     * buffer must be given back through release() once the caller is done.
+     */
+    public ByteBuffer lease(int size) {
+        _leaseCount.incrementAndGet();
+        if (size > _bufferSize) {
+            _unpooledCount.incrementAndGet();
+            return ByteBuffer.allocate(size);
+        }
+
+        ByteBuffer buffer = _available.poll();
+        if (buffer == null) {
+            buffer = allocateSlab();
+            if (buffer == null) {
+                _unpooledCount.incrementAndGet();
+                return ByteBuffer.allocate(size);
+            }
+        }
+        _leased.incrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != _bufferSize) {
+            return;
+        }
+        _leased.decrementAndGet();
+        buffer.clear();
+        _available.offer(buffer);
+    }
+
+    protected ByteBuffer allocateSlab() {
+        int count = _buffersPerSlab;
+        while (true) {
+            int pooled = _pooled.get();
+            if (pooled >= _maxBuffers) {
+                return null;
+            }
+            count = Math.min(_buffersPerSlab, _maxBuffers - pooled);
+            if (_pooled.compareAndSet(pooled, pooled + count)) {
+                break;
+            }
+        }
+
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Allocating a slab of " + count + " buffers of " + _bufferSize + " bytes");
+        }
+        ByteBuffer slab = ByteBuffer.allocateDirect(count * _bufferSize);
+        ByteBuffer first = null;
+        for (int i = 0; i < count; i++) {
+            slab.limit((i + 1) * _bufferSize);
+            slab.position(i * _bufferSize);
+            ByteBuffer buffer = slab.slice();
+            if (first == null) {
+                first = buffer;
+            } else {
+                _available.offer(buffer);
+            }
+        }
+        return first;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return _bufferSize;
+    }
+
+    @Override
+    public int getPooledBuffers() {
+        return _pooled.get();
+    }
+
+    @Override
+    public int getAvailableBuffers() {
+        return _available.size();
+    }
+
+    @Override
+    public int getLeasedBuffers() {
+        return _leased.get();
+    }
+
+    @Override
+    public long getLeaseCount() {
+        return _leaseCount.get();
+    }
+
+    @Override
+    public long getUnpooledAllocationCount() {
+        return _unpooledCount.get();
+    }
+}
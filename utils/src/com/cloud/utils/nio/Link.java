@@ -26,7 +26,12 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.security.KeyStore;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
@@ -50,23 +55,34 @@ public class Link {
     private final NioConnection _connection;
     private SelectionKey _key;
     private final ConcurrentLinkedQueue<ByteBuffer[]> _writeQueue;
+    private final BufferPool _bufferPool;
     private ByteBuffer _readBuffer;
     private ByteBuffer _plaintextBuffer;
     private Object _attach;
     private boolean _readHeader;
     private boolean _gotFollowingPacket;
+    private boolean _gotBatchedPacket;
+    private final ArrayDeque<byte[]> _pendingReads;
+    private final AtomicInteger _pendingWriteBytes;
+    private final AtomicBoolean _flushScheduled;
+    private volatile boolean _batching;
 
     private SSLEngine _sslEngine;
 
     public Link(InetSocketAddress addr, NioConnection connection) {
         _addr = addr;
         _connection = connection;
-        _readBuffer = ByteBuffer.allocate(2048);
+        _bufferPool = connection != null ? connection.getBufferPool() : BufferPool.getInstance();
+        _readBuffer = null;
         _attach = null;
         _key = null;
         _writeQueue = new ConcurrentLinkedQueue<ByteBuffer[]>();
         _readHeader = true;
         _gotFollowingPacket = false;
+        _gotBatchedPacket = false;
+        _pendingReads = new ArrayDeque<byte[]>();
+        _pendingWriteBytes = new AtomicInteger(0);
+        _flushScheduled = new AtomicBoolean(false);
     }
 
     public Link (Link link) {
@@ -89,6 +105,19 @@ public class Link {
         _sslEngine = sslEngine;
     }
 
+    /**
+     * Lets this link pack queued messages into batched packets within the
+     * limits set on its connection.  Off until the peer has said, during the
+     * startup exchange, that it reads batched packets.
+     */
+    public void setBatching(boolean batching) {
+        _batching = batching;
+    }
+
+    public boolean isBatching() {
+        return _batching;
+    }
+
     /**
      * No user, so comment it out.
      * 
@@ -132,59 +161,81 @@ public class Link {
     }
      */
 
-    private static void doWrite(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine) throws IOException {
+    private static void doWrite(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine, BufferPool pool) throws IOException {
+        doWrite(ch, buffers, sslEngine, pool, 0);
+    }
+
+    /**
+     * Wraps the buffers into as many SSL records as needed, each preceded by
+     * its 4 bytes header, and writes up to MAX_RECORDS_PER_WRITE records per
+     * gathering write.
+     */
+    private static int doWrite(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine, BufferPool pool, int flags) throws IOException {
         SSLSession sslSession = sslEngine.getSession();
-        ByteBuffer pkgBuf = ByteBuffer.allocate(sslSession.getPacketBufferSize() + 40);
+        int packetSize = sslSession.getPacketBufferSize() + 40 + 4;
+        ByteBuffer[] records = new ByteBuffer[MAX_RECORDS_PER_WRITE];
         SSLEngineResult engResult;
+        int recordCount = 0;
 
-        ByteBuffer headBuf = ByteBuffer.allocate(4);
-
-        int totalLen = 0;
-        for (ByteBuffer buffer : buffers) {
-            totalLen += buffer.limit();
-        }
-
-        int processedLen = 0;
-        while (processedLen < totalLen) {
-            headBuf.clear();
-            pkgBuf.clear();
-            engResult = sslEngine.wrap(buffers, pkgBuf);
-            if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED &&
-                    engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
-                    engResult.getStatus() != SSLEngineResult.Status.OK) {
-                throw new IOException("SSL: SSLEngine return bad result! " + engResult);
-            }
-
-            processedLen = 0;
+        try {
+            int totalLen = 0;
             for (ByteBuffer buffer : buffers) {
-                processedLen += buffer.position();
+                totalLen += buffer.limit();
             }
 
-            int dataRemaining = pkgBuf.position();
-            int header = dataRemaining;
-            int headRemaining = 4;
-            pkgBuf.flip();
-            if (processedLen < totalLen) {
-                header = header | HEADER_FLAG_FOLLOWING;
-            }
-            headBuf.putInt(header);
-            headBuf.flip();
+            int processedLen = 0;
+            while (processedLen < totalLen) {
+                int count = 0;
+                while (count < records.length && processedLen < totalLen) {
+                    if (records[count] == null) {
+                        records[count] = pool.lease(packetSize);
+                    }
+                    // The SSL record is wrapped right behind the 4 bytes header so both go out without copying.
+                    ByteBuffer pkgBuf = records[count];
+                    pkgBuf.clear();
+                    pkgBuf.position(4);
+                    engResult = sslEngine.wrap(buffers, pkgBuf);
+                    if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED &&
+                            engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
+                            engResult.getStatus() != SSLEngineResult.Status.OK) {
+                        throw new IOException("SSL: SSLEngine return bad result! " + engResult);
+                    }
 
-            while (headRemaining > 0) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Header " + headRemaining);
+                    processedLen = 0;
+                    for (ByteBuffer buffer : buffers) {
+                        processedLen += buffer.position();
+                    }
+
+                    int header = (pkgBuf.position() - 4) | flags;
+                    if (processedLen < totalLen) {
+                        header = header | HEADER_FLAG_FOLLOWING;
+                    }
+                    pkgBuf.putInt(0, header);
+                    pkgBuf.flip();
+                    count++;
+                }
+
+                long dataRemaining = 0;
+                for (int i = 0; i < count; i++) {
+                    dataRemaining += records[i].remaining();
+                }
+                while (dataRemaining > 0) {
+                    if (s_logger.isTraceEnabled()) {
+                        s_logger.trace("Writing Data " + dataRemaining);
+                    }
+                    long written = ch.write(records, 0, count);
+                    dataRemaining -= written;
                 }
-                long count = ch.write(headBuf);
-                headRemaining -= count;
+                recordCount += count;
             }
-            while (dataRemaining > 0) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Data " + dataRemaining);
+        } finally {
+            for (ByteBuffer record : records) {
+                if (record != null) {
+                    pool.release(record);
                 }
-                long count = ch.write(pkgBuf);
-                dataRemaining -= count;
             }
         }
+        return recordCount;
     }
 
     /**
@@ -198,17 +249,25 @@ public class Link {
      */
     public static void write(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine) throws IOException {
         synchronized(ch) {
-            doWrite(ch, buffers, sslEngine);
-        } 
+            doWrite(ch, buffers, sslEngine, BufferPool.getInstance());
+        }
     }
 
     /* SSL has limitation of 16k, we may need to split packets. 18000 is 16k + some extra SSL informations */
     protected static final int      MAX_SIZE_PER_PACKET = 18000;
     protected static final int      HEADER_FLAG_FOLLOWING = 0x10000;
+    /* The packet carries several messages, each one preceded by its 4 bytes length */
+    protected static final int      HEADER_FLAG_BATCHED = 0x20000;
+    protected static final int      MAX_RECORDS_PER_WRITE = 4;
+    /* Plaintext buffers grown beyond this size for a large message are not kept for the next one */
+    protected static final int      MAX_RETAINED_PLAINTEXT_SIZE = 256 * 1024;
+
+    private static final ByteBuffer[] CLOSE_REQUEST = new ByteBuffer[0];
 
     public byte[] read(SocketChannel ch) throws IOException {
         if (_readHeader) {   // Start of a packet
-            if (_readBuffer.position() == 0) {
+            if (_readBuffer == null) {
+                _readBuffer = _bufferPool.lease(MAX_SIZE_PER_PACKET);
                 _readBuffer.limit(4);
             }
 
@@ -232,7 +291,11 @@ public class Link {
             }
 
             if (!_gotFollowingPacket) {
-                _plaintextBuffer = ByteBuffer.allocate(2000);
+                if (_plaintextBuffer == null || _plaintextBuffer.capacity() > MAX_RETAINED_PLAINTEXT_SIZE) {
+                    _plaintextBuffer = ByteBuffer.allocate(2000);
+                } else {
+                    _plaintextBuffer.clear();
+                }
             }
 
             if ((header & HEADER_FLAG_FOLLOWING) != 0) {
@@ -240,16 +303,10 @@ public class Link {
             } else {
                 _gotFollowingPacket = false;
             }
+            _gotBatchedPacket = (header & HEADER_FLAG_BATCHED) != 0;
 
             _readBuffer.clear();
             _readHeader = false;
-
-            if (_readBuffer.capacity() < readSize) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Resizing the byte buffer from " + _readBuffer.capacity());
-                }
-                _readBuffer = ByteBuffer.allocate(readSize);
-            }
             _readBuffer.limit(readSize);
         }
 
@@ -266,44 +323,61 @@ public class Link {
 
         _readBuffer.flip();
 
-        ByteBuffer appBuf;
-
         SSLSession sslSession = _sslEngine.getSession();
         SSLEngineResult engResult;
         int remaining = 0;
 
-        while (_readBuffer.hasRemaining()) {
-            remaining = _readBuffer.remaining();
-            appBuf = ByteBuffer.allocate(sslSession.getApplicationBufferSize() + 40);
-            engResult = _sslEngine.unwrap(_readBuffer, appBuf);
-            if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED &&
-                    engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
-                    engResult.getStatus() != SSLEngineResult.Status.OK) {
-                throw new IOException("SSL: SSLEngine return bad result! " + engResult);
-            }
-            if (remaining == _readBuffer.remaining()) {
-                throw new IOException("SSL: Unable to unwrap received data! still remaining " + remaining + "bytes!");
-            }
+        ByteBuffer appBuf = _bufferPool.lease(sslSession.getApplicationBufferSize() + 40);
+        try {
+            while (_readBuffer.hasRemaining()) {
+                remaining = _readBuffer.remaining();
+                appBuf.clear();
+                engResult = _sslEngine.unwrap(_readBuffer, appBuf);
+                if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED &&
+                        engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
+                        engResult.getStatus() != SSLEngineResult.Status.OK) {
+                    throw new IOException("SSL: SSLEngine return bad result! " + engResult);
+                }
+                if (remaining == _readBuffer.remaining()) {
+                    throw new IOException("SSL: Unable to unwrap received data! still remaining " + remaining + "bytes!");
+                }
 
-            appBuf.flip();
-            if (_plaintextBuffer.remaining() < appBuf.limit()) {
-                // We need to expand _plaintextBuffer for more data
-                ByteBuffer newBuffer = ByteBuffer.allocate(_plaintextBuffer.capacity() + appBuf.limit() * 5);
-                _plaintextBuffer.flip();
-                newBuffer.put(_plaintextBuffer);
-                _plaintextBuffer = newBuffer;
-            }
-            _plaintextBuffer.put(appBuf);
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Done with packet: " + appBuf.limit());
+                appBuf.flip();
+                if (_plaintextBuffer.remaining() < appBuf.limit()) {
+                    // We need to expand _plaintextBuffer for more data
+                    ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(_plaintextBuffer.capacity() * 2, _plaintextBuffer.position() + appBuf.limit()));
+                    _plaintextBuffer.flip();
+                    newBuffer.put(_plaintextBuffer);
+                    _plaintextBuffer = newBuffer;
+                }
+                _plaintextBuffer.put(appBuf);
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("Done with packet: " + appBuf.limit());
+                }
             }
+        } finally {
+            _bufferPool.release(appBuf);
         }
 
-        _readBuffer.clear();
+        // The packet is consumed, the read buffer goes back to the pool until the next one starts.
+        _bufferPool.release(_readBuffer);
+        _readBuffer = null;
         _readHeader = true;
 
         if (!_gotFollowingPacket) {
             _plaintextBuffer.flip();
+            if (_gotBatchedPacket) {
+                while (_plaintextBuffer.hasRemaining()) {
+                    int length = _plaintextBuffer.getInt();
+                    if (length < 0 || length > _plaintextBuffer.remaining()) {
+                        throw new IOException("Wrong message size in batched packet: " + length);
+                    }
+                    byte[] message = new byte[length];
+                    _plaintextBuffer.get(message);
+                    _pendingReads.add(message);
+                }
+                return _pendingReads.poll();
+            }
             byte[] result = new byte[_plaintextBuffer.limit()];
             _plaintextBuffer.get(result);
             return result;
@@ -315,6 +389,14 @@ public class Link {
         }
     }
 
+    /**
+     * @return the next message of a batched packet that was not returned by
+     * read() yet, or null if there is none.
+     */
+    public byte[] pollPendingRead() {
+        return _pendingReads.poll();
+    }
+
     public void send(byte[] data) throws ClosedChannelException {
         send(data, false);
     }
@@ -324,30 +406,41 @@ public class Link {
     }
 
     public void send(ByteBuffer[] data, boolean close) throws ClosedChannelException {
-        ByteBuffer[] item = new ByteBuffer[data.length + 1];
         int remaining = 0;
-        for (int i = 0; i < data.length; i++) {
-            remaining += data[i].remaining();
-            item[i + 1] = data[i];
+        for (ByteBuffer buffer : data) {
+            remaining += buffer.remaining();
         }
-
-        item[0] = ByteBuffer.allocate(4);
-        item[0].putInt(remaining);
-        item[0].flip();
-
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("Sending packet of length " + remaining);
         }
 
-        _writeQueue.add(item);
+        // The SSL framing in doWrite() carries the length, so the data is queued as is.
+        _writeQueue.add(data);
         if  (close) {
-            _writeQueue.add(new ByteBuffer[0]);
+            _writeQueue.add(CLOSE_REQUEST);
+        }
+
+        int pending = _pendingWriteBytes.addAndGet(remaining);
+        int maxDelay = _batching && _connection != null ? _connection.getCoalesceMaxDelay() : 0;
+        if (close || maxDelay <= 0 || pending >= _connection.getCoalesceMaxBytes()) {
+            flush();
+        } else if (_flushScheduled.compareAndSet(false, true)) {
+            // Give more messages a chance to join the same batch before waking up the selector.
+            _connection.scheduleFlush(this, maxDelay);
         }
+    }
+
+    /**
+     * Asks the selector to write out whatever is queued on this link.
+     */
+    public void flush() throws ClosedChannelException {
         synchronized (this) {
             if (_key == null) {
                 throw new ClosedChannelException();
             }
-            _connection.change(SelectionKey.OP_WRITE, _key, null);
+            if (_connection != null) {
+                _connection.change(SelectionKey.OP_WRITE, _key, null);
+            }
         }
     }
 
@@ -355,6 +448,18 @@ public class Link {
         send(data, false);
     }
 
+    /**
+     * Returns the buffers leased by this link to the pool.  Must be called
+     * from the selector thread once the link's key has been closed.
+     */
+    protected void releaseBuffers() {
+        if (_readBuffer != null) {
+            _bufferPool.release(_readBuffer);
+            _readBuffer = null;
+        }
+        _plaintextBuffer = null;
+    }
+
     public synchronized void close() {
         if (_key != null) {
             _connection.close(_key);
@@ -362,23 +467,74 @@ public class Link {
     }
 
     public boolean write(SocketChannel ch) throws IOException {
+        _flushScheduled.set(false);
+        _pendingWriteBytes.set(0);
+
+        int maxBatchBytes = _batching && _connection != null ? _connection.getCoalesceMaxBytes() : 0;
+        List<ByteBuffer> batch = null;
+        int batchBytes = 0;
+        int batchCount = 0;
+
         ByteBuffer[] data = null;
         while ((data = _writeQueue.poll()) != null) {
-            if (data.length == 0) {
+            if (data == CLOSE_REQUEST) {
+                writeBatch(ch, batch, batchCount);
                 if (s_logger.isTraceEnabled()) {
                     s_logger.trace("Closing connection requested");
                 }
                 return true;
             }
 
-            ByteBuffer[] raw_data = new ByteBuffer[data.length - 1];
-            System.arraycopy(data, 1, raw_data, 0, data.length - 1);
+            if (maxBatchBytes <= 0) {
+                writeMessages(ch, data, 1, 0);
+                continue;
+            }
 
-            doWrite(ch, raw_data, _sslEngine);
+            int length = 0;
+            for (ByteBuffer buffer : data) {
+                length += buffer.remaining();
+            }
+            if (batchCount > 0 && batchBytes + 4 + length > maxBatchBytes) {
+                writeBatch(ch, batch, batchCount);
+                batch.clear();
+                batchBytes = 0;
+                batchCount = 0;
+            }
+            if (batch == null) {
+                batch = new ArrayList<ByteBuffer>();
+            }
+            ByteBuffer header = ByteBuffer.allocate(4);
+            header.putInt(0, length);
+            batch.add(header);
+            for (ByteBuffer buffer : data) {
+                batch.add(buffer);
+            }
+            batchBytes += 4 + length;
+            batchCount++;
         }
+        writeBatch(ch, batch, batchCount);
         return false;
     }
 
+    private void writeBatch(SocketChannel ch, List<ByteBuffer> batch, int count) throws IOException {
+        if (count == 0) {
+            return;
+        }
+        if (count == 1) {
+            // Not worth the batch framing, drop the length prefix.
+            writeMessages(ch, batch.subList(1, batch.size()).toArray(new ByteBuffer[batch.size() - 1]), 1, 0);
+            return;
+        }
+        writeMessages(ch, batch.toArray(new ByteBuffer[batch.size()]), count, HEADER_FLAG_BATCHED);
+    }
+
+    private void writeMessages(SocketChannel ch, ByteBuffer[] buffers, int messages, int flags) throws IOException {
+        int records = doWrite(ch, buffers, _sslEngine, _bufferPool, flags);
+        if (_connection != null) {
+            _connection.recordWrite(messages, records);
+        }
+    }
+
     public InetSocketAddress getSocketAddress() {
         return _addr;
     }
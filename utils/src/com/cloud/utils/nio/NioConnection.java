@@ -31,22 +31,27 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.management.StandardMBean;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 
 import org.apache.log4j.Logger;
 
 import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.mgmt.JmxUtil;
 
 /**
  * NioConnection abstracts the NIO socket operations.  The Java implementation
  * provides that.
  */
-public abstract class NioConnection implements Runnable {
+public abstract class NioConnection implements Runnable, NioConnectionMBean {
     private static final Logger s_logger = Logger.getLogger(NioConnection.class);;
     
     protected Selector _selector;
@@ -58,6 +63,13 @@ public abstract class NioConnection implements Runnable {
     protected HandlerFactory _factory;
     protected String _name;
     protected ExecutorService _executor;
+    protected BufferPool _bufferPool;
+    protected volatile int _coalesceMaxBytes;
+    protected volatile int _coalesceMaxDelay;
+    protected ScheduledExecutorService _flushExecutor;
+    protected final AtomicLong _messagesWritten = new AtomicLong(0);
+    protected final AtomicLong _writesDone = new AtomicLong(0);
+    protected final AtomicLong _recordsWritten = new AtomicLong(0);
     
     public NioConnection(String name, int port, int workers, HandlerFactory factory) {
         _name = name;
@@ -66,12 +78,19 @@ public abstract class NioConnection implements Runnable {
         _selector = null;
         _port = port;
         _factory = factory;
+        _bufferPool = BufferPool.getInstance();
         _executor = new ThreadPoolExecutor(workers, 5 * workers, 1, TimeUnit.DAYS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(name + "-Handler"));
     }
 
     public void start() {
         _todos = new ArrayList<ChangeRequest>();
         
+        try {
+            JmxUtil.registerMBean("NioConnection", getMBeanName(), new StandardMBean(this, NioConnectionMBean.class));
+        } catch (Exception e) {
+            s_logger.warn("Unable to register the mbean for " + _name, e);
+        }
+
         _thread = new Thread(this, _name + "-Selector");
         _isRunning = true;
         _thread.start();
@@ -87,16 +106,116 @@ public abstract class NioConnection implements Runnable {
 
     public void stop() {
     	_executor.shutdown();
+        synchronized (this) {
+            if (_flushExecutor != null) {
+                _flushExecutor.shutdown();
+            }
+        }
+        try {
+            JmxUtil.unregisterMBean("NioConnection", getMBeanName());
+        } catch (Exception e) {
+            s_logger.debug("Unable to unregister the mbean for " + _name + ": " + e.getMessage());
+        }
         _isRunning = false;
         if (_thread != null) {
             _thread.interrupt();
         }
     }
     
+    /**
+     * Several connections may share a name, e.g. the clients to the peers of
+     * a cluster, so the port and identity of this one are added to the name
+     * its mbean is registered under.
+     */
+    protected String getMBeanName() {
+        return _name + "-" + _port + "-" + Integer.toHexString(System.identityHashCode(this));
+    }
+
     public boolean isRunning() {
         return _thread.isAlive();
     }
     
+    public BufferPool getBufferPool() {
+        return _bufferPool;
+    }
+
+    /**
+     * Lets links pack several queued messages into one batched packet.  The
+     * peer must understand batched packets, so only the links batching was
+     * enabled on with Link.setBatching() use these limits.
+     *
+     * @param maxBytes maximum size of a batch; 0 disables coalescing.
+     * @param maxDelay milliseconds a message may wait for others to join its
+     *        batch; 0 only batches what is already queued when writing.
+     */
+    public synchronized void setWriteCoalescing(int maxBytes, int maxDelay) {
+        _coalesceMaxBytes = Math.max(maxBytes, 0);
+        _coalesceMaxDelay = _coalesceMaxBytes > 0 ? Math.max(maxDelay, 0) : 0;
+        if (_coalesceMaxDelay > 0 && _flushExecutor == null) {
+            _flushExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(_name + "-Flush"));
+        }
+        s_logger.info("Write coalescing for " + _name + ": max bytes " + _coalesceMaxBytes + ", max delay " + _coalesceMaxDelay + "ms");
+    }
+
+    @Override
+    public int getCoalesceMaxBytes() {
+        return _coalesceMaxBytes;
+    }
+
+    @Override
+    public int getCoalesceMaxDelay() {
+        return _coalesceMaxDelay;
+    }
+
+    protected void scheduleFlush(final Link link, int delay) {
+        ScheduledExecutorService flushExecutor = _flushExecutor;
+        if (flushExecutor == null) {
+            try {
+                link.flush();
+            } catch (ClosedChannelException e) {
+                s_logger.trace("Link closed before it could be flushed");
+            }
+            return;
+        }
+        flushExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    link.flush();
+                } catch (ClosedChannelException e) {
+                    s_logger.trace("Link closed before it could be flushed");
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    protected void recordWrite(int messages, int records) {
+        _messagesWritten.addAndGet(messages);
+        _recordsWritten.addAndGet(records);
+        _writesDone.incrementAndGet();
+    }
+
+    @Override
+    public long getMessagesWritten() {
+        return _messagesWritten.get();
+    }
+
+    @Override
+    public long getWritesDone() {
+        return _writesDone.get();
+    }
+
+    @Override
+    public long getRecordsWritten() {
+        return _recordsWritten.get();
+    }
+
+    @Override
+    public double getBatchingRatio() {
+        long writes = _writesDone.get();
+        return writes == 0 ? 0 : (double)_messagesWritten.get() / writes;
+    }
+
     public boolean isStartup() {
     	return _isStartup;
     }
@@ -248,6 +367,10 @@ public abstract class NioConnection implements Runnable {
             }
             Task task = _factory.create(Task.Type.DATA, link, data);
             _executor.execute(task);
+            // A batched packet carries more than one message.
+            while ((data = link.pollPendingRead()) != null) {
+                _executor.execute(_factory.create(Task.Type.DATA, link, data));
+            }
         } catch (Exception e) {
             logDebug(e, key, 1);
             terminate(key);
@@ -404,6 +527,10 @@ public abstract class NioConnection implements Runnable {
         if (key != null) {
             SocketChannel channel = (SocketChannel)key.channel();
             key.cancel();
+            Object attachment = key.attachment();
+            if (attachment instanceof Link) {
+                ((Link)attachment).releaseBuffers();
+            }
             try {
                 if (channel != null) {
                     if (s_logger.isDebugEnabled()) {
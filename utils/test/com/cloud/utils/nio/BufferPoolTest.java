@@ -0,0 +1,80 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+    @Test
+    public void leaseAndRelease() {
+        BufferPool pool = new BufferPool(1024, 4, 8);
+        ByteBuffer buffer = pool.lease(512);
+        assertTrue(buffer.isDirect());
+        assertEquals(1024, buffer.capacity());
+        assertEquals(4, pool.getPooledBuffers());
+        assertEquals(3, pool.getAvailableBuffers());
+        assertEquals(1, pool.getLeasedBuffers());
+
+        buffer.put((byte)1);
+        pool.release(buffer);
+        assertEquals(0, pool.getLeasedBuffers());
+        assertEquals(4, pool.getAvailableBuffers());
+
+        ByteBuffer again = pool.lease(1024);
+        assertEquals(0, again.position());
+        assertEquals(1024, again.limit());
+    }
+
+    @Test
+    public void slabsAreIndependent() {
+        BufferPool pool = new BufferPool(16, 2, 8);
+        ByteBuffer first = pool.lease(16);
+        ByteBuffer second = pool.lease(16);
+        assertNotSame(first, second);
+        first.putInt(0, 0x01020304);
+        assertEquals(0, second.getInt(0));
+        assertEquals(2, pool.getPooledBuffers());
+    }
+
+    @Test
+    public void oversizedAndExhausted() {
+        BufferPool pool = new BufferPool(16, 2, 2);
+        ByteBuffer big = pool.lease(32);
+        assertFalse(big.isDirect());
+        assertEquals(1, pool.getUnpooledAllocationCount());
+
+        pool.lease(16);
+        pool.lease(16);
+        ByteBuffer overflow = pool.lease(16);
+        assertFalse(overflow.isDirect());
+        assertEquals(2, pool.getUnpooledAllocationCount());
+        assertEquals(2, pool.getLeasedBuffers());
+
+        // Unpooled buffers are simply dropped.
+        pool.release(overflow);
+        assertEquals(2, pool.getLeasedBuffers());
+        assertEquals(0, pool.getAvailableBuffers());
+    }
+}
@@ -0,0 +1,194 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.nio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import org.junit.Test;
+
+public class LinkTest {
+    // the 40000 bytes message doesn't fit in one SSL record and ends the batch it would overflow
+    private static final int[] MESSAGE_SIZES = { 10, 200, 3000, 40000, 15, 1, 500, 7000, 64, 128 };
+
+    private NioClient _sender;
+
+    @Test
+    public void sendOnDetachedLinkReportsClosedChannel() {
+        Link link = new Link(new InetSocketAddress("localhost", 8250), null);
+        try {
+            link.send(new byte[] { 1, 2, 3 });
+            fail("Sending on a link without a key should fail");
+        } catch (ClosedChannelException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void connectionsWithTheSameNameGetTheirOwnMBean() {
+        NioClient first = new NioClient("ClusterServiceNio", "localhost", 9090, 1, null);
+        NioClient second = new NioClient("ClusterServiceNio", "localhost", 9090, 1, null);
+        try {
+            assertTrue(first.getMBeanName().startsWith("ClusterServiceNio-9090-"));
+            assertFalse(first.getMBeanName().equals(second.getMBeanName()));
+        } finally {
+            first.stop();
+            second.stop();
+        }
+    }
+
+    @Test
+    public void batchedMessagesRoundTrip() throws Exception {
+        List<byte[]> received = roundTrip(true);
+        assertEquals(MESSAGE_SIZES.length, received.size());
+        for (int i = 0; i < MESSAGE_SIZES.length; i++) {
+            assertArrayEquals(message(i), received.get(i));
+        }
+        // the small messages share packets, the large one spans several SSL records
+        assertTrue(_sender.getWritesDone() < MESSAGE_SIZES.length);
+        assertTrue(_sender.getRecordsWritten() > _sender.getWritesDone());
+    }
+
+    @Test
+    public void messagesAreNotBatchedUnlessEnabledOnTheLink() throws Exception {
+        List<byte[]> received = roundTrip(false);
+        assertEquals(MESSAGE_SIZES.length, received.size());
+        for (int i = 0; i < MESSAGE_SIZES.length; i++) {
+            assertArrayEquals(message(i), received.get(i));
+        }
+        assertEquals(MESSAGE_SIZES.length, _sender.getWritesDone());
+    }
+
+    private static byte[] message(int i) {
+        byte[] message = new byte[MESSAGE_SIZES[i]];
+        for (int j = 0; j < message.length; j++) {
+            message[j] = (byte)(i * 31 + j);
+        }
+        return message;
+    }
+
+    /**
+     * Queues all messages on a link before writing them out over SSL in one
+     * go, as the selector does, and reads them back on the other end.
+     */
+    private List<byte[]> roundTrip(boolean batching) throws Exception {
+        // the writes are driven by the test, not by a selector
+        _sender = new NioClient("LinkTest", "localhost", 0, 1, null) {
+            @Override
+            public void change(int ops, SelectionKey key, Object att) {
+            }
+        };
+        _sender.setWriteCoalescing(16 * 1024, 0);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ServerSocketChannel server = ServerSocketChannel.open();
+        Selector selector = Selector.open();
+        SocketChannel client = null;
+        SocketChannel accepted = null;
+        try {
+            server.socket().bind(new InetSocketAddress("localhost", 0));
+            client = SocketChannel.open(server.socket().getLocalSocketAddress());
+            accepted = server.accept();
+
+            final SSLEngine serverEngine = serverContext().createSSLEngine();
+            serverEngine.setUseClientMode(false);
+            final SocketChannel serverCh = accepted;
+            Future<?> handshake = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Link.doHandshake(serverCh, serverEngine, false);
+                    return null;
+                }
+            });
+            SSLEngine clientEngine = Link.initSSLContext(true).createSSLEngine("localhost", 0);
+            clientEngine.setUseClientMode(true);
+            Link.doHandshake(client, clientEngine, true);
+            handshake.get();
+
+            Link sending = new Link(new InetSocketAddress(client.socket().getInetAddress(), client.socket().getPort()), _sender);
+            sending.setSSLEngine(clientEngine);
+            client.configureBlocking(false);
+            sending.setKey(client.register(selector, 0));
+            sending.setBatching(batching);
+            for (int i = 0; i < MESSAGE_SIZES.length; i++) {
+                sending.send(message(i));
+            }
+            assertFalse(sending.write(client));
+
+            Link receiving = new Link(new InetSocketAddress(accepted.socket().getInetAddress(), accepted.socket().getPort()), null);
+            receiving.setSSLEngine(serverEngine);
+            List<byte[]> received = new ArrayList<byte[]>();
+            while (received.size() < MESSAGE_SIZES.length) {
+                byte[] data = receiving.read(accepted);
+                while (data != null) {
+                    received.add(data);
+                    data = receiving.pollPendingRead();
+                }
+            }
+            return received;
+        } finally {
+            executor.shutdownNow();
+            selector.close();
+            if (client != null) {
+                client.close();
+            }
+            if (accepted != null) {
+                accepted.close();
+            }
+            server.close();
+            _sender.stop();
+        }
+    }
+
+    private static SSLContext serverContext() throws Exception {
+        char[] passphrase = "vmops.com".toCharArray();
+        KeyStore ks = KeyStore.getInstance("JKS");
+        InputStream stream = LinkTest.class.getResourceAsStream("/cloud.keystore");
+        try {
+            ks.load(stream, passphrase);
+        } finally {
+            stream.close();
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
+        kmf.init(ks, passphrase);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), null, null);
+        return context;
+    }
+}